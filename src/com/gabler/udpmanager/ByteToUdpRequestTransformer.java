@@ -1,32 +1,70 @@
 package com.gabler.udpmanager;
 
+import com.gabler.udpmanager.model.PacketHeader;
 import com.gabler.udpmanager.model.UdpRequest;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
 import java.util.function.Function;
 
 /**
- * Transform a byte array into a {@link UdpRequest}.
+ * Transform a byte array into a {@link UdpRequest}. The bytes are expected to start with a {@link PacketHeader} that
+ * has already been validated.
+ *
+ * Without a header MAC anyone can reach the deserialization, so the stream only resolves a {@link UdpRequest} and the
+ * types of its fields; any other class, or a graph deeper or larger than a request can be, is refused before it is
+ * instantiated.
  *
  * @author Andy Gabler
  */
 public class ByteToUdpRequestTransformer implements Function<byte[], UdpRequest> {
 
+    private static final ObjectInputFilter REQUEST_FILTER = ObjectInputFilter.Config.createFilter(
+        UdpRequest.class.getName() + ";java.lang.String;maxdepth=2;maxrefs=8;maxarray=65535;!*"
+    );
+
     @Override
     public UdpRequest apply(byte[] bytes) {
-        final ByteArrayInputStream byteStream = new ByteArrayInputStream(bytes);
+        final int flags = PacketHeader.flags(bytes);
+        final int offset = PacketHeader.headerLength(flags);
+        final ByteArrayInputStream byteStream = new ByteArrayInputStream(bytes, offset, PacketHeader.payloadLength(bytes));
 
         UdpRequest request;
         try {
             final ObjectInputStream objectInputStream = new ObjectInputStream(byteStream);
+            objectInputStream.setObjectInputFilter(REQUEST_FILTER);
             final Object receivedRequest = objectInputStream.readObject();
             request = (UdpRequest) receivedRequest;
         } catch (IOException | ClassNotFoundException | ClassCastException e) {
             throw new RuntimeException(e);
         }
 
+        request.setPacketKind(PacketHeader.kind(bytes));
+        if ((flags & PacketHeader.FLAG_CORRELATION) != 0) {
+            request.setCorrelationId(PacketHeader.readInt(bytes, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_CORRELATION)));
+        }
+        if ((flags & PacketHeader.FLAG_PING) != 0) {
+            request.setPingToken(PacketHeader.readLong(bytes, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_PING)));
+        }
+        if ((flags & PacketHeader.FLAG_MESSAGE_TYPE) != 0) {
+            request.setMessageType(PacketHeader.readShort(bytes, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_MESSAGE_TYPE)));
+        } else {
+            // Deserialization skips field initializers, so the defaults have to be restored by hand.
+            request.setMessageType(UdpRequest.NO_MESSAGE_TYPE);
+        }
+        if ((flags & PacketHeader.FLAG_SEQUENCE) != 0) {
+            request.setSequence(PacketHeader.readInt(bytes, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_SEQUENCE)) & 0xFFFFFFFFL);
+        } else {
+            request.setSequence(UdpRequest.NO_SEQUENCE);
+        }
+        if ((flags & PacketHeader.FLAG_TIMESTAMP) != 0) {
+            request.setSendTimestamp(PacketHeader.readLong(bytes, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_TIMESTAMP)));
+        }
+        request.setPriority((flags & PacketHeader.FLAG_PRIORITY) != 0);
+        // Sequenced delivery needs a sequence number to compare.
+        request.setSequenced((flags & PacketHeader.FLAG_SEQUENCED) != 0 && request.getSequence() != UdpRequest.NO_SEQUENCE);
         return request;
     }
 }
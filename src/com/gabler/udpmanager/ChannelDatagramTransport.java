@@ -0,0 +1,215 @@
+package com.gabler.udpmanager;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport onto a non-blocking datagram channel, so a {@link UdpRuntime} can select on it together with many others.
+ * Sends, and receives when the runtime is not doing the receiving, block like on a socket by waiting for the channel
+ * to become ready. Every call still moves one datagram per system call; the channel is only there to be selectable.
+ *
+ * Datagrams are staged in direct buffers taken from a pool, so no native buffer is allocated per datagram. Each blocked
+ * caller also takes a selector from a pool, so any amount of threads can share the transport while the amount of
+ * selectors stays at the most that were ever in use at once.
+ *
+ * @author Andy Gabler
+ */
+public class ChannelDatagramTransport implements IDatagramTransport {
+
+    private static final Logger LOGGER = Logger.getLogger("ChannelDatagramTransport");
+
+    private static final int MAX_DATAGRAM_LENGTH = 65535;
+
+    private final DatagramChannel channel;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Selector> idleSelectors = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Selector> allSelectors = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Initialize a transport.
+     *
+     * @param local Address to bind to, or null for any free port
+     * @param remote Address to only exchange datagrams with, or null to exchange them with anyone
+     * @throws IOException If the channel cannot be opened, bound or connected
+     */
+    ChannelDatagramTransport(SocketAddress local, SocketAddress remote) throws IOException {
+        channel = DatagramChannel.open();
+        try {
+            channel.bind(local);
+            if (remote != null) {
+                channel.connect(remote);
+            }
+            channel.configureBlocking(false);
+        } catch (IOException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        final ByteBuffer buffer = takeBuffer();
+        try {
+            sendOne(packet, buffer);
+        } finally {
+            buffers.add(buffer);
+        }
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        final ByteBuffer buffer = takeBuffer();
+        try {
+            while (!receiveOne(packet, buffer)) {
+                awaitReady(SelectionKey.OP_READ);
+            }
+        } finally {
+            buffers.add(buffer);
+        }
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return channel.socket().getLocalAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Get the channel, for a {@link UdpRuntime} to select on.
+     *
+     * @return The channel
+     */
+    DatagramChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() {
+        synchronized (allSelectors) {
+            closed = true;
+            // Closing a selector wakes up the thread blocked on it.
+            for (Selector selector : allSelectors) {
+                try {
+                    selector.close();
+                } catch (IOException exception) {
+                    LOGGER.log(Level.WARNING, "Failed to close selector.", exception);
+                }
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Failed to close channel.", exception);
+        }
+    }
+
+    /**
+     * Put one datagram on the channel, waiting for room in the send buffer like a blocking socket would.
+     *
+     * @param packet The datagram and where it goes
+     * @param buffer Direct buffer to stage the datagram in
+     * @throws IOException If the send fails
+     */
+    private void sendOne(DatagramPacket packet, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        buffer.put(packet.getData(), packet.getOffset(), packet.getLength());
+        buffer.flip();
+
+        final SocketAddress target = channel.isConnected() ? null : packet.getSocketAddress();
+        while (true) {
+            final int sent = target == null ? channel.write(buffer) : channel.send(buffer, target);
+            if (sent > 0 || buffer.remaining() == 0) {
+                return;
+            }
+            awaitReady(SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Take one datagram off of the channel if one is waiting.
+     *
+     * @param packet Packet to receive the datagram and its source into
+     * @param buffer Direct buffer to stage the datagram in
+     * @return True if a datagram was received
+     * @throws IOException If the receive fails
+     */
+    private boolean receiveOne(DatagramPacket packet, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        final SocketAddress source = channel.receive(buffer);
+        if (source == null) {
+            return false;
+        }
+
+        buffer.flip();
+        // Like a socket, silently cut datagrams that do not fit the packet.
+        final int length = Math.min(buffer.remaining(), packet.getData().length - packet.getOffset());
+        buffer.get(packet.getData(), packet.getOffset(), length);
+        packet.setLength(length);
+        packet.setSocketAddress(source);
+        return true;
+    }
+
+    /**
+     * Block until the channel is ready for an operation.
+     *
+     * @param operation {@link SelectionKey#OP_READ} or {@link SelectionKey#OP_WRITE}
+     * @throws IOException If the transport is closed meanwhile
+     */
+    private void awaitReady(int operation) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+
+        Selector selector = idleSelectors.poll();
+        if (selector == null) {
+            synchronized (allSelectors) {
+                // Checked again under the lock, so close cannot miss a selector opened meanwhile.
+                if (closed) {
+                    throw new ClosedChannelException();
+                }
+                selector = Selector.open();
+                allSelectors.add(selector);
+            }
+            channel.register(selector, operation);
+        }
+
+        try {
+            selector.keys().iterator().next().interestOps(operation);
+            selector.select();
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException exception) {
+            throw new ClosedChannelException();
+        }
+
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        idleSelectors.add(selector);
+    }
+
+    /**
+     * Take a direct buffer from the pool, allocating one if the pool is empty.
+     *
+     * @return The buffer
+     */
+    private ByteBuffer takeBuffer() {
+        final ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+    }
+}
@@ -0,0 +1,76 @@
+package com.gabler.udpmanager;
+
+/**
+ * Estimate of how far the {@link LatencyClock} of the peer at the other end of a session is ahead of the local one,
+ * fed by heartbeats the way NTP is. Each pong carries the clock of the peer at the time it answered, and assuming the
+ * ping and the pong took equally long, the peer answered halfway through the round trip.
+ *
+ * A slow round trip is usually slow in one direction only, which skews the sample by up to half the round trip. Of the
+ * last few samples, only the one with the fastest round trip is used.
+ *
+ * @author Andy Gabler
+ */
+public class ClockOffsetEstimator {
+
+    private static final int SAMPLES = 8;
+
+    private final long[] offsets = new long[SAMPLES];
+    private final long[] roundTrips = new long[SAMPLES];
+    private int sampleCount = 0;
+    private long offset = 0;
+
+    /**
+     * Record a heartbeat that came back with the clock of the peer.
+     *
+     * @param sentMicros Local clock when the ping went out
+     * @param peerMicros Clock of the peer when it answered
+     * @param receivedMicros Local clock when the pong came back
+     */
+    public synchronized void recordSample(long sentMicros, long peerMicros, long receivedMicros) {
+        final long roundTrip = receivedMicros - sentMicros;
+        if (roundTrip < 0) {
+            return;
+        }
+
+        final int slot = sampleCount % SAMPLES;
+        offsets[slot] = peerMicros - (sentMicros + receivedMicros) / 2;
+        roundTrips[slot] = roundTrip;
+        sampleCount++;
+
+        int fastest = 0;
+        for (int index = 1; index < Math.min(sampleCount, SAMPLES); index++) {
+            if (roundTrips[index] < roundTrips[fastest]) {
+                fastest = index;
+            }
+        }
+        offset = offsets[fastest];
+    }
+
+    /**
+     * Check whether any sample came in yet.
+     *
+     * @return True if there is an estimate
+     */
+    public synchronized boolean hasEstimate() {
+        return sampleCount > 0;
+    }
+
+    /**
+     * Get how far the clock of the peer is ahead of the local one.
+     *
+     * @return Microseconds, negative if the peer is behind, and zero before the first sample
+     */
+    public synchronized long getOffsetMicros() {
+        return offset;
+    }
+
+    /**
+     * Convert a time on the clock of the peer to the local clock.
+     *
+     * @param peerMicros Time on the clock of the peer
+     * @return Time on the local clock
+     */
+    public long toLocalMicros(long peerMicros) {
+        return peerMicros - getOffsetMicros();
+    }
+}
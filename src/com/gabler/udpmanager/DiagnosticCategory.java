@@ -0,0 +1,18 @@
+package com.gabler.udpmanager;
+
+/**
+ * Kind of error counted by {@link Diagnostics}.
+ *
+ * @author Andy Gabler
+ */
+public enum DiagnosticCategory {
+
+    RECEIVE_FAILED,
+    ROUTE_FAILED,
+    HEARTBEAT_FAILED,
+    HANDSHAKE_FAILED,
+    MALFORMED_PAYLOAD,
+    HANDLER_FAILED,
+    SEND_FAILED,
+    TICK_FAILED
+}
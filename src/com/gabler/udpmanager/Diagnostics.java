@@ -0,0 +1,110 @@
+package com.gabler.udpmanager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Error reporting for the threads of a client or server that stays cheap when errors come in floods.
+ *
+ * Reporting an error only bumps a counter for its category and, for the first few errors of a category in each
+ * interval, keeps the exception. Nothing is formatted or logged on the reporting thread. A periodic summary logs one
+ * line with the counts of the interval, followed by the stack traces that were kept.
+ *
+ * @author Andy Gabler
+ */
+public class Diagnostics {
+
+    private static final Logger LOGGER = Logger.getLogger("Diagnostics");
+    private static final DiagnosticCategory[] CATEGORIES = DiagnosticCategory.values();
+
+    private final String owner;
+    private final int samplesPerInterval;
+    private final LongAdder[] counts;
+    private final long[] summarizedCounts;
+    private final AtomicInteger[] samplesTaken;
+    private final AtomicReferenceArray<Throwable> samples;
+
+    /**
+     * Initialize diagnostics.
+     *
+     * @param anOwner Name of what the diagnostics are for, used in the summary
+     * @param aSamplesPerInterval Amount of stack traces kept per category in each interval
+     */
+    public Diagnostics(String anOwner, int aSamplesPerInterval) {
+        owner = anOwner;
+        samplesPerInterval = aSamplesPerInterval;
+        counts = new LongAdder[CATEGORIES.length];
+        summarizedCounts = new long[CATEGORIES.length];
+        samplesTaken = new AtomicInteger[CATEGORIES.length];
+        for (int index = 0; index < CATEGORIES.length; index++) {
+            counts[index] = new LongAdder();
+            samplesTaken[index] = new AtomicInteger();
+        }
+        samples = new AtomicReferenceArray<>(CATEGORIES.length * samplesPerInterval);
+    }
+
+    /**
+     * Report an error.
+     *
+     * @param category Kind of error
+     * @param error The exception
+     */
+    public void report(DiagnosticCategory category, Throwable error) {
+        final int index = category.ordinal();
+        counts[index].increment();
+
+        // Read before incrementing, so a flood does not keep every reporter contending on the same counter.
+        final AtomicInteger taken = samplesTaken[index];
+        if (taken.get() < samplesPerInterval) {
+            final int slot = taken.getAndIncrement();
+            if (slot < samplesPerInterval) {
+                samples.set(index * samplesPerInterval + slot, error);
+            }
+        }
+    }
+
+    /**
+     * Get the amount of errors of a category reported so far.
+     *
+     * @param category The category
+     * @return The count
+     */
+    public long getCount(DiagnosticCategory category) {
+        return counts[category.ordinal()].sum();
+    }
+
+    /**
+     * Log the errors reported since the last summary, if there were any. Called periodically from a single thread.
+     */
+    public void summarize() {
+        StringBuilder summary = null;
+        for (int index = 0; index < CATEGORIES.length; index++) {
+            final long count = counts[index].sum();
+            final long sinceLast = count - summarizedCounts[index];
+            summarizedCounts[index] = count;
+            if (sinceLast > 0) {
+                if (summary == null) {
+                    summary = new StringBuilder(owner).append(" errors since last summary:");
+                }
+                summary.append(' ').append(CATEGORIES[index]).append('=').append(sinceLast);
+            }
+        }
+        if (summary == null) {
+            return;
+        }
+        LOGGER.warning(summary.toString());
+
+        for (int index = 0; index < CATEGORIES.length; index++) {
+            for (int slot = 0; slot < samplesPerInterval; slot++) {
+                final Throwable sample = samples.getAndSet(index * samplesPerInterval + slot, null);
+                if (sample != null) {
+                    LOGGER.log(Level.SEVERE, owner + " sampled " + CATEGORIES[index] + " error.", sample);
+                }
+            }
+            samplesTaken[index].set(0);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.gabler.udpmanager;
+
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.security.HeaderMac;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes and reads the datagrams of a session handshake. Like heartbeats they are a {@link PacketHeader} followed by
+ * raw bytes rather than a serialized request.
+ *
+ * <pre>
+ * hello        length of the public key of the client  2 bytes
+ *              public key of the client
+ *              zeros                                    up to {@link #HELLO_PAYLOAD_LENGTH} bytes in all
+ * hello reply  length of the public key of the server  2 bytes
+ *              public key of the server
+ *              expiry of the ticket                     8 bytes, milliseconds since the epoch
+ *              the ticket                               UTF-8, up to the end of the datagram
+ * </pre>
+ *
+ * A hello is padded to be larger than any reply, so a server answering hellos with a forged source address sends
+ * the victim no more than the forger sent the server.
+ *
+ * @author Andy Gabler
+ */
+public class HandshakePacketWriter {
+
+    /**
+     * Length of the payload of a hello. A reply holds an X25519 public key and a ticket, about 130 bytes.
+     */
+    public static final int HELLO_PAYLOAD_LENGTH = 192;
+
+    private final HeaderMac headerMac;
+
+    /**
+     * Initialize a writer.
+     *
+     * @param aHeaderMac MAC to sign headers with, or null to leave them unsigned
+     */
+    public HandshakePacketWriter(HeaderMac aHeaderMac) {
+        headerMac = aHeaderMac;
+    }
+
+    /**
+     * Write a hello.
+     *
+     * @param publicKey Public key of the client
+     * @return The datagram
+     */
+    public byte[] writeHello(byte[] publicKey) {
+        final byte[] payload = ByteBuffer.allocate(HELLO_PAYLOAD_LENGTH)
+            .putShort((short) publicKey.length)
+            .put(publicKey)
+            .array();
+        return write(PacketHeader.KIND_HELLO, payload);
+    }
+
+    /**
+     * Read the public key of the client from a validated hello.
+     *
+     * @param buffer The receive buffer
+     * @return The public key, or null if the hello is not padded to {@link #HELLO_PAYLOAD_LENGTH} or is malformed
+     */
+    public static byte[] helloPublicKey(byte[] buffer) {
+        if (PacketHeader.payloadLength(buffer) < HELLO_PAYLOAD_LENGTH) {
+            return null;
+        }
+        final int offset = PacketHeader.headerLength(PacketHeader.flags(buffer));
+        final int keyLength = PacketHeader.readShort(buffer, offset);
+        if (keyLength > HELLO_PAYLOAD_LENGTH - Short.BYTES) {
+            return null;
+        }
+        return Arrays.copyOfRange(buffer, offset + Short.BYTES, offset + Short.BYTES + keyLength);
+    }
+
+    /**
+     * Write a hello reply.
+     *
+     * @param publicKey Public key of the server
+     * @param expiresAtMillis Expiry of the ticket
+     * @param ticket The ticket
+     * @return The datagram
+     */
+    public byte[] writeHelloReply(byte[] publicKey, long expiresAtMillis, String ticket) {
+        final byte[] ticketBytes = ticket.getBytes(StandardCharsets.UTF_8);
+        final byte[] payload = ByteBuffer.allocate(Short.BYTES + publicKey.length + Long.BYTES + ticketBytes.length)
+            .putShort((short) publicKey.length)
+            .put(publicKey)
+            .putLong(expiresAtMillis)
+            .put(ticketBytes)
+            .array();
+        return write(PacketHeader.KIND_HELLO_REPLY, payload);
+    }
+
+    /**
+     * Check that a validated hello reply is long enough for the public key length it claims and the expiry after it.
+     *
+     * @param buffer The receive buffer
+     * @return True if the reply can be read
+     */
+    public static boolean isWellFormedHelloReply(byte[] buffer) {
+        final int payloadLength = PacketHeader.payloadLength(buffer);
+        if (payloadLength < Short.BYTES + Long.BYTES) {
+            return false;
+        }
+        final int keyLength = PacketHeader.readShort(buffer, PacketHeader.headerLength(PacketHeader.flags(buffer)));
+        return keyLength <= payloadLength - Short.BYTES - Long.BYTES;
+    }
+
+    /**
+     * Write a handshake datagram.
+     *
+     * @param kind {@link PacketHeader#KIND_HELLO} or {@link PacketHeader#KIND_HELLO_REPLY}
+     * @param payload The payload
+     * @return The datagram
+     */
+    private byte[] write(int kind, byte[] payload) {
+        final int flags = headerMac != null ? PacketHeader.FLAG_MAC : 0;
+        final int headerLength = PacketHeader.headerLength(flags);
+        final byte[] datagram = new byte[headerLength + payload.length];
+        PacketHeader.writeBase(datagram, kind, flags, payload.length);
+        System.arraycopy(payload, 0, datagram, headerLength, payload.length);
+        if (headerMac != null) {
+            headerMac.sign(datagram, PacketHeader.macOffset(flags));
+        }
+        return datagram;
+    }
+
+    /**
+     * Check whether a validated datagram is part of a handshake.
+     *
+     * @param buffer The receive buffer
+     * @return True for a hello or hello reply
+     */
+    public static boolean isHandshake(byte[] buffer) {
+        final int kind = PacketHeader.kind(buffer);
+        return kind == PacketHeader.KIND_HELLO || kind == PacketHeader.KIND_HELLO_REPLY;
+    }
+
+    /**
+     * Read the payload of a validated handshake datagram.
+     *
+     * @param buffer The receive buffer
+     * @return Copy of the payload
+     */
+    public static byte[] payload(byte[] buffer) {
+        final int offset = PacketHeader.headerLength(PacketHeader.flags(buffer));
+        return Arrays.copyOfRange(buffer, offset, offset + PacketHeader.payloadLength(buffer));
+    }
+}
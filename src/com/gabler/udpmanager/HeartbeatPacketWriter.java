@@ -0,0 +1,91 @@
+package com.gabler.udpmanager;
+
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.security.HeaderMac;
+
+/**
+ * Writes standalone ping and pong datagrams. They are a bare {@link PacketHeader} with a ping token and no payload, so
+ * they are never deserialized by the receiver. Pongs also carry the {@link LatencyClock} of the side answering, which
+ * the side that pinged uses to estimate the offset between the clocks.
+ *
+ * @author Andy Gabler
+ */
+public class HeartbeatPacketWriter {
+
+    private final HeaderMac headerMac;
+
+    /**
+     * Initialize a writer.
+     *
+     * @param aHeaderMac MAC to sign headers with, or null to leave them unsigned
+     */
+    public HeartbeatPacketWriter(HeaderMac aHeaderMac) {
+        headerMac = aHeaderMac;
+    }
+
+    /**
+     * Write a heartbeat datagram.
+     *
+     * @param kind {@link PacketHeader#KIND_PING} or {@link PacketHeader#KIND_PONG}
+     * @param token Token of the ping, or the echoed token of a pong
+     * @return The datagram
+     */
+    public byte[] write(int kind, long token) {
+        int flags = PacketHeader.FLAG_PING;
+        if (kind == PacketHeader.KIND_PONG) {
+            flags |= PacketHeader.FLAG_TIMESTAMP;
+        }
+        if (headerMac != null) {
+            flags |= PacketHeader.FLAG_MAC;
+        }
+
+        final byte[] datagram = new byte[PacketHeader.headerLength(flags)];
+        PacketHeader.writeBase(datagram, kind, flags, 0);
+        PacketHeader.writeLong(datagram, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_PING), token);
+        if ((flags & PacketHeader.FLAG_TIMESTAMP) != 0) {
+            PacketHeader.writeLong(datagram, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_TIMESTAMP), LatencyClock.nowMicros());
+        }
+        if (headerMac != null) {
+            headerMac.sign(datagram, PacketHeader.macOffset(flags));
+        }
+        return datagram;
+    }
+
+    /**
+     * Check whether a validated datagram is a standalone heartbeat.
+     *
+     * @param buffer The receive buffer
+     * @return True for a ping or pong
+     */
+    public static boolean isHeartbeat(byte[] buffer) {
+        final int kind = PacketHeader.kind(buffer);
+        return (kind == PacketHeader.KIND_PING || kind == PacketHeader.KIND_PONG)
+            && (PacketHeader.flags(buffer) & PacketHeader.FLAG_PING) != 0;
+    }
+
+    /**
+     * Read the token of a validated heartbeat datagram.
+     *
+     * @param buffer The receive buffer
+     * @return The token
+     */
+    public static long token(byte[] buffer) {
+        final int flags = PacketHeader.flags(buffer);
+        return PacketHeader.readLong(buffer, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_PING));
+    }
+
+    /**
+     * Read the clock of the answering side from a validated pong datagram.
+     *
+     * @param buffer The receive buffer
+     * @return Microseconds since the epoch on the {@link LatencyClock} of the answering side, or zero if the pong
+     *         carries no clock
+     */
+    public static long timestamp(byte[] buffer) {
+        final int flags = PacketHeader.flags(buffer);
+        if ((flags & PacketHeader.FLAG_TIMESTAMP) == 0) {
+            return 0;
+        }
+        return PacketHeader.readLong(buffer, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_TIMESTAMP));
+    }
+}
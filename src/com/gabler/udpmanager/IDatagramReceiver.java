@@ -0,0 +1,36 @@
+package com.gabler.udpmanager;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+/**
+ * Something a {@link UdpRuntime} hands the datagrams of one registered transport to, in place of the listening
+ * threads the server or client would otherwise run itself.
+ *
+ * @author Andy Gabler
+ */
+public interface IDatagramReceiver {
+
+    /**
+     * Handle a datagram. Called on a worker thread of the runtime; datagrams from one source are handed over one at a
+     * time, in the order they were received.
+     *
+     * @param packet The datagram and its source. Its buffer belongs to the receiver from now on.
+     */
+    void receive(DatagramPacket packet);
+
+    /**
+     * Account for a datagram the runtime had no room to queue for a worker. Called on an I/O thread of the runtime, so
+     * it must not block.
+     *
+     * @param packet The datagram and its source
+     */
+    void reject(DatagramPacket packet);
+
+    /**
+     * Account for a receive that failed. Called on an I/O thread of the runtime, so it must not block.
+     *
+     * @param exception Why the receive failed
+     */
+    void receiveFailed(IOException exception);
+}
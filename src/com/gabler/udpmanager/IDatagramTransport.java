@@ -0,0 +1,52 @@
+package com.gabler.udpmanager;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+
+/**
+ * Something a client or server puts datagrams on and takes datagrams off of. Normally a plain socket, but it can be
+ * decorated, for instance by {@link ImpairedDatagramTransport} to test over a simulated bad link.
+ *
+ * Datagrams move one per call. Java 11 offers no way to reach recvmmsg or sendmmsg, so a transport could not move a
+ * batch of datagrams any cheaper than one at a time.
+ *
+ * @author Andy Gabler
+ */
+public interface IDatagramTransport {
+
+    /**
+     * Send a datagram. The packet may be reused by the caller as soon as this returns.
+     *
+     * @param packet The datagram and where it goes
+     * @throws IOException If the send fails
+     */
+    void send(DatagramPacket packet) throws IOException;
+
+    /**
+     * Block until a datagram arrives.
+     *
+     * @param packet Packet to receive the datagram and its source into
+     * @throws IOException If the receive fails, including because the transport was closed
+     */
+    void receive(DatagramPacket packet) throws IOException;
+
+    /**
+     * Get the local address the transport is bound to.
+     *
+     * @return The address
+     */
+    InetAddress getLocalAddress();
+
+    /**
+     * Get the local port the transport is bound to.
+     *
+     * @return The port
+     */
+    int getLocalPort();
+
+    /**
+     * Close the transport. Blocked receives fail.
+     */
+    void close();
+}
@@ -0,0 +1,26 @@
+package com.gabler.udpmanager;
+
+/**
+ * Turns messages of one registered type into bytes and back.
+ *
+ * @param <T> Type of message
+ * @author Andy Gabler
+ */
+public interface IMessageCodec<T> {
+
+    /**
+     * Encode a message.
+     *
+     * @param message The message
+     * @return The bytes of the message
+     */
+    byte[] encode(T message);
+
+    /**
+     * Decode a message.
+     *
+     * @param bytes The bytes of the message, already decrypted
+     * @return The message
+     */
+    T decode(byte[] bytes);
+}
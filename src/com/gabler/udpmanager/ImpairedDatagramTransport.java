@@ -0,0 +1,194 @@
+package com.gabler.udpmanager;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport decorator that makes a perfect link, such as loopback, behave like a bad one. Datagrams sent through it
+ * are lost, delayed, jittered, duplicated, reordered and held to a bandwidth cap as described by a
+ * {@link NetworkImpairment}. Received datagrams pass through untouched, so to impair both directions decorate the
+ * transports at both ends.
+ *
+ * Every send draws the same amount of random numbers from a seeded generator, so the same sequence of sends meets the
+ * same fate on every run.
+ *
+ * @author Andy Gabler
+ */
+public class ImpairedDatagramTransport implements IDatagramTransport {
+
+    private static final Logger LOGGER = Logger.getLogger("ImpairedDatagramTransport");
+
+    private static final long MAX_QUEUE_NANOS = 1_000_000_000L;
+
+    private final IDatagramTransport transport;
+    private final NetworkImpairment impairment;
+    private final Random random;
+    private final DelayQueue<DelayedDatagram> inFlight = new DelayQueue<>();
+    private final DeliveryThread deliveryThread;
+
+    private long linkFreeAt;
+    private long sequence = 0;
+
+    /**
+     * Initialize a decorator.
+     *
+     * @param aTransport The transport to decorate
+     * @param anImpairment How bad the link is
+     */
+    public ImpairedDatagramTransport(IDatagramTransport aTransport, NetworkImpairment anImpairment) {
+        transport = aTransport;
+        impairment = anImpairment;
+        random = new Random(impairment.getSeed());
+        linkFreeAt = System.nanoTime();
+        deliveryThread = new DeliveryThread();
+        deliveryThread.start();
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        final long now = System.nanoTime();
+        final long deliverAt;
+        final boolean duplicate;
+        final long order;
+
+        synchronized (this) {
+            final boolean lost = random.nextDouble() < impairment.getLossRate();
+            final double jitter = 2 * random.nextDouble() - 1;
+            final boolean reordered = random.nextDouble() < impairment.getReorderRate();
+            duplicate = random.nextDouble() < impairment.getDuplicateRate();
+            if (lost) {
+                return;
+            }
+
+            long delay = Math.max(0, TimeUnit.MILLISECONDS.toNanos(impairment.getLatencyMillis())
+                + (long) (jitter * TimeUnit.MILLISECONDS.toNanos(impairment.getJitterMillis())));
+            if (reordered) {
+                delay += TimeUnit.MILLISECONDS.toNanos(impairment.getReorderDelayMillis());
+            }
+
+            if (impairment.getBandwidthBytesPerSecond() > 0) {
+                if (linkFreeAt - now > MAX_QUEUE_NANOS) {
+                    // The link queue is full, tail drop like a router would.
+                    return;
+                }
+                linkFreeAt = Math.max(linkFreeAt, now) + packet.getLength() * 1_000_000_000L / impairment.getBandwidthBytesPerSecond();
+                delay += linkFreeAt - now;
+            }
+
+            deliverAt = now + delay;
+            order = sequence;
+            sequence += 2;
+        }
+
+        final byte[] copy = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+        inFlight.add(new DelayedDatagram(copy, packet.getAddress(), packet.getPort(), deliverAt, order));
+        if (duplicate) {
+            inFlight.add(new DelayedDatagram(copy, packet.getAddress(), packet.getPort(), deliverAt, order + 1));
+        }
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        transport.receive(packet);
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return transport.getLocalAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return transport.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        deliveryThread.killDelivery();
+        transport.close();
+    }
+
+    /**
+     * A datagram on its way through the simulated link.
+     */
+    private static class DelayedDatagram implements Delayed {
+
+        private final byte[] datagram;
+        private final InetAddress address;
+        private final int port;
+        private final long deliverAt;
+        private final long order;
+
+        private DelayedDatagram(byte[] aDatagram, InetAddress anAddress, int aPort, long aDeliverAt, long anOrder) {
+            datagram = aDatagram;
+            address = anAddress;
+            port = aPort;
+            deliverAt = aDeliverAt;
+            order = anOrder;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deliverAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            final DelayedDatagram that = (DelayedDatagram) other;
+            // Datagrams due at the same time keep the order they were sent in.
+            final int byTime = Long.signum(deliverAt - that.deliverAt);
+            return byTime != 0 ? byTime : Long.compare(order, that.order);
+        }
+    }
+
+    /**
+     * Thread that hands datagrams to the decorated transport once their delay is over.
+     */
+    private class DeliveryThread extends Thread {
+
+        private volatile boolean terminated = false;
+
+        private DeliveryThread() {
+            super("ImpairedDatagramTransport");
+            setDaemon(true);
+        }
+
+        /**
+         * Kill the delivery. Anything still in flight is lost.
+         */
+        private void killDelivery() {
+            terminated = true;
+        }
+
+        public void run() {
+            while (!terminated) {
+                final DelayedDatagram delayed;
+                try {
+                    delayed = inFlight.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException exception) {
+                    continue;
+                }
+
+                if (delayed == null) {
+                    continue;
+                }
+
+                try {
+                    transport.send(new DatagramPacket(delayed.datagram, delayed.datagram.length, delayed.address, delayed.port));
+                } catch (IOException exception) {
+                    LOGGER.log(Level.SEVERE, "Failed to deliver impaired datagram.", exception);
+                }
+            }
+
+            inFlight.clear();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.gabler.udpmanager;
+
+/**
+ * Clock that send timestamps are taken from. Reads the wall clock once and then advances with
+ * {@link System#nanoTime()}, so timestamps are comparable with those of other machines, up to the offset between the
+ * clocks, while never stepping backwards and costing no more than a nano time read.
+ *
+ * @author Andy Gabler
+ */
+public final class LatencyClock {
+
+    private static final long BASE_MICROS = System.currentTimeMillis() * 1000L;
+    private static final long BASE_NANOS = System.nanoTime();
+
+    private LatencyClock() {
+    }
+
+    /**
+     * Get the current time.
+     *
+     * @return Microseconds since the epoch
+     */
+    public static long nowMicros() {
+        return toMicros(System.nanoTime());
+    }
+
+    /**
+     * Convert a {@link System#nanoTime()} reading of this process to the clock.
+     *
+     * @param nanoTime The reading
+     * @return Microseconds since the epoch
+     */
+    public static long toMicros(long nanoTime) {
+        return BASE_MICROS + (nanoTime - BASE_NANOS) / 1000L;
+    }
+}
@@ -0,0 +1,67 @@
+package com.gabler.udpmanager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in the style of HdrHistogram. Every power of two is split into 64 equally wide buckets, so
+ * each recorded value is kept to within about 1.6% over a range of one microsecond to a bit over an hour, in a fixed
+ * array of counters.
+ *
+ * Recording is a single lock-free increment. A snapshot copies the counters while recording goes on, so a value
+ * recorded meanwhile may or may not be in it.
+ *
+ * @author Andy Gabler
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 6;
+    static final long MAX_VALUE = (1L << 32) - 1;
+    static final int BUCKET_COUNT = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Record a latency.
+     *
+     * @param micros The latency in microseconds. Negative values count as zero and values above the range as the top
+     *               of the range.
+     */
+    public void record(long micros) {
+        counts.incrementAndGet(index(Math.max(0, Math.min(micros, MAX_VALUE))));
+    }
+
+    /**
+     * Take a snapshot of the histogram.
+     *
+     * @return The snapshot
+     */
+    public LatencySnapshot snapshot() {
+        final long[] copy = new long[BUCKET_COUNT];
+        for (int index = 0; index < copy.length; index++) {
+            copy[index] = counts.get(index);
+        }
+        return new LatencySnapshot(copy);
+    }
+
+    /**
+     * Get the bucket of a value.
+     *
+     * @param value A value within the range
+     * @return Index of the bucket
+     */
+    static int index(long value) {
+        final int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Get the highest value that lands in a bucket.
+     *
+     * @param index Index of the bucket
+     * @return The value
+     */
+    static long highestValue(int index) {
+        final int shift = Math.max(0, (index >>> SUB_BUCKET_BITS) - 1);
+        return ((long) (index - (shift << SUB_BUCKET_BITS) + 1) << shift) - 1;
+    }
+}
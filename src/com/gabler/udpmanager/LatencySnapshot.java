@@ -0,0 +1,103 @@
+package com.gabler.udpmanager;
+
+/**
+ * Frozen copy of a {@link LatencyHistogram}. Values read from it are the highest value of the bucket they fell in, so
+ * they are never understated by more than the precision of the histogram.
+ *
+ * @author Andy Gabler
+ */
+public class LatencySnapshot {
+
+    private final long[] counts;
+    private final long totalCount;
+
+    /**
+     * Initialize a snapshot.
+     *
+     * @param aCounts Counts per bucket, owned by the snapshot from now on
+     */
+    LatencySnapshot(long[] aCounts) {
+        counts = aCounts;
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        totalCount = total;
+    }
+
+    /**
+     * Get what was recorded between an earlier snapshot of the same histogram and this one.
+     *
+     * @param earlier The earlier snapshot
+     * @return Snapshot of only the latencies recorded in between
+     */
+    public LatencySnapshot since(LatencySnapshot earlier) {
+        final long[] difference = new long[counts.length];
+        for (int index = 0; index < counts.length; index++) {
+            difference[index] = Math.max(0, counts[index] - earlier.counts[index]);
+        }
+        return new LatencySnapshot(difference);
+    }
+
+    /**
+     * Get the amount of latencies recorded.
+     *
+     * @return The count
+     */
+    public long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * Get a percentile of the latencies.
+     *
+     * @param percentile Between 0 and 100
+     * @return Microseconds, or zero if nothing was recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(totalCount * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++) {
+            seen += counts[index];
+            if (seen >= rank) {
+                return LatencyHistogram.highestValue(index);
+            }
+        }
+        return getMaxMicros();
+    }
+
+    /**
+     * Get the highest latency.
+     *
+     * @return Microseconds, or zero if nothing was recorded
+     */
+    public long getMaxMicros() {
+        for (int index = counts.length - 1; index >= 0; index--) {
+            if (counts[index] != 0) {
+                return LatencyHistogram.highestValue(index);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the mean latency.
+     *
+     * @return Microseconds, or zero if nothing was recorded
+     */
+    public double getMeanMicros() {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        double sum = 0;
+        for (int index = 0; index < counts.length; index++) {
+            sum += (double) counts[index] * LatencyHistogram.highestValue(index);
+        }
+        return sum / totalCount;
+    }
+}
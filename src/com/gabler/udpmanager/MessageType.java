@@ -0,0 +1,28 @@
+package com.gabler.udpmanager;
+
+/**
+ * A message type registered with a client or server, used to send messages of that type. The id of the type travels
+ * in the {@link com.gabler.udpmanager.model.PacketHeader}, so the receiving end finds the codec and handler for a
+ * message with an array lookup rather than by parsing the payload.
+ *
+ * @param <T> Type of message
+ * @author Andy Gabler
+ */
+public final class MessageType<T> {
+
+    private final int id;
+    private final IMessageCodec<T> codec;
+
+    MessageType(int anId, IMessageCodec<T> aCodec) {
+        id = anId;
+        codec = aCodec;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public IMessageCodec<T> getCodec() {
+        return codec;
+    }
+}
@@ -0,0 +1,61 @@
+package com.gabler.udpmanager;
+
+/**
+ * Dispatch table of the message types known to a client or server, indexed by type id.
+ *
+ * Types are registered before the client or server starts and the table is only read afterwards, so lookups need no
+ * locking.
+ *
+ * @param <H> Type of handler, which differs between client and server
+ * @author Andy Gabler
+ */
+public class MessageTypeTable<H> {
+
+    public static final int MAX_TYPES = 256;
+
+    private final MessageType<?>[] types = new MessageType<?>[MAX_TYPES];
+    private final Object[] handlers = new Object[MAX_TYPES];
+
+    /**
+     * Register a message type.
+     *
+     * @param id Id of the type, from 0 up to {@link #MAX_TYPES}
+     * @param codec Codec of the type
+     * @param handler Handler for received messages of the type, or null if the type is only sent
+     * @param <T> Type of message
+     * @return The registered type
+     */
+    public <T> MessageType<T> register(int id, IMessageCodec<T> codec, H handler) {
+        if (id < 0 || id >= MAX_TYPES) {
+            throw new IllegalArgumentException("Message type id must be between 0 and " + (MAX_TYPES - 1) + ".");
+        }
+        if (types[id] != null) {
+            throw new IllegalArgumentException("Message type " + id + " is already registered.");
+        }
+        final MessageType<T> type = new MessageType<>(id, codec);
+        types[id] = type;
+        handlers[id] = handler;
+        return type;
+    }
+
+    /**
+     * Get a registered type.
+     *
+     * @param id Id of the type
+     * @return The type, or null if no type has the id
+     */
+    public MessageType<?> type(int id) {
+        return id >= 0 && id < MAX_TYPES ? types[id] : null;
+    }
+
+    /**
+     * Get the handler of a registered type.
+     *
+     * @param id Id of the type
+     * @return The handler, or null if the type is unknown or only sent
+     */
+    @SuppressWarnings("unchecked")
+    public H handler(int id) {
+        return id >= 0 && id < MAX_TYPES ? (H) handlers[id] : null;
+    }
+}
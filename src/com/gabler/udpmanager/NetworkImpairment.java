@@ -0,0 +1,117 @@
+package com.gabler.udpmanager;
+
+/**
+ * Description of a bad network link, for {@link ImpairedDatagramTransport}. Everything defaults to a perfect link.
+ *
+ * @author Andy Gabler
+ */
+public class NetworkImpairment {
+
+    private double lossRate = 0;
+    private long latencyMillis = 0;
+    private long jitterMillis = 0;
+    private double duplicateRate = 0;
+    private double reorderRate = 0;
+    private long reorderDelayMillis = 5;
+    private long bandwidthBytesPerSecond = 0;
+    private long seed = 0;
+
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    /**
+     * Set the fraction of datagrams silently dropped.
+     *
+     * @param lossRate Between zero and one
+     */
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * Set the one way delay every datagram gets.
+     *
+     * @param latencyMillis The delay
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    /**
+     * Set how far the delay of each datagram may randomly stray from the latency, in either direction. Jitter larger
+     * than the gap between datagrams reorders them.
+     *
+     * @param jitterMillis The maximum deviation
+     */
+    public void setJitterMillis(long jitterMillis) {
+        this.jitterMillis = jitterMillis;
+    }
+
+    public double getDuplicateRate() {
+        return duplicateRate;
+    }
+
+    /**
+     * Set the fraction of datagrams delivered twice.
+     *
+     * @param duplicateRate Between zero and one
+     */
+    public void setDuplicateRate(double duplicateRate) {
+        this.duplicateRate = duplicateRate;
+    }
+
+    public double getReorderRate() {
+        return reorderRate;
+    }
+
+    public long getReorderDelayMillis() {
+        return reorderDelayMillis;
+    }
+
+    /**
+     * Set the fraction of datagrams held back so that datagrams sent after them overtake them.
+     *
+     * @param reorderRate Between zero and one
+     * @param reorderDelayMillis How long a reordered datagram is held back on top of its normal delay
+     */
+    public void setReordering(double reorderRate, long reorderDelayMillis) {
+        this.reorderRate = reorderRate;
+        this.reorderDelayMillis = reorderDelayMillis;
+    }
+
+    public long getBandwidthBytesPerSecond() {
+        return bandwidthBytesPerSecond;
+    }
+
+    /**
+     * Set the capacity of the link. Datagrams queue up behind each other once it is exceeded, and are dropped once the
+     * queue holds a second worth of data.
+     *
+     * @param bandwidthBytesPerSecond The capacity, or zero for no limit
+     */
+    public void setBandwidthBytesPerSecond(long bandwidthBytesPerSecond) {
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the seed of the random decisions, so a run can be repeated exactly.
+     *
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
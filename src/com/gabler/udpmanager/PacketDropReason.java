@@ -0,0 +1,28 @@
+package com.gabler.udpmanager;
+
+/**
+ * Reason a received datagram was dropped before it reached the configuration.
+ *
+ * @author Andy Gabler
+ */
+public enum PacketDropReason {
+
+    SOURCE_RATE_LIMITED,
+    GLOBAL_RATE_LIMITED,
+    TRUNCATED,
+    BAD_MAGIC,
+    UNSUPPORTED_VERSION,
+    BAD_LENGTH,
+    MISSING_MAC,
+    BAD_MAC,
+    MALFORMED_PAYLOAD,
+    NOT_A_CLUSTER_PEER,
+    DISPATCH_QUEUE_FULL,
+    UNKNOWN_MESSAGE_TYPE,
+    DUPLICATE,
+    LOAD_SHED,
+    HANDSHAKE_FAILED,
+    UNKNOWN_KEY,
+    STALE,
+    MISSING_SEQUENCE
+}
@@ -0,0 +1,58 @@
+package com.gabler.udpmanager;
+
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.security.HeaderMac;
+
+/**
+ * Cheap structural check of the {@link PacketHeader} of a received datagram. Works directly on the receive buffer and
+ * does not allocate, so junk can be rejected before it is deserialized.
+ *
+ * @author Andy Gabler
+ */
+public class PacketHeaderValidator {
+
+    private final HeaderMac headerMac;
+
+    /**
+     * Initialize a validator.
+     *
+     * @param aHeaderMac MAC every header must carry, or null if headers are not authenticated
+     */
+    public PacketHeaderValidator(HeaderMac aHeaderMac) {
+        headerMac = aHeaderMac;
+    }
+
+    /**
+     * Validate the header of a datagram.
+     *
+     * @param buffer The receive buffer
+     * @param length Length of the datagram
+     * @return Why the datagram should be dropped, or null if the header is valid
+     */
+    public PacketDropReason validate(byte[] buffer, int length) {
+        if (length < PacketHeader.BASE_LENGTH) {
+            return PacketDropReason.TRUNCATED;
+        }
+        if (PacketHeader.magic(buffer) != PacketHeader.MAGIC) {
+            return PacketDropReason.BAD_MAGIC;
+        }
+        if (PacketHeader.version(buffer) != PacketHeader.VERSION) {
+            return PacketDropReason.UNSUPPORTED_VERSION;
+        }
+
+        final int flags = PacketHeader.flags(buffer);
+        if (PacketHeader.headerLength(flags) + PacketHeader.payloadLength(buffer) != length) {
+            return PacketDropReason.BAD_LENGTH;
+        }
+
+        if (headerMac != null) {
+            if ((flags & PacketHeader.FLAG_MAC) == 0) {
+                return PacketDropReason.MISSING_MAC;
+            }
+            if (!headerMac.verify(buffer, PacketHeader.macOffset(flags))) {
+                return PacketDropReason.BAD_MAC;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,150 @@
+package com.gabler.udpmanager;
+
+/**
+ * Round trip time, loss and liveness of the peer at the other end of a session, fed by heartbeats.
+ *
+ * The smoothed round trip time, its variance and the derived timeout follow RFC 6298, taking at most one sample per
+ * round trip: only the answer to the ping still outstanding counts, so a late or duplicated pong cannot feed an
+ * inflated sample. Loss is an exponentially weighted average of whether each ping was answered before the next one
+ * went out.
+ *
+ * @author Andy Gabler
+ */
+public class RttEstimator {
+
+    private static final long INITIAL_TIMEOUT_NANOS = 1_000_000_000L;
+    private static final long MIN_TIMEOUT_NANOS = 10_000_000L;
+    private static final long MAX_SAMPLE_NANOS = 60_000_000_000L;
+
+    private long smoothedRtt = 0;
+    private long rttVariance = 0;
+    private long timeout = INITIAL_TIMEOUT_NANOS;
+    private double lossRate = 0;
+
+    private long outstandingPing = 0;
+    private long lastPingSent;
+    private volatile long lastHeard;
+
+    public RttEstimator() {
+        final long now = System.nanoTime();
+        lastPingSent = now;
+        lastHeard = now;
+    }
+
+    /**
+     * Start a ping if the last one is at least an interval old. A ping still unanswered at this point counts as lost.
+     *
+     * @param now Current {@link System#nanoTime()}
+     * @param intervalNanos Time between pings
+     * @return Token the ping must carry, or zero if no ping is due
+     */
+    public synchronized long startPingIfDue(long now, long intervalNanos) {
+        if (now - lastPingSent < intervalNanos) {
+            return 0;
+        }
+
+        if (outstandingPing != 0) {
+            lossRate += (1 - lossRate) / 8;
+        }
+        // Zero means "no ping" on the wire, which costs the sample a nanosecond at worst.
+        final long token = now == 0 ? 1 : now;
+        outstandingPing = token;
+        lastPingSent = now;
+        return token;
+    }
+
+    /**
+     * Record that a ping came back.
+     *
+     * @param token The echoed token
+     * @param now Current {@link System#nanoTime()}
+     * @return False if the token is not that of the outstanding ping and the pong was ignored
+     */
+    public synchronized boolean recordPong(long token, long now) {
+        if (token == 0 || token != outstandingPing) {
+            // Answered already, or to a ping since given up on as lost.
+            return false;
+        }
+        final long sample = now - token;
+        if (sample < 0 || sample > MAX_SAMPLE_NANOS) {
+            return false;
+        }
+
+        outstandingPing = 0;
+        lossRate -= lossRate / 8;
+
+        if (smoothedRtt == 0) {
+            smoothedRtt = sample;
+            rttVariance = sample / 2;
+        } else {
+            rttVariance += (Math.abs(smoothedRtt - sample) - rttVariance) / 4;
+            smoothedRtt += (sample - smoothedRtt) / 8;
+        }
+        timeout = Math.max(MIN_TIMEOUT_NANOS, smoothedRtt + 4 * rttVariance);
+        return true;
+    }
+
+    /**
+     * Record that anything at all arrived from the peer.
+     *
+     * @param now Current {@link System#nanoTime()}
+     */
+    public void recordHeard(long now) {
+        lastHeard = now;
+    }
+
+    /**
+     * Get the smoothed round trip time.
+     *
+     * @return Nanoseconds, or zero before the first sample
+     */
+    public synchronized long getSmoothedRttNanos() {
+        return smoothedRtt;
+    }
+
+    /**
+     * Get the mean deviation of the round trip time.
+     *
+     * @return Nanoseconds
+     */
+    public synchronized long getRttVarianceNanos() {
+        return rttVariance;
+    }
+
+    /**
+     * Get how long to wait for an answer before considering a packet lost, adapted to the measured round trip time.
+     *
+     * @return Nanoseconds
+     */
+    public synchronized long getTimeoutNanos() {
+        return timeout;
+    }
+
+    /**
+     * Get the estimated fraction of pings lost.
+     *
+     * @return Between zero and one
+     */
+    public synchronized double getLossRate() {
+        return lossRate;
+    }
+
+    /**
+     * Get when the peer was last heard from.
+     *
+     * @return {@link System#nanoTime()} of the last packet
+     */
+    public long getLastHeardNanos() {
+        return lastHeard;
+    }
+
+    /**
+     * Check whether the peer was heard from recently.
+     *
+     * @param silenceMillis How long the peer may be silent and still be considered alive
+     * @return True if the peer is alive
+     */
+    public boolean isAlive(long silenceMillis) {
+        return System.nanoTime() - lastHeard < silenceMillis * 1_000_000L;
+    }
+}
@@ -0,0 +1,80 @@
+package com.gabler.udpmanager;
+
+/**
+ * Sliding window over the sequence numbers seen from one peer, used to drop duplicated and replayed datagrams.
+ *
+ * The window is a fixed ring of bits, one per sequence number, following the bitmap of RFC 6479. Moving the window
+ * forward clears at most the whole ring, so every check is constant time and nothing is allocated. Sequence numbers
+ * are 32 bits and compared with serial number arithmetic, so they may wrap.
+ *
+ * The window only tells replays apart from new datagrams if the sequence number cannot be forged, which takes a MAC
+ * over the header carrying it. Without one it only drops the duplicates the network makes.
+ *
+ * @author Andy Gabler
+ */
+public class SequenceWindow {
+
+    private static final int WORDS = 16;
+    private static final int WORD_INDEX_MASK = WORDS - 1;
+    private static final int WORD_NUMBER_MASK = (1 << 26) - 1;
+
+    /**
+     * Amount of sequence numbers behind the highest one that are still tracked. One word of the ring is always
+     * partially ahead of the highest sequence number, so it does not count.
+     */
+    public static final int WINDOW_SIZE = (WORDS - 1) * Long.SIZE;
+
+    private final long[] bits = new long[WORDS];
+    private boolean started = false;
+    private int highest;
+
+    /**
+     * Check a sequence number and remember it.
+     *
+     * @param sequence The sequence number
+     * @return True if the sequence number has not been seen before and is not too old to tell
+     */
+    public synchronized boolean accept(int sequence) {
+        if (!started) {
+            started = true;
+            highest = sequence;
+            mark(sequence);
+            return true;
+        }
+
+        final int ahead = sequence - highest;
+        if (ahead > 0) {
+            // Clear the words the window slides over, the whole ring at most.
+            final int wordsAhead = Math.min(((sequence >>> 6) - (highest >>> 6)) & WORD_NUMBER_MASK, WORDS);
+            int word = highest >>> 6;
+            for (int count = 0; count < wordsAhead; count++) {
+                word++;
+                bits[word & WORD_INDEX_MASK] = 0;
+            }
+            highest = sequence;
+            mark(sequence);
+            return true;
+        }
+
+        if (ahead <= -WINDOW_SIZE) {
+            return false;
+        }
+
+        final int index = (sequence >>> 6) & WORD_INDEX_MASK;
+        final long bit = 1L << (sequence & 63);
+        if ((bits[index] & bit) != 0) {
+            return false;
+        }
+        bits[index] |= bit;
+        return true;
+    }
+
+    /**
+     * Mark a sequence number as seen.
+     *
+     * @param sequence The sequence number
+     */
+    private void mark(int sequence) {
+        bits[(sequence >>> 6) & WORD_INDEX_MASK] |= 1L << (sequence & 63);
+    }
+}
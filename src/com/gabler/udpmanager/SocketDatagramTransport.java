@@ -0,0 +1,50 @@
+package com.gabler.udpmanager;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+
+/**
+ * Transport straight onto a datagram socket.
+ *
+ * @author Andy Gabler
+ */
+public class SocketDatagramTransport implements IDatagramTransport {
+
+    private final DatagramSocket socket;
+
+    /**
+     * Initialize a transport.
+     *
+     * @param aSocket The socket
+     */
+    public SocketDatagramTransport(DatagramSocket aSocket) {
+        socket = aSocket;
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        socket.send(packet);
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        socket.receive(packet);
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return socket.getLocalAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
@@ -0,0 +1,47 @@
+package com.gabler.udpmanager;
+
+/**
+ * Delivery filter for the messages of one peer sent as sequenced: only a message newer than every one delivered so far
+ * gets through, so a late datagram never overwrites the state a newer one already set. Nothing is retransmitted or held
+ * back to fill a gap; a message that lost the race is simply dropped.
+ *
+ * Only the highest sequence number delivered is kept, so every check is constant time. Sequence numbers are 32 bits and
+ * compared with serial number arithmetic, so they may wrap.
+ *
+ * A peer that restarts is still remembered by the other side with the highest number it delivered, so senders start
+ * counting from {@link #initialSequence()} rather than from zero.
+ *
+ * @author Andy Gabler
+ */
+public class StaleSequenceFilter {
+
+    private boolean started = false;
+    private int highest;
+
+    /**
+     * Get the number a sender starts counting its sequence numbers from: the wall clock in milliseconds, cut to 32
+     * bits. A restarted sender thereby continues ahead of where it left off, so its messages are not taken for stale
+     * ones, as long as it sent less than one sequenced message per millisecond on average before, and restarts within
+     * about 24 days, half the range of the serial number arithmetic.
+     *
+     * @return The first sequence number
+     */
+    public static int initialSequence() {
+        return (int) System.currentTimeMillis();
+    }
+
+    /**
+     * Check a sequence number and remember it if it gets through.
+     *
+     * @param sequence The sequence number
+     * @return True if the message is newer than every one delivered so far
+     */
+    public synchronized boolean accept(int sequence) {
+        if (started && sequence - highest <= 0) {
+            return false;
+        }
+        started = true;
+        highest = sequence;
+        return true;
+    }
+}
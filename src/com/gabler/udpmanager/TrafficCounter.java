@@ -0,0 +1,79 @@
+package com.gabler.udpmanager;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Packet and byte counts of a stream of datagrams, plus their rate. Recording is lock-free; the rate is worked out
+ * from the counts whenever {@link #sample(long)} is called, which one housekeeping thread does periodically.
+ *
+ * @author Andy Gabler
+ */
+public class TrafficCounter {
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    private volatile double packetsPerSecond = 0;
+    private volatile double bytesPerSecond = 0;
+
+    private long lastPackets = 0;
+    private long lastBytes = 0;
+    private long lastSample = System.nanoTime();
+
+    /**
+     * Record a datagram.
+     *
+     * @param length Length of the datagram
+     */
+    public void record(int length) {
+        packets.increment();
+        bytes.add(length);
+    }
+
+    /**
+     * Work out the rate since the previous sample. Must only be called from one thread.
+     *
+     * @param now Current {@link System#nanoTime()}
+     */
+    public void sample(long now) {
+        final long elapsed = now - lastSample;
+        if (elapsed <= 0) {
+            return;
+        }
+
+        final long currentPackets = packets.sum();
+        final long currentBytes = bytes.sum();
+        packetsPerSecond = (currentPackets - lastPackets) * 1e9 / elapsed;
+        bytesPerSecond = (currentBytes - lastBytes) * 1e9 / elapsed;
+
+        lastPackets = currentPackets;
+        lastBytes = currentBytes;
+        lastSample = now;
+    }
+
+    public long getPackets() {
+        return packets.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Get the packet rate as of the last sample.
+     *
+     * @return Packets per second
+     */
+    public double getPacketsPerSecond() {
+        return packetsPerSecond;
+    }
+
+    /**
+     * Get the byte rate as of the last sample.
+     *
+     * @return Bytes per second
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
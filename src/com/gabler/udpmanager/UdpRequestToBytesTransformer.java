@@ -0,0 +1,111 @@
+package com.gabler.udpmanager;
+
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.model.UdpRequest;
+import com.gabler.udpmanager.security.HeaderMac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.function.Function;
+
+/**
+ * Transform a {@link UdpRequest} into the bytes of a datagram, {@link PacketHeader} included.
+ *
+ * @author Andy Gabler
+ */
+public class UdpRequestToBytesTransformer implements Function<UdpRequest, byte[]> {
+
+    // Long enough for a header with every flag set.
+    private static final byte[] EMPTY_HEADER = new byte[PacketHeader.headerLength(0xFFFF)];
+
+    private final HeaderMac headerMac;
+    private final ThreadLocal<ByteArrayOutputStream> byteStream = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(512));
+
+    /**
+     * Initialize a transformer that does not authenticate headers.
+     */
+    public UdpRequestToBytesTransformer() {
+        this(null);
+    }
+
+    /**
+     * Initialize a transformer.
+     *
+     * @param aHeaderMac MAC to sign headers with, or null to leave them unsigned
+     */
+    public UdpRequestToBytesTransformer(HeaderMac aHeaderMac) {
+        headerMac = aHeaderMac;
+    }
+
+    @Override
+    public byte[] apply(UdpRequest request) {
+        int flags = 0;
+        if (headerMac != null) {
+            flags |= PacketHeader.FLAG_MAC;
+        }
+        if (request.getPacketKind() != PacketHeader.KIND_DATA) {
+            flags |= PacketHeader.FLAG_CORRELATION;
+        }
+        if (request.getPingToken() != 0) {
+            flags |= PacketHeader.FLAG_PING;
+        }
+        if (request.getMessageType() != UdpRequest.NO_MESSAGE_TYPE) {
+            flags |= PacketHeader.FLAG_MESSAGE_TYPE;
+        }
+        if (request.getSequence() != UdpRequest.NO_SEQUENCE) {
+            flags |= PacketHeader.FLAG_SEQUENCE;
+        }
+        if (request.getSendTimestamp() != 0) {
+            flags |= PacketHeader.FLAG_TIMESTAMP;
+        }
+        if (request.isPriority()) {
+            flags |= PacketHeader.FLAG_PRIORITY;
+        }
+        if (request.isSequenced()) {
+            flags |= PacketHeader.FLAG_SEQUENCED;
+        }
+        final int headerLength = PacketHeader.headerLength(flags);
+
+        final byte[] datagram;
+        try {
+            // Each thread keeps its stream, so its buffer has grown to fit the requests of the thread already.
+            final ByteArrayOutputStream byteStream = this.byteStream.get();
+            byteStream.reset();
+            // Reserve room for the header, it is filled in once the payload length is known.
+            byteStream.write(EMPTY_HEADER, 0, headerLength);
+            final ObjectOutputStream outputStream = new ObjectOutputStream(byteStream);
+            outputStream.writeObject(request);
+            outputStream.flush();
+            datagram = byteStream.toByteArray();
+        } catch (IOException exception) {
+            throw new RuntimeException(exception);
+        }
+
+        final int payloadLength = datagram.length - headerLength;
+        if (payloadLength > PacketHeader.MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("Request of " + payloadLength + " bytes is too large for a datagram.");
+        }
+
+        PacketHeader.writeBase(datagram, request.getPacketKind(), flags, payloadLength);
+        if ((flags & PacketHeader.FLAG_CORRELATION) != 0) {
+            PacketHeader.writeInt(datagram, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_CORRELATION), request.getCorrelationId());
+        }
+        if ((flags & PacketHeader.FLAG_PING) != 0) {
+            PacketHeader.writeLong(datagram, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_PING), request.getPingToken());
+        }
+        if ((flags & PacketHeader.FLAG_MESSAGE_TYPE) != 0) {
+            PacketHeader.writeShort(datagram, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_MESSAGE_TYPE), request.getMessageType());
+        }
+        if ((flags & PacketHeader.FLAG_SEQUENCE) != 0) {
+            PacketHeader.writeInt(datagram, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_SEQUENCE), (int) request.getSequence());
+        }
+        if ((flags & PacketHeader.FLAG_TIMESTAMP) != 0) {
+            PacketHeader.writeLong(datagram, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_TIMESTAMP), request.getSendTimestamp());
+        }
+        if (headerMac != null) {
+            headerMac.sign(datagram, PacketHeader.macOffset(flags));
+        }
+        return datagram;
+    }
+}
@@ -0,0 +1,358 @@
+package com.gabler.udpmanager;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fixed set of threads that any amount of servers and clients in one JVM can share, instead of each running its own
+ * listening threads and housekeeping. Each keeps its own configuration, keys and clients; only the threads are shared.
+ *
+ * A few I/O threads each select over the non-blocking channels of many transports, take every datagram that is waiting
+ * and hand it to one of a fixed set of single threaded workers, which run the receive path of the server or client
+ * the transport belongs to. Datagrams from one source on one transport always land on the same worker, so they are
+ * handled one at a time in the order they were received, like on a dedicated listening thread. The workers also send
+ * the queued messages of clients and run their inboxes, and one scheduler thread runs the periodic housekeeping of
+ * everything attached.
+ *
+ * Handlers run on the workers, so one that blocks holds up every transport that lands on the same worker.
+ *
+ * @author Andy Gabler
+ */
+public class UdpRuntime {
+
+    private static final Logger LOGGER = Logger.getLogger("UdpRuntime");
+
+    private static final int MAX_DATAGRAM_LENGTH = 65535;
+    // Datagrams taken off of one channel per wakeup, so a flooded transport cannot starve the others on its thread.
+    private static final int MAX_RECEIVES_PER_WAKEUP = 64;
+
+    private final IoLoop[] ioLoops;
+    private final ThreadPoolExecutor[] workers;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger nextRegistration = new AtomicInteger();
+
+    /**
+     * Initialize a runtime and start its threads.
+     *
+     * @param ioThreadCount Amount of threads selecting over the channels
+     * @param workerThreadCount Amount of threads handling received datagrams
+     * @param workerQueueCapacity Amount of datagrams each worker may have waiting; more are rejected
+     * @throws IOException If a selector cannot be opened
+     */
+    public UdpRuntime(int ioThreadCount, int workerThreadCount, int workerQueueCapacity) throws IOException {
+        if (ioThreadCount < 1 || workerThreadCount < 1) {
+            throw new IllegalArgumentException("A runtime needs at least one I/O thread and one worker thread.");
+        }
+
+        workers = new ThreadPoolExecutor[workerThreadCount];
+        for (int index = 0; index < workerThreadCount; index++) {
+            final String name = "UdpRuntimeWorker-" + index;
+            workers[index] = new ThreadPoolExecutor(
+                1,
+                1,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerQueueCapacity),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            );
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "UdpRuntimeHousekeeping");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        ioLoops = new IoLoop[ioThreadCount];
+        for (int index = 0; index < ioThreadCount; index++) {
+            ioLoops[index] = new IoLoop(Selector.open(), "UdpRuntimeIo-" + index);
+            ioLoops[index].start();
+        }
+    }
+
+    /**
+     * Open a transport that can be registered with this runtime.
+     *
+     * @param local Address to bind to, or null for any free port
+     * @param remote Address to only exchange datagrams with, or null to exchange them with anyone
+     * @return The transport
+     * @throws IOException If the channel cannot be opened, bound or connected
+     */
+    public ChannelDatagramTransport openTransport(SocketAddress local, SocketAddress remote) throws IOException {
+        return new ChannelDatagramTransport(local, remote);
+    }
+
+    /**
+     * Start handing the datagrams arriving on a transport to a receiver. The transport must not be received from in any
+     * other way meanwhile.
+     *
+     * @param transport The transport
+     * @param receiver Where its datagrams go
+     * @return The registration, to suspend or cancel it with
+     */
+    public Registration register(ChannelDatagramTransport transport, IDatagramReceiver receiver) {
+        final int id = nextRegistration.getAndIncrement();
+        final Registration registration = new Registration(
+            ioLoops[id % ioLoops.length],
+            transport.getChannel(),
+            receiver,
+            id
+        );
+        registration.loop.submit(registration::attach);
+        return registration;
+    }
+
+    /**
+     * Get the scheduler that runs housekeeping for everything attached. Tasks scheduled on it must be cancelled by
+     * whoever scheduled them, not by shutting it down.
+     *
+     * @return The scheduler
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Get the worker that runs the tasks of an owner, such as the sending and inbox work of a client. An owner always
+     * gets the same worker, so its tasks run one at a time in the order they were submitted. A task is rejected with a
+     * {@link RejectedExecutionException} if the worker has too many datagrams and tasks waiting.
+     *
+     * @param owner Whoever submits the tasks
+     * @return The worker
+     */
+    public Executor getWorker(Object owner) {
+        final int hash = System.identityHashCode(owner);
+        return workers[Math.floorMod(hash ^ (hash >>> 16), workers.length)];
+    }
+
+    /**
+     * Stop every thread of the runtime. Servers and clients still attached stop receiving.
+     */
+    public void shutdown() {
+        for (IoLoop loop : ioLoops) {
+            loop.kill();
+        }
+        for (ThreadPoolExecutor worker : workers) {
+            worker.shutdown();
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Hand a received datagram to the worker of its source.
+     *
+     * @param registration Registration of the transport it arrived on
+     * @param packet The datagram
+     */
+    private void dispatch(Registration registration, DatagramPacket packet) {
+        final int hash = registration.id * 31 + packet.getSocketAddress().hashCode();
+        final ThreadPoolExecutor worker = workers[Math.floorMod(hash ^ (hash >>> 16), workers.length)];
+        try {
+            worker.execute(() -> registration.receiver.receive(packet));
+        } catch (RejectedExecutionException exception) {
+            registration.receiver.reject(packet);
+        }
+    }
+
+    /**
+     * A transport registered with a runtime.
+     */
+    public class Registration {
+
+        private final IoLoop loop;
+        private final DatagramChannel channel;
+        private final IDatagramReceiver receiver;
+        private final int id;
+        private SelectionKey key = null;
+
+        /**
+         * Initialize a registration.
+         *
+         * @param aLoop I/O thread that selects on the channel
+         * @param aChannel The channel
+         * @param aReceiver Where its datagrams go
+         * @param anId Identifier of the registration
+         */
+        private Registration(IoLoop aLoop, DatagramChannel aChannel, IDatagramReceiver aReceiver, int anId) {
+            loop = aLoop;
+            channel = aChannel;
+            receiver = aReceiver;
+            id = anId;
+        }
+
+        /**
+         * Stop taking datagrams off of the channel. Datagrams arriving meanwhile wait in the socket buffer.
+         */
+        public void suspend() {
+            loop.submit(() -> setInterest(0));
+        }
+
+        /**
+         * Take datagrams off of the channel again after {@link #suspend()}.
+         */
+        public void resume() {
+            loop.submit(() -> setInterest(SelectionKey.OP_READ));
+        }
+
+        /**
+         * Stop taking datagrams off of the channel for good. Call before closing the transport, so its socket is
+         * released right away rather than the next time the I/O thread wakes up.
+         */
+        public void cancel() {
+            loop.submit(() -> {
+                if (key != null) {
+                    key.cancel();
+                }
+            });
+        }
+
+        /**
+         * Register the channel with the selector of the I/O thread. Called on that thread.
+         */
+        private void attach() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            } catch (ClosedChannelException exception) {
+                // Closed before it was ever selected on, nothing to receive.
+            }
+        }
+
+        /**
+         * Change what the I/O thread selects the channel for. Called on that thread.
+         *
+         * @param operations The interest set
+         */
+        private void setInterest(int operations) {
+            try {
+                if (key != null) {
+                    key.interestOps(operations);
+                }
+            } catch (CancelledKeyException exception) {
+                // Cancelled or closed meanwhile.
+            }
+        }
+
+        /**
+         * Take the datagrams waiting on the channel and dispatch them. Called on the I/O thread.
+         *
+         * @param buffer Direct buffer of the I/O thread to stage datagrams in
+         */
+        private void drain(ByteBuffer buffer) {
+            for (int count = 0; MAX_RECEIVES_PER_WAKEUP > count; count++) {
+                final SocketAddress source;
+                buffer.clear();
+                try {
+                    source = channel.receive(buffer);
+                } catch (IOException exception) {
+                    receiver.receiveFailed(exception);
+                    return;
+                }
+                if (source == null) {
+                    return;
+                }
+
+                buffer.flip();
+                // Each datagram gets its own array, since the worker handles it after the buffer is reused.
+                final byte[] datagram = new byte[buffer.remaining()];
+                buffer.get(datagram);
+                dispatch(this, new DatagramPacket(datagram, datagram.length, source));
+            }
+        }
+    }
+
+    /**
+     * I/O thread, selecting over the channels registered to it.
+     */
+    private static class IoLoop extends Thread {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean terminated = false;
+
+        /**
+         * Initialize an I/O thread.
+         *
+         * @param aSelector Selector to select with
+         * @param name Name of the thread
+         */
+        private IoLoop(Selector aSelector, String name) {
+            super(name);
+            setDaemon(true);
+            selector = aSelector;
+        }
+
+        /**
+         * Run a task on this thread, between two selects. Keys are only ever touched by this thread that way.
+         *
+         * @param task The task
+         */
+        private void submit(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Stop the thread.
+         */
+        private void kill() {
+            terminated = true;
+            selector.wakeup();
+        }
+
+        public void run() {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+
+            while (!terminated) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                try {
+                    selector.select();
+                } catch (IOException exception) {
+                    LOGGER.log(Level.WARNING, "Select failed.", exception);
+                    continue;
+                }
+
+                final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    final SelectionKey key = selected.next();
+                    selected.remove();
+                    if (key.isValid()) {
+                        ((Registration) key.attachment()).drain(buffer);
+                    }
+                }
+            }
+
+            try {
+                selector.close();
+            } catch (IOException exception) {
+                LOGGER.log(Level.WARNING, "Failed to close selector.", exception);
+            }
+        }
+    }
+}
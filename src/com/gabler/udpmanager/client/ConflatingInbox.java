@@ -0,0 +1,98 @@
+package com.gabler.udpmanager.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Inbox between the listening thread of a client and the thread that runs its handlers, which keeps only the latest
+ * message for each key. A message whose key is already waiting replaces the waiting one in its place in line, so a
+ * slow consumer skips straight to the freshest state of everything and a key updated all the time is not starved.
+ *
+ * Messages without a key are never replaced. When the inbox is full the oldest message is evicted, so memory stays
+ * bounded however far the consumer falls behind.
+ *
+ * @author Andy Gabler
+ */
+class ConflatingInbox {
+
+    static final int ADDED = 0;
+    static final int CONFLATED = 1;
+    static final int EVICTED = 2;
+
+    private final int capacity;
+    private final LinkedHashMap<Object, Runnable> pending;
+
+    /**
+     * Initialize an inbox.
+     *
+     * @param aCapacity Most messages to hold
+     */
+    ConflatingInbox(int aCapacity) {
+        if (aCapacity < 1) {
+            throw new IllegalArgumentException("Inbox capacity must be at least one.");
+        }
+        capacity = aCapacity;
+        pending = new LinkedHashMap<>(Math.min(aCapacity, 1024) * 2);
+    }
+
+    /**
+     * Put a message in the inbox.
+     *
+     * @param key Key of the message, or null if it must not replace or be replaced by another
+     * @param delivery Hands the message to its handler
+     * @return {@link #ADDED}, {@link #CONFLATED} if it replaced a waiting message or {@link #EVICTED} if the oldest
+     * message was evicted to make room for it
+     */
+    synchronized int offer(Object key, Runnable delivery) {
+        // A delivery is only ever equal to itself, so it stands in for a missing key.
+        final Object slot = key != null ? key : delivery;
+        if (pending.replace(slot, delivery) != null) {
+            return CONFLATED;
+        }
+
+        int outcome = ADDED;
+        if (pending.size() >= capacity) {
+            final Iterator<Runnable> oldest = pending.values().iterator();
+            oldest.next();
+            oldest.remove();
+            outcome = EVICTED;
+        }
+        pending.put(slot, delivery);
+        notifyAll();
+        return outcome;
+    }
+
+    /**
+     * Take the message that has waited longest, waiting for one if the inbox is empty.
+     *
+     * @param timeoutMillis Most time to wait
+     * @return The delivery of the message, or null if none arrived in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    synchronized Runnable poll(long timeoutMillis) throws InterruptedException {
+        if (pending.isEmpty()) {
+            wait(timeoutMillis);
+        }
+        return pollNow();
+    }
+
+    /**
+     * Take the message that has waited longest, without waiting if the inbox is empty.
+     *
+     * @return The delivery of the message, or null if the inbox is empty
+     */
+    synchronized Runnable pollNow() {
+        final Iterator<Map.Entry<Object, Runnable>> oldest = pending.entrySet().iterator();
+        if (!oldest.hasNext()) {
+            return null;
+        }
+        final Runnable delivery = oldest.next().getValue();
+        oldest.remove();
+        return delivery;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,17 @@
+package com.gabler.udpmanager.client;
+
+/**
+ * Handler for received messages of one registered type.
+ *
+ * @param <T> Type of message
+ * @author Andy Gabler
+ */
+public interface IClientMessageHandler<T> {
+
+    /**
+     * Handle a message.
+     *
+     * @param message The decoded message
+     */
+    void handle(T message);
+}
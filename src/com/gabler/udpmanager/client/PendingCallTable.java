@@ -0,0 +1,193 @@
+package com.gabler.udpmanager.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Calls of a client that are waiting on a reply from the server.
+ *
+ * The correlation id of a call is its slot in the table plus a generation in the high bits, so finding the call a
+ * reply belongs to is an array index and a compare, and a late reply to a recycled slot is recognized as stale.
+ * Timeouts are kept in a hashed timing wheel threaded through the same slots, so registering, completing and expiring
+ * a call are all constant time and nothing is allocated per call besides its future.
+ *
+ * @author Andy Gabler
+ */
+public class PendingCallTable {
+
+    public static final long TICK_MILLIS = 10;
+
+    private static final int WHEEL_SIZE = 512;
+    private static final int NONE = -1;
+
+    private final int indexBits;
+    private final int indexMask;
+
+    private final int[] ids;
+    private final CompletableFuture<byte[]>[] futures;
+    private final long[] deadlineTicks;
+    private final int[] next;
+    private final int[] previous;
+    private final int[] wheel;
+
+    private final int[] freeSlots;
+    private int freeCount;
+    private int generation = 0;
+
+    private final long startNanos;
+    private long currentTick = 0;
+
+    /**
+     * Initialize a table.
+     *
+     * @param maxInFlight Amount of calls that may wait at once, rounded up to a power of two
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PendingCallTable(int maxInFlight) {
+        final int capacity = Integer.highestOneBit(Math.max(1, maxInFlight - 1)) << 1;
+        indexBits = Integer.numberOfTrailingZeros(capacity);
+        indexMask = capacity - 1;
+
+        ids = new int[capacity];
+        futures = new CompletableFuture[capacity];
+        deadlineTicks = new long[capacity];
+        next = new int[capacity];
+        previous = new int[capacity];
+        wheel = new int[WHEEL_SIZE];
+        Arrays.fill(wheel, NONE);
+
+        freeSlots = new int[capacity];
+        for (int slot = 0; slot < capacity; slot++) {
+            freeSlots[slot] = capacity - 1 - slot;
+        }
+        freeCount = capacity;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Register a call.
+     *
+     * @param future Future to complete with the reply
+     * @param timeoutMillis How long to wait for the reply
+     * @return Correlation id of the call
+     * @throws RejectedExecutionException If the table is full
+     */
+    public synchronized int register(CompletableFuture<byte[]> future, long timeoutMillis) {
+        if (freeCount == 0) {
+            throw new RejectedExecutionException("Too many calls in flight.");
+        }
+
+        final long nowTick = clockTick();
+        if (freeCount == ids.length) {
+            // Nothing is waiting, so there is nothing for the wheel to catch up on.
+            currentTick = Math.max(currentTick, nowTick);
+        }
+
+        final int slot = freeSlots[--freeCount];
+        generation = (generation + 1) & (0xFFFFFFFF >>> indexBits);
+        final int id = (generation << indexBits) | slot;
+
+        ids[slot] = id;
+        futures[slot] = future;
+        deadlineTicks[slot] = Math.max(currentTick, nowTick) + Math.max(1, (timeoutMillis + TICK_MILLIS - 1) / TICK_MILLIS);
+
+        final int bucket = (int) (deadlineTicks[slot] & (WHEEL_SIZE - 1));
+        previous[slot] = NONE;
+        next[slot] = wheel[bucket];
+        if (wheel[bucket] != NONE) {
+            previous[wheel[bucket]] = slot;
+        }
+        wheel[bucket] = slot;
+        return id;
+    }
+
+    /**
+     * Take the call a reply belongs to out of the table.
+     *
+     * @param id Correlation id carried by the reply
+     * @return Future of the call, or null if it already completed, timed out or never existed
+     */
+    public synchronized CompletableFuture<byte[]> remove(int id) {
+        final int slot = id & indexMask;
+        if (futures[slot] == null || ids[slot] != id) {
+            return null;
+        }
+        return release(slot);
+    }
+
+    /**
+     * Expire every call whose deadline has passed.
+     *
+     * @return Futures of the expired calls, to be failed outside of the table lock
+     */
+    public ArrayList<CompletableFuture<byte[]>> expire() {
+        ArrayList<CompletableFuture<byte[]>> expired = null;
+
+        synchronized (this) {
+            final long targetTick = clockTick();
+            if (freeCount == ids.length) {
+                currentTick = Math.max(currentTick, targetTick);
+            }
+            while (currentTick < targetTick) {
+                currentTick++;
+                int slot = wheel[(int) (currentTick & (WHEEL_SIZE - 1))];
+                while (slot != NONE) {
+                    final int following = next[slot];
+                    // Calls further out than one turn of the wheel share the bucket and stay for a later turn.
+                    if (deadlineTicks[slot] <= currentTick) {
+                        if (expired == null) {
+                            expired = new ArrayList<>();
+                        }
+                        expired.add(release(slot));
+                    }
+                    slot = following;
+                }
+            }
+        }
+
+        return expired;
+    }
+
+    /**
+     * Check if any call is waiting.
+     *
+     * @return True if at least one call is waiting
+     */
+    public synchronized boolean isEmpty() {
+        return freeCount == ids.length;
+    }
+
+    /**
+     * Take a slot out of its wheel bucket and return it to the free list.
+     *
+     * @param slot The slot
+     * @return Future that was in the slot
+     */
+    private CompletableFuture<byte[]> release(int slot) {
+        final int bucket = (int) (deadlineTicks[slot] & (WHEEL_SIZE - 1));
+        if (previous[slot] != NONE) {
+            next[previous[slot]] = next[slot];
+        } else {
+            wheel[bucket] = next[slot];
+        }
+        if (next[slot] != NONE) {
+            previous[next[slot]] = previous[slot];
+        }
+
+        final CompletableFuture<byte[]> future = futures[slot];
+        futures[slot] = null;
+        freeSlots[freeCount++] = slot;
+        return future;
+    }
+
+    /**
+     * Get the tick the clock is at.
+     *
+     * @return The tick
+     */
+    private long clockTick() {
+        return (System.nanoTime() - startNanos) / (TICK_MILLIS * 1_000_000L);
+    }
+}
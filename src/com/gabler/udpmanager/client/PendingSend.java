@@ -0,0 +1,61 @@
+package com.gabler.udpmanager.client;
+
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.model.UdpRequest;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A message waiting in the send queue of a client.
+ *
+ * @author Andy Gabler
+ */
+class PendingSend {
+
+    private final String stringPayload;
+    private final byte[] bytePayload;
+    private final int messageType;
+    private final int packetKind;
+    private final int correlationId;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    PendingSend(String aStringPayload, byte[] aBytePayload) {
+        this(aStringPayload, aBytePayload, PacketHeader.KIND_DATA, 0);
+    }
+
+    PendingSend(String aStringPayload, byte[] aBytePayload, int aPacketKind, int aCorrelationId) {
+        this(aStringPayload, aBytePayload, UdpRequest.NO_MESSAGE_TYPE, aPacketKind, aCorrelationId);
+    }
+
+    PendingSend(String aStringPayload, byte[] aBytePayload, int aMessageType, int aPacketKind, int aCorrelationId) {
+        stringPayload = aStringPayload;
+        bytePayload = aBytePayload;
+        messageType = aMessageType;
+        packetKind = aPacketKind;
+        correlationId = aCorrelationId;
+    }
+
+    String getStringPayload() {
+        return stringPayload;
+    }
+
+    byte[] getBytePayload() {
+        return bytePayload;
+    }
+
+    int getMessageType() {
+        return messageType;
+    }
+
+    int getPacketKind() {
+        return packetKind;
+    }
+
+    int getCorrelationId() {
+        return correlationId;
+    }
+
+    CompletableFuture<Void> getFuture() {
+        return future;
+    }
+}
@@ -0,0 +1,24 @@
+package com.gabler.udpmanager.client;
+
+/**
+ * What an asynchronous send does when the send queue of a client is full.
+ *
+ * @author Andy Gabler
+ */
+public enum SendBackpressurePolicy {
+
+    /**
+     * The caller waits until there is room in the queue.
+     */
+    BLOCK,
+
+    /**
+     * The new message is not queued and its future fails straight away.
+     */
+    FAIL,
+
+    /**
+     * The oldest queued message is discarded, and its future failed, to make room for the new one.
+     */
+    DROP_OLDEST
+}
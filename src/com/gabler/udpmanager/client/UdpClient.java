@@ -1,21 +1,58 @@
 package com.gabler.udpmanager.client;
 
+import com.gabler.udpmanager.ChannelDatagramTransport;
+import com.gabler.udpmanager.ClockOffsetEstimator;
+import com.gabler.udpmanager.DiagnosticCategory;
+import com.gabler.udpmanager.Diagnostics;
+import com.gabler.udpmanager.HandshakePacketWriter;
+import com.gabler.udpmanager.HeartbeatPacketWriter;
+import com.gabler.udpmanager.IDatagramReceiver;
+import com.gabler.udpmanager.IDatagramTransport;
+import com.gabler.udpmanager.IMessageCodec;
+import com.gabler.udpmanager.LatencyClock;
 import com.gabler.udpmanager.LifeCycleState;
+import com.gabler.udpmanager.MessageType;
+import com.gabler.udpmanager.MessageTypeTable;
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.PacketHeaderValidator;
 import com.gabler.udpmanager.ResourceLock;
+import com.gabler.udpmanager.RttEstimator;
+import com.gabler.udpmanager.SocketDatagramTransport;
+import com.gabler.udpmanager.StaleSequenceFilter;
+import com.gabler.udpmanager.UdpRequestToBytesTransformer;
+import com.gabler.udpmanager.UdpRuntime;
+import com.gabler.udpmanager.model.PacketHeader;
 import com.gabler.udpmanager.model.UdpRequest;
 import com.gabler.udpmanager.security.AesBytesToCiphertextTransformer;
 import com.gabler.udpmanager.security.AesCiphertextToBytesTransformer;
+import com.gabler.udpmanager.security.HeaderMac;
+import com.gabler.udpmanager.security.SessionTicket;
+import com.gabler.udpmanager.security.X25519Handshake;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * Abstraction for the management of a UDP socket acting as a client.
@@ -29,13 +66,51 @@ public class UdpClient {
 
     private final InetAddress address;
     private final int portNumber;
-    private final DatagramSocket socket;
+    private DatagramSocket socket;
+    private IDatagramTransport transport;
     private final ResourceLock<ClientKey> clientKey;
+    private final UdpClientMetrics metrics;
+    private final RttEstimator rtt;
+    private final ClockOffsetEstimator clockOffset = new ClockOffsetEstimator();
+    private final AtomicInteger nextSequence = new AtomicInteger(StaleSequenceFilter.initialSequence());
+    private final StaleSequenceFilter staleFilter = new StaleSequenceFilter();
+
+    private PacketHeaderValidator headerValidator = new PacketHeaderValidator(null);
+    private Function<UdpRequest, byte[]> udpRequestToBytesTransformer = new UdpRequestToBytesTransformer();
 
     private IUdpClientConfiguration configuration;
     private volatile LifeCycleState lifecycleState;
 
     private volatile UdpClientListeningThread listeningThread = null;
+    private UdpRuntime runtime = null;
+    private ChannelDatagramTransport runtimeTransport = null;
+    private UdpRuntime.Registration runtimeRegistration = null;
+    private volatile UdpClientRuntimeTasks runtimeTasks = null;
+    private volatile UdpClientSendingThread sendingThread = null;
+
+    private ArrayBlockingQueue<PendingSend> sendQueue = new ArrayBlockingQueue<>(1024);
+    private volatile boolean sendQueueClosed = false;
+    private SendBackpressurePolicy backpressurePolicy = SendBackpressurePolicy.BLOCK;
+    private PendingCallTable pendingCalls = new PendingCallTable(4096);
+    private HeartbeatPacketWriter heartbeatPacketWriter = new HeartbeatPacketWriter(null);
+    private HandshakePacketWriter handshakePacketWriter = new HandshakePacketWriter(null);
+    private X25519Handshake pendingHandshake = null;
+    private CompletableFuture<SessionTicket> pendingHandshakeResult = null;
+    private volatile SessionTicket sessionTicket = null;
+    private long heartbeatIntervalNanos = 1_000_000_000L;
+    private boolean latencyTimestamps = false;
+    private Diagnostics diagnostics = new Diagnostics("UdpClient", 3);
+    private long diagnosticsIntervalNanos = 10_000_000_000L;
+    private long nextDiagnosticsSummary = 0;
+    private final MessageTypeTable<IClientMessageHandler<?>> messageTypes = new MessageTypeTable<>();
+    private InetSocketAddress multicastGroup = null;
+    private NetworkInterface multicastInterface = null;
+    private byte[] multicastKey = null;
+    private MulticastSocket multicastSocket = null;
+    private volatile UdpClientListeningThread multicastThread = null;
+    private ConflatingInbox inbox = null;
+    private Function<Object, Object> conflationKey = null;
+    private volatile UdpClientInboxThread inboxThread = null;
 
     /**
      * Initialize an abstraction for the management of a UDP socket acting as a client.
@@ -74,7 +149,11 @@ public class UdpClient {
         address = InetAddress.getByName(host);
         portNumber = aPortNumber;
         socket = new DatagramSocket();
+        transport = new SocketDatagramTransport(socket);
         clientKey = new ResourceLock<>(new ClientKey());
+        metrics = new UdpClientMetrics();
+        rtt = new RttEstimator();
+        metrics.setSendQueueDepthGauge(() -> sendQueue.size());
         aesBytesToCiphertextTransformer = anAesBytesToCiphertextTransformer;
         aesCipherTextToBytesTransformer = anAesCiphertextToBytesTransformer;
     }
@@ -94,6 +173,254 @@ public class UdpClient {
         });
     }
 
+    /**
+     * Agree on a session key with the server with an X25519 handshake, which takes one round trip. Once it completes,
+     * payloads are encrypted with the session key instead of a key set with {@link #setClientKey(String, byte[])}.
+     * The server must have session tickets enabled. A lost hello or reply is not resent; the future then times out
+     * and the handshake can be started again.
+     *
+     * @param timeoutMillis How long to wait for the reply of the server
+     * @return Future of the ticket of the session, which can be kept to resume the session with
+     *         {@link #resumeSession(SessionTicket)} without another handshake
+     */
+    public synchronized CompletableFuture<SessionTicket> handshake(long timeoutMillis) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        pendingHandshake = new X25519Handshake();
+        pendingHandshakeResult = new CompletableFuture<>();
+        final CompletableFuture<SessionTicket> result = pendingHandshakeResult;
+        try {
+            sendDatagram(handshakePacketWriter.writeHello(pendingHandshake.getPublicKey()));
+        } catch (IOException exception) {
+            result.completeExceptionally(exception);
+        }
+        return result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resume a session from an earlier handshake, with no round trip at all. The first message already goes out
+     * encrypted with the session key. If the server no longer accepts the ticket, because it expired or the ticket key
+     * of the server changed, the server drops the messages and a new handshake is needed.
+     *
+     * A server only catches a replay of these first messages if it saw the ticket before, not after it restarted or
+     * on another node of its cluster, so they should be safe for the server to handle twice.
+     *
+     * @param ticket Ticket of the session
+     */
+    public void resumeSession(SessionTicket ticket) {
+        setClientKey(ticket.getTicket(), ticket.getSessionKey());
+        sessionTicket = ticket;
+    }
+
+    /**
+     * Get the ticket of the current session.
+     *
+     * @return The ticket, or null if no handshake completed and no session was resumed
+     */
+    public SessionTicket getSessionTicket() {
+        return sessionTicket;
+    }
+
+    /**
+     * Register a message type. Messages of the type travel as bytes with the type id in their header, and received
+     * ones are decoded on the listening thread and handed straight to the handler, bypassing
+     * {@link IUdpClientConfiguration#handleBytesMessage(byte[])}. The server must register the same id with a
+     * compatible codec.
+     *
+     * @param id Id of the type, from 0 up to {@link MessageTypeTable#MAX_TYPES}
+     * @param codec Codec of the type
+     * @param handler Handler for messages of the type from the server, or null if the type is only sent
+     * @param <T> Type of message
+     * @return The type, to send messages of it with
+     */
+    public <T> MessageType<T> registerMessageType(int id, IMessageCodec<T> codec, IClientMessageHandler<T> handler) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        return messageTypes.register(id, codec, handler);
+    }
+
+    /**
+     * Receive on the threads of a shared {@link UdpRuntime} instead of a listening thread of its own, so many servers
+     * and clients in one JVM can share a fixed set of threads. Replaces the socket of the client with a channel the
+     * runtime selects on.
+     *
+     * Sends, heartbeats, timing out calls and a conflating inbox are then handled on a worker and the scheduler of the
+     * runtime too, instead of a sending thread and inbox thread of the client. A handler sending with
+     * {@link SendBackpressurePolicy#BLOCK} can then wait on a full send queue that only its own worker drains, so
+     * handlers should send with another policy. A multicast group is still received on a thread of its own.
+     *
+     * @param aRuntime The runtime
+     * @throws IOException If no channel can be opened
+     */
+    public void setRuntime(UdpRuntime aRuntime) throws IOException {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        transport.close();
+        socket = null;
+        runtimeTransport = aRuntime.openTransport(null, new InetSocketAddress(address, portNumber));
+        transport = runtimeTransport;
+        runtime = aRuntime;
+    }
+
+    /**
+     * Hand messages from the server to their handlers through a conflating inbox run by its own thread, or by a worker
+     * of the runtime of the client, instead of handling them on the listening thread. If a message arrives while an
+     * older one with the same key is still waiting, the older one is replaced, so a handler that falls behind skips
+     * stale state instead of working through it, and at most a fixed amount of messages wait.
+     *
+     * Replies to calls do not go through the inbox.
+     *
+     * @param capacity Most messages to hold, the oldest is evicted to make room beyond that
+     * @param keyOf Function from a decoded message, which is a byte array or String for plain messages, to its key, or
+     * to null if the message must not be conflated
+     */
+    public void setConflatingInbox(int capacity, Function<Object, Object> keyOf) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        inbox = new ConflatingInbox(capacity);
+        conflationKey = keyOf;
+        metrics.setInboxDepthGauge(inbox::size);
+    }
+
+    /**
+     * Receive the broadcasts of a server that publishes them to a multicast group with
+     * {@link com.gabler.udpmanager.server.UdpServer#setMulticastBroadcast}. The group is joined when the client starts
+     * and left when it terminates. Any number of clients on a host can join the same group and port.
+     *
+     * @param group The multicast group
+     * @param port Port the server publishes the group on
+     * @param networkInterface Interface to join the group on, or null for the system default
+     * @param key The group key the server encrypts broadcasts with, or null if it publishes them unencrypted
+     */
+    public void joinMulticastGroup(InetAddress group, int port, NetworkInterface networkInterface, byte[] key) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        if (!group.isMulticastAddress()) {
+            throw new IllegalArgumentException(group + " is not a multicast address.");
+        }
+        multicastGroup = new InetSocketAddress(group, port);
+        multicastInterface = networkInterface;
+        multicastKey = key;
+    }
+
+    /**
+     * Wrap the transport the client sends and receives on, for instance in an
+     * {@link com.gabler.udpmanager.ImpairedDatagramTransport} to test over a simulated bad link.
+     *
+     * @param decorator Function from the current transport to the one to use instead
+     */
+    public void decorateTransport(UnaryOperator<IDatagramTransport> decorator) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        transport = decorator.apply(transport);
+    }
+
+    /**
+     * Set how errors on the client threads are reported. Errors are counted per category, and a summary of the counts
+     * is logged each interval together with the first few stack traces of each category, so a flood of bad datagrams
+     * cannot flood the log.
+     *
+     * @param summaryIntervalMillis Time between summaries
+     * @param samplesPerInterval Amount of stack traces logged per category in each summary
+     */
+    public void setDiagnostics(long summaryIntervalMillis, int samplesPerInterval) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        diagnostics = new Diagnostics("UdpClient", samplesPerInterval);
+        diagnosticsIntervalNanos = summaryIntervalMillis * 1_000_000L;
+    }
+
+    /**
+     * Get the error counters of the client.
+     *
+     * @return The diagnostics
+     */
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Sign every outgoing header with a truncated MAC computed with a key shared with the server, and require it on
+     * every incoming datagram.
+     *
+     * @param key The shared header key
+     */
+    public void setHeaderMacKey(byte[] key) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        final HeaderMac headerMac = new HeaderMac(key);
+        headerValidator = new PacketHeaderValidator(headerMac);
+        udpRequestToBytesTransformer = new UdpRequestToBytesTransformer(headerMac);
+        heartbeatPacketWriter = new HeartbeatPacketWriter(headerMac);
+        handshakePacketWriter = new HandshakePacketWriter(headerMac);
+    }
+
+    /**
+     * Set how often the server is pinged to measure round trip time and loss. Pings ride along on outgoing messages
+     * when there are any, and go out as bare headers while the client is otherwise idle.
+     *
+     * @param intervalMillis Time between pings, or zero to stop pinging
+     */
+    public void setHeartbeatInterval(long intervalMillis) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        heartbeatIntervalNanos = intervalMillis * 1_000_000L;
+    }
+
+    /**
+     * Get the round trip time, loss and liveness of the server, as measured by heartbeats.
+     *
+     * @return The estimator
+     */
+    public RttEstimator getRtt() {
+        return rtt;
+    }
+
+    /**
+     * Get how far the clock of the server is ahead of the clock of the client, as measured by heartbeats.
+     *
+     * @return The estimator
+     */
+    public ClockOffsetEstimator getClockOffset() {
+        return clockOffset;
+    }
+
+    /**
+     * Stamp every datagram to the server with the time it was sent, so the server can measure the one-way latency of
+     * delivery. Costs eight bytes of header per datagram. Timestamped datagrams from the server are measured into the
+     * metrics whether or not this is set.
+     *
+     * @param enabled Whether to stamp datagrams
+     */
+    public void setLatencyTimestamps(boolean enabled) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        latencyTimestamps = enabled;
+    }
+
+    /**
+     * Configure the queue behind the asynchronous send methods.
+     *
+     * @param capacity Amount of messages that may wait to be sent
+     * @param policy What to do when the queue is full
+     */
+    public void setSendQueue(int capacity, SendBackpressurePolicy policy) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        sendQueue = new ArrayBlockingQueue<>(capacity);
+        backpressurePolicy = policy;
+    }
+
+    /**
+     * Set how many calls may wait on a reply from the server at once.
+     *
+     * @param maxInFlight The amount of calls
+     */
+    public void setMaxCallsInFlight(int maxInFlight) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        pendingCalls = new PendingCallTable(maxInFlight);
+    }
+
+    /**
+     * Get the traffic counters of the client.
+     *
+     * @return The metrics
+     */
+    public UdpClientMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Set the client configuration being used.
      *
@@ -112,13 +439,44 @@ public class UdpClient {
         checkLifeCycleMatureEnough(LifeCycleState.READY);
         checkLifeCycleTooMature(LifeCycleState.READY);
 
-        // Ensure we connect, creates a listening post-back address.
-        socket.connect(address, portNumber);
+        // Ensure we connect, creates a listening post-back address. A runtime channel is connected when opened.
+        if (socket != null) {
+            socket.connect(address, portNumber);
+        }
 
-        // Setup the listening thread
-        listeningThread = new UdpClientListeningThread(this, this.socket);
-        listeningThread.start();
-        listeningThread.startListen();
+        // Setup the listening thread, or only its receive path if the runtime does the receiving.
+        listeningThread = new UdpClientListeningThread(this, transport);
+        if (runtime != null) {
+            attachToRuntime();
+        } else {
+            listeningThread.start();
+            listeningThread.startListen();
+        }
+
+        if (multicastGroup != null) {
+            try {
+                // A multicast socket allows address reuse, so every client on the host can bind the group port.
+                multicastSocket = new MulticastSocket(multicastGroup.getPort());
+                multicastSocket.joinGroup(multicastGroup, multicastInterface);
+            } catch (IOException exception) {
+                throw new IllegalStateException("Could not join multicast group " + multicastGroup + ".", exception);
+            }
+            multicastThread = new UdpClientListeningThread(this, new SocketDatagramTransport(multicastSocket), true);
+            multicastThread.start();
+            multicastThread.startListen();
+        }
+
+        if (runtime != null) {
+            runtimeTasks = new UdpClientRuntimeTasks(this, sendQueue, inbox, runtime);
+        } else {
+            sendingThread = new UdpClientSendingThread(this, sendQueue);
+            sendingThread.start();
+
+            if (inbox != null) {
+                inboxThread = new UdpClientInboxThread(this, inbox);
+                inboxThread.start();
+            }
+        }
 
         this.lifecycleState = LifeCycleState.STARTED;
         configuration.startAction();
@@ -132,6 +490,12 @@ public class UdpClient {
         checkLifeCycleTooMature(LifeCycleState.STARTED);
 
         listeningThread.stopListen();
+        if (runtimeRegistration != null) {
+            runtimeRegistration.suspend();
+        }
+        if (multicastThread != null) {
+            multicastThread.stopListen();
+        }
         configuration.pauseAction();
     }
 
@@ -143,6 +507,12 @@ public class UdpClient {
         checkLifeCycleTooMature(LifeCycleState.STARTED);
 
         listeningThread.startListen();
+        if (runtimeRegistration != null) {
+            runtimeRegistration.resume();
+        }
+        if (multicastThread != null) {
+            multicastThread.startListen();
+        }
         configuration.resumeAction();
     }
 
@@ -155,12 +525,164 @@ public class UdpClient {
 
         pause();
         listeningThread.killListener();
-        socket.close();
+        if (runtimeRegistration != null) {
+            runtimeRegistration.cancel();
+        }
+        // Closed before the queue is emptied, so a send racing with this either is emptied out or sees it is closed.
+        sendQueueClosed = true;
+        if (runtimeTasks != null) {
+            runtimeTasks.kill();
+        } else {
+            sendingThread.killSender();
+        }
+        failQueuedSends();
+        if (inboxThread != null) {
+            inboxThread.killInbox();
+        }
+        transport.close();
+        if (multicastThread != null) {
+            multicastThread.killListener();
+            try {
+                multicastSocket.leaveGroup(multicastGroup, multicastInterface);
+            } catch (IOException exception) {
+                // Closing the socket leaves the group anyway.
+            }
+            multicastSocket.close();
+        }
         configuration.terminationAction();
 
         lifecycleState = LifeCycleState.DEAD;
     }
 
+    /**
+     * Have the runtime hand the datagrams from the server to the receive path of the listening thread, on a worker of
+     * the runtime.
+     */
+    private void attachToRuntime() {
+        final UdpClientListeningThread receivePath = listeningThread;
+        runtimeRegistration = runtime.register(runtimeTransport, new IDatagramReceiver() {
+            @Override
+            public void receive(DatagramPacket packet) {
+                receivePath.handleReceived(packet.getData(), packet.getLength());
+            }
+
+            @Override
+            public void reject(DatagramPacket packet) {
+                metrics.recordDropped(PacketDropReason.DISPATCH_QUEUE_FULL);
+            }
+
+            @Override
+            public void receiveFailed(IOException exception) {
+                diagnostics.report(DiagnosticCategory.RECEIVE_FAILED, exception);
+            }
+        });
+    }
+
+    /**
+     * Decide whether a freshly received datagram may be processed. Called by the listener thread before the datagram
+     * is decoded in any way.
+     *
+     * @param buffer The receive buffer
+     * @param length Length of the datagram
+     * @return True if the datagram should be processed
+     */
+    boolean admitDatagram(byte[] buffer, int length) {
+        metrics.recordReceived();
+
+        final PacketDropReason headerProblem = headerValidator.validate(buffer, length);
+        if (headerProblem != null) {
+            metrics.recordDropped(headerProblem);
+            return false;
+        }
+
+        rtt.recordHeard(System.nanoTime());
+        return true;
+    }
+
+    /**
+     * Handle a standalone ping or pong from the server.
+     *
+     * @param buffer The receive buffer holding the validated heartbeat
+     * @throws IOException If a pong cannot be sent
+     */
+    void handleHeartbeat(byte[] buffer) throws IOException {
+        if (PacketHeader.kind(buffer) == PacketHeader.KIND_PING) {
+            sendDatagram(heartbeatPacketWriter.write(PacketHeader.KIND_PONG, HeartbeatPacketWriter.token(buffer)));
+        } else {
+            final long now = System.nanoTime();
+            final long token = HeartbeatPacketWriter.token(buffer);
+            if (!rtt.recordPong(token, now)) {
+                return;
+            }
+            metrics.recordRoundTrip((now - token) / 1000);
+            final long serverMicros = HeartbeatPacketWriter.timestamp(buffer);
+            if (serverMicros != 0) {
+                clockOffset.recordSample(LatencyClock.toMicros(token), serverMicros, LatencyClock.toMicros(now));
+            }
+        }
+    }
+
+    /**
+     * Finish the pending handshake with the reply of the server.
+     *
+     * @param buffer The receive buffer holding the validated reply
+     * @throws GeneralSecurityException If the public key of the server is not a valid X25519 key
+     */
+    synchronized void handleHandshake(byte[] buffer) throws GeneralSecurityException {
+        if (
+            pendingHandshake == null
+            || PacketHeader.kind(buffer) != PacketHeader.KIND_HELLO_REPLY
+            || !HandshakePacketWriter.isWellFormedHelloReply(buffer)
+        ) {
+            metrics.recordDropped(PacketDropReason.HANDSHAKE_FAILED);
+            return;
+        }
+
+        final ByteBuffer reply = ByteBuffer.wrap(HandshakePacketWriter.payload(buffer));
+        final byte[] serverPublicKey = new byte[reply.getShort() & 0xFFFF];
+        reply.get(serverPublicKey);
+        final long expiresAt = reply.getLong();
+        final String ticket = new String(reply.array(), reply.position(), reply.remaining(), StandardCharsets.UTF_8);
+
+        final SessionTicket session = new SessionTicket(ticket, pendingHandshake.deriveSessionKey(serverPublicKey, true), expiresAt);
+        pendingHandshake = null;
+        resumeSession(session);
+        pendingHandshakeResult.complete(session);
+    }
+
+    /**
+     * Ping the server if no ping has ridden along on a message for a heartbeat interval. Called by the sending thread,
+     * or a worker of the runtime.
+     */
+    void heartbeat() {
+        if (heartbeatIntervalNanos <= 0) {
+            return;
+        }
+
+        final long token = rtt.startPingIfDue(System.nanoTime(), heartbeatIntervalNanos);
+        if (token != 0) {
+            try {
+                sendDatagram(heartbeatPacketWriter.write(PacketHeader.KIND_PING, token));
+            } catch (IOException exception) {
+                // The next heartbeat will try again, and the miss counts towards the loss estimate.
+            }
+        }
+    }
+
+    /**
+     * Log a summary of the errors since the last one, if an interval has passed. Called by the sending thread, or a
+     * worker of the runtime.
+     */
+    void summarizeDiagnostics() {
+        final long now = System.nanoTime();
+        if (nextDiagnosticsSummary == 0) {
+            nextDiagnosticsSummary = now + diagnosticsIntervalNanos;
+        } else if (now - nextDiagnosticsSummary >= 0) {
+            nextDiagnosticsSummary = now + diagnosticsIntervalNanos;
+            diagnostics.summarize();
+        }
+    }
+
     /**
      * Handle a message from the server.
      *
@@ -170,23 +692,200 @@ public class UdpClient {
         checkLifeCycleMatureEnough(LifeCycleState.STARTED);
         checkLifeCycleTooMature(LifeCycleState.STARTED);
 
-        if (request.getPayloadType() == UdpRequest.PAYLOAD_TYPE_BYTES) {
-            final byte[] key = clientKey.performRunInLock(ClientKey::getKeyBytes);
-            if (key != null) {
-                final byte[] plainText = aesCipherTextToBytesTransformer.apply(request.getBytePayload(), key);
-                configuration.handleBytesMessage(plainText);
-            } else {
-                configuration.handleBytesMessage(request.getBytePayload());
+        recordDeliveryLatency(request);
+        if (request.getPingToken() != 0) {
+            try {
+                sendDatagram(heartbeatPacketWriter.write(PacketHeader.KIND_PONG, request.getPingToken()));
+            } catch (IOException exception) {
+                // A lost pong only costs one round trip sample, the message that carried the ping is still handled.
+                diagnostics.report(DiagnosticCategory.HEARTBEAT_FAILED, exception);
             }
+        }
+
+        if (request.getPacketKind() == PacketHeader.KIND_REPLY) {
+            final CompletableFuture<byte[]> call = pendingCalls.remove(request.getCorrelationId());
+            if (call != null) {
+                call.complete(plainTextBytes(request, clientKey.performRunInLock(ClientKey::getKeyBytes)));
+            }
+            return;
+        }
+
+        if (request.isSequenced() && !staleFilter.accept((int) request.getSequence())) {
+            // A newer one was delivered already, this one would only roll the state back.
+            metrics.recordDropped(PacketDropReason.STALE);
+            return;
+        }
+
+        deliver(request, clientKey.performRunInLock(ClientKey::getKeyBytes));
+    }
+
+    /**
+     * Handle a broadcast the server published to the multicast group.
+     *
+     * @param request The UDP request which contains a payload
+     */
+    void handleMulticastFromServer(UdpRequest request) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        recordDeliveryLatency(request);
+        deliver(request, multicastKey);
+    }
+
+    /**
+     * Measure how long a timestamped message from the server took to arrive. Skipped until a heartbeat measured the
+     * clock offset of the server, since the latency would be off by the whole offset.
+     *
+     * @param request The UDP request
+     */
+    private void recordDeliveryLatency(UdpRequest request) {
+        if (request.getSendTimestamp() != 0 && clockOffset.hasEstimate()) {
+            final long sent = clockOffset.toLocalMicros(request.getSendTimestamp());
+            metrics.recordDeliveryLatency(request.getPayloadType(), LatencyClock.nowMicros() - sent);
+        }
+    }
+
+    /**
+     * Decrypt a message from the server and hand it to its handler, or to the inbox if there is one.
+     *
+     * @param request The UDP request which contains a payload
+     * @param key Key the payload is encrypted with, or null if it is in the clear
+     */
+    private void deliver(UdpRequest request, byte[] key) {
+        final int messageType = request.getMessageType();
+        final int payloadType = request.getPayloadType();
+        final Object message;
+        if (messageType != UdpRequest.NO_MESSAGE_TYPE) {
+            if (messageTypes.handler(messageType) == null) {
+                metrics.recordDropped(PacketDropReason.UNKNOWN_MESSAGE_TYPE);
+                return;
+            }
+            message = messageTypes.type(messageType).getCodec().decode(plainTextBytes(request, key));
+        } else if (payloadType == UdpRequest.PAYLOAD_TYPE_BYTES || key != null) {
+            final byte[] plainText = plainTextBytes(request, key);
+            message = payloadType == UdpRequest.PAYLOAD_TYPE_BYTES ? plainText : new String(plainText);
         } else {
-            final byte[] key = clientKey.performRunInLock(ClientKey::getKeyBytes);
-            if (key != null) {
-                final byte[] cipherText = Base64.getDecoder().decode(request.getStringPayload());
-                final byte[] plainTextBytes = aesCipherTextToBytesTransformer.apply(cipherText, key);
-                final String plainText = new String(plainTextBytes);
-                configuration.handleStringMessage(plainText);
-            } else {
-                configuration.handleStringMessage(request.getStringPayload());
+            message = request.getStringPayload();
+        }
+
+        if (inbox == null) {
+            dispatch(messageType, payloadType, message);
+            return;
+        }
+
+        final int outcome = inbox.offer(conflationKey.apply(message), () -> dispatch(messageType, payloadType, message));
+        if (outcome == ConflatingInbox.CONFLATED) {
+            metrics.recordConflated();
+        } else if (outcome == ConflatingInbox.EVICTED) {
+            metrics.recordInboxEviction();
+        }
+        if (runtimeTasks != null) {
+            runtimeTasks.wakeUp();
+        }
+    }
+
+    /**
+     * Hand a decrypted message to its handler.
+     *
+     * @param messageType Registered message type of the message, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @param payloadType The type of payload
+     * @param message The decoded message, a byte array or String for plain messages
+     */
+    @SuppressWarnings("unchecked")
+    private void dispatch(int messageType, int payloadType, Object message) {
+        if (messageType != UdpRequest.NO_MESSAGE_TYPE) {
+            ((IClientMessageHandler<Object>) messageTypes.handler(messageType)).handle(message);
+        } else if (payloadType == UdpRequest.PAYLOAD_TYPE_BYTES) {
+            configuration.handleBytesMessage((byte[]) message);
+        } else {
+            configuration.handleStringMessage((String) message);
+        }
+    }
+
+    /**
+     * Get the decrypted payload of a request from the server as bytes, whichever way it was sent.
+     *
+     * @param request The request
+     * @param key Key the payload is encrypted with, or null if it is in the clear
+     * @return The plain text bytes
+     */
+    private byte[] plainTextBytes(UdpRequest request, byte[] key) {
+        if (request.getPayloadType() == UdpRequest.PAYLOAD_TYPE_BYTES) {
+            return key != null ? aesCipherTextToBytesTransformer.apply(request.getBytePayload(), key) : request.getBytePayload();
+        }
+        if (key != null) {
+            return aesCipherTextToBytesTransformer.apply(Base64.getDecoder().decode(request.getStringPayload()), key);
+        }
+        return request.getStringPayload().getBytes();
+    }
+
+    /**
+     * Send a request to the server and wait for its reply without blocking. The server answers through
+     * {@link com.gabler.udpmanager.server.ServerClientCallback#reply(int, byte[])}.
+     *
+     * @param payload The request
+     * @param timeoutMillis How long to wait for the reply before the future fails with a {@link TimeoutException}
+     * @return Future of the reply
+     */
+    public CompletableFuture<byte[]> call(byte[] payload, long timeoutMillis) {
+        return startCall(null, payload, timeoutMillis);
+    }
+
+    /**
+     * Send a request to the server and wait for its reply without blocking. The server answers through
+     * {@link com.gabler.udpmanager.server.ServerClientCallback#reply(int, String)}.
+     *
+     * @param payload The request
+     * @param timeoutMillis How long to wait for the reply before the future fails with a {@link TimeoutException}
+     * @return Future of the reply
+     */
+    public CompletableFuture<String> call(String payload, long timeoutMillis) {
+        return startCall(payload, null, timeoutMillis).thenApply(String::new);
+    }
+
+    /**
+     * Register a call and queue its request.
+     *
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param timeoutMillis How long to wait for the reply
+     * @return Future of the reply
+     */
+    private CompletableFuture<byte[]> startCall(String stringPayload, byte[] bytePayload, long timeoutMillis) {
+        final CompletableFuture<byte[]> reply = new CompletableFuture<>();
+        final int correlationId;
+        try {
+            correlationId = pendingCalls.register(reply, timeoutMillis);
+        } catch (RejectedExecutionException exception) {
+            reply.completeExceptionally(exception);
+            return reply;
+        }
+
+        enqueueSend(new PendingSend(stringPayload, bytePayload, PacketHeader.KIND_CALL, correlationId)).whenComplete((ignored, failure) -> {
+            if (failure != null && pendingCalls.remove(correlationId) != null) {
+                reply.completeExceptionally(failure);
+            }
+        });
+        return reply;
+    }
+
+    /**
+     * Check if any call is waiting on a reply.
+     *
+     * @return True if a call is waiting
+     */
+    boolean hasPendingCalls() {
+        return !pendingCalls.isEmpty();
+    }
+
+    /**
+     * Fail the calls whose reply did not arrive in time. Called by the sending thread, or a worker of the runtime.
+     */
+    void expireCalls() {
+        final ArrayList<CompletableFuture<byte[]>> expired = pendingCalls.expire();
+        if (expired != null) {
+            for (CompletableFuture<byte[]> call : expired) {
+                call.completeExceptionally(new TimeoutException("No reply from server in time."));
             }
         }
     }
@@ -198,7 +897,7 @@ public class UdpClient {
      * @throws IOException If send fails
      */
     public void sendMessageToServer(String payload) throws IOException {
-        sendToServer(payload, null);
+        sendToServer(payload, null, UdpRequest.NO_MESSAGE_TYPE, PacketHeader.KIND_DATA, 0, false, false);
     }
 
     /**
@@ -208,7 +907,202 @@ public class UdpClient {
      * @throws IOException If send fails
      */
     public void sendMessageToServer(byte[] payload) throws IOException {
-        sendToServer(null, payload);
+        sendToServer(null, payload, UdpRequest.NO_MESSAGE_TYPE, PacketHeader.KIND_DATA, 0, false, false);
+    }
+
+    /**
+     * Send a message of a registered type to the server.
+     *
+     * @param type The type
+     * @param message The message to send
+     * @param <T> Type of message
+     * @throws IOException If send fails
+     */
+    public <T> void sendMessageToServer(MessageType<T> type, T message) throws IOException {
+        sendToServer(null, type.getCodec().encode(message), type.getId(), PacketHeader.KIND_DATA, 0, false, false);
+    }
+
+    /**
+     * Send a message to the server that is exempt from load shedding on the server.
+     *
+     * @param payload The message to send
+     * @throws IOException If send fails
+     */
+    public void sendPriorityMessageToServer(String payload) throws IOException {
+        sendToServer(payload, null, UdpRequest.NO_MESSAGE_TYPE, PacketHeader.KIND_DATA, 0, true, false);
+    }
+
+    /**
+     * Send a message to the server that is exempt from load shedding on the server.
+     *
+     * @param payload The message to send
+     * @throws IOException If send fails
+     */
+    public void sendPriorityMessageToServer(byte[] payload) throws IOException {
+        sendToServer(null, payload, UdpRequest.NO_MESSAGE_TYPE, PacketHeader.KIND_DATA, 0, true, false);
+    }
+
+    /**
+     * Send a message of a registered type to the server that is exempt from load shedding on the server.
+     *
+     * @param type The type
+     * @param message The message to send
+     * @param <T> Type of message
+     * @throws IOException If send fails
+     */
+    public <T> void sendPriorityMessageToServer(MessageType<T> type, T message) throws IOException {
+        sendToServer(null, type.getCodec().encode(message), type.getId(), PacketHeader.KIND_DATA, 0, true, false);
+    }
+
+    /**
+     * Send a message to the server unreliably but in sequence: the server drops it if it arrives after a newer
+     * sequenced message from this client was already delivered. Meant for state that every message replaces as a whole,
+     * like positions, where a late message is worse than a lost one.
+     *
+     * @param payload The message to send
+     * @throws IOException If send fails
+     */
+    public void sendSequencedMessageToServer(String payload) throws IOException {
+        sendToServer(payload, null, UdpRequest.NO_MESSAGE_TYPE, PacketHeader.KIND_DATA, 0, false, true);
+    }
+
+    /**
+     * Send a message to the server unreliably but in sequence: the server drops it if it arrives after a newer
+     * sequenced message from this client was already delivered.
+     *
+     * @param payload The message to send
+     * @throws IOException If send fails
+     */
+    public void sendSequencedMessageToServer(byte[] payload) throws IOException {
+        sendToServer(null, payload, UdpRequest.NO_MESSAGE_TYPE, PacketHeader.KIND_DATA, 0, false, true);
+    }
+
+    /**
+     * Send a message of a registered type to the server unreliably but in sequence: the server drops it if it arrives
+     * after a newer sequenced message from this client was already delivered.
+     *
+     * @param type The type
+     * @param message The message to send
+     * @param <T> Type of message
+     * @throws IOException If send fails
+     */
+    public <T> void sendSequencedMessageToServer(MessageType<T> type, T message) throws IOException {
+        sendToServer(null, type.getCodec().encode(message), type.getId(), PacketHeader.KIND_DATA, 0, false, true);
+    }
+
+    /**
+     * Queue a message to be sent to the server by the sending thread.
+     *
+     * @param payload The message to send
+     * @return Future completed once the message is handed to the socket, or failed if it could not be
+     */
+    public CompletableFuture<Void> sendAsync(String payload) {
+        return enqueueSend(new PendingSend(payload, null));
+    }
+
+    /**
+     * Queue a message to be sent to the server by the sending thread.
+     *
+     * @param payload The message to send
+     * @return Future completed once the message is handed to the socket, or failed if it could not be
+     */
+    public CompletableFuture<Void> sendAsync(byte[] payload) {
+        return enqueueSend(new PendingSend(null, payload));
+    }
+
+    /**
+     * Queue a message of a registered type to be sent to the server by the sending thread. The message is encoded
+     * right away, so it may be changed once this returns.
+     *
+     * @param type The type
+     * @param message The message to send
+     * @param <T> Type of message
+     * @return Future completed once the message is handed to the socket, or failed if it could not be
+     */
+    public <T> CompletableFuture<Void> sendAsync(MessageType<T> type, T message) {
+        return enqueueSend(new PendingSend(null, type.getCodec().encode(message), type.getId(), PacketHeader.KIND_DATA, 0));
+    }
+
+    /**
+     * Put a message on the send queue, applying the backpressure policy if it is full.
+     *
+     * @param send The message
+     * @return The future of the message
+     */
+    private CompletableFuture<Void> enqueueSend(PendingSend send) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        switch (backpressurePolicy) {
+            case BLOCK:
+                try {
+                    sendQueue.put(send);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    send.getFuture().completeExceptionally(exception);
+                }
+                break;
+            case FAIL:
+                if (!sendQueue.offer(send)) {
+                    metrics.recordRejectedSend();
+                    send.getFuture().completeExceptionally(new RejectedExecutionException("Send queue is full."));
+                }
+                break;
+            case DROP_OLDEST:
+                while (!sendQueue.offer(send)) {
+                    final PendingSend evicted = sendQueue.poll();
+                    if (evicted != null) {
+                        metrics.recordRejectedSend();
+                        evicted.getFuture().completeExceptionally(new RejectedExecutionException("Dropped for a newer message."));
+                    }
+                }
+                break;
+        }
+
+        // Terminated while this was waiting for room, the sending thread may be gone already.
+        if (sendQueueClosed && sendQueue.remove(send)) {
+            send.getFuture().completeExceptionally(new IllegalStateException("Client terminated before message was sent."));
+        }
+        if (runtimeTasks != null) {
+            runtimeTasks.wakeUp();
+        }
+        return send.getFuture();
+    }
+
+    /**
+     * Fail every message still waiting on the send queue.
+     */
+    void failQueuedSends() {
+        PendingSend leftover;
+        while ((leftover = sendQueue.poll()) != null) {
+            leftover.getFuture().completeExceptionally(new IllegalStateException("Client terminated before message was sent."));
+        }
+    }
+
+    /**
+     * Send messages taken off the send queue, and complete their futures. Called by the sending thread, or a worker of
+     * the runtime.
+     *
+     * @param sends The messages
+     */
+    void sendPending(List<PendingSend> sends) {
+        for (PendingSend send : sends) {
+            try {
+                sendDatagram(encodeForServer(
+                    send.getStringPayload(),
+                    send.getBytePayload(),
+                    send.getMessageType(),
+                    send.getPacketKind(),
+                    send.getCorrelationId(),
+                    false,
+                    false
+                ));
+            } catch (Exception exception) {
+                send.getFuture().completeExceptionally(exception);
+                continue;
+            }
+            send.getFuture().complete(null);
+        }
     }
 
     /**
@@ -216,27 +1110,72 @@ public class UdpClient {
      *
      * @param stringPayload Payload in a string format
      * @param bytePayload Payload in a bytes format
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @param packetKind Kind of packet, from {@link PacketHeader}
+     * @param correlationId Correlation id of a call, ignored for plain data
+     * @param priority Whether the message is exempt from load shedding
+     * @param sequenced Whether the server drops the message if a newer sequenced one was delivered already
      * @throws IOException If the send fails
      */
-    private void sendToServer(String stringPayload, byte[] bytePayload) throws IOException {
+    private void sendToServer(
+        String stringPayload,
+        byte[] bytePayload,
+        int messageType,
+        int packetKind,
+        int correlationId,
+        boolean priority,
+        boolean sequenced
+    ) throws IOException {
+        sendDatagram(encodeForServer(stringPayload, bytePayload, messageType, packetKind, correlationId, priority, sequenced));
+    }
+
+    /**
+     * Encrypt a payload for the server and turn it into a datagram.
+     *
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @param packetKind Kind of packet, from {@link PacketHeader}
+     * @param correlationId Correlation id of a call, ignored for plain data
+     * @param priority Whether the message is exempt from load shedding
+     * @param sequenced Whether the server drops the message if a newer sequenced one was delivered already
+     * @return The datagram
+     */
+    private byte[] encodeForServer(
+        String stringPayload,
+        byte[] bytePayload,
+        int messageType,
+        int packetKind,
+        int correlationId,
+        boolean priority,
+        boolean sequenced
+    ) {
         checkLifeCycleMatureEnough(LifeCycleState.STARTED);
         checkLifeCycleTooMature(LifeCycleState.STARTED);
 
         final UdpRequest request = new UdpRequest();
-        request.setKeyId(clientKey.waitForLock().getKeyId());
-        clientKey.releaseLock();
+        request.setMessageType(messageType);
+        request.setSequence(nextSequence.getAndIncrement() & 0xFFFFFFFFL);
+        request.setPacketKind(packetKind);
+        request.setCorrelationId(correlationId);
+        request.setPriority(priority);
+        request.setSequenced(sequenced);
+        if (latencyTimestamps) {
+            request.setSendTimestamp(LatencyClock.nowMicros());
+        }
+        if (heartbeatIntervalNanos > 0) {
+            request.setPingToken(rtt.startPingIfDue(System.nanoTime(), heartbeatIntervalNanos));
+        }
+        // One lock section for both, so a handshake finishing in between cannot pair one key's id with another's bytes.
+        final ClientKey key = clientKey.performRunInLock(UdpClient::snapshotKey);
+        request.setKeyId(key.getKeyId());
 
-        if (request.getKeyId() != null) {
+        if (key.getKeyId() != null) {
             if (bytePayload != null) {
-                final byte[] cipherText = aesBytesToCiphertextTransformer.apply(bytePayload, clientKey.waitForLock().getKeyBytes());
-                request.setBytePayload(cipherText);
-                clientKey.releaseLock();
+                request.setBytePayload(aesBytesToCiphertextTransformer.apply(bytePayload, key.getKeyBytes()));
             } else if (stringPayload != null) {
-                final byte[] stringAsBytes = stringPayload.getBytes();
-                final byte[] cipherTextBytes = aesBytesToCiphertextTransformer.apply(stringAsBytes, clientKey.waitForLock().getKeyBytes());
-                clientKey.releaseLock();
-                final String cipherText = Base64.getEncoder().encodeToString(cipherTextBytes);
-                request.setStringPayload(cipherText);
+                final byte[] cipherTextBytes = aesBytesToCiphertextTransformer.apply(stringPayload.getBytes(), key.getKeyBytes());
+                request.setStringPayload(Base64.getEncoder().encodeToString(cipherTextBytes));
             }
         } else {
             request.setBytePayload(bytePayload);
@@ -249,15 +1188,32 @@ public class UdpClient {
             request.setPayloadType(UdpRequest.PAYLOAD_TYPE_BYTES);
         }
 
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        final ObjectOutputStream outputStream = new ObjectOutputStream(byteStream);
-        outputStream.writeObject(request);
+        return udpRequestToBytesTransformer.apply(request);
+    }
 
-        final byte[] payload = byteStream.toByteArray();
-        byteStream.close();
+    /**
+     * Copy the key id and key bytes so they can be used outside of the lock.
+     *
+     * @param key The locked key
+     * @return The copy
+     */
+    private static ClientKey snapshotKey(ClientKey key) {
+        final ClientKey snapshot = new ClientKey();
+        snapshot.setKeyId(key.getKeyId());
+        snapshot.setKeyBytes(key.getKeyBytes());
+        return snapshot;
+    }
 
-        final DatagramPacket packet = new DatagramPacket(payload, payload.length, address, portNumber);
-        socket.send(packet);
+    /**
+     * Put a finished datagram on the socket.
+     *
+     * @param datagram The datagram
+     * @throws IOException If the send fails
+     */
+    private void sendDatagram(byte[] datagram) throws IOException {
+        final DatagramPacket packet = new DatagramPacket(datagram, datagram.length, address, portNumber);
+        transport.send(packet);
+        metrics.recordSent();
     }
 
     /**
@@ -0,0 +1,65 @@
+package com.gabler.udpmanager.client;
+
+import com.gabler.udpmanager.DiagnosticCategory;
+
+import java.util.logging.Logger;
+
+/**
+ * Thread that takes messages out of the conflating inbox of a client and hands them to their handlers.
+ *
+ * @author Andy Gabler
+ */
+public class UdpClientInboxThread extends Thread {
+
+    private static final Logger LOGGER = Logger.getLogger("UdpClientInboxThread");
+
+    private static final long POLL_MILLIS = 100;
+
+    private volatile boolean terminated = false;
+    private final UdpClient client;
+    private final ConflatingInbox inbox;
+
+    /**
+     * Initialize an inbox thread for a client.
+     *
+     * @param client The client whose handlers to run
+     * @param inbox The inbox to take messages out of
+     */
+    UdpClientInboxThread(UdpClient client, ConflatingInbox inbox) {
+        super("UdpClientInbox");
+        this.client = client;
+        this.inbox = inbox;
+    }
+
+    /**
+     * Kill the inbox thread. Messages still in the inbox are discarded.
+     */
+    public void killInbox() {
+        terminated = true;
+    }
+
+    public void run() {
+        LOGGER.info("Client inbox thread started.");
+
+        while (!terminated) {
+            final Runnable delivery;
+            try {
+                delivery = inbox.poll(POLL_MILLIS);
+            } catch (InterruptedException exception) {
+                continue;
+            }
+
+            if (delivery == null) {
+                continue;
+            }
+
+            try {
+                delivery.run();
+            } catch (Exception exception) {
+                client.getDiagnostics().report(DiagnosticCategory.HANDLER_FAILED, exception);
+            }
+        }
+
+        LOGGER.info("Client inbox terminated.");
+    }
+}
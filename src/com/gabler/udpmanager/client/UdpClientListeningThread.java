@@ -1,13 +1,16 @@
 package com.gabler.udpmanager.client;
 
 import com.gabler.udpmanager.ByteToUdpRequestTransformer;
+import com.gabler.udpmanager.DiagnosticCategory;
+import com.gabler.udpmanager.HandshakePacketWriter;
+import com.gabler.udpmanager.HeartbeatPacketWriter;
+import com.gabler.udpmanager.IDatagramTransport;
+import com.gabler.udpmanager.PacketDropReason;
 import com.gabler.udpmanager.model.UdpRequest;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.util.function.Function;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -24,29 +27,59 @@ public class UdpClientListeningThread extends Thread {
     private volatile boolean terminated = false;
     private volatile boolean listening = false;
     private final UdpClient client;
-    private final DatagramSocket socket;
+    private final IDatagramTransport transport;
+    private final boolean multicast;
 
     /**
      * Initialize a listening thread for a client.
      *
      * @param client The client to post back to
-     * @param socket The socket to listen to
+     * @param transport The transport to listen to
      */
-    public UdpClientListeningThread(UdpClient client, DatagramSocket socket) {
-        this(client, socket, new ByteToUdpRequestTransformer());
+    public UdpClientListeningThread(UdpClient client, IDatagramTransport transport) {
+        this(client, transport, new ByteToUdpRequestTransformer(), false);
     }
 
     /**
      * Initialize a listening thread for a client.
      *
      * @param client The client to post back to
-     * @param socket The socket to listen to
+     * @param transport The transport to listen to
+     * @param aMulticast Whether the transport receives the broadcasts the server publishes to a multicast group
+     */
+    public UdpClientListeningThread(UdpClient client, IDatagramTransport transport, boolean aMulticast) {
+        this(client, transport, new ByteToUdpRequestTransformer(), aMulticast);
+    }
+
+    /**
+     * Initialize a listening thread for a client.
+     *
+     * @param client The client to post back to
+     * @param transport The transport to listen to
+     * @param aBytesToUdpRequestTransformer Transformer for turning bytes to a {@link UdpRequest}
+     */
+    public UdpClientListeningThread(UdpClient client, IDatagramTransport transport, Function<byte[], UdpRequest> aBytesToUdpRequestTransformer) {
+        this(client, transport, aBytesToUdpRequestTransformer, false);
+    }
+
+    /**
+     * Initialize a listening thread for a client.
+     *
+     * @param client The client to post back to
+     * @param transport The transport to listen to
      * @param aBytesToUdpRequestTransformer Transformer for turning bytes to a {@link UdpRequest}
+     * @param aMulticast Whether the transport receives the broadcasts the server publishes to a multicast group
      */
-    public UdpClientListeningThread(UdpClient client, DatagramSocket socket, Function<byte[], UdpRequest> aBytesToUdpRequestTransformer) {
+    public UdpClientListeningThread(
+        UdpClient client,
+        IDatagramTransport transport,
+        Function<byte[], UdpRequest> aBytesToUdpRequestTransformer,
+        boolean aMulticast
+    ) {
         this.client = client;
-        this.socket = socket;
+        this.transport = transport;
         bytesToUdpRequestTransformer = aBytesToUdpRequestTransformer;
+        multicast = aMulticast;
     }
 
     /**
@@ -71,40 +104,81 @@ public class UdpClientListeningThread extends Thread {
     }
 
     public void run() {
-        LOGGER.info("Listening thread for messages coming back from server started on " + socket.getLocalAddress() + "(" + socket.getLocalPort() + ").");
+        LOGGER.info("Listening thread for messages coming back from server started on " + transport.getLocalAddress() + "(" + transport.getLocalPort() + ").");
+        // The buffer is only read while the request is transformed, so one is enough for the thread.
+        final byte[] buffer = new byte[65535];
+        final DatagramPacket receivedPacket = new DatagramPacket(buffer, buffer.length);
+
         while (!terminated) {
 
             if (!listening) {
                 continue;
             }
 
-            final byte[] buffer = new byte[65535];
-            final DatagramPacket receivedPacket = new DatagramPacket(buffer, buffer.length);
+            receivedPacket.setLength(buffer.length);
             try {
-                socket.receive(receivedPacket);
+                transport.receive(receivedPacket);
             } catch (IOException exception) {
                 // Common exit case on closure
-                LOGGER.log(Level.SEVERE, "IO exception on socket receive.", exception);
+                client.getDiagnostics().report(DiagnosticCategory.RECEIVE_FAILED, exception);
                 continue;
             }
 
-            UdpRequest request;
+            handleReceived(buffer, receivedPacket.getLength());
+        }
+        LOGGER.info("Client listener terminated.");
+    }
+
+    /**
+     * Handle a datagram as it came off of the socket.
+     *
+     * @param buffer Buffer holding the datagram at its start
+     * @param length Length of the datagram
+     */
+    void handleReceived(byte[] buffer, int length) {
+        if (!client.admitDatagram(buffer, length)) {
+            return;
+        }
+
+        if (HandshakePacketWriter.isHandshake(buffer)) {
             try {
-                request = bytesToUdpRequestTransformer.apply(buffer);
-            } catch (RuntimeException exception) {
-                // Post back to this port failed
-                LOGGER.log(Level.SEVERE, "Could not serialize bytes message to UdpRequest.", exception);
-                continue;
+                client.handleHandshake(buffer);
+            } catch (Exception exception) {
+                client.getDiagnostics().report(DiagnosticCategory.HANDSHAKE_FAILED, exception);
             }
+            return;
+        }
 
-            if (request != null) {
-                try {
+        // Heartbeats are a bare header, there is nothing to deserialize.
+        if (HeartbeatPacketWriter.isHeartbeat(buffer)) {
+            try {
+                client.handleHeartbeat(buffer);
+            } catch (Exception exception) {
+                client.getDiagnostics().report(DiagnosticCategory.HEARTBEAT_FAILED, exception);
+            }
+            return;
+        }
+
+        UdpRequest request;
+        try {
+            request = bytesToUdpRequestTransformer.apply(buffer);
+        } catch (RuntimeException exception) {
+            // Post back to this port failed
+            client.getMetrics().recordDropped(PacketDropReason.MALFORMED_PAYLOAD);
+            client.getDiagnostics().report(DiagnosticCategory.MALFORMED_PAYLOAD, exception);
+            return;
+        }
+
+        if (request != null) {
+            try {
+                if (multicast) {
+                    client.handleMulticastFromServer(request);
+                } else {
                     client.handleMessageFromServer(request);
-                } catch (Exception exception) {
-                    LOGGER.log(Level.SEVERE, "Failed to handle UDP request.", exception);
                 }
+            } catch (Exception exception) {
+                client.getDiagnostics().report(DiagnosticCategory.HANDLER_FAILED, exception);
             }
         }
-        LOGGER.info("Client listener terminated.");
     }
 }
@@ -0,0 +1,211 @@
+package com.gabler.udpmanager.client;
+
+import com.gabler.udpmanager.LatencyHistogram;
+import com.gabler.udpmanager.LatencySnapshot;
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.model.UdpRequest;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters describing the traffic a client has seen.
+ *
+ * @author Andy Gabler
+ */
+public class UdpClientMetrics {
+
+    private final LongAdder receivedPackets = new LongAdder();
+    private final LongAdder[] droppedPackets;
+    private final LongAdder sentPackets = new LongAdder();
+    private final LongAdder rejectedSends = new LongAdder();
+    private final LongAdder conflatedMessages = new LongAdder();
+    private final LongAdder inboxEvictions = new LongAdder();
+    private final LatencyHistogram[] deliveryLatency = {new LatencyHistogram(), new LatencyHistogram()};
+    private final LatencyHistogram roundTripLatency = new LatencyHistogram();
+
+    private volatile IntSupplier sendQueueDepth = () -> 0;
+    private volatile IntSupplier inboxDepth = () -> 0;
+
+    public UdpClientMetrics() {
+        droppedPackets = new LongAdder[PacketDropReason.values().length];
+        for (int index = 0; index < droppedPackets.length; index++) {
+            droppedPackets[index] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record that a datagram came off of the socket.
+     */
+    void recordReceived() {
+        receivedPackets.increment();
+    }
+
+    /**
+     * Record that a datagram was dropped.
+     *
+     * @param reason Why it was dropped
+     */
+    void recordDropped(PacketDropReason reason) {
+        droppedPackets[reason.ordinal()].increment();
+    }
+
+    /**
+     * Record that a datagram was handed to the socket.
+     */
+    void recordSent() {
+        sentPackets.increment();
+    }
+
+    /**
+     * Record that an asynchronous send was refused or discarded because the send queue was full.
+     */
+    void recordRejectedSend() {
+        rejectedSends.increment();
+    }
+
+    /**
+     * Record that a message in the inbox was replaced by a newer one with the same key before it was handled.
+     */
+    void recordConflated() {
+        conflatedMessages.increment();
+    }
+
+    /**
+     * Record how long a timestamped datagram from the server took to arrive.
+     *
+     * @param payloadType Payload type of the request it carried
+     * @param micros The one-way latency
+     */
+    void recordDeliveryLatency(int payloadType, long micros) {
+        if (payloadType >= 0 && payloadType < deliveryLatency.length) {
+            deliveryLatency[payloadType].record(micros);
+        }
+    }
+
+    /**
+     * Record the round trip of a heartbeat to the server.
+     *
+     * @param micros The round trip time
+     */
+    void recordRoundTrip(long micros) {
+        roundTripLatency.record(micros);
+    }
+
+    /**
+     * Record that the oldest message in the inbox was evicted because the inbox was full.
+     */
+    void recordInboxEviction() {
+        inboxEvictions.increment();
+    }
+
+    /**
+     * Point the inbox depth gauge at the inbox it reports on.
+     *
+     * @param gauge Supplier of the current depth
+     */
+    void setInboxDepthGauge(IntSupplier gauge) {
+        inboxDepth = gauge;
+    }
+
+    /**
+     * Point the send queue depth gauge at the queue it reports on.
+     *
+     * @param gauge Supplier of the current depth
+     */
+    void setSendQueueDepthGauge(IntSupplier gauge) {
+        sendQueueDepth = gauge;
+    }
+
+    /**
+     * Get the amount of datagrams that came off of the socket, including those later dropped.
+     *
+     * @return The count
+     */
+    public long getReceivedPackets() {
+        return receivedPackets.sum();
+    }
+
+    /**
+     * Get the amount of datagrams dropped for a reason.
+     *
+     * @param reason The reason
+     * @return The count
+     */
+    public long getDroppedPackets(PacketDropReason reason) {
+        return droppedPackets[reason.ordinal()].sum();
+    }
+
+    /**
+     * Get the amount of datagrams handed to the socket.
+     *
+     * @return The count
+     */
+    public long getSentPackets() {
+        return sentPackets.sum();
+    }
+
+    /**
+     * Get the amount of asynchronous sends refused or discarded because the send queue was full.
+     *
+     * @return The count
+     */
+    public long getRejectedSends() {
+        return rejectedSends.sum();
+    }
+
+    /**
+     * Get the amount of messages currently waiting in the send queue.
+     *
+     * @return The depth
+     */
+    public int getSendQueueDepth() {
+        return sendQueueDepth.getAsInt();
+    }
+
+    /**
+     * Get the amount of messages replaced in the inbox by a newer one with the same key before they were handled.
+     *
+     * @return The count
+     */
+    public long getConflatedMessages() {
+        return conflatedMessages.sum();
+    }
+
+    /**
+     * Get the amount of messages evicted from the inbox unhandled because it was full.
+     *
+     * @return The count
+     */
+    public long getInboxEvictions() {
+        return inboxEvictions.sum();
+    }
+
+    /**
+     * Get the amount of messages currently waiting in the inbox.
+     *
+     * @return The depth
+     */
+    public int getInboxDepth() {
+        return inboxDepth.getAsInt();
+    }
+
+    /**
+     * Get how long timestamped datagrams from the server took to arrive, adjusted for the offset between the clocks.
+     *
+     * @param payloadType {@link UdpRequest#PAYLOAD_TYPE_STRING} or {@link UdpRequest#PAYLOAD_TYPE_BYTES}
+     * @return Snapshot of the one-way latencies so far
+     */
+    public LatencySnapshot getDeliveryLatency(int payloadType) {
+        return deliveryLatency[payloadType].snapshot();
+    }
+
+    /**
+     * Get the round trip times of heartbeats to the server.
+     *
+     * @return Snapshot of the round trip times so far
+     */
+    public LatencySnapshot getRoundTripLatency() {
+        return roundTripLatency.snapshot();
+    }
+}
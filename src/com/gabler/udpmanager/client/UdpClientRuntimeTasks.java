@@ -0,0 +1,132 @@
+package com.gabler.udpmanager.client;
+
+import com.gabler.udpmanager.DiagnosticCategory;
+import com.gabler.udpmanager.UdpRuntime;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The work of the sending thread and inbox thread of a client attached to a {@link UdpRuntime}, done on the threads of
+ * the runtime instead. Queuing a send or an inbox message wakes it up, and the scheduler of the runtime wakes it up
+ * for housekeeping. Each wakeup runs on the worker of the client, so its work is still done one task at a time.
+ *
+ * @author Andy Gabler
+ */
+class UdpClientRuntimeTasks {
+
+    // Sends and deliveries done per wakeup, so a busy client cannot starve the others on its worker.
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final UdpClient client;
+    private final BlockingQueue<PendingSend> sendQueue;
+    private final ConflatingInbox inbox;
+    private final Executor worker;
+    private final AtomicBoolean wakeupQueued = new AtomicBoolean(false);
+    private final ScheduledFuture<?> housekeeping;
+    private volatile long lastHousekeeping = System.nanoTime();
+    private volatile boolean terminated = false;
+
+    /**
+     * Initialize the tasks of a client and start waking them up for housekeeping.
+     *
+     * @param aClient The client to do the work of
+     * @param aSendQueue The send queue to drain
+     * @param anInbox The inbox to deliver from, or null if the client has none
+     * @param runtime The runtime to run on
+     */
+    UdpClientRuntimeTasks(
+        UdpClient aClient,
+        BlockingQueue<PendingSend> aSendQueue,
+        ConflatingInbox anInbox,
+        UdpRuntime runtime
+    ) {
+        client = aClient;
+        sendQueue = aSendQueue;
+        inbox = anInbox;
+        worker = runtime.getWorker(aClient);
+        housekeeping = runtime.getScheduler().scheduleAtFixedRate(
+            this::tick,
+            PendingCallTable.TICK_MILLIS,
+            PendingCallTable.TICK_MILLIS,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Have the worker run the tasks soon, unless it is about to already.
+     */
+    void wakeUp() {
+        if (terminated || !wakeupQueued.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            worker.execute(this::run);
+        } catch (RejectedExecutionException exception) {
+            // The worker is swamped, the next housekeeping tick tries again.
+            wakeupQueued.set(false);
+        }
+    }
+
+    /**
+     * Stop running the tasks. Anything still queued is left to the client to fail.
+     */
+    void kill() {
+        terminated = true;
+        housekeeping.cancel(false);
+    }
+
+    /**
+     * Wake up for housekeeping as often as the sending thread would. Called by the scheduler of the runtime.
+     */
+    private void tick() {
+        if (client.hasPendingCalls() || System.nanoTime() - lastHousekeeping >= IDLE_POLL_NANOS) {
+            wakeUp();
+        }
+    }
+
+    /**
+     * Do the housekeeping and work off the send queue and inbox. Called on the worker.
+     */
+    private void run() {
+        wakeupQueued.set(false);
+        if (terminated) {
+            return;
+        }
+
+        lastHousekeeping = System.nanoTime();
+        client.expireCalls();
+        client.heartbeat();
+        client.summarizeDiagnostics();
+
+        final ArrayList<PendingSend> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        sendQueue.drainTo(batch, MAX_BATCH_SIZE);
+        client.sendPending(batch);
+
+        if (inbox != null) {
+            for (int count = 0; MAX_BATCH_SIZE > count; count++) {
+                final Runnable delivery = inbox.pollNow();
+                if (delivery == null) {
+                    break;
+                }
+                try {
+                    delivery.run();
+                } catch (Exception exception) {
+                    client.getDiagnostics().report(DiagnosticCategory.HANDLER_FAILED, exception);
+                }
+            }
+        }
+
+        // Go to the back of the line of the worker for the rest.
+        if (!sendQueue.isEmpty() || (inbox != null && inbox.size() > 0)) {
+            wakeUp();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.gabler.udpmanager.client;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Sending thread for a client. Drains the send queue of the client so that callers of the asynchronous send methods
+ * never wait on serialization, encryption or the socket. Also times out calls that got no reply and sends heartbeats
+ * while the client is idle.
+ *
+ * @author Andy Gabler
+ */
+public class UdpClientSendingThread extends Thread {
+
+    private static final Logger LOGGER = Logger.getLogger("UdpClientSendingThread");
+
+    /*
+     * Everything queued up to this amount is taken off the queue in one go, so the queue lock and the wakeup are paid
+     * once per batch rather than once per message while the client is busy.
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private volatile boolean terminated = false;
+    private final UdpClient client;
+    private final BlockingQueue<PendingSend> sendQueue;
+
+    /**
+     * Initialize a sending thread for a client.
+     *
+     * @param client The client to send for
+     * @param sendQueue The queue to drain
+     */
+    public UdpClientSendingThread(UdpClient client, BlockingQueue<PendingSend> sendQueue) {
+        this.client = client;
+        this.sendQueue = sendQueue;
+    }
+
+    /**
+     * Kill the sender. Anything still queued fails.
+     */
+    public void killSender() {
+        terminated = true;
+    }
+
+    public void run() {
+        LOGGER.info("Sending thread for messages going to server started.");
+        final ArrayList<PendingSend> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (!terminated) {
+            final PendingSend first;
+            try {
+                // While calls are waiting, wake up often enough to time them out on schedule.
+                final long pollMillis = client.hasPendingCalls() ? PendingCallTable.TICK_MILLIS : IDLE_POLL_MILLIS;
+                first = sendQueue.poll(pollMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exception) {
+                continue;
+            }
+
+            client.expireCalls();
+            client.heartbeat();
+            client.summarizeDiagnostics();
+            if (first == null) {
+                continue;
+            }
+
+            batch.add(first);
+            sendQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            client.sendPending(batch);
+            batch.clear();
+        }
+
+        client.failQueuedSends();
+        LOGGER.info("Client sender terminated.");
+    }
+}
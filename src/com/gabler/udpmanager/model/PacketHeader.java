@@ -0,0 +1,187 @@
+package com.gabler.udpmanager.model;
+
+/**
+ * Layout of the fixed binary header written in front of every serialized {@link UdpRequest}. The header can be read
+ * straight out of a receive buffer, so a datagram can be judged before anything is allocated or deserialized.
+ *
+ * <pre>
+ * offset 0  magic           2 bytes
+ * offset 2  version         1 byte
+ * offset 3  kind            1 byte
+ * offset 4  flags           2 bytes
+ * offset 6  payload length  2 bytes, unsigned
+ * offset 8  extension fields for the flags that are set, lowest flag first
+ *           MAC, if {@link #FLAG_MAC} is set, always last
+ * </pre>
+ *
+ * All values are big-endian.
+ *
+ * @author Andy Gabler
+ */
+public final class PacketHeader {
+
+    public static final int MAGIC = 0x5553;
+    public static final int VERSION = 1;
+
+    public static final int KIND_DATA = 0;
+    public static final int KIND_CALL = 1;
+    public static final int KIND_REPLY = 2;
+    public static final int KIND_PING = 3;
+    public static final int KIND_PONG = 4;
+    public static final int KIND_FORWARD = 5;
+    public static final int KIND_RELAY = 6;
+    public static final int KIND_CLUSTER_BROADCAST = 7;
+    public static final int KIND_HELLO = 8;
+    public static final int KIND_HELLO_REPLY = 9;
+
+    public static final int FLAG_MAC = 1;
+    public static final int FLAG_CORRELATION = 1 << 1;
+    public static final int FLAG_PING = 1 << 2;
+    public static final int FLAG_ORIGIN = 1 << 3;
+    public static final int FLAG_MESSAGE_TYPE = 1 << 4;
+    public static final int FLAG_SEQUENCE = 1 << 5;
+    public static final int FLAG_TIMESTAMP = 1 << 6;
+    public static final int FLAG_PRIORITY = 1 << 7;
+    public static final int FLAG_SEQUENCED = 1 << 8;
+
+    public static final int BASE_LENGTH = 8;
+    public static final int MAC_LENGTH = 8;
+    public static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+
+    /*
+     * Length of the extension field carried by each flag bit, indexed by bit number. Flags without a field, and the
+     * MAC which is always placed last, have a length of zero here.
+     */
+    private static final int[] EXTENSION_LENGTHS = new int[16];
+
+    static {
+        extension(FLAG_CORRELATION, 4);
+        extension(FLAG_PING, 8);
+        extension(FLAG_ORIGIN, 18);
+        extension(FLAG_MESSAGE_TYPE, 2);
+        extension(FLAG_SEQUENCE, 4);
+        extension(FLAG_TIMESTAMP, 8);
+    }
+
+    private PacketHeader() {
+    }
+
+    /**
+     * Register the length of the extension field carried by a flag.
+     *
+     * @param flag The flag
+     * @param length Length of its field in bytes
+     */
+    private static void extension(int flag, int length) {
+        EXTENSION_LENGTHS[Integer.numberOfTrailingZeros(flag)] = length;
+    }
+
+    /**
+     * Get the total length of a header with the given flags.
+     *
+     * @param flags The flags
+     * @return The length in bytes
+     */
+    public static int headerLength(int flags) {
+        int length = BASE_LENGTH;
+        for (int bit = 0; bit < EXTENSION_LENGTHS.length; bit++) {
+            if ((flags & (1 << bit)) != 0) {
+                length += EXTENSION_LENGTHS[bit];
+            }
+        }
+        if ((flags & FLAG_MAC) != 0) {
+            length += MAC_LENGTH;
+        }
+        return length;
+    }
+
+    /**
+     * Get the offset of the extension field belonging to a flag.
+     *
+     * @param flags All flags of the header
+     * @param flag The flag whose field is wanted
+     * @return The offset in bytes
+     */
+    public static int extensionOffset(int flags, int flag) {
+        int offset = BASE_LENGTH;
+        for (int bit = 0; (1 << bit) < flag; bit++) {
+            if ((flags & (1 << bit)) != 0) {
+                offset += EXTENSION_LENGTHS[bit];
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Get the offset of the MAC in a header with the given flags.
+     *
+     * @param flags The flags, which must include {@link #FLAG_MAC}
+     * @return The offset in bytes
+     */
+    public static int macOffset(int flags) {
+        return headerLength(flags) - MAC_LENGTH;
+    }
+
+    /**
+     * Write the fixed part of the header.
+     *
+     * @param buffer Buffer to write to
+     * @param kind Kind of packet
+     * @param flags The flags
+     * @param payloadLength Length of the payload following the header
+     */
+    public static void writeBase(byte[] buffer, int kind, int flags, int payloadLength) {
+        writeShort(buffer, 0, MAGIC);
+        buffer[2] = (byte) VERSION;
+        buffer[3] = (byte) kind;
+        writeShort(buffer, 4, flags);
+        writeShort(buffer, 6, payloadLength);
+    }
+
+    public static int magic(byte[] buffer) {
+        return readShort(buffer, 0);
+    }
+
+    public static int version(byte[] buffer) {
+        return buffer[2] & 0xFF;
+    }
+
+    public static int kind(byte[] buffer) {
+        return buffer[3] & 0xFF;
+    }
+
+    public static int flags(byte[] buffer) {
+        return readShort(buffer, 4);
+    }
+
+    public static int payloadLength(byte[] buffer) {
+        return readShort(buffer, 6);
+    }
+
+    public static int readShort(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+    }
+
+    public static void writeShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 8);
+        buffer[offset + 1] = (byte) value;
+    }
+
+    public static int readInt(byte[] buffer, int offset) {
+        return (readShort(buffer, offset) << 16) | readShort(buffer, offset + 2);
+    }
+
+    public static void writeInt(byte[] buffer, int offset, int value) {
+        writeShort(buffer, offset, value >>> 16);
+        writeShort(buffer, offset + 2, value);
+    }
+
+    public static long readLong(byte[] buffer, int offset) {
+        return ((long) readInt(buffer, offset) << 32) | (readInt(buffer, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    public static void writeLong(byte[] buffer, int offset, long value) {
+        writeInt(buffer, offset, (int) (value >>> 32));
+        writeInt(buffer, offset + 4, (int) value);
+    }
+}
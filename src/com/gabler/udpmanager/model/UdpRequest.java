@@ -6,17 +6,29 @@ import java.io.Serializable;
  * A request to be sent between client and server. It it assumed that any information on this class does not need to
  * be encrypted since it is metadata where spoofing or eavesdropping is forgiveable.
  *
+ * Transient fields are not serialized, they travel in the {@link PacketHeader} in front of the request instead.
+ *
  * @author Andy Gabler
  */
 public class UdpRequest implements Serializable {
 
     public static final int PAYLOAD_TYPE_STRING = 0;
     public static final int PAYLOAD_TYPE_BYTES = 1;
+    public static final int NO_MESSAGE_TYPE = -1;
+    public static final long NO_SEQUENCE = -1;
 
     private int payloadType;
     private String stringPayload;
     private byte[] bytePayload;
     private String keyId;
+    private transient int packetKind = PacketHeader.KIND_DATA;
+    private transient int correlationId;
+    private transient long pingToken;
+    private transient int messageType = NO_MESSAGE_TYPE;
+    private transient long sequence = NO_SEQUENCE;
+    private transient long sendTimestamp;
+    private transient boolean priority;
+    private transient boolean sequenced;
 
     public int getPayloadType() {
         return payloadType;
@@ -49,4 +61,95 @@ public class UdpRequest implements Serializable {
     public void setKeyId(String id) {
         keyId = id;
     }
+
+    public int getPacketKind() {
+        return packetKind;
+    }
+
+    public void setPacketKind(int kind) {
+        packetKind = kind;
+    }
+
+    public int getCorrelationId() {
+        return correlationId;
+    }
+
+    public void setCorrelationId(int id) {
+        correlationId = id;
+    }
+
+    public long getPingToken() {
+        return pingToken;
+    }
+
+    public void setPingToken(long token) {
+        pingToken = token;
+    }
+
+    /**
+     * Get the registered message type of the byte payload.
+     *
+     * @return Id of the type, or {@link #NO_MESSAGE_TYPE} for a plain message
+     */
+    public int getMessageType() {
+        return messageType;
+    }
+
+    public void setMessageType(int type) {
+        messageType = type;
+    }
+
+    /**
+     * Get the sequence number the sender gave the request.
+     *
+     * @return The unsigned 32 bit sequence number, or {@link #NO_SEQUENCE} if the request has none
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long number) {
+        sequence = number;
+    }
+
+    /**
+     * Get when the sender sent the request.
+     *
+     * @return Microseconds since the epoch on the {@link com.gabler.udpmanager.LatencyClock} of the sender, or zero if
+     *         the request was not timestamped
+     */
+    public long getSendTimestamp() {
+        return sendTimestamp;
+    }
+
+    public void setSendTimestamp(long micros) {
+        sendTimestamp = micros;
+    }
+
+    /**
+     * Check whether the sender marked the request as exempt from load shedding.
+     *
+     * @return True for a priority request
+     */
+    public boolean isPriority() {
+        return priority;
+    }
+
+    public void setPriority(boolean isPriority) {
+        priority = isPriority;
+    }
+
+    /**
+     * Check whether the request is to be dropped on arrival if a newer sequenced request of the same sender was already
+     * delivered.
+     *
+     * @return True for a sequenced request
+     */
+    public boolean isSequenced() {
+        return sequenced;
+    }
+
+    public void setSequenced(boolean isSequenced) {
+        sequenced = isSequenced;
+    }
 }
@@ -9,10 +9,21 @@ import java.util.function.BiFunction;
 /**
  * Transformer that uses AES to turn bytes ciphertext to bytes plaintext.
  *
+ * Safe to share between threads; each thread gets its own {@link Cipher}, so the cipher is not looked up again for
+ * every datagram.
+ *
  * @author Andy Gabler
  */
 public class AesCiphertextToBytesTransformer implements BiFunction<byte[], byte[], byte[]> {
 
+    private final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/CBC/PKCS5Padding");
+        } catch (Exception exception) {
+            throw new RuntimeException(exception);
+        }
+    });
+
     @Override
     public byte[] apply(byte[] cipherText, byte[] key) {
         final SecretKey secretKey = new SecretKeySpec(key, 0, key.length, "AES");
@@ -20,7 +31,7 @@ public class AesCiphertextToBytesTransformer implements BiFunction<byte[], byte[
 
         final byte[] plainText;
         try {
-            final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            final Cipher cipher = this.cipher.get();
             cipher.init(Cipher.DECRYPT_MODE, secretKey, stubIv);
             plainText = cipher.doFinal(cipherText);
         } catch (Exception exception) {
@@ -0,0 +1,92 @@
+package com.gabler.udpmanager.security;
+
+import com.gabler.udpmanager.model.PacketHeader;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * Truncated HMAC-SHA256 over a packet header. Lets a receiver throw away datagrams from anyone who does not know the
+ * shared header key before paying for deserialization or decryption of the payload.
+ *
+ * Safe to share between threads; each thread gets its own {@link Mac}.
+ *
+ * @author Andy Gabler
+ */
+public class HeaderMac {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<MacState> state;
+
+    /**
+     * Initialize a header MAC.
+     *
+     * @param keyBytes The shared header key
+     */
+    public HeaderMac(byte[] keyBytes) {
+        key = new SecretKeySpec(keyBytes, ALGORITHM);
+        state = ThreadLocal.withInitial(() -> new MacState(key));
+    }
+
+    /**
+     * Compute the MAC over the header bytes preceding it and write it in place.
+     *
+     * @param buffer Buffer holding the header
+     * @param macOffset Where the MAC goes, which is also the amount of bytes covered
+     */
+    public void sign(byte[] buffer, int macOffset) {
+        final MacState macState = state.get();
+        macState.compute(buffer, macOffset);
+        System.arraycopy(macState.output, 0, buffer, macOffset, PacketHeader.MAC_LENGTH);
+    }
+
+    /**
+     * Check the MAC over the header bytes preceding it.
+     *
+     * @param buffer Buffer holding the header
+     * @param macOffset Where the MAC is, which is also the amount of bytes covered
+     * @return True if the MAC matches
+     */
+    public boolean verify(byte[] buffer, int macOffset) {
+        final MacState macState = state.get();
+        macState.compute(buffer, macOffset);
+
+        // Compare every byte regardless of where the first mismatch is.
+        int difference = 0;
+        for (int index = 0; index < PacketHeader.MAC_LENGTH; index++) {
+            difference |= macState.output[index] ^ buffer[macOffset + index];
+        }
+        return difference == 0;
+    }
+
+    /**
+     * Per-thread MAC and output scratch space so that signing and verifying do not allocate.
+     */
+    private static class MacState {
+
+        private final Mac mac;
+        private final byte[] output;
+
+        private MacState(SecretKeySpec key) {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+            } catch (GeneralSecurityException exception) {
+                throw new RuntimeException(exception);
+            }
+            output = new byte[mac.getMacLength()];
+        }
+
+        private void compute(byte[] buffer, int length) {
+            mac.update(buffer, 0, length);
+            try {
+                mac.doFinal(output, 0);
+            } catch (GeneralSecurityException exception) {
+                throw new RuntimeException(exception);
+            }
+        }
+    }
+}
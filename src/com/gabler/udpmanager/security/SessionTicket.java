@@ -0,0 +1,62 @@
+package com.gabler.udpmanager.security;
+
+/**
+ * Session key agreed in a handshake, together with the ticket that stands for it. The ticket is the session key
+ * sealed with a key only the server knows, and is sent as the key id of every request, so the server can recover the
+ * session key from the request itself and keeps no state per session. A client that kept the ticket can resume the
+ * session later, even with a restarted server, without a new handshake.
+ *
+ * @author Andy Gabler
+ */
+public class SessionTicket {
+
+    public static final String PREFIX = "~ticket:";
+
+    private final String ticket;
+    private final byte[] sessionKey;
+    private final long expiresAtMillis;
+
+    /**
+     * Initialize a ticket.
+     *
+     * @param aTicket The sealed ticket, starting with {@link #PREFIX}
+     * @param aSessionKey The session key
+     * @param anExpiresAtMillis Wall clock time after which the server no longer accepts the ticket
+     */
+    public SessionTicket(String aTicket, byte[] aSessionKey, long anExpiresAtMillis) {
+        ticket = aTicket;
+        sessionKey = aSessionKey;
+        expiresAtMillis = anExpiresAtMillis;
+    }
+
+    /**
+     * Check whether a key id is a session ticket rather than the id of a key added to the server.
+     *
+     * @param keyId The key id, or null
+     * @return True for a ticket
+     */
+    public static boolean isTicket(String keyId) {
+        return keyId != null && keyId.startsWith(PREFIX);
+    }
+
+    public String getTicket() {
+        return ticket;
+    }
+
+    public byte[] getSessionKey() {
+        return sessionKey;
+    }
+
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    /**
+     * Check whether the server would still accept the ticket.
+     *
+     * @return True once the ticket has expired
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAtMillis;
+    }
+}
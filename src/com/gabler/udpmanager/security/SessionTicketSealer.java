@@ -0,0 +1,109 @@
+package com.gabler.udpmanager.security;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Seals session keys into {@link SessionTicket}s and opens them again, with AES-GCM under a ticket key only the server
+ * knows. A ticket holds its own expiry, so any server with the same ticket key can open it: after a restart, or on
+ * another node of a cluster.
+ *
+ * Safe to share between threads; each thread gets its own {@link Cipher}.
+ *
+ * @author Andy Gabler
+ */
+public class SessionTicketSealer {
+
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private final SecretKeySpec ticketKey;
+    private final long lifetimeMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException exception) {
+            throw new RuntimeException(exception);
+        }
+    });
+
+    /**
+     * Initialize a sealer.
+     *
+     * @param aTicketKey AES key to seal tickets with
+     * @param aLifetimeMillis How long a ticket is accepted after it was issued
+     */
+    public SessionTicketSealer(byte[] aTicketKey, long aLifetimeMillis) {
+        ticketKey = new SecretKeySpec(aTicketKey, "AES");
+        lifetimeMillis = aLifetimeMillis;
+    }
+
+    /**
+     * Seal a session key into a new ticket.
+     *
+     * @param sessionKey The session key
+     * @return The ticket
+     */
+    public SessionTicket seal(byte[] sessionKey) {
+        final long expiresAt = System.currentTimeMillis() + lifetimeMillis;
+        final byte[] plainText = ByteBuffer.allocate(Long.BYTES + sessionKey.length).putLong(expiresAt).put(sessionKey).array();
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+
+        final byte[] cipherText;
+        try {
+            final Cipher cipher = this.cipher.get();
+            cipher.init(Cipher.ENCRYPT_MODE, ticketKey, new GCMParameterSpec(TAG_BITS, nonce));
+            cipherText = cipher.doFinal(plainText);
+        } catch (GeneralSecurityException exception) {
+            throw new RuntimeException(exception);
+        }
+
+        final byte[] sealed = ByteBuffer.allocate(NONCE_LENGTH + cipherText.length).put(nonce).put(cipherText).array();
+        final String ticket = SessionTicket.PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(sealed);
+        return new SessionTicket(ticket, sessionKey, expiresAt);
+    }
+
+    /**
+     * Open a ticket.
+     *
+     * @param ticket The ticket, as sent as a key id
+     * @return The ticket with its session key, or null if it was not sealed with this ticket key or has expired
+     */
+    public SessionTicket open(String ticket) {
+        if (!SessionTicket.isTicket(ticket)) {
+            return null;
+        }
+
+        final byte[] plainText;
+        try {
+            final byte[] sealed = Base64.getUrlDecoder().decode(ticket.substring(SessionTicket.PREFIX.length()));
+            if (sealed.length <= NONCE_LENGTH) {
+                return null;
+            }
+            final Cipher cipher = this.cipher.get();
+            cipher.init(Cipher.DECRYPT_MODE, ticketKey, new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_LENGTH));
+            plainText = cipher.doFinal(sealed, NONCE_LENGTH, sealed.length - NONCE_LENGTH);
+        } catch (IllegalArgumentException | GeneralSecurityException exception) {
+            // Forged, damaged or sealed with another ticket key.
+            return null;
+        }
+
+        if (plainText.length <= Long.BYTES) {
+            return null;
+        }
+        final SessionTicket opened = new SessionTicket(
+            ticket,
+            Arrays.copyOfRange(plainText, Long.BYTES, plainText.length),
+            ByteBuffer.wrap(plainText).getLong()
+        );
+        return opened.isExpired() ? null : opened;
+    }
+}
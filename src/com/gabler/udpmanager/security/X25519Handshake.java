@@ -0,0 +1,79 @@
+package com.gabler.udpmanager.security;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * One side of an ephemeral X25519 key agreement. Each side makes a fresh key pair, they swap public keys, and both
+ * derive the same session key from the shared secret and both public keys, so the session key of one handshake says
+ * nothing about that of any other.
+ *
+ * The public keys are not signed, so this keeps payloads from anyone merely listening but does not prove who the
+ * other side is.
+ *
+ * @author Andy Gabler
+ */
+public class X25519Handshake {
+
+    public static final int SESSION_KEY_LENGTH = 16;
+
+    private static final String ALGORITHM = "X25519";
+    private static final byte[] LABEL = "udpmanager session key".getBytes(StandardCharsets.US_ASCII);
+
+    private final KeyPair keyPair;
+
+    /**
+     * Initialize a handshake with a fresh key pair.
+     */
+    public X25519Handshake() {
+        try {
+            keyPair = KeyPairGenerator.getInstance(ALGORITHM).generateKeyPair();
+        } catch (GeneralSecurityException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Get the public key to send to the other side.
+     *
+     * @return The X.509 encoded public key
+     */
+    public byte[] getPublicKey() {
+        return keyPair.getPublic().getEncoded();
+    }
+
+    /**
+     * Agree on a session key with the other side.
+     *
+     * @param peerPublicKey The X.509 encoded public key of the other side
+     * @param initiator Whether this side started the handshake
+     * @return The session key, an AES key of {@link #SESSION_KEY_LENGTH} bytes
+     * @throws GeneralSecurityException If the public key of the other side is not a valid X25519 key
+     */
+    public byte[] deriveSessionKey(byte[] peerPublicKey, boolean initiator) throws GeneralSecurityException {
+        final PublicKey peerKey = KeyFactory.getInstance(ALGORITHM).generatePublic(new X509EncodedKeySpec(peerPublicKey));
+        final KeyAgreement agreement = KeyAgreement.getInstance(ALGORITHM);
+        agreement.init(keyPair.getPrivate());
+        agreement.doPhase(peerKey, true);
+        final byte[] sharedSecret = agreement.generateSecret();
+
+        // Bind the key to this exact exchange, public key of the initiator first.
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(sharedSecret, "HmacSHA256"));
+        mac.update(LABEL);
+        mac.update(initiator ? getPublicKey() : peerPublicKey);
+        mac.update(initiator ? peerPublicKey : getPublicKey());
+        final byte[] sessionKey = Arrays.copyOf(mac.doFinal(), SESSION_KEY_LENGTH);
+        Arrays.fill(sharedSecret, (byte) 0);
+        return sessionKey;
+    }
+}
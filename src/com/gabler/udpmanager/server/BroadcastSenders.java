@@ -0,0 +1,95 @@
+package com.gabler.udpmanager.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed pool of threads that a broadcast is split over. The clients of a broadcast are cut into chunks of consecutive
+ * clients and each chunk is encrypted, serialized and sent by one of the threads, so a broadcast to many clients with
+ * their own keys uses every core instead of only the one of the caller.
+ *
+ * @author Andy Gabler
+ */
+class BroadcastSenders {
+
+    /**
+     * Sending of the clients from one index up to another.
+     */
+    interface IChunk {
+
+        /**
+         * Send to a range of clients.
+         *
+         * @param from Index of the first client
+         * @param to Index after the last client
+         */
+        void send(int from, int to);
+    }
+
+    private final ThreadPoolExecutor threads;
+    private final int chunkSize;
+
+    /**
+     * Initialize the pool and start its threads.
+     *
+     * @param threadCount Amount of sender threads
+     * @param aChunkSize Most clients one thread sends to in one go
+     */
+    BroadcastSenders(int threadCount, int aChunkSize) {
+        chunkSize = aChunkSize;
+        final int[] nextIndex = {0};
+        threads = new ThreadPoolExecutor(
+            threadCount,
+            threadCount,
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+                final Thread thread;
+                synchronized (nextIndex) {
+                    thread = new Thread(runnable, "UdpServerBroadcast-" + nextIndex[0]++);
+                }
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+        threads.prestartAllCoreThreads();
+    }
+
+    /**
+     * Whether a broadcast is large enough to be worth splitting.
+     *
+     * @param clientCount Amount of clients of the broadcast
+     * @return True if there is more than one chunk
+     */
+    boolean worthSplitting(int clientCount) {
+        return clientCount > chunkSize;
+    }
+
+    /**
+     * Split a broadcast into chunks and hand them to the threads.
+     *
+     * @param clientCount Amount of clients of the broadcast
+     * @param chunk Sending of one chunk
+     * @return Future that completes once every chunk is sent, or exceptionally with the failure of the first chunk
+     *         that failed. The other chunks are still sent.
+     */
+    CompletableFuture<Void> fanOut(int clientCount, IChunk chunk) {
+        final CompletableFuture<?>[] chunks = new CompletableFuture<?>[(clientCount + chunkSize - 1) / chunkSize];
+        for (int index = 0; index < chunks.length; index++) {
+            final int from = index * chunkSize;
+            final int to = Math.min(from + chunkSize, clientCount);
+            chunks[index] = CompletableFuture.runAsync(() -> chunk.send(from, to), threads);
+        }
+        return CompletableFuture.allOf(chunks);
+    }
+
+    /**
+     * Stop taking broadcasts. Chunks already waiting are still sent.
+     */
+    void shutdown() {
+        threads.shutdown();
+    }
+}
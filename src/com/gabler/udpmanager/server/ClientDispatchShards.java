@@ -0,0 +1,115 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.DiagnosticCategory;
+import com.gabler.udpmanager.Diagnostics;
+import com.gabler.udpmanager.PacketDropReason;
+
+import java.net.InetAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed set of single threaded executors that the datagrams of each client are handed to. A client, identified by its
+ * address and port like a {@link ServerClientCallback}, always lands on the same shard, so its datagrams are handled
+ * one at a time in the order they were dispatched, while clients on different shards are handled in parallel.
+ * Handlers therefore never see two messages of one client at once and need no locking per client.
+ *
+ * With load shedding, each shard has a {@link SojournShedder} that drops the stalest datagrams of a shard that cannot
+ * keep up, except for those marked as priority.
+ *
+ * @author Andy Gabler
+ */
+class ClientDispatchShards {
+
+    private final ThreadPoolExecutor[] shards;
+    private final SojournShedder[] shedders;
+    private final Diagnostics diagnostics;
+    private final UdpServerMetrics metrics;
+
+    /**
+     * Initialize the shards and start their threads.
+     *
+     * @param shardCount Amount of shards
+     * @param queueCapacity Amount of messages each shard may have waiting
+     * @param sheddingTargetNanos Wait in a shard queue that is acceptable to persist, or zero to never shed load
+     * @param sheddingIntervalNanos How long waits must stay above the target before datagrams are shed
+     * @param aDiagnostics Where failed handling is reported
+     * @param aMetrics Where shed datagrams are counted
+     */
+    ClientDispatchShards(
+        int shardCount,
+        int queueCapacity,
+        long sheddingTargetNanos,
+        long sheddingIntervalNanos,
+        Diagnostics aDiagnostics,
+        UdpServerMetrics aMetrics
+    ) {
+        diagnostics = aDiagnostics;
+        metrics = aMetrics;
+        shards = new ThreadPoolExecutor[shardCount];
+        shedders = new SojournShedder[shardCount];
+        for (int index = 0; index < shardCount; index++) {
+            if (sheddingTargetNanos > 0) {
+                shedders[index] = new SojournShedder(sheddingTargetNanos, sheddingIntervalNanos);
+            }
+            final String name = "UdpServerDispatch-" + index;
+            shards[index] = new ThreadPoolExecutor(
+                1,
+                1,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            );
+        }
+    }
+
+    /**
+     * Hand a datagram of a client to the shard of that client.
+     *
+     * @param address Address of the client
+     * @param port Port of the client
+     * @param priority Whether the datagram is exempt from load shedding
+     * @param task Handling of the datagram
+     * @return False if the shard is full and the datagram was not taken
+     */
+    boolean dispatch(InetAddress address, int port, boolean priority, Runnable task) {
+        final long mixed = ConsistentHashRing.mix(address.hashCode() * 31L + port);
+        final int index = (int) Long.remainderUnsigned(mixed, shards.length);
+        final long queuedAt = System.nanoTime();
+        try {
+            shards[index].execute(() -> {
+                if (!priority && shedders[index] != null) {
+                    final long now = System.nanoTime();
+                    if (shedders[index].shouldDrop(now - queuedAt, now, !shards[index].getQueue().isEmpty())) {
+                        metrics.recordDropped(PacketDropReason.LOAD_SHED);
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (Exception exception) {
+                    diagnostics.report(DiagnosticCategory.HANDLER_FAILED, exception);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Stop taking datagrams. Datagrams already waiting are still handled.
+     */
+    void shutdown() {
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.gabler.udpmanager.server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hash ring deciding which node of a cluster owns each client. Every node is placed on the ring many
+ * times, so sessions spread evenly and adding or removing a node only moves the sessions adjacent to its points.
+ *
+ * The placement only depends on the node addresses, so every node that is given the same node list agrees on the
+ * owner of every client without talking to the others.
+ *
+ * @author Andy Gabler
+ */
+public class ConsistentHashRing {
+
+    private static final int POINTS_PER_NODE = 128;
+
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Initialize a ring.
+     *
+     * @param nodes The nodes of the cluster
+     */
+    public ConsistentHashRing(List<InetSocketAddress> nodes) {
+        final int pointCount = nodes.size() * POINTS_PER_NODE;
+        final long[] unsorted = new long[pointCount];
+        for (int node = 0; node < nodes.size(); node++) {
+            final InetSocketAddress address = nodes.get(node);
+            final long nodeHash = mix(Arrays.hashCode(address.getAddress().getAddress()) * 31L + address.getPort());
+            for (int replica = 0; replica < POINTS_PER_NODE; replica++) {
+                // Node index in the low bits, so owners can be recovered after sorting.
+                unsorted[node * POINTS_PER_NODE + replica] = (mix(nodeHash + replica) & ~0xFFFFL) | node;
+            }
+        }
+        Arrays.sort(unsorted);
+
+        points = new long[pointCount];
+        owners = new int[pointCount];
+        for (int index = 0; index < pointCount; index++) {
+            points[index] = unsorted[index] & ~0xFFFFL;
+            owners[index] = (int) (unsorted[index] & 0xFFFFL);
+        }
+    }
+
+    /**
+     * Get the node owning a client.
+     *
+     * @param address Address of the client
+     * @param port Port of the client
+     * @return Index of the owning node in the node list
+     */
+    public int ownerOf(InetAddress address, int port) {
+        final long hash = mix(address.hashCode() * 31L + port) & ~0xFFFFL;
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Scramble the bits of a long (the SplitMix64 finalizer).
+     *
+     * @param value The value
+     * @return The scrambled value
+     */
+    static long mix(long value) {
+        long result = value;
+        result = (result ^ (result >>> 30)) * 0xBF58476D1CE4E5B9L;
+        result = (result ^ (result >>> 27)) * 0x94D049BB133111EBL;
+        return result ^ (result >>> 31);
+    }
+}
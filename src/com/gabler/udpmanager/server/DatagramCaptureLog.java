@@ -0,0 +1,302 @@
+package com.gabler.udpmanager.server;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Log of the raw datagrams a server receives and sends, kept in a rotating set of memory-mapped segment files so it
+ * can be replayed later with {@link DatagramReplay}.
+ *
+ * Each segment starts with a magic and a version, followed by records:
+ *
+ * <pre>
+ * offset 0   direction        2 bytes, {@link #INBOUND} or {@link #OUTBOUND}, zero past the last record or in a
+ *                             record that was never finished
+ * offset 2   timestamp        8 bytes, {@link System#nanoTime()}
+ * offset 10  address          16 bytes, IPv4 addresses in their IPv4-mapped IPv6 form
+ * offset 26  port             2 bytes
+ * offset 28  datagram length  2 bytes
+ * offset 30  datagram
+ * </pre>
+ *
+ * Writers claim space in the current segment with a single atomic add and copy their record in without locking, so
+ * the listener threads do not wait on each other. The datagram length is written first and the direction last, after a
+ * release fence, so a record still being copied, or never finished, reads as a hole the reader skips by its length. A
+ * full segment is flushed to disk on a thread of its own once every record claimed in it has been copied, so the
+ * listener threads never wait on the disk.
+ *
+ * @author Andy Gabler
+ */
+class DatagramCaptureLog {
+
+    private static final Logger LOGGER = Logger.getLogger("DatagramCaptureLog");
+
+    static final int INBOUND = 1;
+    static final int OUTBOUND = 2;
+
+    static final int MAGIC = 0x55534341;
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_LENGTH = 8;
+    static final int RECORD_HEADER_LENGTH = 30;
+    static final int ADDRESS_LENGTH = 16;
+    static final int LENGTH_OFFSET = 28;
+    static final String SEGMENT_PREFIX = "capture-";
+    static final String SEGMENT_SUFFIX = ".log";
+
+    // How long a flush waits for writers still copying into the segment before it flushes what is there.
+    private static final long FLUSH_WAIT_NANOS = 1_000_000_000L;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ArrayDeque<Path> segments = new ArrayDeque<>();
+    private long nextSequence;
+    private volatile Segment segment;
+    private volatile boolean closed = false;
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "DatagramCaptureFlusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Initialize a capture log. Segments left in the directory by an earlier capture are kept, and new ones are
+     * numbered after them.
+     *
+     * @param aDirectory Directory to keep the segments in
+     * @param aSegmentBytes Size of each segment file
+     * @param aMaxSegments Amount of segments to keep before the oldest is deleted
+     * @throws IOException If the first segment cannot be created
+     */
+    DatagramCaptureLog(Path aDirectory, int aSegmentBytes, int aMaxSegments) throws IOException {
+        if (aSegmentBytes < SEGMENT_HEADER_LENGTH + RECORD_HEADER_LENGTH + 65535) {
+            throw new IllegalArgumentException("Segments must be large enough to hold the largest datagram.");
+        }
+        directory = aDirectory;
+        segmentBytes = aSegmentBytes;
+        maxSegments = Math.max(1, aMaxSegments);
+
+        Files.createDirectories(directory);
+        segments.addAll(listSegments(directory));
+        nextSequence = segments.isEmpty() ? 0 : sequenceOf(segments.getLast()) + 1;
+        segment = openSegment();
+    }
+
+    /**
+     * Append a datagram to the log.
+     *
+     * @param direction {@link #INBOUND} or {@link #OUTBOUND}
+     * @param address Address the datagram came from or went to
+     * @param port Port the datagram came from or went to
+     * @param buffer Buffer holding the datagram
+     * @param length Length of the datagram
+     */
+    void append(int direction, InetAddress address, int port, byte[] buffer, int length) {
+        final long timestamp = System.nanoTime();
+        final int recordLength = RECORD_HEADER_LENGTH + length;
+
+        while (!closed) {
+            final Segment current = segment;
+            final int offset = current.reserve(recordLength);
+            if (offset >= 0) {
+                current.write(offset, direction, timestamp, address, port, buffer, length);
+                return;
+            }
+
+            try {
+                rotate(current);
+            } catch (IOException exception) {
+                LOGGER.log(Level.SEVERE, "Could not start a new capture segment, capture stopped.", exception);
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * Stop capturing and flush what was captured.
+     */
+    synchronized void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(FLUSH_WAIT_NANOS, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        flush(segment);
+    }
+
+    /**
+     * Start a new segment if the given one is still the current one, deleting the oldest if there are too many.
+     *
+     * @param full The segment that ran out of space
+     * @throws IOException If the new segment cannot be created
+     */
+    private synchronized void rotate(Segment full) throws IOException {
+        if (segment != full || closed) {
+            return;
+        }
+        segment = openSegment();
+        flusher.execute(() -> flush(full));
+    }
+
+    /**
+     * Flush a segment to disk once the writers that claimed space in it are done copying, or have had long enough.
+     *
+     * @param toFlush The segment
+     */
+    private static void flush(Segment toFlush) {
+        final long deadline = System.nanoTime() + FLUSH_WAIT_NANOS;
+        while (!toFlush.isComplete() && deadline - System.nanoTime() > 0) {
+            LockSupport.parkNanos(100_000L);
+        }
+        toFlush.mapping.force();
+    }
+
+    /**
+     * Create the next segment file and map it.
+     *
+     * @return The segment
+     * @throws IOException If the file cannot be created
+     */
+    private Segment openSegment() throws IOException {
+        while (segments.size() >= maxSegments) {
+            Files.deleteIfExists(segments.removeFirst());
+        }
+
+        final Path path = directory.resolve(SEGMENT_PREFIX + String.format("%010d", nextSequence++) + SEGMENT_SUFFIX);
+        final MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(
+            path,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        )) {
+            // The mapping stays valid after the channel is closed.
+            mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        mapping.putInt(0, MAGIC);
+        mapping.putInt(4, VERSION);
+        segments.addLast(path);
+        return new Segment(mapping);
+    }
+
+    /**
+     * List the segment files in a directory, oldest first.
+     *
+     * @param directory The directory
+     * @return The segment files
+     * @throws IOException If the directory cannot be listed
+     */
+    static List<Path> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(file -> {
+                    final String name = file.getFileName().toString();
+                    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                })
+                .sorted()
+                .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    /**
+     * Get the sequence number in the name of a segment file.
+     *
+     * @param segmentFile The file
+     * @return The sequence number
+     */
+    private static long sequenceOf(Path segmentFile) {
+        final String name = segmentFile.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * A mapped segment file and how much of it has been claimed.
+     */
+    private static class Segment {
+
+        private final MappedByteBuffer mapping;
+        private final AtomicInteger claimed = new AtomicInteger(SEGMENT_HEADER_LENGTH);
+        private final AtomicInteger firstRefused = new AtomicInteger(Integer.MAX_VALUE);
+        private final AtomicInteger written = new AtomicInteger(SEGMENT_HEADER_LENGTH);
+
+        private Segment(MappedByteBuffer aMapping) {
+            mapping = aMapping;
+        }
+
+        /**
+         * Claim space for a record.
+         *
+         * @param recordLength Length of the record
+         * @return Offset of the claimed space, or -1 if the segment is full
+         */
+        private int reserve(int recordLength) {
+            // Once a claim overshoots, every later one does too, so the counter cannot wrap in practice.
+            final int offset = claimed.getAndAdd(recordLength);
+            if (offset + recordLength <= mapping.capacity()) {
+                return offset;
+            }
+            // Claims only grow, so the first one refused marks the end of the records.
+            firstRefused.accumulateAndGet(offset, Math::min);
+            return -1;
+        }
+
+        /**
+         * Check whether every record claimed in the segment has been copied in.
+         *
+         * @return True if no writer is still copying
+         */
+        private boolean isComplete() {
+            return written.get() >= Math.min(claimed.get(), firstRefused.get());
+        }
+
+        /**
+         * Copy a record into claimed space. Each write works on its own view of the mapping, so writers never share
+         * a position.
+         */
+        private void write(int offset, int direction, long timestamp, InetAddress address, int port, byte[] buffer, int length) {
+            final ByteBuffer record = mapping.duplicate();
+            // The length goes first, so a reader can skip the record even if it is never finished.
+            record.putShort(offset + LENGTH_OFFSET, (short) length);
+            record.position(offset + 2);
+            record.putLong(timestamp);
+
+            // The segment is zero filled, so only the non-zero bytes of a mapped address need writing.
+            final byte[] raw = address.getAddress();
+            if (address instanceof Inet4Address) {
+                record.position(record.position() + 10);
+                record.putShort((short) 0xFFFF);
+            }
+            record.put(raw);
+
+            record.putShort((short) port);
+            record.position(record.position() + 2);
+            record.put(buffer, 0, length);
+            // The record must be complete before anyone can see its direction.
+            VarHandle.releaseFence();
+            mapping.putShort(offset, (short) direction);
+            written.addAndGet(RECORD_HEADER_LENGTH + length);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.gabler.udpmanager.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tool that feeds the inbound datagrams of a capture, as written by {@link UdpServer#setCapture(Path, int, int)}, back
+ * into a server, for benchmarking the server against real traffic offline.
+ *
+ * Replayed datagrams go through the same admission, routing and processing as datagrams off of the socket, with their
+ * original source addresses, so every captured client gets its own session again. Anything the server sends back goes
+ * out on its socket to those addresses, so replays belong on an isolated network.
+ *
+ * @author Andy Gabler
+ */
+public class DatagramReplay {
+
+    private final Path directory;
+
+    /**
+     * Initialize a replay.
+     *
+     * @param aDirectory Directory holding the capture segments
+     */
+    public DatagramReplay(Path aDirectory) {
+        directory = aDirectory;
+    }
+
+    /**
+     * Replay the capture into a started server, from the calling thread.
+     *
+     * @param server The server
+     * @param speed Multiple of the original speed to replay at, or zero to replay as fast as possible
+     * @return Amount of datagrams replayed
+     * @throws IOException If the capture cannot be read
+     */
+    public long replayInto(UdpServer server, double speed) throws IOException {
+        final List<Path> segments = DatagramCaptureLog.listSegments(directory);
+        final byte[] buffer = new byte[65535];
+        final byte[] address = new byte[DatagramCaptureLog.ADDRESS_LENGTH];
+
+        long replayed = 0;
+        long firstTimestamp = 0;
+        final long start = System.nanoTime();
+
+        for (Path segmentFile : segments) {
+            final MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (segment.capacity() < DatagramCaptureLog.SEGMENT_HEADER_LENGTH
+                || segment.getInt(0) != DatagramCaptureLog.MAGIC
+                || segment.getInt(4) != DatagramCaptureLog.VERSION
+            ) {
+                continue;
+            }
+
+            segment.position(DatagramCaptureLog.SEGMENT_HEADER_LENGTH);
+            while (segment.remaining() >= DatagramCaptureLog.RECORD_HEADER_LENGTH) {
+                final int direction = segment.getShort(segment.position());
+                final int recordLength = DatagramCaptureLog.RECORD_HEADER_LENGTH
+                    + (segment.getShort(segment.position() + DatagramCaptureLog.LENGTH_OFFSET) & 0xFFFF);
+                if (recordLength > segment.remaining()
+                    || (direction == 0 && recordLength == DatagramCaptureLog.RECORD_HEADER_LENGTH)) {
+                    // Nothing was claimed past here.
+                    break;
+                }
+                if (direction == 0) {
+                    // A writer claimed the record but never finished it; the records after it are still good.
+                    segment.position(segment.position() + recordLength);
+                    continue;
+                }
+                segment.getShort();
+                final long timestamp = segment.getLong();
+                segment.get(address);
+                final int port = segment.getShort() & 0xFFFF;
+                final int length = segment.getShort() & 0xFFFF;
+                segment.get(buffer, 0, length);
+
+                if (direction != DatagramCaptureLog.INBOUND) {
+                    continue;
+                }
+
+                if (replayed == 0) {
+                    firstTimestamp = timestamp;
+                } else if (speed > 0) {
+                    waitUntil(start + (long) ((timestamp - firstTimestamp) / speed));
+                }
+
+                server.replayDatagram(buffer, length, InetAddress.getByAddress(address), port);
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Wait until a point in time.
+     *
+     * @param deadline {@link System#nanoTime()} to wait for
+     */
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.gabler.udpmanager.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by every source that sends to a server.
+ *
+ * The bucket is kept in its "theoretical arrival time" form (GCRA): instead of a token count and a refill time, only
+ * the time at which the bucket would be full again is stored. That fits in a single long, so admission is a
+ * compare-and-set with no locking.
+ *
+ * @author Andy Gabler
+ */
+public class GlobalTokenBucket {
+
+    private final long emissionInterval;
+    private final long burstWindow;
+    private final AtomicLong arrivalTime;
+
+    /**
+     * Initialize a token bucket.
+     *
+     * @param packetsPerSecond Sustained rate of packets let through
+     * @param burst Amount of packets that can be let through at once after a quiet period
+     */
+    public GlobalTokenBucket(double packetsPerSecond, int burst) {
+        if (packetsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate must be positive and burst must be at least 1.");
+        }
+        emissionInterval = Math.max(1L, (long) (1_000_000_000L / packetsPerSecond));
+        burstWindow = emissionInterval * burst;
+        arrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Take a token from the bucket if there is one.
+     *
+     * @param now Current {@link System#nanoTime()}
+     * @return True if a token was taken
+     */
+    public boolean tryAcquire(long now) {
+        while (true) {
+            final long current = arrivalTime.get();
+            final long base = current - now > 0 ? current : now;
+            final long next = base + emissionInterval;
+
+            if (next - now > burstWindow) {
+                return false;
+            }
+            if (arrivalTime.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.gabler.udpmanager.server;
+
+/**
+ * Handler for received messages of one registered type.
+ *
+ * @param <T> Type of message
+ * @author Andy Gabler
+ */
+public interface IServerMessageHandler<T> {
+
+    /**
+     * Handle a message.
+     *
+     * @param message The decoded message
+     * @param callback Identifying information about the client who sent the message
+     */
+    void handle(T message, ServerClientCallback callback);
+}
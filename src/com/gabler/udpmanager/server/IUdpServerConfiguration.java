@@ -1,6 +1,9 @@
 package com.gabler.udpmanager.server;
 
 import com.gabler.udpmanager.IUdpNetConfiguration;
+import com.gabler.udpmanager.model.UdpRequest;
+
+import java.util.List;
 
 /**
  * Configuration for a UDP server.
@@ -24,4 +27,59 @@ public interface IUdpServerConfiguration extends IUdpNetConfiguration {
      * @param callback Identifying information about the client who sent the message
      */
     void handleStringMessage(String message, ServerClientCallback callback);
+
+    /**
+     * Handle a call that came in as bytes. Answer it with {@link ServerClientCallback#reply(int, byte[])}, or let the
+     * call time out on the client.
+     *
+     * By default the call is handled as a plain message.
+     *
+     * @param message The request
+     * @param correlationId Id to reply with
+     * @param callback Identifying information about the client who sent the call
+     */
+    default void handleBytesCall(byte[] message, int correlationId, ServerClientCallback callback) {
+        handleBytesMessage(message, callback);
+    }
+
+    /**
+     * Handle a call that came in as a String. Answer it with {@link ServerClientCallback#reply(int, String)}, or let the
+     * call time out on the client.
+     *
+     * By default the call is handled as a plain message.
+     *
+     * @param message The request
+     * @param correlationId Id to reply with
+     * @param callback Identifying information about the client who sent the call
+     */
+    default void handleStringCall(String message, int correlationId, ServerClientCallback callback) {
+        handleStringMessage(message, callback);
+    }
+
+    /**
+     * Handle the messages that came in since the last tick, on the tick thread of a server in tick mode. Sends made
+     * while handling them go out together once this returns.
+     *
+     * By default each message is passed to the handler for its type, or to the handler registered for its message type,
+     * in the order the messages came in.
+     *
+     * @param batch The messages, only valid until this returns
+     */
+    default void onTick(List<InboundMessage> batch) {
+        for (InboundMessage message : batch) {
+            if (message.getMessageType() != UdpRequest.NO_MESSAGE_TYPE) {
+                message.dispatch();
+            } else if (message.getPayloadType() == UdpRequest.PAYLOAD_TYPE_BYTES) {
+                if (message.isCall()) {
+                    handleBytesCall(message.getBytePayload(), message.getCorrelationId(), message.getClient());
+                } else {
+                    handleBytesMessage(message.getBytePayload(), message.getClient());
+                }
+            } else if (message.isCall()) {
+                handleStringCall(message.getStringPayload(), message.getCorrelationId(), message.getClient());
+            } else {
+                handleStringMessage(message.getStringPayload(), message.getClient());
+            }
+        }
+    }
 }
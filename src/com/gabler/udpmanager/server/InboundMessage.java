@@ -0,0 +1,136 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.model.UdpRequest;
+
+/**
+ * A decrypted message from a client, buffered until the next tick of a server in tick mode.
+ *
+ * @author Andy Gabler
+ */
+public class InboundMessage {
+
+    private final ServerClientCallback client;
+    private final int payloadType;
+    private final String stringPayload;
+    private final byte[] bytePayload;
+    private final boolean call;
+    private final int correlationId;
+    private final int messageType;
+    private final Object message;
+    private final IServerMessageHandler<Object> handler;
+    private final boolean priority;
+    private final long queuedAt = System.nanoTime();
+
+    InboundMessage(
+        ServerClientCallback aClient,
+        int aPayloadType,
+        String aStringPayload,
+        byte[] aBytePayload,
+        boolean isCall,
+        int aCorrelationId,
+        boolean isPriority
+    ) {
+        this(aClient, aPayloadType, aStringPayload, aBytePayload, isCall, aCorrelationId, UdpRequest.NO_MESSAGE_TYPE, null, null, isPriority);
+    }
+
+    InboundMessage(
+        ServerClientCallback aClient,
+        int aPayloadType,
+        String aStringPayload,
+        byte[] aBytePayload,
+        boolean isCall,
+        int aCorrelationId,
+        int aMessageType,
+        Object aMessage,
+        IServerMessageHandler<Object> aHandler,
+        boolean isPriority
+    ) {
+        client = aClient;
+        payloadType = aPayloadType;
+        stringPayload = aStringPayload;
+        bytePayload = aBytePayload;
+        call = isCall;
+        correlationId = aCorrelationId;
+        messageType = aMessageType;
+        message = aMessage;
+        handler = aHandler;
+        priority = isPriority;
+    }
+
+    public ServerClientCallback getClient() {
+        return client;
+    }
+
+    /**
+     * Get the type of payload.
+     *
+     * @return {@link UdpRequest#PAYLOAD_TYPE_STRING} or {@link UdpRequest#PAYLOAD_TYPE_BYTES}
+     */
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public String getStringPayload() {
+        return stringPayload;
+    }
+
+    public byte[] getBytePayload() {
+        return bytePayload;
+    }
+
+    /**
+     * Check whether the message is a call, to be answered with the correlation id.
+     *
+     * @return True if the message is a call
+     */
+    public boolean isCall() {
+        return call;
+    }
+
+    public int getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * Get the registered message type of the message.
+     *
+     * @return Id of the type, or {@link UdpRequest#NO_MESSAGE_TYPE} for a plain message
+     */
+    public int getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * Get the decoded message of a registered type.
+     *
+     * @return The message, or null for a plain message
+     */
+    public Object getMessage() {
+        return message;
+    }
+
+    /**
+     * Check whether the client marked the message as exempt from load shedding.
+     *
+     * @return True for a priority message
+     */
+    public boolean isPriority() {
+        return priority;
+    }
+
+    /**
+     * Get when the message was buffered.
+     *
+     * @return {@link System#nanoTime()} at which it was buffered
+     */
+    long getQueuedAt() {
+        return queuedAt;
+    }
+
+    /**
+     * Pass a message of a registered type to the handler registered for its type.
+     */
+    public void dispatch() {
+        handler.handle(message, client);
+    }
+}
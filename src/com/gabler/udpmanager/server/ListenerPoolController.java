@@ -0,0 +1,88 @@
+package com.gabler.udpmanager.server;
+
+/**
+ * Sizes the listener pool of a server to its load, between a lower and an upper bound.
+ *
+ * Load is measured as the fraction of time the listeners spend handling datagrams rather than waiting on the socket.
+ * When datagrams back up in the socket receive buffer, receives return immediately and that fraction approaches one,
+ * so it also reflects the backlog, which the socket does not report directly. The pool doubles when busy, so it reaches
+ * its peak size within a few samples, and shrinks one thread at a time when idle, so a short lull does not tear it
+ * down.
+ *
+ * @author Andy Gabler
+ */
+class ListenerPoolController {
+
+    private static final double GROW_UTILIZATION = 0.7;
+    private static final double SHRINK_UTILIZATION = 0.2;
+
+    private final UdpServer server;
+    private final int minListeners;
+    private final int maxListeners;
+
+    private long lastSampleNanos;
+    private long lastBusyNanos;
+    private long lastReceived;
+
+    /**
+     * Initialize a controller.
+     *
+     * @param aServer The server whose pool is sized
+     * @param aMinListeners Least amount of listener threads
+     * @param aMaxListeners Most amount of listener threads
+     */
+    ListenerPoolController(UdpServer aServer, int aMinListeners, int aMaxListeners) {
+        if (aMinListeners < 1 || aMaxListeners < aMinListeners) {
+            throw new IllegalArgumentException("Listener pool bounds must satisfy 1 <= min <= max.");
+        }
+        server = aServer;
+        minListeners = aMinListeners;
+        maxListeners = aMaxListeners;
+        lastSampleNanos = System.nanoTime();
+    }
+
+    /**
+     * Clamp a requested pool size to the bounds.
+     *
+     * @param size The requested size
+     * @return The size to start with
+     */
+    int initialSize(int size) {
+        return Math.max(minListeners, Math.min(maxListeners, size));
+    }
+
+    /**
+     * Measure the load since the last sample and resize the pool if needed. Called periodically from a single thread.
+     */
+    void sample() {
+        final UdpServerMetrics metrics = server.getMetrics();
+        final long now = System.nanoTime();
+        final long busyNanos = metrics.getListenerBusyNanos();
+        final long received = metrics.getListenerDatagrams();
+        final int size = server.getListenerCount();
+
+        final long elapsed = now - lastSampleNanos;
+        final long busy = busyNanos - lastBusyNanos;
+        final long handled = received - lastReceived;
+        lastSampleNanos = now;
+        lastBusyNanos = busyNanos;
+        lastReceived = received;
+        if (elapsed <= 0 || size == 0) {
+            return;
+        }
+
+        final double utilization = (double) busy / ((double) elapsed * size);
+        metrics.recordListenerLoad(utilization, handled == 0 ? 0 : busy / handled);
+
+        if (utilization > GROW_UTILIZATION && size < maxListeners) {
+            final int target = Math.min(maxListeners, size * 2);
+            for (int added = size; added < target; added++) {
+                server.addListener();
+            }
+            metrics.recordListenerResize(target);
+        } else if (utilization < SHRINK_UTILIZATION && size > minListeners) {
+            server.removeListener();
+            metrics.recordListenerResize(size - 1);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.gabler.udpmanager.server;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A finished datagram waiting to be sent, for its pacing slot or for the end of a tick.
+ *
+ * @author Andy Gabler
+ */
+class PacedDatagram implements Delayed {
+
+    private final byte[] datagram;
+    private final ServerClientCallback client;
+    private final long sendTime;
+
+    PacedDatagram(byte[] aDatagram, ServerClientCallback aClient, long aSendTime) {
+        datagram = aDatagram;
+        client = aClient;
+        sendTime = aSendTime;
+    }
+
+    byte[] getDatagram() {
+        return datagram;
+    }
+
+    ServerClientCallback getClient() {
+        return client;
+    }
+
+    long getSendTime() {
+        return sendTime;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(sendTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        return Long.signum(sendTime - ((PacedDatagram) other).sendTime);
+    }
+}
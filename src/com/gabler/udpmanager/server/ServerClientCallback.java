@@ -1,6 +1,14 @@
 package com.gabler.udpmanager.server;
 
+import com.gabler.udpmanager.ClockOffsetEstimator;
+import com.gabler.udpmanager.RttEstimator;
+import com.gabler.udpmanager.SequenceWindow;
+import com.gabler.udpmanager.StaleSequenceFilter;
+import com.gabler.udpmanager.TrafficCounter;
+import com.gabler.udpmanager.security.SessionTicket;
+
 import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The record a server has about a client.
@@ -9,9 +17,19 @@ import java.net.InetAddress;
  */
 public class ServerClientCallback {
 
+    private UdpServer server;
     private InetAddress address;
     private int portNumber;
     private String keyId;
+    private final RttEstimator rtt = new RttEstimator();
+    private final SessionPacer pacer = new SessionPacer(rtt);
+    private final ClockOffsetEstimator clockOffset = new ClockOffsetEstimator();
+    private final TrafficCounter outboundTraffic = new TrafficCounter();
+    private final SequenceWindow sequenceWindow = new SequenceWindow();
+    private final StaleSequenceFilter staleFilter = new StaleSequenceFilter();
+    private final AtomicInteger nextSequence = new AtomicInteger(StaleSequenceFilter.initialSequence());
+    private volatile int ingressNode = ServerCluster.LOCAL;
+    private volatile SessionTicket sessionTicket = null;
 
     public InetAddress getAddress() {
         return address;
@@ -36,4 +54,113 @@ public class ServerClientCallback {
     public void setKeyId(String keyId) {
         this.keyId = keyId;
     }
+
+    /**
+     * Get the round trip time, loss and liveness of this client, as measured by heartbeats.
+     *
+     * @return The estimator
+     */
+    public RttEstimator getRtt() {
+        return rtt;
+    }
+
+    /**
+     * Get how far the clock of this client is ahead of the clock of the server, as measured by heartbeats.
+     *
+     * @return The estimator
+     */
+    public ClockOffsetEstimator getClockOffset() {
+        return clockOffset;
+    }
+
+    /**
+     * Get what the server has sent to this client, and at what rate.
+     *
+     * @return The traffic counter
+     */
+    public TrafficCounter getOutboundTraffic() {
+        return outboundTraffic;
+    }
+
+    /**
+     * Get the cluster node this client talks to.
+     *
+     * @return Index of the node, or {@link ServerCluster#LOCAL} if the client talks to this server directly
+     */
+    public int getIngressNode() {
+        return ingressNode;
+    }
+
+    void setIngressNode(int ingressNode) {
+        this.ingressNode = ingressNode;
+    }
+
+    /**
+     * Get the ticket this client last used, opened, so it does not have to be opened for every datagram.
+     *
+     * @return The opened ticket, or null if the client never used one
+     */
+    SessionTicket getSessionTicket() {
+        return sessionTicket;
+    }
+
+    void setSessionTicket(SessionTicket ticket) {
+        sessionTicket = ticket;
+    }
+
+    /**
+     * Get the window of sequence numbers recently received from this client, to drop duplicates and replays with. Only
+     * used while the client is not on a session ticket; a ticket has a window of its own, wherever it is sent from.
+     *
+     * @return The window
+     */
+    SequenceWindow getSequenceWindow() {
+        return sequenceWindow;
+    }
+
+    /**
+     * Get the filter that drops sequenced messages from this client that arrive after a newer one was delivered.
+     *
+     * @return The filter
+     */
+    StaleSequenceFilter getStaleFilter() {
+        return staleFilter;
+    }
+
+    /**
+     * Take the next sequence number for a sequenced message to this client.
+     *
+     * @return The unsigned 32 bit sequence number
+     */
+    long nextSequence() {
+        return nextSequence.getAndIncrement() & 0xFFFFFFFFL;
+    }
+
+    SessionPacer getPacer() {
+        return pacer;
+    }
+
+    void setServer(UdpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Reply to a call from this client.
+     *
+     * @param correlationId Id the call came in with
+     * @param payload The reply
+     */
+    public void reply(int correlationId, byte[] payload) {
+        server.replyToClient(this, correlationId, null, payload);
+    }
+
+    /**
+     * Reply to a call from this client.
+     *
+     * @param correlationId Id the call came in with
+     * @param payload The reply
+     */
+    public void reply(int correlationId, String payload) {
+        server.replyToClient(this, correlationId, payload, null);
+    }
 }
@@ -1,6 +1,10 @@
 package com.gabler.udpmanager.server;
 
+import com.gabler.udpmanager.security.SessionTicket;
+
+import java.io.IOException;
 import java.net.InetAddress;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -12,6 +16,16 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public class ServerClientManager {
 
     private final CopyOnWriteArrayList<ServerClientCallback> callbacks = new CopyOnWriteArrayList<>();
+    private final UdpServer server;
+
+    /**
+     * Initialize a client manager.
+     *
+     * @param aServer The server the clients talk to
+     */
+    public ServerClientManager(UdpServer aServer) {
+        server = aServer;
+    }
 
     /**
      * Return all clients.
@@ -22,6 +36,44 @@ public class ServerClientManager {
         return callbacks;
     }
 
+    /**
+     * Register the sessions saved in a snapshot. All of them are added at once, so restoring a large table costs a
+     * single copy of the client list.
+     *
+     * @param snapshot The snapshot file
+     */
+    void restore(SessionSnapshotFile snapshot) {
+        final List<ServerClientCallback> restored = snapshot.read();
+        restored.forEach(client -> client.setServer(server));
+        callbacks.addAll(restored);
+    }
+
+    /**
+     * Save all sessions to a snapshot.
+     *
+     * @param snapshot The snapshot file
+     * @throws IOException If the snapshot cannot be written
+     */
+    void snapshot(SessionSnapshotFile snapshot) throws IOException {
+        snapshot.write(callbacks);
+    }
+
+    /**
+     * Find the client for an address and port number without registering it.
+     *
+     * @param clientAddress The address of the client
+     * @param portNumber The port number of the client
+     * @return The client callback, or null if the client is not known
+     */
+    public ServerClientCallback findForAddressAndPort(InetAddress clientAddress, int portNumber) {
+        for (ServerClientCallback client : callbacks) {
+            if (portNumber == client.getPortNumber() && client.getAddress().equals(clientAddress)) {
+                return client;
+            }
+        }
+        return null;
+    }
+
     /**
      * Get client for address and port number. Ensures manager knows about client.
      *
@@ -30,7 +82,7 @@ public class ServerClientManager {
      * @param keyId The key the client wishes to use
      * @return The client callback
      */
-    public ServerClientCallback getForAddressAndPort(InetAddress clientAddress, int portNumber, String keyId) {
+    public synchronized ServerClientCallback getForAddressAndPort(InetAddress clientAddress, int portNumber, String keyId) {
         final Optional<ServerClientCallback> callbackOptional = callbacks.stream().filter(client ->
             client.getAddress().equals(clientAddress) && portNumber == client.getPortNumber()
         ).findFirst();
@@ -39,10 +91,7 @@ public class ServerClientManager {
         if (callbackOptional.isPresent()) {
             callback = callbackOptional.get();
         } else {
-            callback = new ServerClientCallback();
-            callback.setAddress(clientAddress);
-            callback.setPortNumber(portNumber);
-            callback.setKeyId(keyId);
+            callback = newClient(clientAddress, portNumber, keyId);
             callbacks.add(callback);
         }
 
@@ -53,4 +102,58 @@ public class ServerClientManager {
         callback.setKeyId(keyId);
         return callback;
     }
+
+    /**
+     * Make a record for a client without registering it, so a datagram can be checked before the client is known.
+     *
+     * @param clientAddress The address of the client
+     * @param portNumber The port number of the client
+     * @param keyId The key the client wishes to use
+     * @return The client callback
+     */
+    ServerClientCallback newClient(InetAddress clientAddress, int portNumber, String keyId) {
+        final ServerClientCallback callback = new ServerClientCallback();
+        callback.setServer(server);
+        callback.setAddress(clientAddress);
+        callback.setPortNumber(portNumber);
+        callback.setKeyId(keyId);
+        return callback;
+    }
+
+    /**
+     * Register a client made with {@link #newClient}, unless a client on the same address and port got registered
+     * meanwhile.
+     *
+     * @param candidate The client
+     * @return The client now registered for the address and port
+     */
+    synchronized ServerClientCallback register(ServerClientCallback candidate) {
+        final ServerClientCallback existing = findForAddressAndPort(candidate.getAddress(), candidate.getPortNumber());
+        if (existing != null) {
+            existing.setKeyId(candidate.getKeyId());
+            return existing;
+        }
+        callbacks.add(candidate);
+        return candidate;
+    }
+
+    /**
+     * Forget a client.
+     *
+     * @param client The client
+     */
+    void remove(ServerClientCallback client) {
+        callbacks.remove(client);
+    }
+
+    /**
+     * Forget the clients whose session ticket has expired. The server no longer accepts their ticket, so nothing more
+     * can be sent to or received from them until they do a new handshake.
+     */
+    void removeExpiredSessions() {
+        callbacks.removeIf(client -> {
+            final SessionTicket ticket = client.getSessionTicket();
+            return ticket != null && ticket.getTicket().equals(client.getKeyId()) && ticket.isExpired();
+        });
+    }
 }
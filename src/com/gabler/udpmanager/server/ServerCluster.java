@@ -0,0 +1,280 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.model.UdpRequest;
+import com.gabler.udpmanager.security.HeaderMac;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Membership of a server in a cluster of servers that share the client sessions between them.
+ *
+ * Each client is owned by exactly one node, picked by a {@link ConsistentHashRing}. A datagram that reaches a node
+ * other than the owner is wrapped and forwarded to the owner. The owner remembers which node the client talks to and
+ * relays everything it sends the client back through that node, since the client only accepts datagrams from the
+ * address it connected to. Broadcasts are fanned out so every node broadcasts to the clients it owns.
+ *
+ * Traffic between nodes is not encrypted; nodes are expected to talk over a trusted network, and a header MAC key
+ * should be set so outsiders cannot inject cluster traffic.
+ *
+ * @author Andy Gabler
+ */
+public class ServerCluster {
+
+    public static final int LOCAL = -1;
+
+    private static final int ORIGIN_ADDRESS_LENGTH = 16;
+
+    private final UdpServer server;
+    private final List<InetSocketAddress> nodes;
+    private final int self;
+    private final ConsistentHashRing ring;
+
+    /**
+     * Initialize cluster membership.
+     *
+     * @param aServer The server that is a node of the cluster
+     * @param aNodes Every node of the cluster, in the same order on every node
+     * @param selfIndex Index of this server in the node list
+     */
+    public ServerCluster(UdpServer aServer, List<InetSocketAddress> aNodes, int selfIndex) {
+        if (selfIndex < 0 || selfIndex >= aNodes.size()) {
+            throw new IllegalArgumentException("Node index " + selfIndex + " is not in the node list.");
+        }
+        server = aServer;
+        nodes = new ArrayList<>(aNodes);
+        self = selfIndex;
+        ring = new ConsistentHashRing(nodes);
+    }
+
+    /**
+     * Route a validated datagram. Cluster traffic from other nodes is dealt with here, and datagrams from clients owned
+     * by another node are forwarded to it.
+     *
+     * @param listener The listener that received the datagram, used to process forwarded datagrams
+     * @param buffer The receive buffer
+     * @param length Length of the datagram
+     * @param source Address the datagram came from
+     * @param sourcePort Port the datagram came from
+     * @return True if the datagram was dealt with, false if it is a datagram from a client owned by this node
+     * @throws IOException If forwarding fails
+     */
+    boolean route(UdpServerListeningThread listener, byte[] buffer, int length, InetAddress source, int sourcePort) throws IOException {
+        final int kind = PacketHeader.kind(buffer);
+
+        if (isClusterKind(kind)) {
+            final int peer = nodeIndexOf(source, sourcePort);
+            if (peer == LOCAL) {
+                server.getMetrics().recordDropped(PacketDropReason.NOT_A_CLUSTER_PEER);
+                return true;
+            }
+            if (kind == PacketHeader.KIND_CLUSTER_BROADCAST) {
+                // An ordinary request, the server picks it up after deserialization knowing which peer sent it.
+                listener.processDatagram(buffer, source, sourcePort, peer);
+                return true;
+            }
+
+            final int flags = PacketHeader.flags(buffer);
+            if ((flags & PacketHeader.FLAG_ORIGIN) == 0) {
+                server.getMetrics().recordDropped(PacketDropReason.MALFORMED_PAYLOAD);
+                return true;
+            }
+            final int originOffset = PacketHeader.extensionOffset(flags, PacketHeader.FLAG_ORIGIN);
+            final InetAddress origin = readOriginAddress(buffer, originOffset);
+            final int originPort = PacketHeader.readShort(buffer, originOffset + ORIGIN_ADDRESS_LENGTH);
+
+            // Move the wrapped datagram to the front of the buffer so it can be handled like any received datagram.
+            final int innerLength = PacketHeader.payloadLength(buffer);
+            System.arraycopy(buffer, PacketHeader.headerLength(flags), buffer, 0, innerLength);
+
+            if (kind == PacketHeader.KIND_RELAY) {
+                server.sendRaw(buffer, innerLength, origin, originPort);
+            } else if (isClusterKind(PacketHeader.kind(buffer))) {
+                // A client cannot have sent cluster traffic, the peer only passed it on.
+                server.getMetrics().recordDropped(PacketDropReason.NOT_A_CLUSTER_PEER);
+            } else if (server.validateForwarded(buffer, innerLength)) {
+                listener.processDatagram(buffer, origin, originPort, peer);
+            }
+            return true;
+        }
+
+        final int owner = ring.ownerOf(source, sourcePort);
+        if (owner == self) {
+            return false;
+        }
+        sendWrapped(PacketHeader.KIND_FORWARD, buffer, length, source, sourcePort, owner);
+        return true;
+    }
+
+    /**
+     * Check whether a kind of packet may only be sent between nodes.
+     *
+     * @param kind The kind
+     * @return True for forwards, relays and cluster broadcasts
+     */
+    static boolean isClusterKind(int kind) {
+        return kind == PacketHeader.KIND_FORWARD || kind == PacketHeader.KIND_RELAY || kind == PacketHeader.KIND_CLUSTER_BROADCAST;
+    }
+
+    /**
+     * Relay a datagram meant for a client through the node the client talks to.
+     *
+     * @param datagram The datagram
+     * @param client The client
+     * @throws IOException If the relay fails
+     */
+    void relay(byte[] datagram, ServerClientCallback client) throws IOException {
+        sendWrapped(PacketHeader.KIND_RELAY, datagram, datagram.length, client.getAddress(), client.getPortNumber(), client.getIngressNode());
+    }
+
+    /**
+     * Have every other node broadcast to the clients it owns.
+     *
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param payloadType The type of payload
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @param toBytes Transformer of the request into a datagram
+     * @throws IOException If a send fails
+     */
+    void fanOutBroadcast(
+        String stringPayload,
+        byte[] bytePayload,
+        int payloadType,
+        int messageType,
+        Function<UdpRequest, byte[]> toBytes
+    ) throws IOException {
+        final UdpRequest request = new UdpRequest();
+        request.setPacketKind(PacketHeader.KIND_CLUSTER_BROADCAST);
+        request.setPayloadType(payloadType);
+        request.setMessageType(messageType);
+        request.setStringPayload(stringPayload);
+        request.setBytePayload(bytePayload);
+        final byte[] datagram = toBytes.apply(request);
+
+        for (int node = 0; node < nodes.size(); node++) {
+            if (node != self) {
+                final InetSocketAddress peer = nodes.get(node);
+                server.sendRaw(datagram, datagram.length, peer.getAddress(), peer.getPort());
+            }
+        }
+    }
+
+    /**
+     * Check whether this node is the one a client talks to.
+     *
+     * @param client The client
+     * @return True if datagrams to the client can go straight out of this node
+     */
+    boolean isIngress(ServerClientCallback client) {
+        return client.getIngressNode() == LOCAL || client.getIngressNode() == self;
+    }
+
+    /**
+     * Get the index of this node.
+     *
+     * @return The index
+     */
+    public int getSelf() {
+        return self;
+    }
+
+    /**
+     * Wrap a datagram with the address it concerns and send it to another node.
+     *
+     * @param kind {@link PacketHeader#KIND_FORWARD} or {@link PacketHeader#KIND_RELAY}
+     * @param datagram The datagram
+     * @param length Length of the datagram
+     * @param origin Address of the client
+     * @param originPort Port of the client
+     * @param node Index of the node to send to
+     * @throws IOException If the send fails
+     */
+    private void sendWrapped(int kind, byte[] datagram, int length, InetAddress origin, int originPort, int node) throws IOException {
+        final HeaderMac headerMac = server.getHeaderMac();
+        int flags = PacketHeader.FLAG_ORIGIN;
+        if (headerMac != null) {
+            flags |= PacketHeader.FLAG_MAC;
+        }
+
+        final int headerLength = PacketHeader.headerLength(flags);
+        if (headerLength + length > PacketHeader.MAX_PAYLOAD_LENGTH) {
+            server.getMetrics().recordDropped(PacketDropReason.BAD_LENGTH);
+            return;
+        }
+
+        final byte[] wrapped = new byte[headerLength + length];
+        PacketHeader.writeBase(wrapped, kind, flags, length);
+        final int originOffset = PacketHeader.extensionOffset(flags, PacketHeader.FLAG_ORIGIN);
+        writeOriginAddress(wrapped, originOffset, origin);
+        PacketHeader.writeShort(wrapped, originOffset + ORIGIN_ADDRESS_LENGTH, originPort);
+        if (headerMac != null) {
+            headerMac.sign(wrapped, PacketHeader.macOffset(flags));
+        }
+        System.arraycopy(datagram, 0, wrapped, headerLength, length);
+
+        final InetSocketAddress peer = nodes.get(node);
+        server.sendRaw(wrapped, wrapped.length, peer.getAddress(), peer.getPort());
+    }
+
+    /**
+     * Find which node an address belongs to.
+     *
+     * @param address The address
+     * @param port The port
+     * @return Index of the node, or {@link #LOCAL} if it is not a node of the cluster
+     */
+    private int nodeIndexOf(InetAddress address, int port) {
+        for (int node = 0; node < nodes.size(); node++) {
+            final InetSocketAddress candidate = nodes.get(node);
+            if (node != self && candidate.getPort() == port && candidate.getAddress().equals(address)) {
+                return node;
+            }
+        }
+        return LOCAL;
+    }
+
+    /**
+     * Write an address as sixteen bytes, IPv4 addresses in their IPv4-mapped IPv6 form.
+     *
+     * @param buffer Buffer to write to
+     * @param offset Where to write
+     * @param address The address
+     */
+    private static void writeOriginAddress(byte[] buffer, int offset, InetAddress address) {
+        final byte[] raw = address.getAddress();
+        if (address instanceof Inet4Address) {
+            buffer[offset + 10] = (byte) 0xFF;
+            buffer[offset + 11] = (byte) 0xFF;
+            System.arraycopy(raw, 0, buffer, offset + 12, 4);
+        } else {
+            System.arraycopy(raw, 0, buffer, offset, ORIGIN_ADDRESS_LENGTH);
+        }
+    }
+
+    /**
+     * Read an address written by {@link #writeOriginAddress(byte[], int, InetAddress)}.
+     *
+     * @param buffer Buffer to read from
+     * @param offset Where to read
+     * @return The address
+     */
+    private static InetAddress readOriginAddress(byte[] buffer, int offset) {
+        final byte[] raw = new byte[ORIGIN_ADDRESS_LENGTH];
+        System.arraycopy(buffer, offset, raw, 0, ORIGIN_ADDRESS_LENGTH);
+        try {
+            // IPv4-mapped addresses come back as Inet4Address, matching what the socket reports for IPv4 clients.
+            return InetAddress.getByAddress(raw);
+        } catch (UnknownHostException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
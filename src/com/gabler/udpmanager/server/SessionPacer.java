@@ -0,0 +1,89 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.RttEstimator;
+
+/**
+ * Paces the datagrams sent to one client with an AIMD congestion window.
+ *
+ * The window is the amount of datagrams allowed per round trip, so datagrams are spaced one smoothed round trip time
+ * divided by the window apart. Once per round trip the window grows by one datagram, unless the loss estimate of the
+ * session went up since the last adjustment, in which case it shrinks multiplicatively.
+ *
+ * @author Andy Gabler
+ */
+public class SessionPacer {
+
+    private static final double INITIAL_WINDOW = 10;
+    private static final double MIN_WINDOW = 2;
+    private static final double MAX_WINDOW = 10_000;
+    private static final double DECREASE_FACTOR = 0.7;
+
+    // Spacing used until the first round trip time sample arrives.
+    private static final long DEFAULT_RTT_NANOS = 10_000_000L;
+
+    private final RttEstimator rtt;
+
+    private double window = INITIAL_WINDOW;
+    private long nextSendTime = 0;
+    private long lastAdjustment = System.nanoTime();
+    private double lastLossRate = 0;
+
+    /**
+     * Initialize a pacer.
+     *
+     * @param anRtt Round trip time and loss of the session
+     */
+    public SessionPacer(RttEstimator anRtt) {
+        rtt = anRtt;
+    }
+
+    /**
+     * Reserve the next send slot of the session.
+     *
+     * @param earliest {@link System#nanoTime()} before which the datagram should not go out
+     * @param maxDelayNanos How far past the earliest time the slot may be
+     * @return Nanoseconds past the earliest time at which the datagram may go out, or -1 if the session is too far
+     *         behind and no slot was reserved
+     */
+    public synchronized long reserve(long earliest, long maxDelayNanos) {
+        final long smoothedRtt = rtt.getSmoothedRttNanos() > 0 ? rtt.getSmoothedRttNanos() : DEFAULT_RTT_NANOS;
+        adjustWindow(earliest, smoothedRtt);
+
+        final long delay = Math.max(0, nextSendTime - earliest);
+        if (delay > maxDelayNanos) {
+            return -1;
+        }
+        nextSendTime = earliest + delay + (long) (smoothedRtt / window);
+        return delay;
+    }
+
+    /**
+     * Get the current congestion window.
+     *
+     * @return Datagrams per round trip
+     */
+    public synchronized double getWindow() {
+        return window;
+    }
+
+    /**
+     * Grow or shrink the window, at most once per round trip.
+     *
+     * @param now Current {@link System#nanoTime()}
+     * @param smoothedRtt The round trip time
+     */
+    private void adjustWindow(long now, long smoothedRtt) {
+        if (now - lastAdjustment < smoothedRtt) {
+            return;
+        }
+
+        final double lossRate = rtt.getLossRate();
+        if (lossRate > lastLossRate) {
+            window = Math.max(MIN_WINDOW, window * DECREASE_FACTOR);
+        } else {
+            window = Math.min(MAX_WINDOW, window + 1);
+        }
+        lastLossRate = lossRate;
+        lastAdjustment = now;
+    }
+}
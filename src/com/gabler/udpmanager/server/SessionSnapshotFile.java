@@ -0,0 +1,275 @@
+package com.gabler.udpmanager.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped file holding a compact binary snapshot of the sessions of a server, so a restarted server knows its
+ * clients before they send again.
+ *
+ * <pre>
+ * offset 0   magic          4 bytes
+ * offset 4   version        4 bytes
+ * offset 8   slot 0         24 bytes
+ * offset 32  slot 1         24 bytes
+ * offset 56  records of both slots
+ *
+ * slot       generation     8 bytes
+ *            session count  4 bytes
+ *            records offset 4 bytes
+ *            records length 4 bytes
+ *            CRC32 of the records and the slot fields before it
+ *
+ * record     address length 1 byte, 4 or 16
+ *            address        4 or 16 bytes
+ *            port           2 bytes
+ *            ingress node   2 bytes, signed
+ *            key id length  2 bytes, 0xFFFF for no key
+ *            key id         UTF-8
+ * </pre>
+ *
+ * The file holds two snapshots, and the one with the higher generation whose checksum matches is current. A write puts
+ * its records where they do not overlap the current snapshot, and only then fills in the other slot, so a server that
+ * dies partway through a write restarts with the snapshot before it.
+ *
+ * @author Andy Gabler
+ */
+class SessionSnapshotFile {
+
+    private static final Logger LOGGER = Logger.getLogger("SessionSnapshotFile");
+
+    private static final int MAGIC = 0x55535353;
+    private static final int VERSION = 2;
+    private static final int SLOT_OFFSET = 8;
+    private static final int SLOT_LENGTH = 24;
+    private static final int HEADER_LENGTH = SLOT_OFFSET + 2 * SLOT_LENGTH;
+    private static final int NO_KEY = 0xFFFF;
+
+    private final FileChannel channel;
+    private MappedByteBuffer mapping = null;
+
+    /**
+     * Open a snapshot file, creating it if it does not exist.
+     *
+     * @param path Location of the file
+     * @throws IOException If the file cannot be opened
+     */
+    SessionSnapshotFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > 0) {
+            mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+    }
+
+    /**
+     * Read the sessions in the file.
+     *
+     * @return Client records holding the address, port, key id and ingress node of each session, empty if there is no
+     * usable snapshot
+     */
+    synchronized List<ServerClientCallback> read() {
+        final ArrayList<ServerClientCallback> sessions = new ArrayList<>();
+        if (mapping == null || mapping.capacity() < HEADER_LENGTH) {
+            return sessions;
+        }
+        if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION) {
+            LOGGER.warning("Ignoring session snapshot with an unknown format.");
+            return sessions;
+        }
+
+        final int slot = currentSlot();
+        if (slot == -1) {
+            LOGGER.warning("Ignoring session snapshot that was not completely written.");
+            return sessions;
+        }
+
+        final int slotOffset = SLOT_OFFSET + slot * SLOT_LENGTH;
+        final int count = mapping.getInt(slotOffset + 8);
+        final int recordsOffset = mapping.getInt(slotOffset + 12);
+        final ByteBuffer records = mapping.duplicate();
+        records.position(recordsOffset).limit(recordsOffset + mapping.getInt(slotOffset + 16));
+
+        sessions.ensureCapacity(count);
+        try {
+            for (int index = 0; index < count; index++) {
+                final byte[] address = new byte[records.get()];
+                records.get(address);
+                final int port = records.getShort() & 0xFFFF;
+                final int ingressNode = records.getShort();
+                final int keyIdLength = records.getShort() & 0xFFFF;
+
+                String keyId = null;
+                if (keyIdLength != NO_KEY) {
+                    final byte[] keyIdBytes = new byte[keyIdLength];
+                    records.get(keyIdBytes);
+                    keyId = new String(keyIdBytes, StandardCharsets.UTF_8);
+                }
+
+                final ServerClientCallback session = new ServerClientCallback();
+                session.setAddress(InetAddress.getByAddress(address));
+                session.setPortNumber(port);
+                session.setKeyId(keyId);
+                session.setIngressNode(ingressNode);
+                sessions.add(session);
+            }
+        } catch (RuntimeException | IOException exception) {
+            LOGGER.log(Level.WARNING, "Ignoring malformed session snapshot.", exception);
+            sessions.clear();
+        }
+        return sessions;
+    }
+
+    /**
+     * Replace the snapshot in the file with the given sessions. The previous snapshot stays intact until the new one is
+     * completely on disk.
+     *
+     * @param sessions The sessions
+     * @throws IOException If the file cannot be grown
+     */
+    synchronized void write(List<ServerClientCallback> sessions) throws IOException {
+        final int count = sessions.size();
+        final byte[][] keyIds = new byte[count][];
+        final ServerClientCallback[] records = sessions.toArray(new ServerClientCallback[count]);
+
+        long recordsLength = 0;
+        for (int index = 0; index < count; index++) {
+            final String keyId = records[index].getKeyId();
+            keyIds[index] = keyId == null ? null : keyId.getBytes(StandardCharsets.UTF_8);
+            recordsLength += 1 + records[index].getAddress().getAddress().length + 6;
+            recordsLength += keyIds[index] == null ? 0 : keyIds[index].length;
+        }
+
+        // Keep clear of the records of the current snapshot: before them if there is room, else right after them.
+        final boolean formatted = mapping != null && mapping.capacity() >= HEADER_LENGTH
+            && mapping.getInt(0) == MAGIC && mapping.getInt(4) == VERSION;
+        final int current = formatted ? currentSlot() : -1;
+        long generation = 1;
+        long recordsOffset = HEADER_LENGTH;
+        if (current != -1) {
+            final int currentOffset = SLOT_OFFSET + current * SLOT_LENGTH;
+            generation = mapping.getLong(currentOffset) + 1;
+            final int usedFrom = mapping.getInt(currentOffset + 12);
+            if (HEADER_LENGTH + recordsLength > usedFrom) {
+                recordsOffset = (long) usedFrom + mapping.getInt(currentOffset + 16);
+            }
+        }
+        if (recordsOffset + recordsLength > Integer.MAX_VALUE) {
+            throw new IOException("Session snapshot too large.");
+        }
+        ensureCapacity((int) (recordsOffset + recordsLength));
+        if (!formatted) {
+            // Both slots start out empty, so neither is taken for current.
+            for (int index = 0; index < HEADER_LENGTH; index++) {
+                mapping.put(index, (byte) 0);
+            }
+            mapping.putInt(0, MAGIC);
+            mapping.putInt(4, VERSION);
+        }
+
+        final ByteBuffer buffer = mapping.duplicate();
+        buffer.position((int) recordsOffset);
+        for (int index = 0; index < count; index++) {
+            final byte[] address = records[index].getAddress().getAddress();
+            buffer.put((byte) address.length);
+            buffer.put(address);
+            buffer.putShort((short) records[index].getPortNumber());
+            buffer.putShort((short) records[index].getIngressNode());
+            if (keyIds[index] == null) {
+                buffer.putShort((short) NO_KEY);
+            } else {
+                buffer.putShort((short) keyIds[index].length);
+                buffer.put(keyIds[index]);
+            }
+        }
+        mapping.force();
+
+        // Commit by filling in the other slot, only once the records are on disk.
+        final int slotOffset = SLOT_OFFSET + (current == 0 ? 1 : 0) * SLOT_LENGTH;
+        mapping.putLong(slotOffset, generation);
+        mapping.putInt(slotOffset + 8, count);
+        mapping.putInt(slotOffset + 12, (int) recordsOffset);
+        mapping.putInt(slotOffset + 16, (int) recordsLength);
+        mapping.putInt(slotOffset + 20, slotChecksum(slotOffset));
+        mapping.force();
+    }
+
+    /**
+     * Close the file. The mapping itself is released when it is garbage collected.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Make sure the mapping is at least some size, doubling it when it has to grow so a slowly growing session table
+     * does not remap on every write.
+     *
+     * @param length Size needed in bytes
+     * @throws IOException If the file cannot be grown
+     */
+    private void ensureCapacity(int length) throws IOException {
+        if (mapping != null && mapping.capacity() >= length) {
+            return;
+        }
+        final long grown = mapping == null ? length : Math.max(length, 2L * mapping.capacity());
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(grown, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Find the slot holding the current snapshot.
+     *
+     * @return Index of the valid slot with the highest generation, or -1 if neither is valid
+     */
+    private int currentSlot() {
+        int best = -1;
+        for (int slot = 0; slot < 2; slot++) {
+            final int slotOffset = SLOT_OFFSET + slot * SLOT_LENGTH;
+            final long generation = mapping.getLong(slotOffset);
+            final int recordsOffset = mapping.getInt(slotOffset + 12);
+            final int recordsLength = mapping.getInt(slotOffset + 16);
+            if (generation == 0 || recordsOffset < HEADER_LENGTH || recordsLength < 0
+                || recordsLength > mapping.capacity() - recordsOffset
+                || slotChecksum(slotOffset) != mapping.getInt(slotOffset + 20)
+            ) {
+                continue;
+            }
+            if (best == -1 || generation > mapping.getLong(SLOT_OFFSET + best * SLOT_LENGTH)) {
+                best = slot;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compute the checksum of a slot over its records and its other fields, so a torn slot is as invalid as torn
+     * records.
+     *
+     * @param slotOffset Offset of the slot
+     * @return The checksum
+     */
+    private int slotChecksum(int slotOffset) {
+        final int recordsOffset = mapping.getInt(slotOffset + 12);
+        final ByteBuffer records = mapping.duplicate();
+        records.position(recordsOffset).limit(recordsOffset + mapping.getInt(slotOffset + 16));
+        final ByteBuffer fields = mapping.duplicate();
+        fields.position(slotOffset).limit(slotOffset + 20);
+
+        final CRC32 crc = new CRC32();
+        crc.update(records);
+        crc.update(fields);
+        return (int) crc.getValue();
+    }
+}
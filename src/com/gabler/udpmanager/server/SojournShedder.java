@@ -0,0 +1,91 @@
+package com.gabler.udpmanager.server;
+
+/**
+ * Admission control for one queue of inbound messages, after CoDel (RFC 8289). Rather than looking at how long the
+ * queue is, it looks at how long each message waited in it when it is taken off. A queue whose messages keep waiting
+ * longer than the target for a whole interval has a standing backlog that only delays everything behind it, so from
+ * then on the message being taken off is dropped, more and more often, until the waits are back under the target.
+ *
+ * Dropping at the head sheds the stalest messages, the ones least worth handling, and a short burst that drains
+ * within an interval is never touched.
+ *
+ * Not thread safe; each queue has its own, used only by the thread taking messages off of that queue.
+ *
+ * @author Andy Gabler
+ */
+class SojournShedder {
+
+    private final long targetNanos;
+    private final long intervalNanos;
+
+    private long firstAboveTime = 0;
+    private boolean dropping = false;
+    private long dropNext = 0;
+    private int count = 0;
+    private int lastCount = 0;
+
+    /**
+     * Initialize a shedder.
+     *
+     * @param aTargetNanos Wait that is acceptable to persist
+     * @param anIntervalNanos How long waits must stay above the target before anything is dropped
+     */
+    SojournShedder(long aTargetNanos, long anIntervalNanos) {
+        targetNanos = aTargetNanos;
+        intervalNanos = anIntervalNanos;
+    }
+
+    /**
+     * Decide about a message that was just taken off of the queue.
+     *
+     * @param sojournNanos How long the message waited in the queue
+     * @param now Current {@link System#nanoTime()}
+     * @param moreWaiting Whether other messages are still waiting behind it
+     * @return True if the message should be dropped
+     */
+    boolean shouldDrop(long sojournNanos, long now, boolean moreWaiting) {
+        boolean okToDrop = false;
+        // An empty queue has no backlog to work off, however long its last message waited.
+        if (sojournNanos < targetNanos || !moreWaiting) {
+            firstAboveTime = 0;
+        } else if (firstAboveTime == 0) {
+            firstAboveTime = now + intervalNanos;
+        } else if (now - firstAboveTime >= 0) {
+            okToDrop = true;
+        }
+
+        if (dropping) {
+            if (!okToDrop) {
+                dropping = false;
+                return false;
+            }
+            if (now - dropNext >= 0) {
+                count++;
+                dropNext = controlLaw(dropNext);
+                return true;
+            }
+            return false;
+        }
+
+        if (okToDrop) {
+            dropping = true;
+            // Recently out of dropping, so the backlog is likely back; resume near the rate that worked last time.
+            final int delta = count - lastCount;
+            count = delta > 1 && now - dropNext < 16 * intervalNanos ? delta : 1;
+            lastCount = count;
+            dropNext = controlLaw(now);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Work out when to drop next. Drops get closer together with the square root of the amount so far.
+     *
+     * @param from Time of the latest drop
+     * @return Time of the next drop
+     */
+    private long controlLaw(long from) {
+        return from + (long) (intervalNanos / Math.sqrt(count));
+    }
+}
@@ -0,0 +1,138 @@
+package com.gabler.udpmanager.server;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * One token bucket per source address, stored in flat primitive arrays so that tracking a very large amount of
+ * sources costs sixteen bytes each and no objects.
+ *
+ * Buckets are kept in the same "theoretical arrival time" form as {@link GlobalTokenBucket}. A bucket whose arrival
+ * time has passed is full, which is exactly the state of a source that has never been seen, so such entries can be
+ * overwritten at any time without changing behaviour. When a source has to be tracked and its slot group is full of
+ * sources still paying off a burst, the one closest to being full is evicted.
+ *
+ * @author Andy Gabler
+ */
+public class SourceTokenBuckets {
+
+    /*
+     * Slots are grouped in fixed groups of eight. A source only ever lives within the group its hash points at, so a
+     * lookup is a scan of eight adjacent longs and each group can be guarded by a lock stripe independently.
+     */
+    private static final int GROUP_WIDTH = 8;
+    private static final int LOCK_STRIPES = 64;
+
+    private final long emissionInterval;
+    private final long burstWindow;
+    private final long[] sources;
+    private final long[] arrivalTimes;
+    private final int groupMask;
+    private final Object[] locks;
+
+    /**
+     * Initialize the source buckets.
+     *
+     * @param packetsPerSecond Sustained rate of packets let through per source
+     * @param burst Amount of packets a source can send at once after a quiet period
+     * @param maxTrackedSources Amount of sources to keep state for, rounded up to a power of two
+     */
+    public SourceTokenBuckets(double packetsPerSecond, int burst, int maxTrackedSources) {
+        if (packetsPerSecond <= 0 || burst < 1 || maxTrackedSources < 1) {
+            throw new IllegalArgumentException("Rate, burst and tracked source count must be positive.");
+        }
+        emissionInterval = Math.max(1L, (long) (1_000_000_000L / packetsPerSecond));
+        burstWindow = emissionInterval * burst;
+
+        final int requestedGroups = (maxTrackedSources + GROUP_WIDTH - 1) / GROUP_WIDTH;
+        final int groups = Integer.highestOneBit(requestedGroups) == requestedGroups
+            ? requestedGroups
+            : Integer.highestOneBit(requestedGroups) << 1;
+        groupMask = groups - 1;
+        sources = new long[groups * GROUP_WIDTH];
+        arrivalTimes = new long[groups * GROUP_WIDTH];
+
+        locks = new Object[LOCK_STRIPES];
+        for (int index = 0; index < LOCK_STRIPES; index++) {
+            locks[index] = new Object();
+        }
+    }
+
+    /**
+     * Take a token from the bucket of a source if there is one.
+     *
+     * @param address The address of the source
+     * @param now Current {@link System#nanoTime()}
+     * @return True if a token was taken
+     */
+    public boolean tryAcquire(InetAddress address, long now) {
+        final long source = sourceKey(address);
+        final int group = spread(source) & groupMask;
+        final int start = group * GROUP_WIDTH;
+
+        synchronized (locks[group & (LOCK_STRIPES - 1)]) {
+            int slot = -1;
+            int victim = start;
+            boolean victimFree = false;
+
+            for (int index = start; index < start + GROUP_WIDTH; index++) {
+                final long occupant = sources[index];
+                if (occupant == source) {
+                    slot = index;
+                    break;
+                }
+
+                final boolean free = occupant == 0 || arrivalTimes[index] - now <= 0;
+                if (free && !victimFree) {
+                    victim = index;
+                    victimFree = true;
+                } else if (!victimFree && arrivalTimes[index] - arrivalTimes[victim] < 0) {
+                    victim = index;
+                }
+            }
+
+            long base = now;
+            if (slot != -1) {
+                final long arrivalTime = arrivalTimes[slot];
+                if (arrivalTime - now > 0) {
+                    base = arrivalTime;
+                }
+            } else {
+                slot = victim;
+            }
+
+            final long next = base + emissionInterval;
+            if (next - now > burstWindow) {
+                return false;
+            }
+
+            sources[slot] = source;
+            arrivalTimes[slot] = next;
+            return true;
+        }
+    }
+
+    /**
+     * Turn an address into a non-zero key without allocating.
+     *
+     * {@link Inet4Address#hashCode()} is the address itself. IPv6 addresses are reduced to their hash, so two IPv6
+     * sources may share a bucket, which only ever makes the limit stricter for them.
+     *
+     * @param address The address
+     * @return The key
+     */
+    private static long sourceKey(InetAddress address) {
+        final long family = address instanceof Inet4Address ? 1L : 2L;
+        return (family << 32) | (address.hashCode() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Spread the bits of a key so sequential addresses do not land in neighbouring groups.
+     *
+     * @param key The key
+     * @return Well distributed hash
+     */
+    private static int spread(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+}
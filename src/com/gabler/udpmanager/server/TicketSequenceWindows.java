@@ -0,0 +1,67 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.SequenceWindow;
+import com.gabler.udpmanager.security.SessionTicket;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sequence windows bound to session tickets rather than to the address and port a datagram came from. A ticket is
+ * only known to the client that did the handshake, and every datagram of the session carries it, so a replay is caught
+ * no matter which source it is sent from, including 0-RTT data of a resumed session.
+ *
+ * A window is only created for a ticket that opened, and is forgotten once the ticket expires, since the server
+ * refuses the ticket from then on anyway. Windows are kept in memory only: a restarted server starts them afresh.
+ *
+ * @author Andy Gabler
+ */
+class TicketSequenceWindows {
+
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * Get the window of a ticket, creating it on first use.
+     *
+     * @param ticket The opened ticket
+     * @return The window
+     */
+    SequenceWindow windowFor(SessionTicket ticket) {
+        return windows.computeIfAbsent(ticket.getTicket(), key -> new Window(ticket.getExpiresAtMillis())).sequences;
+    }
+
+    /**
+     * Forget the windows of tickets that have expired.
+     *
+     * @param nowMillis Current wall clock time
+     */
+    void evictExpired(long nowMillis) {
+        windows.values().removeIf(window -> nowMillis >= window.expiresAtMillis);
+    }
+
+    /**
+     * Get the amount of tickets a window is kept for.
+     *
+     * @return The amount
+     */
+    int size() {
+        return windows.size();
+    }
+
+    /**
+     * A window and when its ticket expires.
+     */
+    private static class Window {
+
+        private final SequenceWindow sequences = new SequenceWindow();
+        private final long expiresAtMillis;
+
+        /**
+         * Initialize a window.
+         *
+         * @param anExpiresAtMillis Wall clock time the ticket expires at
+         */
+        private Window(long anExpiresAtMillis) {
+            expiresAtMillis = anExpiresAtMillis;
+        }
+    }
+}
@@ -1,19 +1,58 @@
 package com.gabler.udpmanager.server;
 
+import com.gabler.udpmanager.ChannelDatagramTransport;
+import com.gabler.udpmanager.DiagnosticCategory;
+import com.gabler.udpmanager.Diagnostics;
+import com.gabler.udpmanager.HandshakePacketWriter;
+import com.gabler.udpmanager.HeartbeatPacketWriter;
+import com.gabler.udpmanager.IDatagramReceiver;
+import com.gabler.udpmanager.LatencyClock;
+import com.gabler.udpmanager.IDatagramTransport;
+import com.gabler.udpmanager.IMessageCodec;
 import com.gabler.udpmanager.LifeCycleState;
+import com.gabler.udpmanager.MessageType;
+import com.gabler.udpmanager.MessageTypeTable;
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.PacketHeaderValidator;
+import com.gabler.udpmanager.SequenceWindow;
+import com.gabler.udpmanager.SocketDatagramTransport;
+import com.gabler.udpmanager.UdpRequestToBytesTransformer;
+import com.gabler.udpmanager.UdpRuntime;
+import com.gabler.udpmanager.model.PacketHeader;
 import com.gabler.udpmanager.model.UdpRequest;
 import com.gabler.udpmanager.security.AesBytesToCiphertextTransformer;
 import com.gabler.udpmanager.security.AesCiphertextToBytesTransformer;
+import com.gabler.udpmanager.security.HeaderMac;
+import com.gabler.udpmanager.security.SessionTicket;
+import com.gabler.udpmanager.security.SessionTicketSealer;
+import com.gabler.udpmanager.security.X25519Handshake;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * Abstraction for the management of a UDP socket acting as a server.
@@ -27,10 +66,63 @@ public class UdpServer {
 
     private final BiFunction<byte[], byte[], byte[]> aesBytesToCiphertextTransformer;
     private final BiFunction<byte[], byte[], byte[]> aesCipherTextToBytesTransformer;
-    private final DatagramSocket socket;
-    private final ArrayList<UdpServerListeningThread> listeningThreads;
+    private final int threadPoolSize;
+    private final CopyOnWriteArrayList<UdpServerListeningThread> listeningThreads;
     private final ServerClientManager clientManager;
     private final ServerKeyManager keyManager;
+    private final UdpServerMetrics metrics;
+    private IDatagramTransport transport;
+
+    private SourceTokenBuckets sourceRateLimiter = null;
+    private GlobalTokenBucket globalRateLimiter = null;
+    private HeaderMac headerMac = null;
+    private PacketHeaderValidator headerValidator = new PacketHeaderValidator(null);
+    private Function<UdpRequest, byte[]> udpRequestToBytesTransformer = new UdpRequestToBytesTransformer();
+    private HeartbeatPacketWriter heartbeatPacketWriter = new HeartbeatPacketWriter(null);
+    private HandshakePacketWriter handshakePacketWriter = new HandshakePacketWriter(null);
+    private SessionTicketSealer ticketSealer = null;
+    private final TicketSequenceWindows ticketWindows = new TicketSequenceWindows();
+    private long heartbeatIntervalNanos = 1_000_000_000L;
+    private boolean latencyTimestamps = false;
+    private ScheduledExecutorService housekeeping = null;
+    private final List<ScheduledFuture<?>> housekeepingTasks = new ArrayList<>();
+    private UdpRuntime runtime = null;
+    private ChannelDatagramTransport runtimeTransport = null;
+    private UdpRuntime.Registration runtimeRegistration = null;
+    private UdpServerListeningThread runtimeListener = null;
+    private long broadcastSpreadNanos = -1;
+    private long maxPacingDelayNanos = -1;
+    private DelayQueue<PacedDatagram> pacingQueue = null;
+    private UdpServerPacingThread pacingThread = null;
+    private ServerCluster cluster = null;
+    private SessionSnapshotFile sessionSnapshot = null;
+    private long sessionSnapshotIntervalMillis = 0;
+    private DatagramCaptureLog capture = null;
+    private int dispatchShardCount = 0;
+    private int dispatchQueueCapacity = 0;
+    private ClientDispatchShards dispatchShards = null;
+    private long tickNanos = 0;
+    private ConcurrentLinkedQueue<InboundMessage> tickInbound = null;
+    private ConcurrentLinkedQueue<PacedDatagram> tickOutbound = null;
+    private final ArrayList<InboundMessage> tickBatch = new ArrayList<>();
+    private UdpServerTickThread tickThread = null;
+    private long sheddingTargetNanos = 0;
+    private long sheddingIntervalNanos = 0;
+    private SojournShedder tickShedder = null;
+    private long tickNanosPerMessage = 0;
+    private ListenerPoolController listenerPool = null;
+    private int nextListenerId = 0;
+    private volatile boolean listenersPaused = false;
+    private boolean listenersKilled = false;
+    private Diagnostics diagnostics = new Diagnostics("UdpServer", 3);
+    private long diagnosticsIntervalMillis = 10_000;
+    private final MessageTypeTable<IServerMessageHandler<?>> messageTypes = new MessageTypeTable<>();
+    private MulticastSocket multicastSocket = null;
+    private InetSocketAddress multicastGroup = null;
+    private String multicastKeyId = null;
+    private int broadcastThreadCount = 0;
+    private int broadcastChunkSize = 0;
+    private BroadcastSenders broadcastSenders = null;
 
     /**
      * Initialize an abstraction
@@ -64,18 +156,12 @@ public class UdpServer {
         BiFunction<byte[], byte[], byte[]> anAesCiphertextToBytesTransformer
     ) throws SocketException {
         this.lifecycleState = LifeCycleState.INITIALIZED;
-        socket = new DatagramSocket(portNumber);
-        listeningThreads = new ArrayList<>();
-        clientManager = new ServerClientManager();
+        transport = new SocketDatagramTransport(new DatagramSocket(portNumber));
+        this.threadPoolSize = threadPoolSize;
+        listeningThreads = new CopyOnWriteArrayList<>();
+        clientManager = new ServerClientManager(this);
         keyManager = new ServerKeyManager();
-
-        /*
-         * It is possible for multiple threads to receive from the same DatagramSocket, but only one of them will get
-         * each packet. Create listening threads.
-         */
-        for (int counter = 0; threadPoolSize > counter; counter++) {
-            listeningThreads.add(new UdpServerListeningThread(this, socket, counter));
-        }
+        metrics = new UdpServerMetrics();
 
         aesBytesToCiphertextTransformer = anAesBytesToCiphertextTransformer;
         aesCipherTextToBytesTransformer = anAesCiphertextToBytesTransformer;
@@ -92,6 +178,411 @@ public class UdpServer {
         keyManager.addKey(id, key);
     }
 
+    /**
+     * Let clients agree on a session key of their own with an X25519 handshake, instead of using a key added with
+     * {@link #addClientKey(String, byte[])}. The server answers a handshake with a ticket, its session key sealed with
+     * the ticket key, which the client then sends as its key id. The server recovers the session key from the ticket,
+     * so it keeps no key per session, and a client that kept its ticket can resume with it without a new handshake
+     * for as long as the ticket lives, also after the server restarted with the same ticket key.
+     *
+     * Cluster nodes need the same ticket key to accept each other's tickets. The handshake is not authenticated, so
+     * it keeps payloads from anyone merely listening, but not from someone who can alter the datagrams.
+     *
+     * Replays of a ticket are only caught by the node that saw the ticket before: after a restart, or on another
+     * cluster node, a captured datagram of a resumed session is accepted once more. Messages a client sends right after
+     * resuming should therefore be safe to handle twice.
+     *
+     * @param ticketKey AES key to seal tickets with, or null for a random one that lasts as long as the server
+     * @param ticketLifetimeMillis How long a ticket is accepted after it was issued
+     */
+    public void setSessionTickets(byte[] ticketKey, long ticketLifetimeMillis) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        byte[] key = ticketKey;
+        if (key == null) {
+            key = new byte[16];
+            new SecureRandom().nextBytes(key);
+        }
+        ticketSealer = new SessionTicketSealer(key, ticketLifetimeMillis);
+    }
+
+    /**
+     * Register a message type. Messages of the type travel as bytes with the type id in their header, and received
+     * ones are decoded on the listening thread and handed straight to the handler, bypassing
+     * {@link IUdpServerConfiguration#handleBytesMessage(byte[], ServerClientCallback)}. Clients must register the same
+     * id with a compatible codec.
+     *
+     * @param id Id of the type, from 0 up to {@link MessageTypeTable#MAX_TYPES}
+     * @param codec Codec of the type
+     * @param handler Handler for messages of the type from clients, or null if the type is only sent
+     * @param <T> Type of message
+     * @return The type, to send messages of it with
+     */
+    public <T> MessageType<T> registerMessageType(int id, IMessageCodec<T> codec, IServerMessageHandler<T> handler) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        return messageTypes.register(id, codec, handler);
+    }
+
+    /**
+     * Require every datagram to carry a truncated MAC of its header computed with a key shared by the server and its
+     * clients, and sign outgoing headers with it. Datagrams from anyone without the key are dropped before they are
+     * deserialized.
+     *
+     * The MAC is also what makes replay protection hold: it covers the sequence number, so with it every message from a
+     * client must carry one and is accepted once per window. Without it the sequence window only drops datagrams the
+     * network duplicated, since anyone could rewrite or strip the sequence number of a captured datagram.
+     *
+     * Clients on a session ticket share one window per ticket, so their messages are accepted once wherever they are
+     * sent from. A key added with {@link #addClientKey(String, byte[])} may be shared by many clients, so clients using
+     * one have a window per address and port instead: a captured datagram replayed from another address or port is
+     * accepted once more, and makes that source a client. Use session tickets where that matters.
+     *
+     * @param key The shared header key
+     */
+    public void setHeaderMacKey(byte[] key) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        headerMac = new HeaderMac(key);
+        headerValidator = new PacketHeaderValidator(headerMac);
+        udpRequestToBytesTransformer = new UdpRequestToBytesTransformer(headerMac);
+        heartbeatPacketWriter = new HeartbeatPacketWriter(headerMac);
+        handshakePacketWriter = new HandshakePacketWriter(headerMac);
+    }
+
+    /**
+     * Wrap the transport the server sends and receives on, for instance in an
+     * {@link com.gabler.udpmanager.ImpairedDatagramTransport} to test over a simulated bad link.
+     *
+     * @param decorator Function from the current transport to the one to use instead
+     */
+    public void decorateTransport(UnaryOperator<IDatagramTransport> decorator) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        transport = decorator.apply(transport);
+    }
+
+    /**
+     * Run the server on the threads of a shared {@link UdpRuntime} instead of its own listening threads and
+     * housekeeping thread, so many servers and clients in one JVM can share a fixed set of threads. Replaces the socket
+     * of the server with a channel on the same port that the runtime selects on, so decorate the transport only after
+     * this; decorations apply to sends only.
+     *
+     * The thread pool size and {@link #setAdaptiveListenerPool} do not apply. Dispatch shards, pacing, ticks and
+     * parallel broadcasts still run their own threads if they are enabled.
+     *
+     * @param aRuntime The runtime
+     * @throws IOException If no channel can be opened on the port
+     */
+    public void setRuntime(UdpRuntime aRuntime) throws IOException {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        final int port = transport.getLocalPort();
+        transport.close();
+        runtimeTransport = aRuntime.openTransport(new InetSocketAddress(port), null);
+        transport = runtimeTransport;
+        runtime = aRuntime;
+    }
+
+    /**
+     * Publish broadcasts to an IP multicast group instead of sending a datagram to each client, so a broadcast costs
+     * one send however many clients there are. Clients receive them by joining the group with
+     * {@link com.gabler.udpmanager.client.UdpClient#joinMulticastGroup}.
+     *
+     * Broadcasts are encrypted once with a group key shared by all clients instead of each client's own key. They are
+     * not paced, and in a cluster each node publishes only its own broadcasts, since the group already reaches the
+     * clients of every node.
+     *
+     * @param group The multicast group
+     * @param port Port the clients listen for the group on
+     * @param networkInterface Interface to publish on, or null for the system default
+     * @param timeToLive How many routers the broadcasts may cross, 1 to keep them on the local segment
+     * @param keyId Id of the group key, added with {@link #addClientKey(String, byte[])}, or null to publish unencrypted
+     * @throws IOException If the multicast socket cannot be opened
+     * @throws IllegalArgumentException If the address is not a multicast group or no key was added for the key id
+     */
+    public void setMulticastBroadcast(
+        InetAddress group,
+        int port,
+        NetworkInterface networkInterface,
+        int timeToLive,
+        String keyId
+    ) throws IOException {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        if (!group.isMulticastAddress()) {
+            throw new IllegalArgumentException(group + " is not a multicast address.");
+        }
+        // Fails here rather than at the first broadcast if the key was never added.
+        keyManager.keyForId(keyId);
+
+        multicastSocket = new MulticastSocket();
+        if (networkInterface != null) {
+            multicastSocket.setNetworkInterface(networkInterface);
+        }
+        multicastSocket.setTimeToLive(timeToLive);
+        multicastGroup = new InetSocketAddress(group, port);
+        multicastKeyId = keyId;
+    }
+
+    /**
+     * Get the MAC the headers of this server are signed with.
+     *
+     * @return The MAC, or null if headers are not signed
+     */
+    HeaderMac getHeaderMac() {
+        return headerMac;
+    }
+
+    /**
+     * Run this server as one node of a cluster. Each client is owned by one node, picked by consistent hashing of its
+     * address, so clients can connect to any node and a node can be added or removed while only moving the clients of
+     * that node. Every node must be given the same node list.
+     *
+     * Nodes exchange datagrams unencrypted apart from the client payloads, so they should only talk over a trusted
+     * network, with a header MAC key set.
+     *
+     * @param nodes Address and port of every node, including this one
+     * @param selfIndex Index of this server in the node list
+     */
+    public void joinCluster(List<InetSocketAddress> nodes, int selfIndex) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        cluster = new ServerCluster(this, nodes, selfIndex);
+    }
+
+    /**
+     * Get the cluster this server is a node of.
+     *
+     * @return The cluster, or null if the server runs alone
+     */
+    public ServerCluster getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Set how often each client is pinged to measure round trip time and loss. Pings ride along on outgoing data when
+     * there is any, and go out as bare headers to clients that are otherwise idle.
+     *
+     * @param intervalMillis Time between pings, or zero to stop pinging
+     */
+    public void setHeartbeatInterval(long intervalMillis) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        heartbeatIntervalNanos = intervalMillis * 1_000_000L;
+    }
+
+    /**
+     * Stamp every datagram to a client with the time it was sent, so clients can measure the one-way latency of
+     * delivery. Costs eight bytes of header per datagram. Timestamped datagrams from clients are measured into the
+     * metrics whether or not this is set.
+     *
+     * @param enabled Whether to stamp datagrams
+     */
+    public void setLatencyTimestamps(boolean enabled) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        latencyTimestamps = enabled;
+    }
+
+    /**
+     * Pace datagrams to each client with a congestion window driven by the measured round trip time and loss of that
+     * client, instead of sending them as fast as the socket allows. Broadcasts are also spread evenly over a tick
+     * rather than leaving back to back.
+     *
+     * @param broadcastSpreadMillis Time over which the datagrams of one broadcast are spread out
+     * @param maxQueueDelayMillis How far behind its pace a client may fall before datagrams to it are discarded
+     */
+    public void setPacing(long broadcastSpreadMillis, long maxQueueDelayMillis) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        broadcastSpreadNanos = broadcastSpreadMillis * 1_000_000L;
+        maxPacingDelayNanos = maxQueueDelayMillis * 1_000_000L;
+        pacingQueue = new DelayQueue<>();
+    }
+
+    /**
+     * Keep a snapshot of the client sessions in a memory-mapped file, so a restarted server knows its clients before
+     * they send again and broadcasts reach them right away. Sessions already in the file are restored immediately.
+     * The snapshot is rewritten periodically while the server runs and once more on termination.
+     *
+     * @param file Location of the snapshot
+     * @param intervalMillis Time between snapshots
+     * @throws IOException If the file cannot be opened
+     */
+    public void setSessionSnapshot(Path file, long intervalMillis) throws IOException {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        sessionSnapshot = new SessionSnapshotFile(file);
+        sessionSnapshotIntervalMillis = intervalMillis;
+        clientManager.restore(sessionSnapshot);
+    }
+
+    /**
+     * Capture every datagram the server receives and sends, with its timestamp and address, to a rotating set of
+     * memory-mapped segment files. The capture can be fed back into a server with {@link DatagramReplay}.
+     *
+     * @param directory Directory to keep the segments in
+     * @param segmentBytes Size of each segment file
+     * @param maxSegments Amount of segments to keep before the oldest is deleted
+     * @throws IOException If the first segment cannot be created
+     */
+    public void setCapture(Path directory, int segmentBytes, int maxSegments) throws IOException {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        capture = new DatagramCaptureLog(directory, segmentBytes, maxSegments);
+    }
+
+    /**
+     * Get the capture log of the server.
+     *
+     * @return The capture log, or null if nothing is captured
+     */
+    DatagramCaptureLog getCapture() {
+        return capture;
+    }
+
+    /**
+     * Get the dispatch threads of the server.
+     *
+     * @return The dispatch threads, or null if datagrams are handled on the listener threads
+     */
+    ClientDispatchShards getDispatchShards() {
+        return dispatchShards;
+    }
+
+    /**
+     * Hand the datagrams of each client to one of a fixed set of dispatch threads as soon as they are received,
+     * instead of decoding and handling them on the listener thread that received them. Messages of one client are
+     * then handled one at a time in the order they were dispatched, and the handlers need no locking per client,
+     * while different clients are still handled in parallel. Datagrams for a dispatch thread that has too many
+     * waiting are dropped.
+     *
+     * Since the listener threads only receive and copy in this mode, a single one is usually enough, and with a single
+     * one the order of each client is exactly the order of the socket. With several, two datagrams of one client that
+     * arrive at practically the same moment may still swap places.
+     *
+     * @param shardCount Amount of dispatch threads
+     * @param queueCapacity Amount of messages each dispatch thread may have waiting
+     */
+    public void setOrderedDispatch(int shardCount, int queueCapacity) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        dispatchShardCount = shardCount;
+        dispatchQueueCapacity = queueCapacity;
+    }
+
+    /**
+     * Split broadcasts over a pool of sender threads. The clients of a broadcast are cut into chunks of consecutive
+     * clients, and each chunk is encrypted, serialized and sent on one of the threads, so that broadcasting to many
+     * clients with their own keys is not limited to the one core of the caller. Broadcasts to no more clients than
+     * one chunk are still sent on the calling thread.
+     *
+     * @param threadCount Amount of sender threads
+     * @param chunkSize Most clients a sender thread sends to in one go
+     */
+    public void setParallelBroadcast(int threadCount, int chunkSize) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        if (threadCount < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Thread count and chunk size must be at least one.");
+        }
+        broadcastThreadCount = threadCount;
+        broadcastChunkSize = chunkSize;
+    }
+
+    /**
+     * Run the server in tick mode. Messages from clients are decrypted as they arrive but buffered, and handed to
+     * {@link IUdpServerConfiguration#onTick(java.util.List)} as one batch per tick on a single thread. Messages,
+     * replies and broadcasts sent during a tick are queued and go out together at its end. Heartbeats are not held
+     * back, so round trip times stay accurate.
+     *
+     * @param tickMillis Time between the starts of two ticks
+     */
+    public void setTickRate(long tickMillis) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        tickNanos = tickMillis * 1_000_000L;
+        tickInbound = new ConcurrentLinkedQueue<>();
+        tickOutbound = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Shed load when messages are handled more slowly than they arrive, rather than delivering every one of them late.
+     * How long each message waited for its handler is watched, and once waits stay above the target for an interval,
+     * the stalest waiting messages are dropped, more often the longer the overload lasts, until waits are back under
+     * the target. Messages the client marked as priority, and heartbeats, are never dropped.
+     *
+     * Waits are measured in the queues of {@link #setOrderedDispatch(int, int)} and of {@link #setTickRate(long)}, so
+     * one of those must be used as well. With ordered dispatch the listeners take datagrams off of the socket as fast
+     * as they come, which moves the backlog out of the socket buffer into queues where it can be measured. In tick
+     * mode, the target should be more than a tick.
+     *
+     * @param targetMillis Wait that is acceptable to persist
+     * @param intervalMillis How long waits must stay above the target before messages are dropped, about a worst
+     *                       case round trip time
+     */
+    public void setLoadShedding(long targetMillis, long intervalMillis) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        sheddingTargetNanos = targetMillis * 1_000_000L;
+        sheddingIntervalNanos = intervalMillis * 1_000_000L;
+    }
+
+    /**
+     * Grow and shrink the listener pool with the load instead of keeping the size given at construction, which is
+     * then only the starting size. The pool is resized once a second based on how busy the listeners were; the
+     * current size and the amount of resizes are in the metrics.
+     *
+     * @param minListeners Least amount of listener threads
+     * @param maxListeners Most amount of listener threads
+     */
+    public void setAdaptiveListenerPool(int minListeners, int maxListeners) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        listenerPool = new ListenerPoolController(this, minListeners, maxListeners);
+    }
+
+    /**
+     * Set how errors on the server threads are reported. Errors are counted per category, and a summary of the counts
+     * is logged each interval together with the first few stack traces of each category, so a flood of bad datagrams
+     * cannot flood the log.
+     *
+     * @param summaryIntervalMillis Time between summaries
+     * @param samplesPerInterval Amount of stack traces logged per category in each summary
+     */
+    public void setDiagnostics(long summaryIntervalMillis, int samplesPerInterval) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        diagnostics = new Diagnostics("UdpServer", samplesPerInterval);
+        diagnosticsIntervalMillis = summaryIntervalMillis;
+    }
+
+    /**
+     * Get the error counters of the server.
+     *
+     * @return The diagnostics
+     */
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Limit the rate at which each source address may send to the server. Datagrams over the limit are dropped as
+     * soon as they are received, before any decoding is done.
+     *
+     * @param packetsPerSecond Sustained rate of packets allowed per source address
+     * @param burst Amount of packets a source address may send at once after a quiet period
+     * @param maxTrackedSources Amount of source addresses to keep limiter state for (sixteen bytes each)
+     */
+    public void setSourceRateLimit(double packetsPerSecond, int burst, int maxTrackedSources) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        sourceRateLimiter = new SourceTokenBuckets(packetsPerSecond, burst, maxTrackedSources);
+    }
+
+    /**
+     * Limit the rate at which the server accepts datagrams from all sources combined. Datagrams over the limit are
+     * dropped as soon as they are received, before any decoding is done.
+     *
+     * @param packetsPerSecond Sustained rate of packets allowed
+     * @param burst Amount of packets allowed at once after a quiet period
+     */
+    public void setGlobalRateLimit(double packetsPerSecond, int burst) {
+        checkLifeCycleTooMature(LifeCycleState.READY);
+        globalRateLimiter = new GlobalTokenBucket(packetsPerSecond, burst);
+    }
+
+    /**
+     * Get the traffic counters of the server.
+     *
+     * @return The metrics
+     */
+    public UdpServerMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Set the server configuration being used.
      *
@@ -110,10 +601,69 @@ public class UdpServer {
         checkLifeCycleMatureEnough(LifeCycleState.READY);
         checkLifeCycleTooMature(LifeCycleState.READY);
 
-        listeningThreads.forEach(thead -> {
-            thead.start();
-            thead.startListen();
-        });
+        if (runtime != null) {
+            housekeeping = runtime.getScheduler();
+        } else {
+            /*
+             * It is possible for multiple threads to receive from the same DatagramSocket, but only one of them will
+             * get each packet. Create listening threads.
+             */
+            final int poolSize = listenerPool != null ? listenerPool.initialSize(threadPoolSize) : threadPoolSize;
+            for (int counter = 0; poolSize > counter; counter++) {
+                addListener();
+            }
+            metrics.recordListenerResize(poolSize);
+
+            housekeeping = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "UdpServerHousekeeping");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        if (heartbeatIntervalNanos > 0) {
+            final long period = Math.max(1, heartbeatIntervalNanos / 4);
+            scheduleHousekeeping(this::pingIdleClients, period, TimeUnit.NANOSECONDS);
+        }
+        scheduleHousekeeping(this::sampleTraffic, 1, TimeUnit.SECONDS);
+        scheduleHousekeeping(diagnostics::summarize, diagnosticsIntervalMillis, TimeUnit.MILLISECONDS);
+        if (listenerPool != null && runtime == null) {
+            scheduleHousekeeping(listenerPool::sample, 1, TimeUnit.SECONDS);
+        }
+        if (sessionSnapshot != null) {
+            scheduleHousekeeping(this::writeSessionSnapshot, sessionSnapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (ticketSealer != null) {
+            scheduleHousekeeping(this::evictExpiredSessions, 1, TimeUnit.MINUTES);
+        }
+
+        if (dispatchShardCount > 0) {
+            dispatchShards = new ClientDispatchShards(
+                dispatchShardCount,
+                dispatchQueueCapacity,
+                sheddingTargetNanos,
+                sheddingIntervalNanos,
+                diagnostics,
+                metrics
+            );
+        }
+        if (broadcastThreadCount > 0) {
+            broadcastSenders = new BroadcastSenders(broadcastThreadCount, broadcastChunkSize);
+        }
+        if (pacingQueue != null) {
+            pacingThread = new UdpServerPacingThread(this, pacingQueue);
+            pacingThread.start();
+        }
+        if (tickInbound != null) {
+            if (sheddingTargetNanos > 0) {
+                tickShedder = new SojournShedder(sheddingTargetNanos, sheddingIntervalNanos);
+            }
+            tickThread = new UdpServerTickThread(this, tickNanos);
+            tickThread.start();
+        }
+        if (runtime != null) {
+            attachToRuntime();
+        }
         this.lifecycleState = LifeCycleState.STARTED;
         configuration.startAction();
     }
@@ -125,7 +675,11 @@ public class UdpServer {
         checkLifeCycleMatureEnough(LifeCycleState.STARTED);
         checkLifeCycleTooMature(LifeCycleState.STARTED);
 
+        listenersPaused = true;
         listeningThreads.forEach(UdpServerListeningThread::stopListen);
+        if (runtimeRegistration != null) {
+            runtimeRegistration.suspend();
+        }
         configuration.pauseAction();
     }
 
@@ -136,7 +690,11 @@ public class UdpServer {
         checkLifeCycleMatureEnough(LifeCycleState.STARTED);
         checkLifeCycleTooMature(LifeCycleState.STARTED);
 
+        listenersPaused = false;
         listeningThreads.forEach(UdpServerListeningThread::startListen);
+        if (runtimeRegistration != null) {
+            runtimeRegistration.resume();
+        }
         configuration.resumeAction();
     }
 
@@ -148,113 +706,1073 @@ public class UdpServer {
         checkLifeCycleTooMature(LifeCycleState.STARTED);
 
         pause();
-        listeningThreads.forEach(UdpServerListeningThread::killListener);
-        socket.close();
+        housekeepingTasks.forEach(task -> task.cancel(false));
+        if (runtime == null) {
+            housekeeping.shutdownNow();
+        }
+        synchronized (listeningThreads) {
+            listenersKilled = true;
+            listeningThreads.forEach(UdpServerListeningThread::killListener);
+        }
+        if (runtimeRegistration != null) {
+            runtimeRegistration.cancel();
+        }
+        if (dispatchShards != null) {
+            dispatchShards.shutdown();
+        }
+        if (broadcastSenders != null) {
+            broadcastSenders.shutdown();
+        }
+        if (pacingThread != null) {
+            pacingThread.killPacer();
+        }
+        if (tickThread != null) {
+            tickThread.killTicker();
+        }
+        transport.close();
+        if (multicastSocket != null) {
+            multicastSocket.close();
+        }
+        if (capture != null) {
+            capture.close();
+        }
+        if (sessionSnapshot != null) {
+            writeSessionSnapshot();
+            try {
+                sessionSnapshot.close();
+            } catch (IOException exception) {
+                // Everything was forced to disk already.
+            }
+        }
+        diagnostics.summarize();
         configuration.terminationAction();
 
         this.lifecycleState = LifeCycleState.DEAD;
     }
 
     /**
-     * Handle a message from a client to the server.
+     * Run a housekeeping task periodically, on the housekeeping thread of the server or the scheduler of its runtime.
      *
-     * @param request The request sent to the server
-     * @param clientAddress The address of the client who sent the request
-     * @param clientPort The port to post back to the client
+     * @param task The task
+     * @param period Time between runs, also before the first
+     * @param unit Unit of the period
      */
-    public void handleMessageFromClient(UdpRequest request, InetAddress clientAddress, int clientPort) {
-        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
-        checkLifeCycleTooMature(LifeCycleState.STARTED);
+    private void scheduleHousekeeping(Runnable task, long period, TimeUnit unit) {
+        housekeepingTasks.add(housekeeping.scheduleAtFixedRate(task, period, period, unit));
+    }
+
+    /**
+     * Have the runtime hand the datagrams arriving on the port of the server to the same receive path a listening
+     * thread runs, on the workers of the runtime.
+     */
+    private void attachToRuntime() {
+        runtimeListener = new UdpServerListeningThread(this, transport, nextListenerId++);
+        runtimeRegistration = runtime.register(runtimeTransport, new IDatagramReceiver() {
+            @Override
+            public void receive(DatagramPacket packet) {
+                final long receivedAt = System.nanoTime();
+                runtimeListener.handleReceived(packet);
+                metrics.recordListenerBusy(System.nanoTime() - receivedAt, 1);
+            }
 
-        // First, check and ensure we do not have a matching client
-        final ServerClientCallback sender = clientManager.getForAddressAndPort(clientAddress, clientPort, request.getKeyId());
+            @Override
+            public void reject(DatagramPacket packet) {
+                metrics.recordDropped(PacketDropReason.DISPATCH_QUEUE_FULL);
+            }
 
-        // We know which client sent the request, now let's have the configuration handle it.
-        if (request.getPayloadType() == UdpRequest.PAYLOAD_TYPE_BYTES) {
-            if (sender.getKeyId() != null) {
-                final byte[] key = keyManager.keyForId(sender.getKeyId());
-                final byte[] plainText = aesCipherTextToBytesTransformer.apply(request.getBytePayload(), key);
-                configuration.handleBytesMessage(plainText, sender);
-            } else {
-                configuration.handleBytesMessage(request.getBytePayload(), sender);
+            @Override
+            public void receiveFailed(IOException exception) {
+                diagnostics.report(DiagnosticCategory.RECEIVE_FAILED, exception);
             }
-        } else {
-            if (sender.getKeyId() != null) {
-                final byte[] key = keyManager.keyForId(sender.getKeyId());
-                 final byte[] cipherText = Base64.getDecoder().decode(request.getStringPayload());
-                 final byte[] plainTextBytes = aesCipherTextToBytesTransformer.apply(cipherText, key);
-                 final String plainText = new String(plainTextBytes);
-                configuration.handleStringMessage(plainText, sender);
-            } else {
-                configuration.handleStringMessage(request.getStringPayload(), sender);
+        });
+        if (listenersPaused) {
+            runtimeRegistration.suspend();
+        }
+    }
+
+    /**
+     * Start another listener thread.
+     */
+    void addListener() {
+        synchronized (listeningThreads) {
+            // A resize that was already running when the server terminated must not start a listener nobody kills.
+            if (listenersKilled) {
+                return;
             }
+            final UdpServerListeningThread listener = new UdpServerListeningThread(this, transport, nextListenerId++);
+            listeningThreads.add(listener);
+            listener.start();
+            if (!listenersPaused) {
+                listener.startListen();
+            }
+        }
+    }
+
+    /**
+     * Stop the most recently started listener thread. It finishes once its current receive returns.
+     */
+    void removeListener() {
+        synchronized (listeningThreads) {
+            if (listeningThreads.isEmpty()) {
+                return;
+            }
+            final UdpServerListeningThread listener = listeningThreads.remove(listeningThreads.size() - 1);
+            listener.killListener();
         }
     }
 
     /**
-     * Broadcast to all clients.
+     * Get the amount of listener threads.
      *
-     * @param payload The message
+     * @return The amount
      */
-    public void clientBroadcast(String payload) {
-        doBroadcast(payload, null, UdpRequest.PAYLOAD_TYPE_STRING);
+    int getListenerCount() {
+        return listeningThreads.size();
     }
 
     /**
-     * Broadcast to all clients.
+     * Decide whether a freshly received datagram may be processed. Called by the listener threads before the datagram
+     * is decoded in any way.
      *
-     * @param payload The message
+     * @param sourceAddress The address the datagram came from
+     * @param buffer The receive buffer
+     * @param length Length of the datagram
+     * @return True if the datagram should be processed
      */
-    public void clientBroadcast(byte[] payload) {
-        doBroadcast(null, payload, UdpRequest.PAYLOAD_TYPE_BYTES);
+    boolean admitDatagram(InetAddress sourceAddress, byte[] buffer, int length) {
+        metrics.recordReceived();
+        final long now = System.nanoTime();
+
+        // Source first, so a flooding source does not also drain the tokens everyone else shares.
+        if (sourceRateLimiter != null && !sourceRateLimiter.tryAcquire(sourceAddress, now)) {
+            metrics.recordDropped(PacketDropReason.SOURCE_RATE_LIMITED);
+            return false;
+        }
+        if (globalRateLimiter != null && !globalRateLimiter.tryAcquire(now)) {
+            metrics.recordDropped(PacketDropReason.GLOBAL_RATE_LIMITED);
+            return false;
+        }
+
+        final PacketDropReason headerProblem = headerValidator.validate(buffer, length);
+        if (headerProblem != null) {
+            metrics.recordDropped(headerProblem);
+            return false;
+        }
+        return true;
     }
 
     /**
-     * Perform broadcast to all clients.
+     * Handle a replayed datagram as if it had just come off of the socket.
      *
-     * @param stringPayload Payload in a string format
-     * @param bytePayload Payload in a bytes format
-     * @param payloadType The type of payload
+     * @param buffer Buffer holding the datagram at its start
+     * @param length Length of the datagram
+     * @param sourceAddress The address the datagram originally came from
+     * @param sourcePort The port the datagram originally came from
      */
-    private void doBroadcast(String stringPayload, byte[] bytePayload, int payloadType) {
+    void replayDatagram(byte[] buffer, int length, InetAddress sourceAddress, int sourcePort) {
         checkLifeCycleMatureEnough(LifeCycleState.STARTED);
         checkLifeCycleTooMature(LifeCycleState.STARTED);
+        final UdpServerListeningThread listener = runtimeListener != null ? runtimeListener : listeningThreads.get(0);
+        listener.handleDatagram(buffer, length, sourceAddress, sourcePort);
+    }
 
-        for (ServerClientCallback client : clientManager.getAll()) {
-            final UdpRequest request = new UdpRequest();
-            request.setKeyId(client.getKeyId());
-
-            final byte[] clientKey = keyManager.keyForId(client.getKeyId());
-            if (request.getKeyId() != null) {
-                if (bytePayload != null) {
-                    final byte[] cipherText = aesBytesToCiphertextTransformer.apply(bytePayload, clientKey);
-                    request.setBytePayload(cipherText);
-                } else if (stringPayload != null) {
-                    final byte[] stringAsBytes = stringPayload.getBytes();
-                    final byte[] cipherTextBytes = aesBytesToCiphertextTransformer.apply(stringAsBytes, clientKey);
-                    final String cipherText = Base64.getEncoder().encodeToString(cipherTextBytes);
-                    request.setStringPayload(cipherText);
-                }
-            } else {
-                request.setBytePayload(bytePayload);
-                request.setStringPayload(stringPayload);
-            }
-            request.setPayloadType(payloadType);
-
-            try {
-                final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-                final ObjectOutputStream outputStream = new ObjectOutputStream(byteStream);
-                outputStream.writeObject(request);
+    /**
+     * Check the header of a datagram another node forwarded, the same as if it had been received directly.
+     *
+     * @param buffer Buffer holding the datagram at its start
+     * @param length Length of the datagram
+     * @return True if the datagram should be processed
+     */
+    boolean validateForwarded(byte[] buffer, int length) {
+        final PacketDropReason headerProblem = headerValidator.validate(buffer, length);
+        if (headerProblem != null) {
+            metrics.recordDropped(headerProblem);
+            return false;
+        }
+        return true;
+    }
 
-                final byte[] payload = byteStream.toByteArray();
-                byteStream.close();
+    /**
+     * Handle a standalone ping or pong from a client. Heartbeats from unknown clients are ignored.
+     *
+     * @param buffer The receive buffer holding the validated heartbeat
+     * @param clientAddress The address of the client
+     * @param clientPort The port of the client
+     * @throws IOException If a pong cannot be sent
+     */
+    void handleHeartbeat(byte[] buffer, InetAddress clientAddress, int clientPort) throws IOException {
+        final ServerClientCallback client = clientManager.findForAddressAndPort(clientAddress, clientPort);
+        if (client == null) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        client.getRtt().recordHeard(now);
+        if (PacketHeader.kind(buffer) == PacketHeader.KIND_PING) {
+            sendDatagram(heartbeatPacketWriter.write(PacketHeader.KIND_PONG, HeartbeatPacketWriter.token(buffer)), client);
+        } else {
+            final long token = HeartbeatPacketWriter.token(buffer);
+            if (!client.getRtt().recordPong(token, now)) {
+                return;
+            }
+            metrics.recordRoundTrip((now - token) / 1000);
+            final long clientMicros = HeartbeatPacketWriter.timestamp(buffer);
+            if (clientMicros != 0) {
+                client.getClockOffset().recordSample(LatencyClock.toMicros(token), clientMicros, LatencyClock.toMicros(now));
+            }
+        }
+    }
+
+    /**
+     * Answer the hello of a client with the public key of the server and a ticket for the agreed session key. The
+     * client only becomes known once its first message with the ticket arrives, so hellos from forged addresses leave
+     * nothing behind, and hellos too short to outweigh the reply are dropped unanswered.
+     *
+     * @param buffer The receive buffer holding the validated hello
+     * @param clientAddress The address of the client
+     * @param clientPort The port of the client
+     * @throws IOException If the reply cannot be sent
+     */
+    void handleHandshake(byte[] buffer, InetAddress clientAddress, int clientPort) throws IOException {
+        if (ticketSealer == null || PacketHeader.kind(buffer) != PacketHeader.KIND_HELLO) {
+            metrics.recordDropped(PacketDropReason.HANDSHAKE_FAILED);
+            return;
+        }
+
+        final byte[] clientPublicKey = HandshakePacketWriter.helloPublicKey(buffer);
+        if (clientPublicKey == null) {
+            metrics.recordDropped(PacketDropReason.HANDSHAKE_FAILED);
+            return;
+        }
+
+        final X25519Handshake handshake = new X25519Handshake();
+        final byte[] sessionKey;
+        try {
+            sessionKey = handshake.deriveSessionKey(clientPublicKey, false);
+        } catch (GeneralSecurityException exception) {
+            metrics.recordDropped(PacketDropReason.HANDSHAKE_FAILED);
+            return;
+        }
+
+        final SessionTicket ticket = ticketSealer.seal(sessionKey);
+        final byte[] reply = handshakePacketWriter.writeHelloReply(handshake.getPublicKey(), ticket.getExpiresAtMillis(), ticket.getTicket());
+        if (reply.length > PacketHeader.headerLength(PacketHeader.flags(buffer)) + PacketHeader.payloadLength(buffer)) {
+            // Never send more than was received, whatever the size of the ticket.
+            metrics.recordDropped(PacketDropReason.HANDSHAKE_FAILED);
+            return;
+        }
+        sendDatagram(reply, clientManager.newClient(clientAddress, clientPort, ticket.getTicket()));
+    }
+
+    /**
+     * Get the key of a client.
+     *
+     * @param client The client
+     * @return The key, or null if the client does not use encryption
+     * @throws IllegalArgumentException If the key id of the client is unknown, or its ticket is invalid or expired
+     */
+    private byte[] keyFor(ServerClientCallback client) {
+        return keyFor(client, client.getKeyId());
+    }
+
+    /**
+     * Get the key for a key id a client sent, remembering the opened ticket on the client if it is one.
+     *
+     * @param client The client
+     * @param keyId The key id
+     * @return The key, or null if the client does not use encryption
+     * @throws IllegalArgumentException If the key id is unknown, or the ticket is invalid or expired
+     */
+    private byte[] keyFor(ServerClientCallback client, String keyId) {
+        if (!SessionTicket.isTicket(keyId)) {
+            return keyManager.keyForId(keyId);
+        }
+
+        SessionTicket ticket = client.getSessionTicket();
+        if (ticket == null || !ticket.getTicket().equals(keyId) || ticket.isExpired()) {
+            ticket = ticketSealer == null ? null : ticketSealer.open(keyId);
+            if (ticket == null) {
+                throw new IllegalArgumentException("Invalid or expired session ticket.");
+            }
+            client.setSessionTicket(ticket);
+        }
+        return ticket.getSessionKey();
+    }
+
+    /**
+     * Get the window to check the sequence numbers of a client against. A client on a session ticket shares one window
+     * with every other source using the same ticket, so a replay from another address or port is still caught. Any
+     * other client has a window of its own, tied to its address and port, since a static key id may be shared by many
+     * clients; a replay from another address or port is not caught for those.
+     *
+     * @param client The client, whose key was just resolved
+     * @param keyId The key id the client sent
+     * @return The window
+     */
+    private SequenceWindow sequenceWindowFor(ServerClientCallback client, String keyId) {
+        if (SessionTicket.isTicket(keyId)) {
+            return ticketWindows.windowFor(client.getSessionTicket());
+        }
+        return client.getSequenceWindow();
+    }
+
+    /**
+     * Forget the clients and sequence windows of session tickets that have expired, so they are no longer pinged or
+     * broadcast to.
+     */
+    private void evictExpiredSessions() {
+        clientManager.removeExpiredSessions();
+        ticketWindows.evictExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Encrypt a payload for a client, or forget the client if its session ticket expired.
+     *
+     * @param client The client
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param payloadType The type of payload
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @param packetKind Kind of packet, from {@link PacketHeader}
+     * @param correlationId Correlation id of a reply, ignored for plain data
+     * @param sequence Sequence number of a sequenced message, or {@link UdpRequest#NO_SEQUENCE}
+     * @return The datagram, or null if the client can no longer be sent to
+     */
+    private byte[] encodeForLiveClient(
+        ServerClientCallback client,
+        String stringPayload,
+        byte[] bytePayload,
+        int payloadType,
+        int messageType,
+        int packetKind,
+        int correlationId,
+        long sequence
+    ) {
+        try {
+            return encodeForClient(client, stringPayload, bytePayload, payloadType, messageType, packetKind, correlationId, sequence);
+        } catch (IllegalArgumentException exception) {
+            // Its ticket expired, so the client could not read the datagram anyway; one such client must not stop a
+            // broadcast to the others.
+            metrics.recordExpiredSessionDrop();
+            clientManager.remove(client);
+            return null;
+        }
+    }
+
+    /**
+     * Ping every client that has not had a ping ride along on other traffic for a heartbeat interval.
+     */
+    private void pingIdleClients() {
+        final long now = System.nanoTime();
+        for (ServerClientCallback client : clientManager.getAll()) {
+            final long token = client.getRtt().startPingIfDue(now, heartbeatIntervalNanos);
+            if (token != 0) {
+                try {
+                    sendDatagram(heartbeatPacketWriter.write(PacketHeader.KIND_PING, token), client);
+                } catch (IOException exception) {
+                    // The next heartbeat will try again, and the miss counts towards the loss estimate.
+                }
+            }
+        }
+    }
+
+    /**
+     * Work out the outbound rates of the server and each client.
+     */
+    private void sampleTraffic() {
+        final long now = System.nanoTime();
+        metrics.getOutboundTraffic().sample(now);
+        for (ServerClientCallback client : clientManager.getAll()) {
+            client.getOutboundTraffic().sample(now);
+        }
+    }
+
+    /**
+     * Save the client sessions to the snapshot file.
+     */
+    private void writeSessionSnapshot() {
+        try {
+            clientManager.snapshot(sessionSnapshot);
+        } catch (IOException exception) {
+            // The previous snapshot stays valid, and the next one will try again.
+        }
+    }
+
+    /**
+     * Handle a message from a client to the server.
+     *
+     * @param request The request sent to the server
+     * @param clientAddress The address of the client who sent the request
+     * @param clientPort The port to post back to the client
+     */
+    public void handleMessageFromClient(UdpRequest request, InetAddress clientAddress, int clientPort) {
+        handleMessageFromClient(request, clientAddress, clientPort, ServerCluster.LOCAL);
+    }
+
+    /**
+     * Handle a message from a client to the server.
+     *
+     * @param request The request sent to the server
+     * @param clientAddress The address of the client who sent the request
+     * @param clientPort The port to post back to the client
+     * @param ingressNode Cluster node the client talks to, or {@link ServerCluster#LOCAL} if it talks to this server
+     */
+    void handleMessageFromClient(UdpRequest request, InetAddress clientAddress, int clientPort, int ingressNode) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        if (request.getPacketKind() == PacketHeader.KIND_CLUSTER_BROADCAST) {
+            if (cluster == null || ingressNode == ServerCluster.LOCAL) {
+                // Only the cluster routing hands over cluster broadcasts, once it knows a peer sent them.
+                metrics.recordDropped(PacketDropReason.NOT_A_CLUSTER_PEER);
+                return;
+            }
+            // Another node is broadcasting, only its own clients are left to this one.
+            broadcastLocally(request.getStringPayload(), request.getBytePayload(), request.getPayloadType(), request.getMessageType());
+            return;
+        }
+
+        if (request.getSequence() == UdpRequest.NO_SEQUENCE && headerMac != null) {
+            // Every client numbers its datagrams, one without a number could only slip past the replay check.
+            metrics.recordDropped(PacketDropReason.MISSING_SEQUENCE);
+            return;
+        }
+
+        // A client is only registered once it sent a valid key, so forged sources leave no state behind.
+        final ServerClientCallback known = clientManager.findForAddressAndPort(clientAddress, clientPort);
+        ServerClientCallback sender = known != null ? known : clientManager.newClient(clientAddress, clientPort, request.getKeyId());
+        final byte[] key;
+        try {
+            key = keyFor(sender, request.getKeyId());
+        } catch (IllegalArgumentException exception) {
+            metrics.recordDropped(PacketDropReason.UNKNOWN_KEY);
+            return;
+        }
+        if (request.getSequence() != UdpRequest.NO_SEQUENCE
+            && !sequenceWindowFor(sender, request.getKeyId()).accept((int) request.getSequence())) {
+            // Seen before, either the network duplicated it or someone is replaying it. Do not spend a decryption on it.
+            metrics.recordDropped(PacketDropReason.DUPLICATE);
+            return;
+        }
+        if (known != null) {
+            // Keys should be cycled now and then since no IV is used, so a client may switch to another key at any time.
+            known.setKeyId(request.getKeyId());
+        } else {
+            sender = clientManager.register(sender);
+        }
+        sender.setIngressNode(ingressNode);
+        sender.getRtt().recordHeard(System.nanoTime());
+        // Until a heartbeat measured the clock offset, the latency would be off by the whole offset.
+        if (request.getSendTimestamp() != 0 && sender.getClockOffset().hasEstimate()) {
+            final long sent = sender.getClockOffset().toLocalMicros(request.getSendTimestamp());
+            metrics.recordDeliveryLatency(request.getPayloadType(), LatencyClock.nowMicros() - sent);
+        }
+        if (request.getPingToken() != 0) {
+            try {
+                sendDatagram(heartbeatPacketWriter.write(PacketHeader.KIND_PONG, request.getPingToken()), sender);
+            } catch (IOException exception) {
+                // A lost pong only costs one round trip sample, the message that carried the ping is still handled.
+                diagnostics.report(DiagnosticCategory.HEARTBEAT_FAILED, exception);
+            }
+        }
+
+        if (request.isSequenced() && !sender.getStaleFilter().accept((int) request.getSequence())) {
+            // A newer one was delivered already, this one would only roll the state back.
+            metrics.recordDropped(PacketDropReason.STALE);
+            return;
+        }
+
+        // We know which client sent the request, now let's have the configuration handle it.
+        final boolean call = request.getPacketKind() == PacketHeader.KIND_CALL;
+        if (request.getPayloadType() == UdpRequest.PAYLOAD_TYPE_BYTES) {
+            byte[] plainText = request.getBytePayload();
+            if (key != null) {
+                plainText = aesCipherTextToBytesTransformer.apply(request.getBytePayload(), key);
+            }
+
+            if (request.getMessageType() != UdpRequest.NO_MESSAGE_TYPE) {
+                handleTypedMessage(request.getMessageType(), plainText, call, request.getCorrelationId(), request.isPriority(), sender);
+            } else if (tickInbound != null) {
+                tickInbound.add(new InboundMessage(sender, UdpRequest.PAYLOAD_TYPE_BYTES, null, plainText, call, request.getCorrelationId(), request.isPriority()));
+            } else if (call) {
+                configuration.handleBytesCall(plainText, request.getCorrelationId(), sender);
+            } else {
+                configuration.handleBytesMessage(plainText, sender);
+            }
+        } else {
+            String plainText = request.getStringPayload();
+            if (key != null) {
+                final byte[] cipherText = Base64.getDecoder().decode(request.getStringPayload());
+                final byte[] plainTextBytes = aesCipherTextToBytesTransformer.apply(cipherText, key);
+                plainText = new String(plainTextBytes);
+            }
+
+            if (tickInbound != null) {
+                tickInbound.add(new InboundMessage(sender, UdpRequest.PAYLOAD_TYPE_STRING, plainText, null, call, request.getCorrelationId(), request.isPriority()));
+            } else if (call) {
+                configuration.handleStringCall(plainText, request.getCorrelationId(), sender);
+            } else {
+                configuration.handleStringMessage(plainText, sender);
+            }
+        }
+    }
+
+    /**
+     * Decode a message of a registered type and hand it to the handler of its type.
+     *
+     * @param messageType Id of the type
+     * @param plainText The decrypted message
+     * @param call Whether the message is a call
+     * @param correlationId Id to reply to a call with
+     * @param priority Whether the message is exempt from load shedding
+     * @param sender The client who sent the message
+     */
+    @SuppressWarnings("unchecked")
+    private void handleTypedMessage(
+        int messageType,
+        byte[] plainText,
+        boolean call,
+        int correlationId,
+        boolean priority,
+        ServerClientCallback sender
+    ) {
+        final IServerMessageHandler<Object> handler = (IServerMessageHandler<Object>) messageTypes.handler(messageType);
+        if (handler == null) {
+            metrics.recordDropped(PacketDropReason.UNKNOWN_MESSAGE_TYPE);
+            return;
+        }
 
-                final DatagramPacket packet = new DatagramPacket(payload, payload.length, client.getAddress(), client.getPortNumber());
-                socket.send(packet);
-            } catch (Exception exception) {
+        final Object message = messageTypes.type(messageType).getCodec().decode(plainText);
+        if (tickInbound != null) {
+            tickInbound.add(new InboundMessage(sender, UdpRequest.PAYLOAD_TYPE_BYTES, null, plainText, call, correlationId, messageType, message, handler, priority));
+        } else {
+            handler.handle(message, sender);
+        }
+    }
+
+    /**
+     * Run one tick: hand the buffered messages to the configuration, then send what was queued meanwhile.
+     */
+    void tick() {
+        final long now = System.nanoTime();
+        InboundMessage message;
+        while ((message = tickInbound.poll()) != null) {
+            tickBatch.add(message);
+        }
+        if (tickShedder != null) {
+            shedFromTickBatch(now);
+        }
+        final int handled = tickBatch.size();
+        final long handlingStart = System.nanoTime();
+        try {
+            if (handled > 0) {
+                configuration.onTick(tickBatch);
+            }
+        } finally {
+            tickBatch.clear();
+        }
+        if (handled > 0) {
+            tickNanosPerMessage = (System.nanoTime() - handlingStart) / handled;
+        }
+
+        PacedDatagram queued;
+        while ((queued = tickOutbound.poll()) != null) {
+            try {
+                sendFinished(queued.getDatagram(), queued.getClient(), queued.getSendTime());
+            } catch (IOException exception) {
+                // One client that cannot be sent to must not hold up the rest of the tick.
+                diagnostics.report(DiagnosticCategory.SEND_FAILED, exception);
+            }
+        }
+    }
+
+    /**
+     * Drop the stalest messages of the batch of a tick that cannot keep up.
+     *
+     * The batch is one drain of the queue, which always leaves the queue empty, so whether other messages are waiting
+     * is judged against the batch: a batch of more than one message is a backlog until its last message. Each kept
+     * message is taken to leave the queue when the ones before it would have been handled, at the rate of the last
+     * tick, as if the batch were handled one message at a time. Otherwise the newest messages of every batch would
+     * seem to have hardly waited, and the shedder would never see a standing backlog.
+     *
+     * @param now Time the tick started
+     */
+    private void shedFromTickBatch(long now) {
+        final int size = tickBatch.size();
+        final boolean backlog = size > 1;
+        long takenAt = now;
+        int kept = 0;
+        for (int index = 0; index < size; index++) {
+            final InboundMessage message = tickBatch.get(index);
+            if (!message.isPriority() && tickShedder.shouldDrop(takenAt - message.getQueuedAt(), takenAt, backlog)) {
+                metrics.recordDropped(PacketDropReason.LOAD_SHED);
+            } else {
+                tickBatch.set(kept++, message);
+                takenAt += tickNanosPerMessage;
+            }
+        }
+        tickBatch.subList(kept, size).clear();
+    }
+
+    /**
+     * Reply to a call from a client.
+     *
+     * @param client The client that made the call
+     * @param correlationId Id the call came in with
+     * @param stringPayload Reply in a string format
+     * @param bytePayload Reply in a bytes format
+     */
+    void replyToClient(ServerClientCallback client, int correlationId, String stringPayload, byte[] bytePayload) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        final int payloadType = bytePayload != null ? UdpRequest.PAYLOAD_TYPE_BYTES : UdpRequest.PAYLOAD_TYPE_STRING;
+        sendToClient(client, stringPayload, bytePayload, payloadType, UdpRequest.NO_MESSAGE_TYPE, PacketHeader.KIND_REPLY, correlationId, UdpRequest.NO_SEQUENCE, System.nanoTime());
+    }
+
+    /**
+     * Broadcast to all clients. Returns once the message was sent to every client, also when broadcasts are sent in
+     * parallel.
+     *
+     * @param payload The message
+     */
+    public void clientBroadcast(String payload) {
+        awaitBroadcast(clientBroadcastAsync(payload));
+    }
+
+    /**
+     * Broadcast to all clients. Returns once the message was sent to every client, also when broadcasts are sent in
+     * parallel.
+     *
+     * @param payload The message
+     */
+    public void clientBroadcast(byte[] payload) {
+        awaitBroadcast(clientBroadcastAsync(payload));
+    }
+
+    /**
+     * Broadcast a message of a registered type to all clients. Returns once the message was sent to every client, also
+     * when broadcasts are sent in parallel.
+     *
+     * @param type The type
+     * @param message The message
+     * @param <T> Type of message
+     */
+    public <T> void clientBroadcast(MessageType<T> type, T message) {
+        awaitBroadcast(clientBroadcastAsync(type, message));
+    }
+
+    /**
+     * Wait for a broadcast to finish, failing the way a broadcast on the calling thread would.
+     *
+     * @param broadcast Future of the broadcast
+     */
+    private static void awaitBroadcast(CompletableFuture<Void> broadcast) {
+        try {
+            broadcast.join();
+        } catch (CompletionException exception) {
+            // A sender thread failed; rethrow what it threw rather than the wrapper the future adds.
+            final Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Broadcast to all clients without waiting for parallel sends to finish.
+     *
+     * @param payload The message
+     * @return Future that completes once the message was sent to every client, or completed already unless
+     *         broadcasts are sent in parallel
+     */
+    public CompletableFuture<Void> clientBroadcastAsync(String payload) {
+        return doBroadcast(payload, null, UdpRequest.PAYLOAD_TYPE_STRING, UdpRequest.NO_MESSAGE_TYPE);
+    }
+
+    /**
+     * Broadcast to all clients without waiting for parallel sends to finish.
+     *
+     * @param payload The message
+     * @return Future that completes once the message was sent to every client, or completed already unless
+     *         broadcasts are sent in parallel
+     */
+    public CompletableFuture<Void> clientBroadcastAsync(byte[] payload) {
+        return doBroadcast(null, payload, UdpRequest.PAYLOAD_TYPE_BYTES, UdpRequest.NO_MESSAGE_TYPE);
+    }
+
+    /**
+     * Broadcast a message of a registered type to all clients without waiting for parallel sends to finish.
+     *
+     * @param type The type
+     * @param message The message
+     * @param <T> Type of message
+     * @return Future that completes once the message was sent to every client, or completed already unless
+     *         broadcasts are sent in parallel
+     */
+    public <T> CompletableFuture<Void> clientBroadcastAsync(MessageType<T> type, T message) {
+        return doBroadcast(null, type.getCodec().encode(message), UdpRequest.PAYLOAD_TYPE_BYTES, type.getId());
+    }
+
+    /**
+     * Send a message of a registered type to one client.
+     *
+     * @param client The client
+     * @param type The type
+     * @param message The message
+     * @param <T> Type of message
+     */
+    public <T> void sendToClient(ServerClientCallback client, MessageType<T> type, T message) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        final byte[] payload = type.getCodec().encode(message);
+        sendToClient(client, null, payload, UdpRequest.PAYLOAD_TYPE_BYTES, type.getId(), PacketHeader.KIND_DATA, 0, UdpRequest.NO_SEQUENCE, System.nanoTime());
+    }
+
+    /**
+     * Send a message to one client, unreliably but in sequence: the client drops it if it arrives after a newer
+     * sequenced message from this server was already delivered. Meant for state that every message replaces as a
+     * whole, like positions, where a late message is worse than a lost one.
+     *
+     * @param client The client
+     * @param payload The message
+     */
+    public void sendSequencedToClient(ServerClientCallback client, String payload) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        sendToClient(client, payload, null, UdpRequest.PAYLOAD_TYPE_STRING, UdpRequest.NO_MESSAGE_TYPE, PacketHeader.KIND_DATA, 0, client.nextSequence(), System.nanoTime());
+    }
+
+    /**
+     * Send a message to one client, unreliably but in sequence, like {@link #sendSequencedToClient(ServerClientCallback, String)}.
+     *
+     * @param client The client
+     * @param payload The message
+     */
+    public void sendSequencedToClient(ServerClientCallback client, byte[] payload) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        sendToClient(client, null, payload, UdpRequest.PAYLOAD_TYPE_BYTES, UdpRequest.NO_MESSAGE_TYPE, PacketHeader.KIND_DATA, 0, client.nextSequence(), System.nanoTime());
+    }
+
+    /**
+     * Send a message of a registered type to one client, unreliably but in sequence, like
+     * {@link #sendSequencedToClient(ServerClientCallback, String)}.
+     *
+     * @param client The client
+     * @param type The type
+     * @param message The message
+     * @param <T> Type of message
+     */
+    public <T> void sendSequencedToClient(ServerClientCallback client, MessageType<T> type, T message) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        final byte[] payload = type.getCodec().encode(message);
+        sendToClient(client, null, payload, UdpRequest.PAYLOAD_TYPE_BYTES, type.getId(), PacketHeader.KIND_DATA, 0, client.nextSequence(), System.nanoTime());
+    }
+
+    /**
+     * Perform broadcast to all clients.
+     *
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param payloadType The type of payload
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @return Future that completes once the message was sent to every client
+     */
+    private CompletableFuture<Void> doBroadcast(String stringPayload, byte[] bytePayload, int payloadType, int messageType) {
+        checkLifeCycleMatureEnough(LifeCycleState.STARTED);
+        checkLifeCycleTooMature(LifeCycleState.STARTED);
+
+        if (multicastSocket != null) {
+            publishToGroup(stringPayload, bytePayload, payloadType, messageType);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (cluster != null) {
+            try {
+                cluster.fanOutBroadcast(stringPayload, bytePayload, payloadType, messageType, udpRequestToBytesTransformer);
+            } catch (IOException exception) {
                 throw new RuntimeException(exception);
             }
         }
+        return broadcastLocally(stringPayload, bytePayload, payloadType, messageType);
+    }
+
+    /**
+     * Publish a broadcast to the multicast group, encrypted with the group key.
+     *
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param payloadType The type of payload
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     */
+    private void publishToGroup(String stringPayload, byte[] bytePayload, int payloadType, int messageType) {
+        final byte[] datagram = encode(multicastKeyId, keyManager.keyForId(multicastKeyId), 0, stringPayload, bytePayload, payloadType, messageType, PacketHeader.KIND_DATA, 0, UdpRequest.NO_SEQUENCE);
+        try {
+            multicastSocket.send(new DatagramPacket(datagram, datagram.length, multicastGroup));
+        } catch (IOException exception) {
+            throw new RuntimeException(exception);
+        }
+        if (capture != null) {
+            capture.append(DatagramCaptureLog.OUTBOUND, multicastGroup.getAddress(), multicastGroup.getPort(), datagram, datagram.length);
+        }
+        metrics.getOutboundTraffic().record(datagram.length);
+    }
+
+    /**
+     * Broadcast to the clients owned by this server.
+     *
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param payloadType The type of payload
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @return Future that completes once the message was sent to every client
+     */
+    private CompletableFuture<Void> broadcastLocally(String stringPayload, byte[] bytePayload, int payloadType, int messageType) {
+        final ServerClientCallback[] clients = clientManager.getAll().toArray(new ServerClientCallback[0]);
+        final long start = System.nanoTime();
+        if (broadcastSenders == null || !broadcastSenders.worthSplitting(clients.length)) {
+            broadcastRange(clients, 0, clients.length, start, stringPayload, bytePayload, payloadType, messageType);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return broadcastSenders.fanOut(
+            clients.length,
+            (from, to) -> broadcastRange(clients, from, to, start, stringPayload, bytePayload, payloadType, messageType)
+        );
+    }
+
+    /**
+     * Broadcast to a range of clients.
+     *
+     * @param clients The clients of the whole broadcast
+     * @param from Index of the first client of the range
+     * @param to Index after the last client of the range
+     * @param start {@link System#nanoTime()} at which the broadcast started
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param payloadType The type of payload
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     */
+    private void broadcastRange(
+        ServerClientCallback[] clients,
+        int from,
+        int to,
+        long start,
+        String stringPayload,
+        byte[] bytePayload,
+        int payloadType,
+        int messageType
+    ) {
+        for (int index = from; index < to; index++) {
+            // With pacing, client number i of n gets its datagram i/n of the way through the spread.
+            final long earliest = broadcastSpreadNanos > 0 ? start + broadcastSpreadNanos * index / clients.length : start;
+            sendToClient(clients[index], stringPayload, bytePayload, payloadType, messageType, PacketHeader.KIND_DATA, 0, UdpRequest.NO_SEQUENCE, earliest);
+        }
+    }
+
+    /**
+     * Encrypt a payload for a client and send it.
+     *
+     * @param client The client
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param payloadType The type of payload
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @param packetKind Kind of packet, from {@link PacketHeader}
+     * @param correlationId Correlation id of a reply, ignored for plain data
+     * @param sequence Sequence number of a sequenced message, or {@link UdpRequest#NO_SEQUENCE}
+     * @param earliest {@link System#nanoTime()} before which a paced datagram should not go out
+     */
+    private void sendToClient(
+        ServerClientCallback client,
+        String stringPayload,
+        byte[] bytePayload,
+        int payloadType,
+        int messageType,
+        int packetKind,
+        int correlationId,
+        long sequence,
+        long earliest
+    ) {
+        final byte[] payload = encodeForLiveClient(client, stringPayload, bytePayload, payloadType, messageType, packetKind, correlationId, sequence);
+        if (payload == null) {
+            return;
+        }
+        try {
+            if (tickOutbound != null) {
+                tickOutbound.add(new PacedDatagram(payload, client, earliest));
+            } else {
+                sendFinished(payload, client, earliest);
+            }
+        } catch (Exception exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Encrypt a payload for a client and turn it into a datagram.
+     *
+     * @param client The client
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param payloadType The type of payload
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @param packetKind Kind of packet, from {@link PacketHeader}
+     * @param correlationId Correlation id of a reply, ignored for plain data
+     * @param sequence Sequence number of a sequenced message, or {@link UdpRequest#NO_SEQUENCE}
+     * @return The datagram
+     */
+    private byte[] encodeForClient(
+        ServerClientCallback client,
+        String stringPayload,
+        byte[] bytePayload,
+        int payloadType,
+        int messageType,
+        int packetKind,
+        int correlationId,
+        long sequence
+    ) {
+        long pingToken = 0;
+        if (heartbeatIntervalNanos > 0) {
+            pingToken = client.getRtt().startPingIfDue(System.nanoTime(), heartbeatIntervalNanos);
+        }
+        return encode(client.getKeyId(), keyFor(client), pingToken, stringPayload, bytePayload, payloadType, messageType, packetKind, correlationId, sequence);
+    }
+
+    /**
+     * Encrypt a payload with a key and turn it into a datagram.
+     *
+     * @param keyId Id of the key to encrypt with, or null to leave the payload in the clear
+     * @param clientKey The key to encrypt with, or null to leave the payload in the clear
+     * @param pingToken Token of a ping to piggyback, or zero for none
+     * @param stringPayload Payload in a string format
+     * @param bytePayload Payload in a bytes format
+     * @param payloadType The type of payload
+     * @param messageType Registered message type of a byte payload, or {@link UdpRequest#NO_MESSAGE_TYPE}
+     * @param packetKind Kind of packet, from {@link PacketHeader}
+     * @param correlationId Correlation id of a reply, ignored for plain data
+     * @param sequence Sequence number of a sequenced message, or {@link UdpRequest#NO_SEQUENCE}
+     * @return The datagram
+     */
+    private byte[] encode(
+        String keyId,
+        byte[] clientKey,
+        long pingToken,
+        String stringPayload,
+        byte[] bytePayload,
+        int payloadType,
+        int messageType,
+        int packetKind,
+        int correlationId,
+        long sequence
+    ) {
+        final UdpRequest request = new UdpRequest();
+        request.setMessageType(messageType);
+        // The client knows its own ticket, there is no need to send it back every time.
+        request.setKeyId(SessionTicket.isTicket(keyId) ? null : keyId);
+        request.setPacketKind(packetKind);
+        request.setCorrelationId(correlationId);
+        request.setPingToken(pingToken);
+        if (sequence != UdpRequest.NO_SEQUENCE) {
+            request.setSequence(sequence);
+            request.setSequenced(true);
+        }
+        if (latencyTimestamps) {
+            request.setSendTimestamp(LatencyClock.nowMicros());
+        }
+
+        if (clientKey != null) {
+            if (bytePayload != null) {
+                final byte[] cipherText = aesBytesToCiphertextTransformer.apply(bytePayload, clientKey);
+                request.setBytePayload(cipherText);
+            } else if (stringPayload != null) {
+                final byte[] stringAsBytes = stringPayload.getBytes();
+                final byte[] cipherTextBytes = aesBytesToCiphertextTransformer.apply(stringAsBytes, clientKey);
+                final String cipherText = Base64.getEncoder().encodeToString(cipherTextBytes);
+                request.setStringPayload(cipherText);
+            }
+        } else {
+            request.setBytePayload(bytePayload);
+            request.setStringPayload(stringPayload);
+        }
+        request.setPayloadType(payloadType);
+        return udpRequestToBytesTransformer.apply(request);
+    }
+
+    /**
+     * Send a finished datagram, through the pacer if there is one.
+     *
+     * @param datagram The datagram
+     * @param client The client to send it to
+     * @param earliest {@link System#nanoTime()} before which a paced datagram should not go out
+     * @throws IOException If the send fails
+     */
+    private void sendFinished(byte[] datagram, ServerClientCallback client, long earliest) throws IOException {
+        if (pacingQueue != null) {
+            sendPaced(datagram, client, earliest);
+        } else {
+            sendDatagram(datagram, client);
+        }
+    }
+
+    /**
+     * Hand a finished datagram to the pacing thread for the next send slot of its client.
+     *
+     * @param datagram The datagram
+     * @param client The client to send it to
+     * @param earliest {@link System#nanoTime()} before which the datagram should not go out
+     */
+    private void sendPaced(byte[] datagram, ServerClientCallback client, long earliest) {
+        final long delay = client.getPacer().reserve(earliest, maxPacingDelayNanos);
+        if (delay < 0) {
+            // The client cannot keep up. Late real-time data is as good as lost, so do not queue it.
+            metrics.recordPacingDrop();
+            return;
+        }
+        pacingQueue.add(new PacedDatagram(datagram, client, earliest + delay));
+    }
+
+    /**
+     * Put a finished datagram on the socket.
+     *
+     * @param datagram The datagram
+     * @param client The client to send it to
+     * @throws IOException If the send fails
+     */
+    void sendDatagram(byte[] datagram, ServerClientCallback client) throws IOException {
+        if (cluster != null && !cluster.isIngress(client)) {
+            cluster.relay(datagram, client);
+        } else {
+            sendRaw(datagram, datagram.length, client.getAddress(), client.getPortNumber());
+        }
+        client.getOutboundTraffic().record(datagram.length);
+        metrics.getOutboundTraffic().record(datagram.length);
+    }
+
+    /**
+     * Put bytes on the socket as they are.
+     *
+     * @param datagram The datagram
+     * @param length Length of the datagram
+     * @param address Address to send to
+     * @param port Port to send to
+     * @throws IOException If the send fails
+     */
+    void sendRaw(byte[] datagram, int length, InetAddress address, int port) throws IOException {
+        transport.send(new DatagramPacket(datagram, length, address, port));
+        if (capture != null) {
+            capture.append(DatagramCaptureLog.OUTBOUND, address, port, datagram, length);
+        }
     }
 
     /**
@@ -1,14 +1,19 @@
 package com.gabler.udpmanager.server;
 
 import com.gabler.udpmanager.ByteToUdpRequestTransformer;
+import com.gabler.udpmanager.DiagnosticCategory;
+import com.gabler.udpmanager.HandshakePacketWriter;
+import com.gabler.udpmanager.HeartbeatPacketWriter;
+import com.gabler.udpmanager.IDatagramTransport;
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.model.PacketHeader;
 import com.gabler.udpmanager.model.UdpRequest;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.function.Function;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -20,37 +25,42 @@ public class UdpServerListeningThread extends Thread {
 
     private static final Logger LOGGER = Logger.getLogger("UdpServerListeningThread");
 
+    // Longest a receive can take and still be taken for one that did not wait for a datagram.
+    private static final long IMMEDIATE_RECEIVE_NANOS = 50_000;
+
     private final Function<byte[], UdpRequest> bytesToUdpRequestTransformer;
 
     private final int listenerId;
+    private final String logId;
     private volatile boolean terminated = false;
     private volatile boolean listening = false;
     private final UdpServer server;
-    private final DatagramSocket socket;
+    private final IDatagramTransport transport;
 
     /**
      * Initialize a listening thread for a server
      *
      * @param server The server to post back to
-     * @param socket The socket to listen to
+     * @param transport The transport to listen to
      * @param listenerId Integer identifier for this thread
      */
-    public UdpServerListeningThread(UdpServer server, DatagramSocket socket, int listenerId) {
-        this(server, socket, listenerId, new ByteToUdpRequestTransformer());
+    public UdpServerListeningThread(UdpServer server, IDatagramTransport transport, int listenerId) {
+        this(server, transport, listenerId, new ByteToUdpRequestTransformer());
     }
 
     /**
      * Initialize a listening thread for a server
      *
      * @param server The server to post back to
-     * @param socket The socket to listen to
+     * @param transport The transport to listen to
      * @param listenerId Integer identifier for this thread
      * @param aBytesToUdpRequestTransformer Transformer for turning bytes to a {@link UdpRequest}
      */
-    public UdpServerListeningThread(UdpServer server, DatagramSocket socket, int listenerId, Function<byte[], UdpRequest> aBytesToUdpRequestTransformer) {
+    public UdpServerListeningThread(UdpServer server, IDatagramTransport transport, int listenerId, Function<byte[], UdpRequest> aBytesToUdpRequestTransformer) {
         this.server = server;
-        this.socket = socket;
+        this.transport = transport;
         this.listenerId = listenerId;
+        logId = "[Thread " + listenerId + "] ";
         bytesToUdpRequestTransformer = aBytesToUdpRequestTransformer;
     }
 
@@ -76,8 +86,14 @@ public class UdpServerListeningThread extends Thread {
     }
 
     public void run() {
-        final String id = "[Thread " + listenerId + "] ";
-        LOGGER.info(id + "Server listening thread started.");
+        LOGGER.info(logId + "Server listening thread started.");
+
+        /*
+         * The buffer is only read while the request is transformed, which happens before the next receive, so a
+         * single buffer per thread is enough.
+         */
+        final byte[] buffer = new byte[65535];
+        final DatagramPacket receivedPacket = new DatagramPacket(buffer, buffer.length);
 
         while (!terminated) {
 
@@ -85,37 +101,149 @@ public class UdpServerListeningThread extends Thread {
                 continue;
             }
 
-            final byte[] buffer = new byte[65535];
-            final DatagramPacket receivedPacket = new DatagramPacket(buffer, buffer.length);
+            receivedPacket.setLength(buffer.length);
+            final long receiveStart = System.nanoTime();
             try {
-                socket.receive(receivedPacket);
+                transport.receive(receivedPacket);
             } catch (IOException exception) {
                 // Common exit case on closure, much ado about nothing
-                LOGGER.log(Level.SEVERE, id + "IO exception on socket receive.", exception);
+                server.getDiagnostics().report(DiagnosticCategory.RECEIVE_FAILED, exception);
                 continue;
             }
 
-            final InetAddress sentAddress = receivedPacket.getAddress();
-            final int clientPort = receivedPacket.getPort();
+            final long receivedAt = System.nanoTime();
+            handleReceived(receivedPacket);
+            // A receive that returned at once found datagrams already waiting, so under a backlog it is work too.
+            final long busyFrom = receivedAt - receiveStart < IMMEDIATE_RECEIVE_NANOS ? receiveStart : receivedAt;
+            server.getMetrics().recordListenerBusy(System.nanoTime() - busyFrom, 1);
+        }
+
+        LOGGER.info(logId + " Terminated.");
+    }
+
+    /**
+     * Capture a received datagram and handle it, or hand it to its dispatch shard.
+     *
+     * @param receivedPacket The datagram
+     */
+    void handleReceived(DatagramPacket receivedPacket) {
+        final byte[] buffer = receivedPacket.getData();
+        final DatagramCaptureLog capture = server.getCapture();
+        if (capture != null) {
+            capture.append(
+                DatagramCaptureLog.INBOUND,
+                receivedPacket.getAddress(),
+                receivedPacket.getPort(),
+                buffer,
+                receivedPacket.getLength()
+            );
+        }
+
+        // Rate limits and the header are checked here, so junk is dropped before it costs a copy or a queue slot.
+        if (!server.admitDatagram(receivedPacket.getAddress(), buffer, receivedPacket.getLength())) {
+            return;
+        }
+
+        final ClientDispatchShards dispatchShards = server.getDispatchShards();
+        if (dispatchShards == null) {
+            handleAdmitted(buffer, receivedPacket.getLength(), receivedPacket.getAddress(), receivedPacket.getPort());
+            return;
+        }
+
+        // The buffer is reused by the next receive, so the shard gets its own copy.
+        final byte[] datagram = Arrays.copyOf(buffer, receivedPacket.getLength());
+        final InetAddress sentAddress = receivedPacket.getAddress();
+        final int clientPort = receivedPacket.getPort();
+        // Heartbeats are never shed, so round trip times stay honest under load.
+        final boolean priority = (PacketHeader.flags(datagram) & PacketHeader.FLAG_PRIORITY) != 0 || HeartbeatPacketWriter.isHeartbeat(datagram);
+        if (!dispatchShards.dispatch(sentAddress, clientPort, priority, () -> handleAdmitted(datagram, datagram.length, sentAddress, clientPort))) {
+            server.getMetrics().recordDropped(PacketDropReason.DISPATCH_QUEUE_FULL);
+        }
+    }
 
-            UdpRequest request;
+    /**
+     * Handle a datagram as it came off of the socket.
+     *
+     * @param buffer Buffer holding the datagram at its start
+     * @param length Length of the datagram
+     * @param sentAddress The address the datagram came from
+     * @param clientPort The port the datagram came from
+     */
+    void handleDatagram(byte[] buffer, int length, InetAddress sentAddress, int clientPort) {
+        if (server.admitDatagram(sentAddress, buffer, length)) {
+            handleAdmitted(buffer, length, sentAddress, clientPort);
+        }
+    }
+
+    /**
+     * Handle a datagram that passed {@link UdpServer#admitDatagram}.
+     *
+     * @param buffer Buffer holding the datagram at its start
+     * @param length Length of the datagram
+     * @param sentAddress The address the datagram came from
+     * @param clientPort The port the datagram came from
+     */
+    private void handleAdmitted(byte[] buffer, int length, InetAddress sentAddress, int clientPort) {
+        // Any node can open any ticket, so handshakes are answered where they arrive rather than routed.
+        if (HandshakePacketWriter.isHandshake(buffer)) {
             try {
-                request = bytesToUdpRequestTransformer.apply(buffer);
-            } catch (RuntimeException exception) {
-                // Means we were sent weird packet by bad client. Don't care.
-                LOGGER.log(Level.SEVERE, id + "Could not serialize bytes message to UdpRequest.", exception);
-                continue;
+                server.handleHandshake(buffer, sentAddress, clientPort);
+            } catch (Exception exception) {
+                server.getDiagnostics().report(DiagnosticCategory.HANDSHAKE_FAILED, exception);
             }
+            return;
+        }
 
-            if (request != null) {
-                try {
-                    server.handleMessageFromClient(request, sentAddress, clientPort);
-                } catch (Exception exception) {
-                    LOGGER.log(Level.SEVERE, id + "Failed to handle UDP request.", exception);
+        final ServerCluster cluster = server.getCluster();
+        if (cluster != null) {
+            try {
+                if (cluster.route(this, buffer, length, sentAddress, clientPort)) {
+                    return;
                 }
+            } catch (Exception exception) {
+                server.getDiagnostics().report(DiagnosticCategory.ROUTE_FAILED, exception);
+                return;
             }
         }
 
-        LOGGER.info(id + " Terminated.");
+        processDatagram(buffer, sentAddress, clientPort, ServerCluster.LOCAL);
+    }
+
+    /**
+     * Process a validated datagram from a client owned by this server.
+     *
+     * @param buffer Buffer holding the datagram at its start
+     * @param clientAddress The address of the client
+     * @param clientPort The port of the client
+     * @param ingressNode Cluster node the datagram was forwarded by, or {@link ServerCluster#LOCAL}
+     */
+    void processDatagram(byte[] buffer, InetAddress clientAddress, int clientPort, int ingressNode) {
+        // Heartbeats are a bare header, there is nothing to deserialize.
+        if (HeartbeatPacketWriter.isHeartbeat(buffer)) {
+            try {
+                server.handleHeartbeat(buffer, clientAddress, clientPort);
+            } catch (Exception exception) {
+                server.getDiagnostics().report(DiagnosticCategory.HEARTBEAT_FAILED, exception);
+            }
+            return;
+        }
+
+        UdpRequest request;
+        try {
+            request = bytesToUdpRequestTransformer.apply(buffer);
+        } catch (RuntimeException exception) {
+            // Means we were sent weird packet by bad client. Don't care.
+            server.getMetrics().recordDropped(PacketDropReason.MALFORMED_PAYLOAD);
+            server.getDiagnostics().report(DiagnosticCategory.MALFORMED_PAYLOAD, exception);
+            return;
+        }
+
+        if (request != null) {
+            try {
+                server.handleMessageFromClient(request, clientAddress, clientPort, ingressNode);
+            } catch (Exception exception) {
+                server.getDiagnostics().report(DiagnosticCategory.HANDLER_FAILED, exception);
+            }
+        }
     }
 }
@@ -0,0 +1,252 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.LatencyHistogram;
+import com.gabler.udpmanager.LatencySnapshot;
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.TrafficCounter;
+import com.gabler.udpmanager.model.UdpRequest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing the traffic a server has seen. Updated by the listener threads without locking.
+ *
+ * @author Andy Gabler
+ */
+public class UdpServerMetrics {
+
+    private final LongAdder receivedPackets = new LongAdder();
+    private final LongAdder[] droppedPackets;
+    private final TrafficCounter outboundTraffic = new TrafficCounter();
+    private final LongAdder pacingDrops = new LongAdder();
+    private final LongAdder expiredSessionDrops = new LongAdder();
+    private final LatencyHistogram[] deliveryLatency = {new LatencyHistogram(), new LatencyHistogram()};
+    private final LatencyHistogram roundTripLatency = new LatencyHistogram();
+    private final LongAdder listenerBusyNanos = new LongAdder();
+    private final LongAdder listenerDatagrams = new LongAdder();
+    private final LongAdder listenerResizes = new LongAdder();
+    private volatile int listenerPoolSize = 0;
+    private volatile double listenerUtilization = 0;
+    private volatile long averageHandlingNanos = 0;
+
+    public UdpServerMetrics() {
+        droppedPackets = new LongAdder[PacketDropReason.values().length];
+        for (int index = 0; index < droppedPackets.length; index++) {
+            droppedPackets[index] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record that a datagram came off of the socket.
+     */
+    void recordReceived() {
+        receivedPackets.increment();
+    }
+
+    /**
+     * Record that a datagram was dropped.
+     *
+     * @param reason Why it was dropped
+     */
+    void recordDropped(PacketDropReason reason) {
+        droppedPackets[reason.ordinal()].increment();
+    }
+
+    /**
+     * Record how long a timestamped datagram from clients took to arrive.
+     *
+     * @param payloadType Payload type of the request it carried
+     * @param micros The one-way latency
+     */
+    void recordDeliveryLatency(int payloadType, long micros) {
+        if (payloadType >= 0 && payloadType < deliveryLatency.length) {
+            deliveryLatency[payloadType].record(micros);
+        }
+    }
+
+    /**
+     * Record the round trip of a heartbeat to clients.
+     *
+     * @param micros The round trip time
+     */
+    void recordRoundTrip(long micros) {
+        roundTripLatency.record(micros);
+    }
+
+    /**
+     * Record that an outgoing datagram was discarded because its client was too far behind its pace.
+     */
+    void recordPacingDrop() {
+        pacingDrops.increment();
+    }
+
+    /**
+     * Record that an outgoing datagram was discarded because the session ticket of its client expired.
+     */
+    void recordExpiredSessionDrop() {
+        expiredSessionDrops.increment();
+    }
+
+    /**
+     * Record time a listener thread spent taking datagrams off of the socket and handling them rather than waiting on
+     * the socket.
+     *
+     * @param nanos The time
+     * @param datagrams Amount of datagrams handled in that time, including those dropped right away
+     */
+    void recordListenerBusy(long nanos, int datagrams) {
+        listenerBusyNanos.add(nanos);
+        listenerDatagrams.add(datagrams);
+    }
+
+    /**
+     * Record the load of the listener pool over the last sample.
+     *
+     * @param utilization Fraction of time the listeners were busy
+     * @param handlingNanos Average time a datagram took to handle
+     */
+    void recordListenerLoad(double utilization, long handlingNanos) {
+        listenerUtilization = utilization;
+        averageHandlingNanos = handlingNanos;
+    }
+
+    /**
+     * Record the size of the listener pool after it was created or resized.
+     *
+     * @param size The size
+     */
+    void recordListenerResize(int size) {
+        if (listenerPoolSize != 0) {
+            listenerResizes.increment();
+        }
+        listenerPoolSize = size;
+    }
+
+    long getListenerBusyNanos() {
+        return listenerBusyNanos.sum();
+    }
+
+    /**
+     * Get the amount of datagrams the listener threads took off of the socket.
+     *
+     * @return The amount
+     */
+    long getListenerDatagrams() {
+        return listenerDatagrams.sum();
+    }
+
+    /**
+     * Get the amount of listener threads.
+     *
+     * @return The amount
+     */
+    public int getListenerPoolSize() {
+        return listenerPoolSize;
+    }
+
+    /**
+     * Get how often an adaptive listener pool was resized.
+     *
+     * @return The count
+     */
+    public long getListenerPoolResizes() {
+        return listenerResizes.sum();
+    }
+
+    /**
+     * Get the fraction of time the listeners spent handling datagrams rather than waiting, as last sampled by an
+     * adaptive listener pool.
+     *
+     * @return Between zero and one
+     */
+    public double getListenerUtilization() {
+        return listenerUtilization;
+    }
+
+    /**
+     * Get the average time a listener took to handle a datagram, as last sampled by an adaptive listener pool.
+     *
+     * @return Nanoseconds
+     */
+    public long getAverageHandlingNanos() {
+        return averageHandlingNanos;
+    }
+
+    /**
+     * Get what the server has sent to all clients combined, and at what rate.
+     *
+     * @return The traffic counter
+     */
+    public TrafficCounter getOutboundTraffic() {
+        return outboundTraffic;
+    }
+
+    /**
+     * Get the amount of outgoing datagrams discarded because their client was too far behind its pace.
+     *
+     * @return The count
+     */
+    public long getPacingDrops() {
+        return pacingDrops.sum();
+    }
+
+    /**
+     * Get the amount of outgoing datagrams discarded because the session ticket of their client expired.
+     *
+     * @return The count
+     */
+    public long getExpiredSessionDrops() {
+        return expiredSessionDrops.sum();
+    }
+
+    /**
+     * Get the amount of datagrams that came off of the socket, including those later dropped.
+     *
+     * @return The count
+     */
+    public long getReceivedPackets() {
+        return receivedPackets.sum();
+    }
+
+    /**
+     * Get the amount of datagrams dropped for a reason.
+     *
+     * @param reason The reason
+     * @return The count
+     */
+    public long getDroppedPackets(PacketDropReason reason) {
+        return droppedPackets[reason.ordinal()].sum();
+    }
+
+    /**
+     * Get the amount of datagrams dropped for any reason.
+     *
+     * @return The count
+     */
+    public long getDroppedPackets() {
+        long total = 0;
+        for (LongAdder counter : droppedPackets) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Get how long timestamped datagrams from clients took to arrive, adjusted for the offset between the clocks.
+     *
+     * @param payloadType {@link UdpRequest#PAYLOAD_TYPE_STRING} or {@link UdpRequest#PAYLOAD_TYPE_BYTES}
+     * @return Snapshot of the one-way latencies so far
+     */
+    public LatencySnapshot getDeliveryLatency(int payloadType) {
+        return deliveryLatency[payloadType].snapshot();
+    }
+
+    /**
+     * Get the round trip times of heartbeats to clients.
+     *
+     * @return Snapshot of the round trip times so far
+     */
+    public LatencySnapshot getRoundTripLatency() {
+        return roundTripLatency.snapshot();
+    }
+}
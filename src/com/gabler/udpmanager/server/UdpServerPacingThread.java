@@ -0,0 +1,65 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.DiagnosticCategory;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Pacing thread for a server. Puts paced datagrams on the socket once their send slot comes up.
+ *
+ * @author Andy Gabler
+ */
+public class UdpServerPacingThread extends Thread {
+
+    private static final Logger LOGGER = Logger.getLogger("UdpServerPacingThread");
+
+    private volatile boolean terminated = false;
+    private final UdpServer server;
+    private final DelayQueue<PacedDatagram> pacingQueue;
+
+    /**
+     * Initialize a pacing thread for a server.
+     *
+     * @param server The server to send for
+     * @param pacingQueue The queue of datagrams waiting for their slot
+     */
+    UdpServerPacingThread(UdpServer server, DelayQueue<PacedDatagram> pacingQueue) {
+        this.server = server;
+        this.pacingQueue = pacingQueue;
+    }
+
+    /**
+     * Kill the pacer. Anything still waiting is discarded.
+     */
+    public void killPacer() {
+        terminated = true;
+    }
+
+    public void run() {
+        LOGGER.info("Server pacing thread started.");
+
+        while (!terminated) {
+            final PacedDatagram paced;
+            try {
+                paced = pacingQueue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exception) {
+                continue;
+            }
+
+            if (paced == null) {
+                continue;
+            }
+
+            try {
+                server.sendDatagram(paced.getDatagram(), paced.getClient());
+            } catch (Exception exception) {
+                server.getDiagnostics().report(DiagnosticCategory.SEND_FAILED, exception);
+            }
+        }
+
+        pacingQueue.clear();
+        LOGGER.info("Server pacer terminated.");
+    }
+}
@@ -0,0 +1,65 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.DiagnosticCategory;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Tick thread for a server in tick mode. Hands the messages buffered since the last tick to the configuration as one
+ * batch, then flushes everything sent during the tick, at a fixed rate.
+ *
+ * @author Andy Gabler
+ */
+public class UdpServerTickThread extends Thread {
+
+    private static final Logger LOGGER = Logger.getLogger("UdpServerTickThread");
+
+    private volatile boolean terminated = false;
+    private final UdpServer server;
+    private final long tickNanos;
+
+    /**
+     * Initialize a tick thread for a server.
+     *
+     * @param server The server to tick
+     * @param tickNanos Time between the starts of two ticks
+     */
+    UdpServerTickThread(UdpServer server, long tickNanos) {
+        super("UdpServerTick");
+        this.server = server;
+        this.tickNanos = tickNanos;
+    }
+
+    /**
+     * Kill the ticker. Anything buffered is discarded.
+     */
+    public void killTicker() {
+        terminated = true;
+    }
+
+    public void run() {
+        LOGGER.info("Server tick thread started.");
+
+        long nextTick = System.nanoTime();
+        while (!terminated) {
+            try {
+                server.tick();
+            } catch (Exception exception) {
+                server.getDiagnostics().report(DiagnosticCategory.TICK_FAILED, exception);
+            }
+
+            nextTick += tickNanos;
+            final long now = System.nanoTime();
+            if (now - nextTick > tickNanos) {
+                // Too far behind to catch up, skip the missed ticks rather than running them back to back.
+                nextTick = now;
+            }
+            while (!terminated && nextTick - System.nanoTime() > 0) {
+                LockSupport.parkNanos(nextTick - System.nanoTime());
+            }
+        }
+
+        LOGGER.info("Server ticker terminated.");
+    }
+}
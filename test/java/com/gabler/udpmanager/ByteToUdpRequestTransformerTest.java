@@ -0,0 +1,111 @@
+package com.gabler.udpmanager;
+
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.model.UdpRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ByteToUdpRequestTransformer}.
+ *
+ * @author Andy Gabler
+ */
+public class ByteToUdpRequestTransformerTest {
+
+    @Test
+    public void readsStringRequest() {
+        final UdpRequest request = new UdpRequest();
+        request.setPayloadType(UdpRequest.PAYLOAD_TYPE_STRING);
+        request.setStringPayload("hello");
+        request.setKeyId("key");
+
+        final UdpRequest read = new ByteToUdpRequestTransformer().apply(new UdpRequestToBytesTransformer().apply(request));
+
+        assertEquals("hello", read.getStringPayload());
+        assertEquals("key", read.getKeyId());
+    }
+
+    @Test
+    public void readsBytesRequest() {
+        final byte[] payload = new byte[PacketHeader.MAX_PAYLOAD_LENGTH / 2];
+        payload[payload.length - 1] = 7;
+        final UdpRequest request = new UdpRequest();
+        request.setPayloadType(UdpRequest.PAYLOAD_TYPE_BYTES);
+        request.setBytePayload(payload);
+
+        final UdpRequest read = new ByteToUdpRequestTransformer().apply(new UdpRequestToBytesTransformer().apply(request));
+
+        assertArrayEquals(payload, read.getBytePayload());
+    }
+
+    @Test
+    public void refusesClassOtherThanRequest() throws IOException {
+        final List<String> notARequest = new ArrayList<>();
+        notARequest.add("gadget");
+
+        assertRefused(datagramOf(notARequest));
+    }
+
+    @Test
+    public void refusesSerializableClassOnTheClassPath() throws IOException {
+        assertRefused(datagramOf(new Gadget()));
+    }
+
+    /**
+     * Check that a datagram is refused by the filter rather than deserialized.
+     *
+     * @param datagram The datagram
+     */
+    private static void assertRefused(byte[] datagram) {
+        final RuntimeException exception = assertThrows(
+            RuntimeException.class,
+            () -> new ByteToUdpRequestTransformer().apply(datagram)
+        );
+        assertTrue(exception.getCause() instanceof InvalidClassException, "Refused by the filter: " + exception.getCause());
+        assertEquals(0, Gadget.instances);
+    }
+
+    /**
+     * Write a datagram with a plain header and any object as its payload.
+     *
+     * @param payload The object
+     * @return The datagram
+     * @throws IOException If the object cannot be serialized
+     */
+    private static byte[] datagramOf(Object payload) throws IOException {
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        byteStream.write(new byte[PacketHeader.BASE_LENGTH]);
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(byteStream)) {
+            outputStream.writeObject(payload);
+        }
+        final byte[] datagram = byteStream.toByteArray();
+        PacketHeader.writeBase(datagram, PacketHeader.KIND_DATA, 0, datagram.length - PacketHeader.BASE_LENGTH);
+        return datagram;
+    }
+
+    /**
+     * Serializable class that counts how often it is deserialized.
+     */
+    private static class Gadget implements Serializable {
+
+        private static int instances = 0;
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            instances++;
+        }
+    }
+}
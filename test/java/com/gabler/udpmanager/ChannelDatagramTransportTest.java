@@ -0,0 +1,90 @@
+package com.gabler.udpmanager;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ChannelDatagramTransport}.
+ *
+ * @author Andy Gabler
+ */
+public class ChannelDatagramTransportTest {
+
+    private UdpRuntime runtime;
+    private ChannelDatagramTransport receiving;
+    private ChannelDatagramTransport sending;
+
+    @AfterEach
+    public void tearDown() {
+        if (sending != null) {
+            sending.close();
+        }
+        if (receiving != null) {
+            receiving.close();
+        }
+        if (runtime != null) {
+            runtime.shutdown();
+        }
+    }
+
+    @Test
+    public void receiveWaitsForTheDatagramLikeABlockingSocket() throws Exception {
+        runtime = new UdpRuntime(1, 1, 16);
+        receiving = runtime.openTransport(new InetSocketAddress("127.0.0.1", 0), null);
+        final InetSocketAddress target = new InetSocketAddress("127.0.0.1", receiving.getLocalPort());
+        sending = runtime.openTransport(null, target);
+        final byte[] payload = {1, 2, 3, 4};
+
+        final CompletableFuture<byte[]> received = CompletableFuture.supplyAsync(() -> {
+            final DatagramPacket packet = new DatagramPacket(new byte[64], 64);
+            try {
+                receiving.receive(packet);
+            } catch (Exception exception) {
+                throw new IllegalStateException(exception);
+            }
+            return Arrays.copyOf(packet.getData(), packet.getLength());
+        });
+        sending.send(new DatagramPacket(payload, payload.length, target));
+
+        assertArrayEquals(payload, received.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closeEndsAWaitingReceive() throws Exception {
+        runtime = new UdpRuntime(1, 1, 16);
+        receiving = runtime.openTransport(new InetSocketAddress("127.0.0.1", 0), null);
+
+        final CompletableFuture<Exception> failure = CompletableFuture.supplyAsync(() -> {
+            try {
+                receiving.receive(new DatagramPacket(new byte[64], 64));
+            } catch (Exception exception) {
+                return exception;
+            }
+            return null;
+        });
+        Thread.sleep(100);
+        receiving.close();
+
+        assertNotNull(failure.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void boundTransportReportsItsPort() throws Exception {
+        runtime = new UdpRuntime(1, 1, 16);
+        receiving = runtime.openTransport(new InetSocketAddress("127.0.0.1", 0), null);
+
+        assertEquals("127.0.0.1", receiving.getLocalAddress().getHostAddress());
+        assertTrue(receiving.getLocalPort() > 0);
+    }
+}
@@ -0,0 +1,86 @@
+package com.gabler.udpmanager;
+
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.security.SessionTicket;
+import com.gabler.udpmanager.security.SessionTicketSealer;
+import com.gabler.udpmanager.security.X25519Handshake;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link HandshakePacketWriter}.
+ *
+ * @author Andy Gabler
+ */
+public class HandshakePacketWriterTest {
+
+    @Test
+    public void helloCarriesThePublicKey() {
+        final byte[] publicKey = new X25519Handshake().getPublicKey();
+
+        final byte[] hello = new HandshakePacketWriter(null).writeHello(publicKey);
+
+        assertArrayEquals(publicKey, HandshakePacketWriter.helloPublicKey(hello));
+    }
+
+    @Test
+    public void helloIsLargerThanItsReply() {
+        final HandshakePacketWriter writer = new HandshakePacketWriter(null);
+        final X25519Handshake server = new X25519Handshake();
+        final SessionTicket ticket = new SessionTicketSealer(new byte[16], 60_000).seal(new byte[32]);
+
+        final byte[] hello = writer.writeHello(new X25519Handshake().getPublicKey());
+        final byte[] reply = writer.writeHelloReply(server.getPublicKey(), ticket.getExpiresAtMillis(), ticket.getTicket());
+
+        assertTrue(hello.length > reply.length, "Hello of " + hello.length + " bytes, reply of " + reply.length);
+    }
+
+    @Test
+    public void unpaddedHelloIsRefused() {
+        final byte[] publicKey = new X25519Handshake().getPublicKey();
+        final int payloadLength = Short.BYTES + publicKey.length;
+        final int headerLength = PacketHeader.headerLength(0);
+        final byte[] hello = new byte[headerLength + payloadLength];
+        PacketHeader.writeBase(hello, PacketHeader.KIND_HELLO, 0, payloadLength);
+        PacketHeader.writeShort(hello, headerLength, publicKey.length);
+        System.arraycopy(publicKey, 0, hello, headerLength + Short.BYTES, publicKey.length);
+
+        assertNull(HandshakePacketWriter.helloPublicKey(hello));
+    }
+
+    @Test
+    public void helloWithOversizedKeyLengthIsRefused() {
+        final byte[] hello = new HandshakePacketWriter(null).writeHello(new X25519Handshake().getPublicKey());
+        PacketHeader.writeShort(hello, PacketHeader.headerLength(0), HandshakePacketWriter.HELLO_PAYLOAD_LENGTH);
+
+        assertNull(HandshakePacketWriter.helloPublicKey(hello));
+    }
+
+    @Test
+    public void writtenHelloReplyIsWellFormed() {
+        final byte[] reply = new HandshakePacketWriter(null).writeHelloReply(new X25519Handshake().getPublicKey(), 1L, "ticket");
+
+        assertTrue(HandshakePacketWriter.isWellFormedHelloReply(reply));
+    }
+
+    @Test
+    public void helloReplyShorterThanItsFixedFieldsIsRefused() {
+        final int headerLength = PacketHeader.headerLength(0);
+        final byte[] reply = new byte[headerLength + Short.BYTES];
+        PacketHeader.writeBase(reply, PacketHeader.KIND_HELLO_REPLY, 0, Short.BYTES);
+
+        assertFalse(HandshakePacketWriter.isWellFormedHelloReply(reply));
+    }
+
+    @Test
+    public void helloReplyWithOversizedKeyLengthIsRefused() {
+        final byte[] reply = new HandshakePacketWriter(null).writeHelloReply(new X25519Handshake().getPublicKey(), 1L, "");
+        PacketHeader.writeShort(reply, PacketHeader.headerLength(0), PacketHeader.payloadLength(reply));
+
+        assertFalse(HandshakePacketWriter.isWellFormedHelloReply(reply));
+    }
+}
@@ -0,0 +1,91 @@
+package com.gabler.udpmanager;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link LatencyHistogram} and {@link LatencySnapshot}.
+ *
+ * @author Andy Gabler
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        for (long value = 0; value < 128; value++) {
+            assertEquals(value, LatencyHistogram.highestValue(LatencyHistogram.index(value)), "Value " + value);
+        }
+    }
+
+    @Test
+    public void largeValuesStayWithinPrecision() {
+        for (long value = 128; value <= LatencyHistogram.MAX_VALUE; value = value * 3 / 2 + 1) {
+            final long reported = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            assertTrue(reported >= value, "Never understated: " + value + " reported as " + reported);
+            assertTrue(reported - value <= value / 64, "Within 1/64: " + value + " reported as " + reported);
+        }
+    }
+
+    @Test
+    public void bucketsCoverTheRangeWithoutGaps() {
+        for (int index = 1; index < LatencyHistogram.BUCKET_COUNT; index++) {
+            final long previousTop = LatencyHistogram.highestValue(index - 1);
+            assertEquals(index, LatencyHistogram.index(previousTop + 1), "First value after bucket " + (index - 1));
+        }
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        final LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentileMicros(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getMaxMicros());
+    }
+
+    @Test
+    public void percentilesAndMean() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        final LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50, snapshot.getPercentileMicros(50));
+        assertEquals(99, snapshot.getPercentileMicros(99));
+        assertEquals(100, snapshot.getPercentileMicros(100));
+        assertEquals(1, snapshot.getPercentileMicros(0));
+        assertEquals(100, snapshot.getMaxMicros());
+        assertEquals(50.5, snapshot.getMeanMicros(), 0.001);
+    }
+
+    @Test
+    public void emptySnapshotReportsZero() {
+        final LatencySnapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentileMicros(99));
+        assertEquals(0, snapshot.getMaxMicros());
+        assertEquals(0, snapshot.getMeanMicros(), 0);
+    }
+
+    @Test
+    public void sinceKeepsOnlyLaterRecordings() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        final LatencySnapshot earlier = histogram.snapshot();
+        histogram.record(1000);
+        histogram.record(1000);
+
+        final LatencySnapshot difference = histogram.snapshot().since(earlier);
+        assertEquals(2, difference.getCount());
+        assertTrue(difference.getPercentileMicros(0) >= 1000);
+    }
+}
@@ -0,0 +1,104 @@
+package com.gabler.udpmanager;
+
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.model.UdpRequest;
+import com.gabler.udpmanager.security.HeaderMac;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for {@link PacketHeaderValidator}.
+ *
+ * @author Andy Gabler
+ */
+public class PacketHeaderValidatorTest {
+
+    private static final byte[] HEADER_KEY = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    @Test
+    public void acceptsValidHeader() {
+        final byte[] datagram = new UdpRequestToBytesTransformer().apply(request());
+
+        assertNull(new PacketHeaderValidator(null).validate(datagram, datagram.length));
+    }
+
+    @Test
+    public void refusesTruncated() {
+        final byte[] datagram = new UdpRequestToBytesTransformer().apply(request());
+
+        assertEquals(PacketDropReason.TRUNCATED, new PacketHeaderValidator(null).validate(datagram, PacketHeader.BASE_LENGTH - 1));
+    }
+
+    @Test
+    public void refusesBadMagic() {
+        final byte[] datagram = new UdpRequestToBytesTransformer().apply(request());
+        datagram[0] ^= 1;
+
+        assertEquals(PacketDropReason.BAD_MAGIC, new PacketHeaderValidator(null).validate(datagram, datagram.length));
+    }
+
+    @Test
+    public void refusesOtherVersion() {
+        final byte[] datagram = new UdpRequestToBytesTransformer().apply(request());
+        datagram[2] = (byte) (PacketHeader.VERSION + 1);
+
+        assertEquals(PacketDropReason.UNSUPPORTED_VERSION, new PacketHeaderValidator(null).validate(datagram, datagram.length));
+    }
+
+    @Test
+    public void refusesLengthThatDoesNotMatch() {
+        final byte[] datagram = new UdpRequestToBytesTransformer().apply(request());
+
+        assertEquals(PacketDropReason.BAD_LENGTH, new PacketHeaderValidator(null).validate(datagram, datagram.length - 1));
+    }
+
+    @Test
+    public void refusesMissingMac() {
+        final byte[] datagram = new UdpRequestToBytesTransformer().apply(request());
+
+        assertEquals(PacketDropReason.MISSING_MAC, new PacketHeaderValidator(new HeaderMac(HEADER_KEY)).validate(datagram, datagram.length));
+    }
+
+    @Test
+    public void acceptsMatchingMac() {
+        final HeaderMac headerMac = new HeaderMac(HEADER_KEY);
+        final byte[] datagram = new UdpRequestToBytesTransformer(headerMac).apply(request());
+
+        assertNull(new PacketHeaderValidator(headerMac).validate(datagram, datagram.length));
+    }
+
+    @Test
+    public void refusesMacOfAnotherKey() {
+        final byte[] otherKey = HEADER_KEY.clone();
+        otherKey[0] = 0;
+        final byte[] datagram = new UdpRequestToBytesTransformer(new HeaderMac(otherKey)).apply(request());
+
+        assertEquals(PacketDropReason.BAD_MAC, new PacketHeaderValidator(new HeaderMac(HEADER_KEY)).validate(datagram, datagram.length));
+    }
+
+    @Test
+    public void refusesAlteredHeaderUnderMac() {
+        final HeaderMac headerMac = new HeaderMac(HEADER_KEY);
+        final UdpRequest request = request();
+        request.setSequence(41);
+        final byte[] datagram = new UdpRequestToBytesTransformer(headerMac).apply(request);
+        final int flags = PacketHeader.flags(datagram);
+        PacketHeader.writeInt(datagram, PacketHeader.extensionOffset(flags, PacketHeader.FLAG_SEQUENCE), 42);
+
+        assertEquals(PacketDropReason.BAD_MAC, new PacketHeaderValidator(headerMac).validate(datagram, datagram.length));
+    }
+
+    /**
+     * Make a plain request.
+     *
+     * @return The request
+     */
+    private static UdpRequest request() {
+        final UdpRequest request = new UdpRequest();
+        request.setPayloadType(UdpRequest.PAYLOAD_TYPE_STRING);
+        request.setStringPayload("hello");
+        return request;
+    }
+}
@@ -0,0 +1,68 @@
+package com.gabler.udpmanager;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link RttEstimator}.
+ *
+ * @author Andy Gabler
+ */
+public class RttEstimatorTest {
+
+    private static final long INTERVAL = 100_000_000L;
+    private static final long RTT = 20_000_000L;
+
+    @Test
+    public void samplesAnswerToOutstandingPing() {
+        final RttEstimator rtt = new RttEstimator();
+        final long token = rtt.startPingIfDue(System.nanoTime() + INTERVAL, INTERVAL);
+
+        assertTrue(rtt.recordPong(token, token + RTT));
+        assertEquals(RTT, rtt.getSmoothedRttNanos());
+    }
+
+    @Test
+    public void ignoresDuplicatedPong() {
+        final RttEstimator rtt = new RttEstimator();
+        final long token = rtt.startPingIfDue(System.nanoTime() + INTERVAL, INTERVAL);
+        rtt.recordPong(token, token + RTT);
+
+        assertFalse(rtt.recordPong(token, token + 10 * RTT));
+        assertEquals(RTT, rtt.getSmoothedRttNanos());
+    }
+
+    @Test
+    public void ignoresPongOfPingGivenUpOn() {
+        final RttEstimator rtt = new RttEstimator();
+        final long first = rtt.startPingIfDue(System.nanoTime() + INTERVAL, INTERVAL);
+        final long second = rtt.startPingIfDue(first + INTERVAL, INTERVAL);
+
+        assertFalse(rtt.recordPong(first, second + RTT));
+        assertTrue(rtt.recordPong(second, second + RTT));
+        assertEquals(RTT, rtt.getSmoothedRttNanos());
+    }
+
+    @Test
+    public void ignoresTokenThatWasNeverSent() {
+        final RttEstimator rtt = new RttEstimator();
+        final long token = rtt.startPingIfDue(System.nanoTime() + INTERVAL, INTERVAL);
+
+        assertFalse(rtt.recordPong(token - 1, token + RTT));
+        assertFalse(rtt.recordPong(0, token + RTT));
+        assertEquals(0, rtt.getSmoothedRttNanos());
+    }
+
+    @Test
+    public void unansweredPingCountsAsLoss() {
+        final RttEstimator rtt = new RttEstimator();
+        final long first = rtt.startPingIfDue(System.nanoTime() + INTERVAL, INTERVAL);
+
+        rtt.startPingIfDue(first + INTERVAL, INTERVAL);
+
+        assertTrue(rtt.getLossRate() > 0);
+    }
+}
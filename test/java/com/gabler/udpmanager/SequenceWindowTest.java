@@ -0,0 +1,87 @@
+package com.gabler.udpmanager;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link SequenceWindow}.
+ *
+ * @author Andy Gabler
+ */
+public class SequenceWindowTest {
+
+    @Test
+    public void acceptsEachSequenceNumberOnce() {
+        final SequenceWindow window = new SequenceWindow();
+
+        for (int sequence = 0; sequence < 200; sequence++) {
+            assertTrue(window.accept(sequence), "First sight of " + sequence);
+        }
+        for (int sequence = 0; sequence < 200; sequence++) {
+            assertFalse(window.accept(sequence), "Second sight of " + sequence);
+        }
+    }
+
+    @Test
+    public void acceptsReorderedWithinWindow() {
+        final SequenceWindow window = new SequenceWindow();
+
+        assertTrue(window.accept(100));
+        assertTrue(window.accept(90));
+        assertTrue(window.accept(99));
+        assertTrue(window.accept(100 - SequenceWindow.WINDOW_SIZE + 1));
+        assertFalse(window.accept(90));
+    }
+
+    @Test
+    public void rejectsOlderThanWindow() {
+        final SequenceWindow window = new SequenceWindow();
+
+        assertTrue(window.accept(5000));
+        assertFalse(window.accept(5000 - SequenceWindow.WINDOW_SIZE));
+        assertFalse(window.accept(0));
+    }
+
+    @Test
+    public void largeJumpForgetsOldBits() {
+        final SequenceWindow window = new SequenceWindow();
+
+        assertTrue(window.accept(10));
+        assertTrue(window.accept(10 + 64 * 16));
+        // Shares a slot of the ring with 10, and must not be mistaken for it.
+        assertTrue(window.accept(10 + 64 * 16 - 64 * 15 + 64));
+        assertFalse(window.accept(10));
+    }
+
+    @Test
+    public void slidingClearsReusedSlots() {
+        final SequenceWindow window = new SequenceWindow();
+
+        for (int sequence = 0; sequence < 5 * SequenceWindow.WINDOW_SIZE; sequence += 7) {
+            assertTrue(window.accept(sequence), "Sequence " + sequence);
+        }
+        for (int sequence = 5 * SequenceWindow.WINDOW_SIZE - 1; sequence > 4 * SequenceWindow.WINDOW_SIZE; sequence--) {
+            assertTrue(window.accept(sequence) != (sequence % 7 == 0), "Sequence " + sequence);
+        }
+    }
+
+    @Test
+    public void wrapsAround() {
+        final SequenceWindow window = new SequenceWindow();
+
+        assertTrue(window.accept(Integer.MAX_VALUE - 1));
+        assertTrue(window.accept(Integer.MAX_VALUE));
+        assertTrue(window.accept(Integer.MIN_VALUE));
+        assertTrue(window.accept(Integer.MIN_VALUE + 1));
+        assertFalse(window.accept(Integer.MAX_VALUE));
+        assertFalse(window.accept(Integer.MIN_VALUE));
+        assertTrue(window.accept(Integer.MAX_VALUE - 2));
+
+        // The unsigned counter wrapping from all ones back to zero.
+        assertTrue(window.accept(-1));
+        assertTrue(window.accept(0));
+        assertFalse(window.accept(-1));
+    }
+}
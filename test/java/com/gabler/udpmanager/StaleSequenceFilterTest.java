@@ -0,0 +1,73 @@
+package com.gabler.udpmanager;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link StaleSequenceFilter}.
+ *
+ * @author Andy Gabler
+ */
+public class StaleSequenceFilterTest {
+
+    @Test
+    public void acceptsFirstSequenceWhateverItIs() {
+        assertTrue(new StaleSequenceFilter().accept(Integer.MIN_VALUE));
+        assertTrue(new StaleSequenceFilter().accept(0));
+        assertTrue(new StaleSequenceFilter().accept(StaleSequenceFilter.initialSequence()));
+    }
+
+    @Test
+    public void acceptsIncreasingSequences() {
+        final StaleSequenceFilter filter = new StaleSequenceFilter();
+
+        for (int sequence = 0; sequence < 100; sequence++) {
+            assertTrue(filter.accept(sequence), "Sequence " + sequence);
+        }
+    }
+
+    @Test
+    public void dropsDuplicateAndOlder() {
+        final StaleSequenceFilter filter = new StaleSequenceFilter();
+        filter.accept(10);
+
+        assertFalse(filter.accept(10));
+        assertFalse(filter.accept(9));
+        assertFalse(filter.accept(-5));
+    }
+
+    @Test
+    public void skipsGapsAndDropsWhatFellIntoThem() {
+        final StaleSequenceFilter filter = new StaleSequenceFilter();
+        filter.accept(1);
+
+        assertTrue(filter.accept(5));
+        assertFalse(filter.accept(3));
+        assertTrue(filter.accept(6));
+    }
+
+    @Test
+    public void acceptsAcrossWrap() {
+        final StaleSequenceFilter filter = new StaleSequenceFilter();
+        filter.accept(Integer.MAX_VALUE - 1);
+
+        assertTrue(filter.accept(Integer.MAX_VALUE));
+        assertTrue(filter.accept(Integer.MIN_VALUE));
+        assertTrue(filter.accept(Integer.MIN_VALUE + 1));
+        assertFalse(filter.accept(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void restartedSenderIsNotStale() throws InterruptedException {
+        final StaleSequenceFilter filter = new StaleSequenceFilter();
+        final int firstRun = StaleSequenceFilter.initialSequence();
+        for (int offset = 0; offset < 5; offset++) {
+            assertTrue(filter.accept(firstRun + offset));
+        }
+        Thread.sleep(10);
+
+        assertTrue(filter.accept(StaleSequenceFilter.initialSequence()));
+    }
+}
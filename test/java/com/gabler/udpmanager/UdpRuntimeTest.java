@@ -0,0 +1,182 @@
+package com.gabler.udpmanager;
+
+import com.gabler.udpmanager.client.IUdpClientConfiguration;
+import com.gabler.udpmanager.client.UdpClient;
+import com.gabler.udpmanager.server.IUdpServerConfiguration;
+import com.gabler.udpmanager.server.ServerClientCallback;
+import com.gabler.udpmanager.server.UdpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for a server and clients sharing the threads of a {@link UdpRuntime}.
+ *
+ * @author Andy Gabler
+ */
+public class UdpRuntimeTest {
+
+    private static final int CLIENT_COUNT = 4;
+
+    private final List<UdpClient> clients = new ArrayList<>();
+    private UdpRuntime runtime;
+    private UdpServer server;
+    private int port;
+
+    @AfterEach
+    public void tearDown() {
+        for (UdpClient client : clients) {
+            client.terminate();
+        }
+        if (server != null) {
+            server.terminate();
+        }
+        if (runtime != null) {
+            runtime.shutdown();
+        }
+    }
+
+    @Test
+    public void clientsAndServerExchangeMessagesOnTheRuntime() throws Exception {
+        runtime = new UdpRuntime(1, 2, 256);
+        startEchoServer();
+
+        final List<BlockingQueue<String>> received = new ArrayList<>();
+        for (int index = 0; index < CLIENT_COUNT; index++) {
+            final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+            received.add(queue);
+            // Half of the clients hand their messages to a conflating inbox, which the runtime delivers from too.
+            clients.add(startClient(queue, index % 2 == 0));
+        }
+
+        for (int index = 0; index < CLIENT_COUNT; index++) {
+            clients.get(index).sendAsync("client " + index).get(2, TimeUnit.SECONDS);
+        }
+
+        for (int index = 0; index < CLIENT_COUNT; index++) {
+            assertEquals("echo client " + index, received.get(index).poll(2, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void clientsOnTheRuntimeStartNoThreads() throws Exception {
+        runtime = new UdpRuntime(1, 2, 256);
+        startEchoServer();
+        final Set<Thread> before = new HashSet<>(Thread.getAllStackTraces().keySet());
+
+        for (int index = 0; index < CLIENT_COUNT; index++) {
+            clients.add(startClient(new LinkedBlockingQueue<>(), true));
+        }
+
+        final Set<Thread> started = new HashSet<>(Thread.getAllStackTraces().keySet());
+        started.removeAll(before);
+        started.removeIf(thread -> !thread.isAlive());
+        assertTrue(started.isEmpty(), "Threads started by clients: " + started);
+    }
+
+    /**
+     * Start a server on the runtime that answers every string with the same string behind "echo ".
+     *
+     * @throws IOException If the server cannot be created
+     */
+    private void startEchoServer() throws IOException {
+        port = freePort();
+        server = new UdpServer(port, 1);
+        server.setRuntime(runtime);
+        server.setConfiguration(new IUdpServerConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void handleStringMessage(String message, ServerClientCallback callback) {
+                server.sendSequencedToClient(callback, "echo " + message);
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Start a client of the server on the runtime.
+     *
+     * @param received Queue to put the messages it receives on
+     * @param withInbox Whether the client hands its messages to a conflating inbox
+     * @return The client
+     * @throws IOException If the client cannot be created
+     */
+    private UdpClient startClient(BlockingQueue<String> received, boolean withInbox) throws IOException {
+        final UdpClient client = new UdpClient("127.0.0.1", port);
+        client.setRuntime(runtime);
+        if (withInbox) {
+            client.setConflatingInbox(16, message -> null);
+        }
+        client.setConfiguration(new IUdpClientConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message) {
+            }
+
+            @Override
+            public void handleStringMessage(String message) {
+                received.add(message);
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        client.start();
+        return client;
+    }
+
+    /**
+     * Find a port that is free right now.
+     *
+     * @return The port
+     * @throws IOException If no socket can be opened
+     */
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
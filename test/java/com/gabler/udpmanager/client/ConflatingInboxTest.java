@@ -0,0 +1,140 @@
+package com.gabler.udpmanager.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ConflatingInbox}.
+ *
+ * @author Andy Gabler
+ */
+public class ConflatingInboxTest {
+
+    private final List<String> delivered = new ArrayList<>();
+
+    @Test
+    public void deliversInArrivalOrder() throws InterruptedException {
+        final ConflatingInbox inbox = new ConflatingInbox(10);
+
+        assertEquals(ConflatingInbox.ADDED, inbox.offer("a", deliver("a1")));
+        assertEquals(ConflatingInbox.ADDED, inbox.offer("b", deliver("b1")));
+        assertEquals(ConflatingInbox.ADDED, inbox.offer(null, deliver("plain")));
+
+        drain(inbox);
+        assertEquals(List.of("a1", "b1", "plain"), delivered);
+    }
+
+    @Test
+    public void latestMessageForKeyKeepsItsPlaceInLine() throws InterruptedException {
+        final ConflatingInbox inbox = new ConflatingInbox(10);
+
+        inbox.offer("a", deliver("a1"));
+        inbox.offer("b", deliver("b1"));
+        assertEquals(ConflatingInbox.CONFLATED, inbox.offer("a", deliver("a2")));
+        assertEquals(2, inbox.size());
+
+        drain(inbox);
+        assertEquals(List.of("a2", "b1"), delivered);
+    }
+
+    @Test
+    public void messagesWithoutKeyAreNeverConflated() throws InterruptedException {
+        final ConflatingInbox inbox = new ConflatingInbox(10);
+
+        inbox.offer(null, deliver("one"));
+        inbox.offer(null, deliver("two"));
+        assertEquals(2, inbox.size());
+
+        drain(inbox);
+        assertEquals(List.of("one", "two"), delivered);
+    }
+
+    @Test
+    public void fullInboxEvictsOldest() throws InterruptedException {
+        final ConflatingInbox inbox = new ConflatingInbox(2);
+
+        inbox.offer("a", deliver("a1"));
+        inbox.offer("b", deliver("b1"));
+        assertEquals(ConflatingInbox.EVICTED, inbox.offer("c", deliver("c1")));
+        // Replacing a waiting key needs no room.
+        assertEquals(ConflatingInbox.CONFLATED, inbox.offer("c", deliver("c2")));
+
+        drain(inbox);
+        assertEquals(List.of("b1", "c2"), delivered);
+    }
+
+    @Test
+    public void pollTimesOutWhenEmpty() throws InterruptedException {
+        final ConflatingInbox inbox = new ConflatingInbox(1);
+        final long start = System.nanoTime();
+
+        assertNull(inbox.poll(20));
+        assertTrue(System.nanoTime() - start >= 15_000_000L, "Waited for the timeout");
+    }
+
+    @Test
+    public void pollWakesUpOnOffer() throws InterruptedException {
+        final ConflatingInbox inbox = new ConflatingInbox(1);
+        final Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException exception) {
+                return;
+            }
+            inbox.offer("a", deliver("a1"));
+        });
+        producer.start();
+
+        final Runnable delivery = inbox.poll(5000);
+        producer.join();
+        delivery.run();
+        assertEquals(List.of("a1"), delivered);
+    }
+
+    @Test
+    public void pollNowTakesOldestWithoutWaiting() {
+        final ConflatingInbox inbox = new ConflatingInbox(2);
+
+        assertNull(inbox.pollNow());
+        inbox.offer("a", deliver("a1"));
+        inbox.offer("b", deliver("b1"));
+        inbox.pollNow().run();
+        assertEquals(List.of("a1"), delivered);
+        assertEquals(1, inbox.size());
+    }
+
+    @Test
+    public void rejectsBadCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new ConflatingInbox(0));
+    }
+
+    /**
+     * Make a delivery that records a message as delivered.
+     *
+     * @param message The message
+     * @return The delivery
+     */
+    private Runnable deliver(String message) {
+        return () -> delivered.add(message);
+    }
+
+    /**
+     * Run every waiting delivery.
+     *
+     * @param inbox The inbox
+     * @throws InterruptedException If interrupted
+     */
+    private static void drain(ConflatingInbox inbox) throws InterruptedException {
+        Runnable delivery;
+        while ((delivery = inbox.poll(1)) != null) {
+            delivery.run();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.gabler.udpmanager.client;
+
+import com.gabler.udpmanager.HandshakePacketWriter;
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.security.SessionTicket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests that a client drops a hello reply it cannot read instead of failing on it.
+ *
+ * @author Andy Gabler
+ */
+public class MalformedHelloReplyTest {
+
+    private UdpClient client;
+
+    @AfterEach
+    public void tearDown() {
+        if (client != null) {
+            client.terminate();
+        }
+    }
+
+    @Test
+    public void truncatedReplyIsDropped() throws Exception {
+        client = startClient();
+        final CompletableFuture<SessionTicket> handshake = client.handshake(60_000);
+        final int headerLength = PacketHeader.headerLength(0);
+        final byte[] reply = new byte[headerLength + Short.BYTES];
+        PacketHeader.writeBase(reply, PacketHeader.KIND_HELLO_REPLY, 0, Short.BYTES);
+        PacketHeader.writeShort(reply, headerLength, 32);
+
+        client.handleHandshake(reply);
+
+        assertFalse(handshake.isDone());
+        assertEquals(1, client.getMetrics().getDroppedPackets(PacketDropReason.HANDSHAKE_FAILED));
+    }
+
+    @Test
+    public void replyWithKeyLongerThanThePayloadIsDropped() throws Exception {
+        client = startClient();
+        final CompletableFuture<SessionTicket> handshake = client.handshake(60_000);
+        final byte[] reply = new HandshakePacketWriter(null).writeHelloReply(new byte[32], 1L, "ticket");
+        PacketHeader.writeShort(reply, PacketHeader.headerLength(0), 0xFFFF);
+
+        client.handleHandshake(reply);
+
+        assertFalse(handshake.isDone());
+        assertEquals(1, client.getMetrics().getDroppedPackets(PacketDropReason.HANDSHAKE_FAILED));
+    }
+
+    /**
+     * Start a client of a server that is not there.
+     *
+     * @return The client
+     * @throws IOException If the client cannot be created
+     */
+    private static UdpClient startClient() throws IOException {
+        final UdpClient client = new UdpClient("127.0.0.1", freePort());
+        client.setConfiguration(new IUdpClientConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message) {
+            }
+
+            @Override
+            public void handleStringMessage(String message) {
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        client.start();
+        return client;
+    }
+
+    /**
+     * Find a port that is free right now.
+     *
+     * @return The port
+     * @throws IOException If no socket can be opened
+     */
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.gabler.udpmanager.security;
+
+import com.gabler.udpmanager.model.PacketHeader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link HeaderMac}.
+ *
+ * @author Andy Gabler
+ */
+public class HeaderMacTest {
+
+    private static final byte[] HEADER_KEY = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+    private static final int MAC_OFFSET = PacketHeader.BASE_LENGTH;
+
+    @Test
+    public void verifiesWhatItSigned() {
+        final HeaderMac headerMac = new HeaderMac(HEADER_KEY);
+        final byte[] header = signedHeader(headerMac);
+
+        assertTrue(headerMac.verify(header, MAC_OFFSET));
+    }
+
+    @Test
+    public void refusesEveryAlteredHeaderByte() {
+        final HeaderMac headerMac = new HeaderMac(HEADER_KEY);
+
+        for (int index = 0; index < MAC_OFFSET; index++) {
+            final byte[] header = signedHeader(headerMac);
+            header[index] ^= 1;
+            assertFalse(headerMac.verify(header, MAC_OFFSET), "Altered byte " + index);
+        }
+    }
+
+    @Test
+    public void refusesEveryAlteredMacByte() {
+        final HeaderMac headerMac = new HeaderMac(HEADER_KEY);
+
+        for (int index = MAC_OFFSET; index < MAC_OFFSET + PacketHeader.MAC_LENGTH; index++) {
+            final byte[] header = signedHeader(headerMac);
+            header[index] ^= 1;
+            assertFalse(headerMac.verify(header, MAC_OFFSET), "Altered MAC byte " + index);
+        }
+    }
+
+    @Test
+    public void refusesMacOfAnotherKey() {
+        final byte[] otherKey = HEADER_KEY.clone();
+        otherKey[15] = 0;
+        final byte[] header = signedHeader(new HeaderMac(otherKey));
+
+        assertFalse(new HeaderMac(HEADER_KEY).verify(header, MAC_OFFSET));
+    }
+
+    /**
+     * Write a header carrying only a MAC and sign it.
+     *
+     * @param headerMac MAC to sign with
+     * @return The header
+     */
+    private static byte[] signedHeader(HeaderMac headerMac) {
+        final byte[] header = new byte[MAC_OFFSET + PacketHeader.MAC_LENGTH];
+        PacketHeader.writeBase(header, PacketHeader.KIND_DATA, PacketHeader.FLAG_MAC, 0);
+        headerMac.sign(header, MAC_OFFSET);
+        return header;
+    }
+}
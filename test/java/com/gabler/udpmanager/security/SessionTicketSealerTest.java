@@ -0,0 +1,82 @@
+package com.gabler.udpmanager.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link SessionTicketSealer}.
+ *
+ * @author Andy Gabler
+ */
+public class SessionTicketSealerTest {
+
+    private static final byte[] TICKET_KEY = new byte[16];
+    private static final byte[] SESSION_KEY = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    @Test
+    public void opensWhatItSealed() {
+        final SessionTicketSealer sealer = new SessionTicketSealer(TICKET_KEY, 60_000);
+
+        final SessionTicket sealed = sealer.seal(SESSION_KEY);
+        final SessionTicket opened = sealer.open(sealed.getTicket());
+
+        assertTrue(SessionTicket.isTicket(sealed.getTicket()));
+        assertNotNull(opened);
+        assertArrayEquals(SESSION_KEY, opened.getSessionKey());
+        assertEquals(sealed.getExpiresAtMillis(), opened.getExpiresAtMillis());
+    }
+
+    @Test
+    public void anotherSealerWithTheSameKeyOpensTheTicket() {
+        final SessionTicket sealed = new SessionTicketSealer(TICKET_KEY, 60_000).seal(SESSION_KEY);
+
+        final SessionTicket opened = new SessionTicketSealer(TICKET_KEY, 60_000).open(sealed.getTicket());
+
+        assertNotNull(opened);
+        assertArrayEquals(SESSION_KEY, opened.getSessionKey());
+    }
+
+    @Test
+    public void refusesTicketSealedWithAnotherKey() {
+        final byte[] otherKey = new byte[16];
+        otherKey[0] = 1;
+        final SessionTicket sealed = new SessionTicketSealer(otherKey, 60_000).seal(SESSION_KEY);
+
+        assertNull(new SessionTicketSealer(TICKET_KEY, 60_000).open(sealed.getTicket()));
+    }
+
+    @Test
+    public void refusesTamperedTicket() {
+        final SessionTicketSealer sealer = new SessionTicketSealer(TICKET_KEY, 60_000);
+        final String ticket = sealer.seal(SESSION_KEY).getTicket();
+        final int middle = SessionTicket.PREFIX.length() + (ticket.length() - SessionTicket.PREFIX.length()) / 2;
+        final char flipped = ticket.charAt(middle) == 'A' ? 'B' : 'A';
+        final String tampered = ticket.substring(0, middle) + flipped + ticket.substring(middle + 1);
+
+        assertNull(sealer.open(tampered));
+    }
+
+    @Test
+    public void refusesExpiredTicket() {
+        final SessionTicketSealer sealer = new SessionTicketSealer(TICKET_KEY, -1);
+
+        final SessionTicket sealed = sealer.seal(SESSION_KEY);
+
+        assertTrue(sealed.isExpired());
+        assertNull(sealer.open(sealed.getTicket()));
+    }
+
+    @Test
+    public void refusesWhatIsNoTicket() {
+        final SessionTicketSealer sealer = new SessionTicketSealer(TICKET_KEY, 60_000);
+
+        assertNull(sealer.open("some-key"));
+        assertNull(sealer.open(SessionTicket.PREFIX));
+        assertNull(sealer.open(SessionTicket.PREFIX + "not base64!"));
+    }
+}
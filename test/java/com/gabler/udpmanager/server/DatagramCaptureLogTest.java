@@ -0,0 +1,122 @@
+package com.gabler.udpmanager.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link DatagramCaptureLog} and {@link DatagramReplay}.
+ *
+ * @author Andy Gabler
+ */
+public class DatagramCaptureLogTest {
+
+    private static final int SEGMENT_BYTES = DatagramCaptureLog.SEGMENT_HEADER_LENGTH + DatagramCaptureLog.RECORD_HEADER_LENGTH + 65535;
+    private static final int DATAGRAM_LENGTH = 1000;
+
+    private Path directory;
+    private UdpServer server;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.terminate();
+        }
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void replaysEveryInboundRecordAcrossSegments() throws Exception {
+        directory = Files.createTempDirectory("capture");
+        final DatagramCaptureLog log = new DatagramCaptureLog(directory, SEGMENT_BYTES, 10);
+        final int count = 3 * SEGMENT_BYTES / (DatagramCaptureLog.RECORD_HEADER_LENGTH + DATAGRAM_LENGTH);
+        for (int index = 0; index < count; index++) {
+            log.append(DatagramCaptureLog.INBOUND, InetAddress.getLoopbackAddress(), 1000 + index, new byte[DATAGRAM_LENGTH], DATAGRAM_LENGTH);
+            log.append(DatagramCaptureLog.OUTBOUND, InetAddress.getLoopbackAddress(), 1000 + index, new byte[DATAGRAM_LENGTH], DATAGRAM_LENGTH);
+        }
+        log.close();
+
+        assertTrue(DatagramCaptureLog.listSegments(directory).size() > 3, "Segments rotated");
+        assertEquals(count, new DatagramReplay(directory).replayInto(startServer(), 0));
+    }
+
+    @Test
+    public void skipsUnfinishedRecordAndReplaysTheRest() throws Exception {
+        directory = Files.createTempDirectory("capture");
+        final DatagramCaptureLog log = new DatagramCaptureLog(directory, SEGMENT_BYTES, 10);
+        for (int index = 0; index < 5; index++) {
+            log.append(DatagramCaptureLog.INBOUND, InetAddress.getLoopbackAddress(), 1000 + index, new byte[DATAGRAM_LENGTH], DATAGRAM_LENGTH);
+        }
+        log.close();
+
+        // Leave the second record as a writer that claimed it but never finished would.
+        final List<Path> segments = DatagramCaptureLog.listSegments(directory);
+        try (FileChannel channel = FileChannel.open(segments.get(0), StandardOpenOption.WRITE)) {
+            final int secondRecord = DatagramCaptureLog.SEGMENT_HEADER_LENGTH + DatagramCaptureLog.RECORD_HEADER_LENGTH + DATAGRAM_LENGTH;
+            channel.write(ByteBuffer.allocate(2), secondRecord);
+        }
+
+        assertEquals(4, new DatagramReplay(directory).replayInto(startServer(), 0));
+    }
+
+    /**
+     * Start a server to replay into.
+     *
+     * @return The server
+     * @throws IOException If no free port is found
+     */
+    private UdpServer startServer() throws IOException {
+        final int port;
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new UdpServer(port, 1);
+        server.setConfiguration(new IUdpServerConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void handleStringMessage(String message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,56 @@
+package com.gabler.udpmanager.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link GlobalTokenBucket}.
+ *
+ * @author Andy Gabler
+ */
+public class GlobalTokenBucketTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void letsThroughBurstThenRejects() {
+        final GlobalTokenBucket bucket = new GlobalTokenBucket(1000, 5);
+        final long now = System.nanoTime();
+
+        for (int count = 0; count < 5; count++) {
+            assertTrue(bucket.tryAcquire(now), "Packet " + count + " of the burst");
+        }
+        assertFalse(bucket.tryAcquire(now));
+    }
+
+    @Test
+    public void refillsAtSustainedRate() {
+        final GlobalTokenBucket bucket = new GlobalTokenBucket(1000, 1);
+        final long now = System.nanoTime();
+
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now + MILLIS / 2));
+        assertTrue(bucket.tryAcquire(now + MILLIS));
+    }
+
+    @Test
+    public void quietPeriodRefillsNoMoreThanBurst() {
+        final GlobalTokenBucket bucket = new GlobalTokenBucket(1000, 3);
+        final long later = System.nanoTime() + 10_000 * MILLIS;
+
+        for (int count = 0; count < 3; count++) {
+            assertTrue(bucket.tryAcquire(later));
+        }
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    public void rejectsBadSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new GlobalTokenBucket(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new GlobalTokenBucket(10, 0));
+    }
+}
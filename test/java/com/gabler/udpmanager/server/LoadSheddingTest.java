@@ -0,0 +1,206 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.Diagnostics;
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.client.IUdpClientConfiguration;
+import com.gabler.udpmanager.client.UdpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for load shedding, on the dispatch shard path and on the tick path, with handlers that cannot keep up.
+ *
+ * @author Andy Gabler
+ */
+public class LoadSheddingTest {
+
+    private static final int MESSAGE_COUNT = 1500;
+    private static final int PRIORITY_EVERY = 10;
+    // Messages arrive about three times as fast as they are handled.
+    private static final long ARRIVAL_NANOS = 300_000L;
+    private static final long HANDLING_NANOS = 1_000_000L;
+
+    private final AtomicInteger handled = new AtomicInteger();
+    private final AtomicInteger handledPriority = new AtomicInteger();
+    private UdpServer server;
+    private UdpClient client;
+
+    @AfterEach
+    public void tearDown() {
+        if (client != null) {
+            client.terminate();
+        }
+        if (server != null) {
+            server.terminate();
+        }
+    }
+
+    @Test
+    public void shardShedsStalestButNeverPriority() throws Exception {
+        final UdpServerMetrics metrics = new UdpServerMetrics();
+        final ClientDispatchShards shards = new ClientDispatchShards(
+            1,
+            MESSAGE_COUNT,
+            5_000_000L,
+            20_000_000L,
+            new Diagnostics("LoadSheddingTest", 1),
+            metrics
+        );
+        final InetAddress address = InetAddress.getLoopbackAddress();
+
+        try {
+            for (int index = 0; index < MESSAGE_COUNT; index++) {
+                final boolean priority = index % PRIORITY_EVERY == 0;
+                assertTrue(shards.dispatch(address, 1234, priority, () -> handle(priority)));
+                LockSupport.parkNanos(ARRIVAL_NANOS);
+            }
+            awaitAllAccountedFor(metrics);
+        } finally {
+            shards.shutdown();
+        }
+
+        assertShed(metrics);
+    }
+
+    @Test
+    public void tickShedsStalestButNeverPriority() throws Exception {
+        final int port = freePort();
+        server = new UdpServer(port, 1);
+        server.setTickRate(5);
+        server.setLoadShedding(20, 50);
+        server.setConfiguration(new IUdpServerConfiguration() {
+            @Override
+            public void onTick(List<InboundMessage> batch) {
+                for (InboundMessage message : batch) {
+                    handle(message.isPriority());
+                }
+            }
+
+            @Override
+            public void handleBytesMessage(byte[] message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void handleStringMessage(String message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        server.start();
+
+        client = new UdpClient("127.0.0.1", port);
+        client.setConfiguration(new IUdpClientConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message) {
+            }
+
+            @Override
+            public void handleStringMessage(String message) {
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        client.start();
+
+        for (int index = 0; index < MESSAGE_COUNT; index++) {
+            if (index % PRIORITY_EVERY == 0) {
+                client.sendPriorityMessageToServer("message " + index);
+            } else {
+                client.sendMessageToServer("message " + index);
+            }
+            LockSupport.parkNanos(ARRIVAL_NANOS);
+        }
+        awaitAllAccountedFor(server.getMetrics());
+
+        assertShed(server.getMetrics());
+    }
+
+    /**
+     * Handle a message as slowly as a handler that cannot keep up.
+     *
+     * @param priority Whether the message is priority
+     */
+    private void handle(boolean priority) {
+        LockSupport.parkNanos(HANDLING_NANOS);
+        handled.incrementAndGet();
+        if (priority) {
+            handledPriority.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wait until every message was either handled or shed.
+     *
+     * @param metrics Metrics the shed messages are counted in
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private void awaitAllAccountedFor(UdpServerMetrics metrics) throws InterruptedException {
+        final long deadline = System.nanoTime() + 20_000_000_000L;
+        while (handled.get() + metrics.getDroppedPackets(PacketDropReason.LOAD_SHED) < MESSAGE_COUNT
+            && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Check that load was shed, and only from messages without priority.
+     *
+     * @param metrics Metrics the shed messages are counted in
+     */
+    private void assertShed(UdpServerMetrics metrics) {
+        final long shed = metrics.getDroppedPackets(PacketDropReason.LOAD_SHED);
+        assertTrue(shed > 0, "Shed " + shed + " of " + MESSAGE_COUNT);
+        assertEquals(MESSAGE_COUNT, handled.get() + shed, "Every message handled or shed");
+        assertEquals(MESSAGE_COUNT / PRIORITY_EVERY, handledPriority.get(), "Priority messages handled");
+    }
+
+    /**
+     * Find a port that is free right now.
+     *
+     * @return The port
+     * @throws IOException If no socket can be opened
+     */
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.client.IUdpClientConfiguration;
+import com.gabler.udpmanager.client.UdpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for publishing broadcasts to a multicast group, with the server and its clients on the loopback interface.
+ *
+ * @author Andy Gabler
+ */
+public class MulticastBroadcastTest {
+
+    private static final int CLIENT_COUNT = 3;
+    private static final String GROUP_KEY_ID = "group";
+    private static final byte[] GROUP_KEY = "0123456789abcdef".getBytes();
+
+    private final List<UdpClient> clients = new ArrayList<>();
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private UdpServer server;
+
+    @AfterEach
+    public void tearDown() {
+        clients.forEach(UdpClient::terminate);
+        if (server != null) {
+            server.terminate();
+        }
+    }
+
+    @Test
+    public void broadcastReachesEveryClientInTheGroup() throws Exception {
+        final InetAddress group = InetAddress.getByName("239.255.42.99");
+        final NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        final int groupPort = freePort();
+
+        server = new UdpServer(freePort(), 1);
+        server.addClientKey(GROUP_KEY_ID, GROUP_KEY);
+        server.setMulticastBroadcast(group, groupPort, loopback, 1, GROUP_KEY_ID);
+        server.setConfiguration(new IUdpServerConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void handleStringMessage(String message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        server.start();
+
+        for (int index = 0; index < CLIENT_COUNT; index++) {
+            final UdpClient client = new UdpClient("127.0.0.1", freePort());
+            client.joinMulticastGroup(group, groupPort, loopback, GROUP_KEY);
+            client.setConfiguration(new IUdpClientConfiguration() {
+                @Override
+                public void handleBytesMessage(byte[] message) {
+                }
+
+                @Override
+                public void handleStringMessage(String message) {
+                    received.add(message);
+                }
+
+                @Override
+                public void startAction() {
+                }
+
+                @Override
+                public void terminationAction() {
+                }
+
+                @Override
+                public void pauseAction() {
+                }
+
+                @Override
+                public void resumeAction() {
+                }
+            });
+            client.start();
+            clients.add(client);
+        }
+
+        server.clientBroadcast("news");
+
+        for (int count = 0; count < CLIENT_COUNT; count++) {
+            assertEquals("news", received.poll(3, TimeUnit.SECONDS), "Broadcast " + count + " of " + CLIENT_COUNT);
+        }
+    }
+
+    @Test
+    public void rejectsGroupKeyThatWasNeverAdded() throws Exception {
+        final UdpServer unstarted = new UdpServer(freePort(), 1);
+
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> unstarted.setMulticastBroadcast(InetAddress.getByName("239.255.42.99"), freePort(), null, 1, "missing")
+        );
+    }
+
+    /**
+     * Find a port that is free right now.
+     *
+     * @return The port
+     * @throws IOException If no socket can be opened
+     */
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.IDatagramTransport;
+import com.gabler.udpmanager.client.IUdpClientConfiguration;
+import com.gabler.udpmanager.client.UdpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a broadcast sent in parallel fails the same way as one sent on the calling thread.
+ *
+ * @author Andy Gabler
+ */
+public class ParallelBroadcastFailureTest {
+
+    private static final int CLIENT_COUNT = 4;
+
+    private final List<UdpClient> clients = new ArrayList<>();
+    private final CountDownLatch registered = new CountDownLatch(CLIENT_COUNT);
+    private UdpServer server;
+    private volatile boolean failSends = false;
+
+    @AfterEach
+    public void tearDown() {
+        clients.forEach(UdpClient::terminate);
+        if (server != null) {
+            server.terminate();
+        }
+    }
+
+    @Test
+    public void serialBroadcastFailsWithSendFailure() throws Exception {
+        startServerAndClients(false);
+
+        final RuntimeException exception = assertThrows(RuntimeException.class, () -> server.clientBroadcast("news"));
+
+        assertTrue(exception.getCause() instanceof IOException, "Cause " + exception.getCause());
+    }
+
+    @Test
+    public void parallelBroadcastFailsLikeSerialBroadcast() throws Exception {
+        startServerAndClients(true);
+
+        final RuntimeException exception = assertThrows(RuntimeException.class, () -> server.clientBroadcast("news"));
+
+        assertFalse(exception instanceof CompletionException, "Thrown as " + exception);
+        assertTrue(exception.getCause() instanceof IOException, "Cause " + exception.getCause());
+    }
+
+    /**
+     * Start a server whose sends fail once every client is known to it.
+     *
+     * @param parallel Whether broadcasts are sent on sender threads
+     * @throws Exception If the server or a client cannot be started
+     */
+    private void startServerAndClients(boolean parallel) throws Exception {
+        final int port;
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new UdpServer(port, 1);
+        if (parallel) {
+            server.setParallelBroadcast(2, 1);
+        }
+        server.decorateTransport(FailingTransport::new);
+        server.setConfiguration(new IUdpServerConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void handleStringMessage(String message, ServerClientCallback callback) {
+                registered.countDown();
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        server.start();
+
+        for (int index = 0; index < CLIENT_COUNT; index++) {
+            final UdpClient client = new UdpClient("127.0.0.1", port);
+            client.setConfiguration(new QuietClientConfiguration());
+            client.start();
+            clients.add(client);
+            client.sendMessageToServer("hello");
+        }
+        assertTrue(registered.await(2, TimeUnit.SECONDS), "Every client known to the server");
+        failSends = true;
+    }
+
+    /**
+     * Transport whose sends fail once {@link #failSends} is set.
+     */
+    private class FailingTransport implements IDatagramTransport {
+
+        private final IDatagramTransport delegate;
+
+        private FailingTransport(IDatagramTransport aDelegate) {
+            delegate = aDelegate;
+        }
+
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            if (failSends) {
+                throw new IOException("Unreachable");
+            }
+            delegate.send(packet);
+        }
+
+        @Override
+        public void receive(DatagramPacket packet) throws IOException {
+            delegate.receive(packet);
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return delegate.getLocalAddress();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return delegate.getLocalPort();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Client configuration that ignores everything.
+     */
+    private static class QuietClientConfiguration implements IUdpClientConfiguration {
+
+        @Override
+        public void handleBytesMessage(byte[] message) {
+        }
+
+        @Override
+        public void handleStringMessage(String message) {
+        }
+
+        @Override
+        public void startAction() {
+        }
+
+        @Override
+        public void terminationAction() {
+        }
+
+        @Override
+        public void pauseAction() {
+        }
+
+        @Override
+        public void resumeAction() {
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.client.IUdpClientConfiguration;
+import com.gabler.udpmanager.client.UdpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Tests for {@link ServerCluster}, running every node as a server on localhost.
+ *
+ * @author Andy Gabler
+ */
+public class ServerClusterTest {
+
+    private static final int NODE_COUNT = 3;
+    private static final int CLIENT_COUNT = 12;
+    private static final byte[] HEADER_KEY = {1, 2, 3, 4};
+
+    private final List<UdpServer> servers = new ArrayList<>();
+    private final List<UdpClient> clients = new ArrayList<>();
+    private final List<InetSocketAddress> nodes = new ArrayList<>();
+    private final AtomicInteger handledCalls = new AtomicInteger();
+    private final AtomicInteger handledByWrongNode = new AtomicInteger();
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    public void tearDown() {
+        clients.forEach(UdpClient::terminate);
+        servers.forEach(UdpServer::terminate);
+    }
+
+    @Test
+    public void callsReachTheOwnerWhicheverNodeTheClientTalksTo() throws Exception {
+        startCluster();
+        startClients();
+
+        for (UdpClient client : clients) {
+            final String reply = client.call("ping", 2000).get(3, TimeUnit.SECONDS);
+            assertNotNull(reply);
+        }
+
+        assertEquals(CLIENT_COUNT, handledCalls.get(), "Every call is handled exactly once");
+        assertEquals(0, handledByWrongNode.get(), "Calls handled by a node that does not own the client");
+    }
+
+    @Test
+    public void broadcastFromOneNodeReachesTheClientsOfEveryNode() throws Exception {
+        startCluster();
+        startClients();
+        // A call makes every client known to its owner.
+        for (UdpClient client : clients) {
+            client.call("hello", 2000).get(3, TimeUnit.SECONDS);
+        }
+
+        servers.get(1).clientBroadcast("news");
+
+        for (int count = 0; count < CLIENT_COUNT; count++) {
+            assertEquals("news", received.poll(3, TimeUnit.SECONDS), "Broadcast " + count + " of " + CLIENT_COUNT);
+        }
+    }
+
+    /**
+     * Start a server for every node.
+     *
+     * @throws IOException If no free port is found
+     */
+    private void startCluster() throws IOException {
+        for (int index = 0; index < NODE_COUNT; index++) {
+            nodes.add(new InetSocketAddress("127.0.0.1", freePort()));
+        }
+        final ConsistentHashRing ring = new ConsistentHashRing(nodes);
+
+        for (int index = 0; index < NODE_COUNT; index++) {
+            final int node = index;
+            final UdpServer server = new UdpServer(nodes.get(index).getPort(), 2);
+            server.setHeaderMacKey(HEADER_KEY);
+            server.joinCluster(nodes, index);
+            server.setConfiguration(new IUdpServerConfiguration() {
+                @Override
+                public void handleBytesMessage(byte[] message, ServerClientCallback callback) {
+                }
+
+                @Override
+                public void handleStringMessage(String message, ServerClientCallback callback) {
+                }
+
+                @Override
+                public void handleStringCall(String message, int correlationId, ServerClientCallback callback) {
+                    if (!"hello".equals(message)) {
+                        handledCalls.incrementAndGet();
+                    }
+                    if (ring.ownerOf(callback.getAddress(), callback.getPortNumber()) != node) {
+                        handledByWrongNode.incrementAndGet();
+                    }
+                    callback.reply(correlationId, "node " + node);
+                }
+
+                @Override
+                public void startAction() {
+                }
+
+                @Override
+                public void terminationAction() {
+                }
+
+                @Override
+                public void pauseAction() {
+                }
+
+                @Override
+                public void resumeAction() {
+                }
+            });
+            server.start();
+            servers.add(server);
+        }
+    }
+
+    /**
+     * Start clients, spread over the nodes.
+     *
+     * @throws IOException If a client cannot be created
+     */
+    private void startClients() throws IOException {
+        for (int index = 0; index < CLIENT_COUNT; index++) {
+            final UdpClient client = new UdpClient("127.0.0.1", nodes.get(index % NODE_COUNT).getPort());
+            client.setHeaderMacKey(HEADER_KEY);
+            client.setConfiguration(new IUdpClientConfiguration() {
+                @Override
+                public void handleBytesMessage(byte[] message) {
+                }
+
+                @Override
+                public void handleStringMessage(String message) {
+                    received.add(message);
+                }
+
+                @Override
+                public void startAction() {
+                }
+
+                @Override
+                public void terminationAction() {
+                }
+
+                @Override
+                public void pauseAction() {
+                }
+
+                @Override
+                public void resumeAction() {
+                }
+            });
+            client.start();
+            clients.add(client);
+        }
+    }
+
+    /**
+     * Find a port that is free right now.
+     *
+     * @return The port
+     * @throws IOException If no socket can be opened
+     */
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
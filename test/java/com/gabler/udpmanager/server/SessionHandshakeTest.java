@@ -0,0 +1,177 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.HandshakePacketWriter;
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.client.IUdpClientConfiguration;
+import com.gabler.udpmanager.client.UdpClient;
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.security.X25519Handshake;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the X25519 handshake and session tickets, between a server and a client on loopback.
+ *
+ * @author Andy Gabler
+ */
+public class SessionHandshakeTest {
+
+    private final CompletableFuture<String> received = new CompletableFuture<>();
+    private UdpServer server;
+    private UdpClient client;
+
+    @AfterEach
+    public void tearDown() {
+        if (client != null) {
+            client.terminate();
+        }
+        if (server != null) {
+            server.terminate();
+        }
+    }
+
+    @Test
+    public void messageArrivesAfterHandshake() throws Exception {
+        final int port = startServer();
+        client = new UdpClient("127.0.0.1", port);
+        client.setConfiguration(new QuietClientConfiguration());
+        client.start();
+
+        client.handshake(2000).get(2, TimeUnit.SECONDS);
+        client.sendMessageToServer("hello");
+
+        assertEquals("hello", received.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void unpaddedHelloIsNotAnswered() throws Exception {
+        final int port = startServer();
+        final byte[] publicKey = new X25519Handshake().getPublicKey();
+        final int payloadLength = Short.BYTES + publicKey.length;
+        final int headerLength = PacketHeader.headerLength(0);
+        final byte[] hello = new byte[headerLength + payloadLength];
+        PacketHeader.writeBase(hello, PacketHeader.KIND_HELLO, 0, payloadLength);
+        PacketHeader.writeShort(hello, headerLength, publicKey.length);
+        System.arraycopy(publicKey, 0, hello, headerLength + Short.BYTES, publicKey.length);
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(300);
+            socket.send(new DatagramPacket(hello, hello.length, InetAddress.getLoopbackAddress(), port));
+
+            assertThrows(SocketTimeoutException.class, () -> socket.receive(new DatagramPacket(new byte[1024], 1024)));
+        }
+        assertEquals(1, server.getMetrics().getDroppedPackets(PacketDropReason.HANDSHAKE_FAILED));
+    }
+
+    @Test
+    public void helloAloneDoesNotRegisterClient() throws Exception {
+        final int port = startServer();
+        final byte[] hello = new HandshakePacketWriter(null).writeHello(new X25519Handshake().getPublicKey());
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(1000);
+            socket.send(new DatagramPacket(hello, hello.length, InetAddress.getLoopbackAddress(), port));
+            final DatagramPacket reply = new DatagramPacket(new byte[1024], 1024);
+            socket.receive(reply);
+            assertEquals(PacketHeader.KIND_HELLO_REPLY, PacketHeader.kind(reply.getData()));
+
+            socket.setSoTimeout(300);
+            server.clientBroadcast("to everyone known");
+
+            assertThrows(SocketTimeoutException.class, () -> socket.receive(new DatagramPacket(new byte[1024], 1024)));
+        }
+    }
+
+    /**
+     * Start a server that hands out session tickets and completes {@link #received} with the first message.
+     *
+     * @return Port of the server
+     * @throws IOException If no free port can be found
+     */
+    private int startServer() throws IOException {
+        final int port = freePort();
+        server = new UdpServer(port, 1);
+        server.setSessionTickets(null, 60_000);
+        server.setConfiguration(new IUdpServerConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void handleStringMessage(String message, ServerClientCallback callback) {
+                received.complete(message);
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        server.start();
+        return port;
+    }
+
+    /**
+     * Find a port that is free right now.
+     *
+     * @return The port
+     * @throws IOException If no socket can be opened
+     */
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Client configuration that ignores everything.
+     */
+    private static class QuietClientConfiguration implements IUdpClientConfiguration {
+
+        @Override
+        public void handleBytesMessage(byte[] message) {
+        }
+
+        @Override
+        public void handleStringMessage(String message) {
+        }
+
+        @Override
+        public void startAction() {
+        }
+
+        @Override
+        public void terminationAction() {
+        }
+
+        @Override
+        public void pauseAction() {
+        }
+
+        @Override
+        public void resumeAction() {
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.gabler.udpmanager.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link SessionSnapshotFile}.
+ *
+ * @author Andy Gabler
+ */
+public class SessionSnapshotFileTest {
+
+    private Path directory;
+    private Path path;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshot");
+        path = directory.resolve("sessions.bin");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        final SessionSnapshotFile file = new SessionSnapshotFile(path);
+        file.write(sessions(3));
+        file.close();
+
+        final List<ServerClientCallback> read = new SessionSnapshotFile(path).read();
+        assertEquals(3, read.size());
+        assertEquals(InetAddress.getByName("10.0.0.1"), read.get(1).getAddress());
+        assertEquals(5001, read.get(1).getPortNumber());
+        assertEquals("key-1", read.get(1).getKeyId());
+        assertEquals(1, read.get(1).getIngressNode());
+        assertNull(read.get(0).getKeyId());
+    }
+
+    @Test
+    public void latestOfManyWritesWins() throws IOException {
+        final SessionSnapshotFile file = new SessionSnapshotFile(path);
+        for (int count : new int[] {5, 1, 40, 2, 7, 7, 0, 3}) {
+            file.write(sessions(count));
+            assertEquals(count, file.read().size());
+        }
+        file.close();
+        assertEquals(3, new SessionSnapshotFile(path).read().size());
+    }
+
+    @Test
+    public void tornWriteFallsBackOnPreviousSnapshot() throws IOException {
+        final SessionSnapshotFile file = new SessionSnapshotFile(path);
+        file.write(sessions(4));
+        file.write(sessions(6));
+        file.close();
+
+        // Damage the records of the newest snapshot, in slot 1, as a crash partway through writing them would.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer slot = ByteBuffer.allocate(24);
+            channel.read(slot, 32);
+            final int recordsOffset = slot.getInt(12);
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xAB}), recordsOffset + 3);
+        }
+
+        assertEquals(4, new SessionSnapshotFile(path).read().size());
+    }
+
+    @Test
+    public void emptyOrForeignFileHasNoSessions() throws IOException {
+        assertTrue(new SessionSnapshotFile(path).read().isEmpty());
+
+        Files.write(path, new byte[200]);
+        assertTrue(new SessionSnapshotFile(path).read().isEmpty());
+    }
+
+    /**
+     * Make session records. Every other one has a key.
+     *
+     * @param count Amount of sessions
+     * @return The sessions
+     * @throws IOException If an address cannot be made
+     */
+    private static List<ServerClientCallback> sessions(int count) throws IOException {
+        final ArrayList<ServerClientCallback> sessions = new ArrayList<>();
+        for (int index = 0; index < count; index++) {
+            final ServerClientCallback session = new ServerClientCallback();
+            session.setAddress(InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) index}));
+            session.setPortNumber(5000 + index);
+            session.setKeyId(index % 2 == 0 ? null : "key-" + index);
+            session.setIngressNode(index);
+            sessions.add(session);
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,87 @@
+package com.gabler.udpmanager.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link SojournShedder}.
+ *
+ * @author Andy Gabler
+ */
+public class SojournShedderTest {
+
+    private static final long MILLIS = 1_000_000L;
+    private static final long TARGET = 5 * MILLIS;
+    private static final long INTERVAL = 100 * MILLIS;
+
+    @Test
+    public void shortWaitsAreNeverDropped() {
+        final SojournShedder shedder = new SojournShedder(TARGET, INTERVAL);
+
+        for (long now = 0; now < 10 * INTERVAL; now += MILLIS) {
+            assertFalse(shedder.shouldDrop(TARGET - 1, now, true));
+        }
+    }
+
+    @Test
+    public void burstThatDrainsWithinIntervalIsNotDropped() {
+        final SojournShedder shedder = new SojournShedder(TARGET, INTERVAL);
+
+        for (long now = MILLIS; now < INTERVAL; now += MILLIS) {
+            assertFalse(shedder.shouldDrop(2 * TARGET, now, true));
+        }
+    }
+
+    @Test
+    public void standingBacklogIsDroppedAfterInterval() {
+        final SojournShedder shedder = new SojournShedder(TARGET, INTERVAL);
+
+        assertFalse(shedder.shouldDrop(2 * TARGET, MILLIS, true));
+        assertFalse(shedder.shouldDrop(2 * TARGET, INTERVAL, true));
+        assertTrue(shedder.shouldDrop(2 * TARGET, INTERVAL + MILLIS, true));
+        // Right after a drop the next one waits for the control law.
+        assertFalse(shedder.shouldDrop(2 * TARGET, INTERVAL + 2 * MILLIS, true));
+    }
+
+    @Test
+    public void dropsGetMoreFrequentWhileBacklogLasts() {
+        final SojournShedder shedder = new SojournShedder(TARGET, INTERVAL);
+
+        int firstDrops = 0;
+        int laterDrops = 0;
+        for (long now = MILLIS; now < 20 * INTERVAL; now += MILLIS / 10) {
+            if (shedder.shouldDrop(2 * TARGET, now, true)) {
+                if (now < 6 * INTERVAL) {
+                    firstDrops++;
+                } else if (now >= 15 * INTERVAL) {
+                    laterDrops++;
+                }
+            }
+        }
+        assertTrue(firstDrops > 0, "Dropped at all");
+        assertTrue(laterDrops > firstDrops, "Later drops " + laterDrops + " over first drops " + firstDrops);
+    }
+
+    @Test
+    public void stopsDroppingOnceWaitsAreBackUnderTarget() {
+        final SojournShedder shedder = new SojournShedder(TARGET, INTERVAL);
+
+        shedder.shouldDrop(2 * TARGET, MILLIS, true);
+        assertTrue(shedder.shouldDrop(2 * TARGET, INTERVAL + MILLIS, true));
+        assertFalse(shedder.shouldDrop(TARGET - 1, INTERVAL + 2 * MILLIS, true));
+        // The backlog has to stand for a whole interval again.
+        assertFalse(shedder.shouldDrop(2 * TARGET, 3 * INTERVAL, true));
+        assertFalse(shedder.shouldDrop(2 * TARGET, 3 * INTERVAL + MILLIS, true));
+    }
+
+    @Test
+    public void emptyQueueResetsTheInterval() {
+        final SojournShedder shedder = new SojournShedder(TARGET, INTERVAL);
+
+        assertFalse(shedder.shouldDrop(2 * TARGET, MILLIS, true));
+        assertFalse(shedder.shouldDrop(2 * TARGET, INTERVAL / 2, false));
+        assertFalse(shedder.shouldDrop(2 * TARGET, INTERVAL + MILLIS, true));
+    }
+}
@@ -0,0 +1,66 @@
+package com.gabler.udpmanager.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link SourceTokenBuckets}.
+ *
+ * @author Andy Gabler
+ */
+public class SourceTokenBucketsTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void limitsEachSourceOnItsOwn() throws UnknownHostException {
+        final SourceTokenBuckets buckets = new SourceTokenBuckets(1000, 2, 64);
+        final InetAddress first = InetAddress.getByName("10.0.0.1");
+        final InetAddress second = InetAddress.getByName("10.0.0.2");
+        final long now = System.nanoTime();
+
+        assertTrue(buckets.tryAcquire(first, now));
+        assertTrue(buckets.tryAcquire(first, now));
+        assertFalse(buckets.tryAcquire(first, now));
+
+        assertTrue(buckets.tryAcquire(second, now));
+        assertTrue(buckets.tryAcquire(second, now));
+        assertFalse(buckets.tryAcquire(second, now));
+    }
+
+    @Test
+    public void refillsAtSustainedRate() throws UnknownHostException {
+        final SourceTokenBuckets buckets = new SourceTokenBuckets(1000, 1, 64);
+        final InetAddress source = InetAddress.getByName("10.0.0.1");
+        final long now = System.nanoTime();
+
+        assertTrue(buckets.tryAcquire(source, now));
+        assertFalse(buckets.tryAcquire(source, now));
+        assertTrue(buckets.tryAcquire(source, now + MILLIS));
+    }
+
+    @Test
+    public void sourcesBeyondCapacityStillGetTheirBurst() throws UnknownHostException {
+        // Eight slots for a thousand sources: every new source evicts another, which only forgets a paid off burst.
+        final SourceTokenBuckets buckets = new SourceTokenBuckets(1000, 1, 8);
+        final long now = System.nanoTime();
+
+        for (int index = 0; index < 1000; index++) {
+            final InetAddress source = InetAddress.getByAddress(new byte[] {10, 1, (byte) (index >> 8), (byte) index});
+            assertTrue(buckets.tryAcquire(source, now + index * MILLIS), "Source " + index);
+        }
+    }
+
+    @Test
+    public void rejectsBadSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new SourceTokenBuckets(0, 1, 8));
+        assertThrows(IllegalArgumentException.class, () -> new SourceTokenBuckets(10, 0, 8));
+        assertThrows(IllegalArgumentException.class, () -> new SourceTokenBuckets(10, 1, 0));
+    }
+}
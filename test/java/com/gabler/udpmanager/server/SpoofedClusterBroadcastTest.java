@@ -0,0 +1,151 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.PacketDropReason;
+import com.gabler.udpmanager.UdpRequestToBytesTransformer;
+import com.gabler.udpmanager.client.IUdpClientConfiguration;
+import com.gabler.udpmanager.client.UdpClient;
+import com.gabler.udpmanager.model.PacketHeader;
+import com.gabler.udpmanager.model.UdpRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests that cluster broadcasts from anyone but a cluster peer reach no one.
+ *
+ * @author Andy Gabler
+ */
+public class SpoofedClusterBroadcastTest {
+
+    private final BlockingQueue<String> serverReceived = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> clientReceived = new LinkedBlockingQueue<>();
+    private UdpServer server;
+    private UdpClient client;
+
+    @AfterEach
+    public void tearDown() {
+        if (client != null) {
+            client.terminate();
+        }
+        if (server != null) {
+            server.terminate();
+        }
+    }
+
+    @Test
+    public void clusterBroadcastFromClientReachesNoOne() throws Exception {
+        final int port = freePort();
+        startServer(port);
+        startClient(port);
+        client.sendMessageToServer("hello");
+        assertEquals("hello", serverReceived.poll(2, TimeUnit.SECONDS), "Client known to the server");
+
+        final UdpRequest request = new UdpRequest();
+        request.setPacketKind(PacketHeader.KIND_CLUSTER_BROADCAST);
+        request.setPayloadType(UdpRequest.PAYLOAD_TYPE_STRING);
+        request.setStringPayload("spoofed");
+        final byte[] datagram = new UdpRequestToBytesTransformer().apply(request);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.send(new DatagramPacket(datagram, datagram.length, InetAddress.getLoopbackAddress(), port));
+        }
+
+        assertNull(clientReceived.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(1, server.getMetrics().getDroppedPackets(PacketDropReason.NOT_A_CLUSTER_PEER));
+    }
+
+    /**
+     * Start a server without a cluster.
+     *
+     * @param port Port of the server
+     * @throws IOException If the server cannot be created
+     */
+    private void startServer(int port) throws IOException {
+        server = new UdpServer(port, 1);
+        server.setConfiguration(new IUdpServerConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void handleStringMessage(String message, ServerClientCallback callback) {
+                serverReceived.add(message);
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Start a client of the server.
+     *
+     * @param port Port of the server
+     * @throws IOException If the client cannot be created
+     */
+    private void startClient(int port) throws IOException {
+        client = new UdpClient("127.0.0.1", port);
+        client.setConfiguration(new IUdpClientConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message) {
+            }
+
+            @Override
+            public void handleStringMessage(String message) {
+                clientReceived.add(message);
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        client.start();
+    }
+
+    /**
+     * Find a port that is free right now.
+     *
+     * @return The port
+     * @throws IOException If no socket can be opened
+     */
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.DiagnosticCategory;
+import com.gabler.udpmanager.IDatagramTransport;
+import com.gabler.udpmanager.client.IUdpClientConfiguration;
+import com.gabler.udpmanager.client.UdpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a send failing at the end of a tick does not hold up the other sends of the tick.
+ *
+ * @author Andy Gabler
+ */
+public class TickSendFailureTest {
+
+    private final BlockingQueue<String> healthyReceived = new LinkedBlockingQueue<>();
+    private final Map<String, ServerClientCallback> clientsByName = new ConcurrentHashMap<>();
+    private UdpServer server;
+    private UdpClient failing;
+    private UdpClient healthy;
+
+    @AfterEach
+    public void tearDown() {
+        if (failing != null) {
+            failing.terminate();
+        }
+        if (healthy != null) {
+            healthy.terminate();
+        }
+        if (server != null) {
+            server.terminate();
+        }
+    }
+
+    @Test
+    public void failedSendIsReportedAndTheRestOfTheTickGoesOut() throws Exception {
+        final int port = freePort();
+        server = new UdpServer(port, 1);
+        server.setTickRate(5);
+        server.decorateTransport(FailingTransport::new);
+        server.setConfiguration(new IUdpServerConfiguration() {
+            @Override
+            public void onTick(List<InboundMessage> batch) {
+                for (InboundMessage message : batch) {
+                    clientsByName.put(message.getStringPayload(), message.getClient());
+                }
+                final ServerClientCallback toFail = clientsByName.get("failing");
+                final ServerClientCallback toReach = clientsByName.get("healthy");
+                if (!batch.isEmpty() && toFail != null && toReach != null) {
+                    // The failing send is queued first, so the healthy one is only sent if the flush goes on.
+                    FailingTransport.failingPort = toFail.getPortNumber();
+                    server.sendSequencedToClient(toFail, "reply");
+                    server.sendSequencedToClient(toReach, "reply");
+                }
+            }
+
+            @Override
+            public void handleBytesMessage(byte[] message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void handleStringMessage(String message, ServerClientCallback callback) {
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        server.start();
+
+        failing = startClient(port, new LinkedBlockingQueue<>());
+        healthy = startClient(port, healthyReceived);
+        failing.sendMessageToServer("failing");
+        healthy.sendMessageToServer("healthy");
+
+        assertEquals("reply", healthyReceived.poll(2, TimeUnit.SECONDS));
+        assertTrue(server.getDiagnostics().getCount(DiagnosticCategory.SEND_FAILED) > 0, "Failure reported");
+    }
+
+    /**
+     * Start a client of the server.
+     *
+     * @param port Port of the server
+     * @param received Queue to put the messages it receives on
+     * @return The client
+     * @throws IOException If the client cannot be created
+     */
+    private static UdpClient startClient(int port, BlockingQueue<String> received) throws IOException {
+        final UdpClient client = new UdpClient("127.0.0.1", port);
+        client.setConfiguration(new IUdpClientConfiguration() {
+            @Override
+            public void handleBytesMessage(byte[] message) {
+            }
+
+            @Override
+            public void handleStringMessage(String message) {
+                received.add(message);
+            }
+
+            @Override
+            public void startAction() {
+            }
+
+            @Override
+            public void terminationAction() {
+            }
+
+            @Override
+            public void pauseAction() {
+            }
+
+            @Override
+            public void resumeAction() {
+            }
+        });
+        client.start();
+        return client;
+    }
+
+    /**
+     * Find a port that is free right now.
+     *
+     * @return The port
+     * @throws IOException If no socket can be opened
+     */
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Transport that fails every send to one port.
+     */
+    private static class FailingTransport implements IDatagramTransport {
+
+        private static volatile int failingPort = -1;
+
+        private final IDatagramTransport delegate;
+
+        private FailingTransport(IDatagramTransport aDelegate) {
+            delegate = aDelegate;
+        }
+
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            if (packet.getPort() == failingPort) {
+                throw new IOException("Unreachable");
+            }
+            delegate.send(packet);
+        }
+
+        @Override
+        public void receive(DatagramPacket packet) throws IOException {
+            delegate.receive(packet);
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return delegate.getLocalAddress();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return delegate.getLocalPort();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
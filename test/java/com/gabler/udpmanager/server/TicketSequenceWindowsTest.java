@@ -0,0 +1,56 @@
+package com.gabler.udpmanager.server;
+
+import com.gabler.udpmanager.SequenceWindow;
+import com.gabler.udpmanager.security.SessionTicket;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link TicketSequenceWindows}.
+ *
+ * @author Andy Gabler
+ */
+public class TicketSequenceWindowsTest {
+
+    @Test
+    public void sameTicketSharesWindow() {
+        final TicketSequenceWindows windows = new TicketSequenceWindows();
+        final SessionTicket ticket = new SessionTicket(SessionTicket.PREFIX + "a", new byte[16], Long.MAX_VALUE);
+        // Opened again from a datagram off of another source port.
+        final SessionTicket reopened = new SessionTicket(SessionTicket.PREFIX + "a", new byte[16], Long.MAX_VALUE);
+
+        final SequenceWindow window = windows.windowFor(ticket);
+        assertTrue(window.accept(7));
+        assertSame(window, windows.windowFor(reopened));
+        assertFalse(windows.windowFor(reopened).accept(7));
+    }
+
+    @Test
+    public void ticketsHaveSeparateWindows() {
+        final TicketSequenceWindows windows = new TicketSequenceWindows();
+
+        assertNotSame(
+            windows.windowFor(new SessionTicket(SessionTicket.PREFIX + "a", new byte[16], Long.MAX_VALUE)),
+            windows.windowFor(new SessionTicket(SessionTicket.PREFIX + "b", new byte[16], Long.MAX_VALUE))
+        );
+    }
+
+    @Test
+    public void evictsExpiredTickets() {
+        final TicketSequenceWindows windows = new TicketSequenceWindows();
+        windows.windowFor(new SessionTicket(SessionTicket.PREFIX + "a", new byte[16], 1000));
+        windows.windowFor(new SessionTicket(SessionTicket.PREFIX + "b", new byte[16], 2000));
+
+        windows.evictExpired(999);
+        assertEquals(2, windows.size());
+        windows.evictExpired(1000);
+        assertEquals(1, windows.size());
+        windows.evictExpired(5000);
+        assertEquals(0, windows.size());
+    }
+}